@@ -0,0 +1,271 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Compares the three ways the scanner has read bytes for hashing, one file after another on a
+ * single thread: memory-mapped windows and a reused direct buffer, as ChannelHasher does now,
+ * and a BufferedInputStream into a heap array, as the byte hash did before. Each run reports
+ * MB/s, the peak heap used and the peak direct and mapped buffer memory. Mapped memory is address
+ * space backed by the page cache, released when the windows are collected, not heap.
+ *
+ * The digest defaults to CRC-32, which runs well above disk speed, so the figures show whether a
+ * read path keeps up with the device; "sha256" shows the CPU-bound case and "none" only touches
+ * the bytes. Runs without a build:
+ *
+ *   java bench/ReadPathBenchmark.java /tmp/bench-large --generate 4 --size-mb 2048
+ *   sudo java -Xmx128m bench/ReadPathBenchmark.java /tmp/bench-large --drop-caches --rounds 3
+ *
+ * Only a cold run measures the disk. --drop-caches syncs and writes 3 to
+ * /proc/sys/vm/drop_caches before every run, which needs root; without it every round after the
+ * first reads from the page cache. Compare against the device's sequential speed, e.g.
+ * dd if=FILE of=/dev/null bs=1M iflag=direct.
+ */
+public class ReadPathBenchmark {
+
+    private static final int MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: ReadPathBenchmark <dir> [--generate N] [--size-mb N] [--rounds N] [--drop-caches]"
+                    + " [--digest crc32|sha256|none] [--window-mb N] [--buffer-kb N] [--paths mmap,direct,stream]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]);
+        int generate = intOption(args, "--generate", 0);
+        int sizeMb = intOption(args, "--size-mb", 1024);
+        int rounds = intOption(args, "--rounds", 3);
+        boolean dropCaches = Arrays.asList(args).contains("--drop-caches");
+        String digest = option(args, "--digest", "crc32");
+        // Defaults match scan.hashing.mmap-window-bytes and scan.hashing.buffer-bytes
+        long windowBytes = (long) intOption(args, "--window-mb", 256) * MB;
+        int bufferBytes = intOption(args, "--buffer-kb", 1024) * 1024;
+        List<String> paths = Arrays.asList(option(args, "--paths", "mmap,direct,stream").split(","));
+
+        if (generate > 0) {
+            generate(root, generate, sizeMb);
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        long totalBytes = 0;
+        for (Path file : files) {
+            totalBytes += Files.size(file);
+        }
+        System.out.printf("%d files, %.0f MB, digest %s, window %d MB, buffer %d KB, max heap %d MB, Java %s%n",
+                files.size(), totalBytes / (double) MB, digest, windowBytes / MB, bufferBytes / 1024,
+                Runtime.getRuntime().maxMemory() / MB, System.getProperty("java.version"));
+        if (!dropCaches) {
+            System.out.println("Page cache not dropped: rounds after the first measure memory, not the disk");
+        }
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bufferBytes);
+        for (int round = 1; round <= rounds; round++) {
+            // Rotate the order so no path always runs right after another warmed the cache
+            for (int i = 0; i < paths.size(); i++) {
+                String path = paths.get((i + round - 1) % paths.size()).trim();
+                if (dropCaches) {
+                    dropCaches();
+                }
+                Sampler sampler = new Sampler();
+                long start = System.nanoTime();
+                for (Path file : files) {
+                    read(path, file, newDigest(digest), windowBytes, direct);
+                }
+                long nanos = System.nanoTime() - start;
+                sampler.stop();
+                System.out.printf("%-6s round %d: %7.2f s %9.1f MB/s  peak heap %6.1f MB  peak direct %6.1f MB"
+                                + "  peak mapped %7.1f MB%n", path, round, nanos / 1e9, totalBytes / (double) MB / (nanos / 1e9),
+                        sampler.peakHeap() / (double) MB, sampler.peakDirect.get() / (double) MB,
+                        sampler.peakMapped.get() / (double) MB);
+            }
+        }
+    }
+
+    private static void read(String path, Path file, Digest digest, long windowBytes, ByteBuffer direct)
+            throws IOException {
+        switch (path) {
+            case "mmap":
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    for (long position = 0; position < size; position += windowBytes) {
+                        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                Math.min(windowBytes, size - position));
+                        digest.update(window);
+                    }
+                }
+                break;
+            case "direct":
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    for (long position = 0; position < size; ) {
+                        direct.clear();
+                        int read = channel.read(direct, position);
+                        if (read < 0) {
+                            break;
+                        }
+                        position += read;
+                        direct.flip();
+                        digest.update(direct);
+                    }
+                }
+                break;
+            case "stream":
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    byte[] buffer = new byte[8192];
+                    for (int read; (read = in.read(buffer)) > 0; ) {
+                        digest.update(ByteBuffer.wrap(buffer, 0, read));
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown read path: " + path);
+        }
+        digest.finish();
+    }
+
+    private interface Digest {
+        void update(ByteBuffer buffer);
+
+        void finish();
+    }
+
+    private static Digest newDigest(String name) throws NoSuchAlgorithmException {
+        switch (name) {
+            case "crc32": {
+                CRC32 crc = new CRC32();
+                return new Digest() {
+                    public void update(ByteBuffer buffer) { crc.update(buffer); }
+                    public void finish() { crc.getValue(); }
+                };
+            }
+            case "sha256": {
+                MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+                return new Digest() {
+                    public void update(ByteBuffer buffer) { sha256.update(buffer); }
+                    public void finish() { sha256.digest(); }
+                };
+            }
+            case "none":
+                // One byte per page, so mapped pages still fault in
+                return new Digest() {
+                    public void update(ByteBuffer buffer) {
+                        for (int i = buffer.position(); i < buffer.limit(); i += 4096) {
+                            buffer.get(i);
+                        }
+                        buffer.position(buffer.limit());
+                    }
+                    public void finish() { }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown digest: " + name);
+        }
+    }
+
+    /**
+     * Tracks peak heap through the pools' own peaks and peak buffer memory by sampling
+     */
+    private static class Sampler {
+        private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+        private final AtomicLong peakDirect = new AtomicLong();
+        private final AtomicLong peakMapped = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Sampler() {
+            System.gc();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+            thread = new Thread(() -> {
+                while (running) {
+                    for (BufferPoolMXBean pool : bufferPools) {
+                        AtomicLong peak = "direct".equals(pool.getName()) ? peakDirect
+                                : "mapped".equals(pool.getName()) ? peakMapped : null;
+                        if (peak != null) {
+                            peak.accumulateAndGet(pool.getMemoryUsed(), Math::max);
+                        }
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+        }
+
+        /**
+         * Sum of the heap pools' peaks; the pools peak at different moments, so this is an upper bound
+         */
+        private long peakHeap() {
+            return heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        }
+    }
+
+    private static void dropCaches() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("sh", "-c", "sync && echo 3 > /proc/sys/vm/drop_caches")
+                .redirectErrorStream(true).start();
+        if (process.waitFor() != 0) {
+            throw new IOException("Could not drop the page cache (needs root): "
+                    + new String(process.getInputStream().readAllBytes()).trim());
+        }
+    }
+
+    /**
+     * Random files of sizeMb each, written in 1 MB blocks
+     */
+    private static void generate(Path root, int count, int sizeMb) throws IOException {
+        Files.createDirectories(root);
+        Random random = new Random(42);
+        byte[] block = new byte[MB];
+        for (int i = 0; i < count; i++) {
+            try (OutputStream out = Files.newOutputStream(root.resolve("large-" + i + ".bin"))) {
+                for (int written = 0; written < sizeMb; written++) {
+                    random.nextBytes(block);
+                    out.write(block);
+                }
+            }
+        }
+        System.out.printf("Generated %d files of %d MB under %s%n", count, sizeMb, root);
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        int index = Arrays.asList(args).indexOf(name);
+        return index >= 0 && index + 1 < args.length ? args[index + 1] : defaultValue;
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) {
+        int index = Arrays.asList(args).indexOf(name);
+        return index >= 0 && index + 1 < args.length ? Integer.parseInt(args[index + 1]) : defaultValue;
+    }
+}
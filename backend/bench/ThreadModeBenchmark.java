@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the scanner's two execution modes on a directory of many small files: a fixed pool of
+ * platform threads against one virtual thread per file behind a semaphore. Each task does what
+ * the hash stage does for a small file: open, read it fully and digest it.
+ *
+ * Runs without a build, on Java 21 or newer for the virtual mode:
+ *
+ *   java bench/ThreadModeBenchmark.java /tmp/bench-files --generate 1000000
+ *   java bench/ThreadModeBenchmark.java /tmp/bench-files --threads 16 --permits 256 --rounds 3
+ *
+ * Drop the page cache between rounds (echo 3 > /proc/sys/vm/drop_caches) to measure cold reads.
+ */
+public class ThreadModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: ThreadModeBenchmark <dir> [--generate N] [--threads N] [--permits N] [--rounds N]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]);
+        int generate = intOption(args, "--generate", 0);
+        int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+        int permits = intOption(args, "--permits", 256);
+        int rounds = intOption(args, "--rounds", 3);
+
+        if (generate > 0) {
+            generate(root, generate);
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        System.out.printf("%d files, %d platform threads, %d virtual permits, Java %s%n",
+                files.size(), threads, permits, System.getProperty("java.version"));
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        for (int round = 1; round <= rounds; round++) {
+            ExecutorService platform = Executors.newFixedThreadPool(threads);
+            report("platform", round, files.size(), run(files, platform, null));
+            platform.shutdown();
+            if (virtual != null) {
+                report("virtual", round, files.size(), run(files, virtual, new Semaphore(permits)));
+            } else if (round == 1) {
+                System.out.println("virtual   skipped: needs Java 21 or newer");
+            }
+        }
+        if (virtual != null) {
+            virtual.shutdown();
+        }
+    }
+
+    private static long run(List<Path> files, ExecutorService executor, Semaphore permits) throws Exception {
+        AtomicLong done = new AtomicLong();
+        long start = System.nanoTime();
+        for (Path file : files) {
+            if (permits != null) {
+                permits.acquire();
+            }
+            executor.execute(() -> {
+                try {
+                    digest(file);
+                } catch (IOException e) {
+                    System.err.println("Failed to read " + file + ": " + e.getMessage());
+                } finally {
+                    done.incrementAndGet();
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            });
+        }
+        // Wait for the stragglers without shutting a shared executor down
+        while (done.get() < files.size()) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void digest(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                sha256.update(buffer, 0, read);
+            }
+            sha256.digest();
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void report(String mode, int round, int files, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-9s round %d: %8.2f s  %10.0f files/s%n", mode, round, seconds, files / seconds);
+    }
+
+    /**
+     * Files of 512 bytes to 4 KiB, 1000 per directory, a quarter of them duplicates
+     */
+    private static void generate(Path root, int count) throws IOException {
+        Random random = new Random(42);
+        byte[] previous = null;
+        for (int i = 0; i < count; i++) {
+            Path directory = root.resolve(String.format("d%04d", i / 1000));
+            if (i % 1000 == 0) {
+                Files.createDirectories(directory);
+            }
+            byte[] content;
+            if (previous != null && random.nextInt(4) == 0) {
+                content = previous;
+            } else {
+                content = new byte[512 + random.nextInt(3585)];
+                random.nextBytes(content);
+            }
+            Files.write(directory.resolve("f" + i + ".bin"), content);
+            previous = content;
+        }
+        System.out.printf("Generated %d files under %s%n", count, root);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static int intOption(String[] args, String name, int defaultValue) {
+        int index = Arrays.asList(args).indexOf(name);
+        return index >= 0 && index + 1 < args.length ? Integer.parseInt(args[index + 1]) : defaultValue;
+    }
+}
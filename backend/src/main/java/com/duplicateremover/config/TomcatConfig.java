@@ -0,0 +1,26 @@
+package com.duplicateremover.config;
+
+import com.duplicateremover.service.ScanExecutors;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Hands Tomcat request handling to virtual threads when scan.threads.mode=virtual is active
+ */
+@Configuration
+public class TomcatConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests(ScanExecutors scanExecutors) {
+        return protocolHandler -> {
+            ExecutorService executor = scanExecutors.newVirtualThreadPerTaskExecutor("http");
+            if (executor != null) {
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+}
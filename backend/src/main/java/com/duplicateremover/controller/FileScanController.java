@@ -1,12 +1,15 @@
 package com.duplicateremover.controller;
 
 import java.io.File;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -15,11 +18,26 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.duplicateremover.model.AppendOnlyLog;
+import com.duplicateremover.model.DeletionJob;
 import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.ResultPage;
 import com.duplicateremover.model.ScanResult;
+import com.duplicateremover.model.ScanStatus;
+import com.duplicateremover.model.ScanSummary;
+import com.duplicateremover.service.DeletionService;
+import com.duplicateremover.service.ExtractionGuard;
 import com.duplicateremover.service.FileScanService;
+import com.duplicateremover.service.HashCacheService;
+import com.duplicateremover.service.ScanEventService;
+import com.duplicateremover.service.ScanResultExporter;
+import com.duplicateremover.service.ScanResultQuery;
+import com.duplicateremover.service.ScanResultStore;
 
 @RestController
 @RequestMapping("/api")
@@ -31,6 +49,21 @@ public class FileScanController {
     @Autowired
     private FileScanService fileScanService;
 
+    @Autowired
+    private HashCacheService hashCacheService;
+
+    @Autowired
+    private ScanEventService scanEventService;
+
+    @Autowired
+    private ScanResultExporter scanResultExporter;
+
+    @Autowired
+    private DeletionService deletionService;
+
+    @Autowired
+    private ExtractionGuard extractionGuard;
+
     @PostMapping("/scan")
     public ResponseEntity<?> startScan(@RequestBody Map<String, String> request) {
         try {
@@ -39,13 +72,67 @@ public class FileScanController {
                 return ResponseEntity.badRequest().body("Directory path is required");
             }
 
-            String scanId = fileScanService.startScan(directory);
-            return ResponseEntity.ok(Map.of("scanId", scanId, "status", "STARTED"));
+            // Optional: "hashAlgorithm" (sha256, xxh3-128; above 1 MB an XXH3 of 1 MB chunk hashes,
+            // not the file's canonical XXH3-128), "confirmation" (none, sha256, bytes),
+            // "imageDistance" (0-12 to group similar images, negative for none) and "priority"
+            String scanId = fileScanService.startScan(directory, request.get("hashAlgorithm"),
+                    request.get("confirmation"), imageDistance(request), priority(request));
+            return ResponseEntity.ok(Map.of("scanId", scanId, "status", ScanStatus.QUEUED.name()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/scan/{scanId}/rescan")
+    public ResponseEntity<?> rescan(@PathVariable String scanId,
+                                    @RequestParam(defaultValue = "0") int priority) {
+        try {
+            String rescanId = fileScanService.startRescan(scanId, priority);
+            if (rescanId == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(Map.of("scanId", rescanId, "status", ScanStatus.QUEUED.name()));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
 
+    /**
+     * Cancels a queued scan right away or asks a running one to stop at its next check
+     */
+    @DeleteMapping("/scan/{scanId}")
+    public ResponseEntity<?> cancelScan(@PathVariable String scanId) {
+        ScanStatus status = fileScanService.cancelScan(scanId);
+        if (status == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("scanId", scanId, "status", status.name()));
+    }
+
+    private static Integer imageDistance(Map<String, String> request) {
+        String distance = request.get("imageDistance");
+        if (distance == null || distance.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(distance.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Image distance must be an integer: " + distance);
+        }
+    }
+
+    private static int priority(Map<String, String> request) {
+        String priority = request.get("priority");
+        if (priority == null || priority.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(priority.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Priority must be an integer: " + priority);
+        }
+    }
+
     @GetMapping("/scan/{scanId}")
     public ResponseEntity<?> getScanResult(@PathVariable String scanId) {
         ScanResult result = fileScanService.getScanResult(scanId);
@@ -55,6 +142,108 @@ public class FileScanController {
         return ResponseEntity.ok(result);
     }
 
+    @GetMapping("/scan/{scanId}/summary")
+    public ResponseEntity<?> getScanSummary(@PathVariable String scanId) {
+        ScanSummary summary = fileScanService.getScanSummary(scanId);
+        if (summary == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(summary);
+    }
+
+    /**
+     * A page of the scan's files. Pass the returned nextCursor as cursor for the next page;
+     * fields is a comma-separated projection such as "filePath,size".
+     */
+    @GetMapping("/scan/{scanId}/files")
+    public ResponseEntity<?> getFilePage(@PathVariable String scanId,
+                                         @RequestParam(required = false) String cursor,
+                                         @RequestParam(required = false) Integer limit,
+                                         @RequestParam(required = false) String sort,
+                                         @RequestParam(required = false) String fields,
+                                         @RequestParam(required = false) String category,
+                                         @RequestParam(required = false) Long minSize,
+                                         @RequestParam(required = false) String extension,
+                                         @RequestParam(required = false) String pathPrefix) {
+        try {
+            ResultPage<Object> page = fileScanService.getFilePage(scanId,
+                    new ScanResultQuery.Filter(category, minSize, extension, pathPrefix),
+                    sort, cursor, ScanResultQuery.clampLimit(limit), fieldSet(fields));
+            if (page == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * A page of duplicate groups (type content or directory), by default the most wasteful first
+     */
+    @GetMapping("/scan/{scanId}/groups")
+    public ResponseEntity<?> getGroupPage(@PathVariable String scanId,
+                                          @RequestParam(defaultValue = "content") String type,
+                                          @RequestParam(required = false) String cursor,
+                                          @RequestParam(required = false) Integer limit,
+                                          @RequestParam(required = false) String sort,
+                                          @RequestParam(required = false) String fields,
+                                          @RequestParam(required = false) String category,
+                                          @RequestParam(required = false) Long minSize,
+                                          @RequestParam(required = false) String extension,
+                                          @RequestParam(required = false) String pathPrefix) {
+        try {
+            ResultPage<Object> page = fileScanService.getGroupPage(scanId, type,
+                    new ScanResultQuery.Filter(category, minSize, extension, pathPrefix),
+                    sort, cursor, ScanResultQuery.clampLimit(limit), fieldSet(fields));
+            if (page == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Every file of the scan as NDJSON or CSV, streamed with constant memory; gzip=true sends a
+     * compressed download
+     */
+    @GetMapping("/scan/{scanId}/export")
+    public ResponseEntity<?> exportScan(@PathVariable String scanId,
+                                        @RequestParam(defaultValue = "ndjson") String format,
+                                        @RequestParam(defaultValue = "false") boolean gzip) {
+        ScanResultExporter.Format exportFormat;
+        try {
+            exportFormat = ScanResultExporter.Format.fromName(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        ScanResultStore.FileSource files = fileScanService.getResultFiles(scanId);
+        if (files == null) {
+            return ResponseEntity.notFound().build();
+        }
+        String fileName = "scan-" + scanId + "." + exportFormat.getExtension() + (gzip ? ".gz" : "");
+        StreamingResponseBody body = out -> scanResultExporter.export(files, exportFormat, gzip, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : exportFormat.getContentType()))
+                .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"")
+                .body(body);
+    }
+
+    private static Set<String> fieldSet(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> set = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            if (!field.trim().isEmpty()) {
+                set.add(field.trim());
+            }
+        }
+        return set;
+    }
+
     @GetMapping("/scan/{scanId}/progress")
     public ResponseEntity<?> getScanProgress(@PathVariable String scanId) {
         Map<String, Object> progress = fileScanService.getScanProgress(scanId);
@@ -64,23 +253,46 @@ public class FileScanController {
         return ResponseEntity.ok(progress);
     }
 
+    /**
+     * Server-Sent Events for a running scan: "stage", "progress", "duplicates" deltas and a final
+     * "complete". since skips duplicates the client already has, e.g. after reconnecting.
+     */
+    @GetMapping(value = "/scan/{scanId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamScanEvents(@PathVariable String scanId,
+                                                       @RequestParam(defaultValue = "0") int since) {
+        SseEmitter emitter = scanEventService.subscribe(scanId, since);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Duplicates found so far, starting at sequence number since; pass the returned next as since
+     * on the following call to receive only new entries.
+     */
     @GetMapping("/scan/{scanId}/duplicates/stream")
-    public ResponseEntity<?> getDuplicateStream(@PathVariable String scanId) {
-        List<FileInfo> duplicates = fileScanService.getCurrentDuplicates(scanId);
-        if (duplicates == null) {
+    public ResponseEntity<?> getDuplicateStream(@PathVariable String scanId,
+                                                @RequestParam(defaultValue = "0") int since) {
+        AppendOnlyLog<FileInfo> log = fileScanService.getCurrentDuplicates(scanId);
+        if (log == null) {
             return ResponseEntity.notFound().build();
         }
+        int next = log.size();
+        List<FileInfo> duplicates = log.read(since, next);
         return ResponseEntity.ok(Map.of(
             "scanId", scanId,
             "duplicates", duplicates,
             "count", duplicates.size(),
+            "since", since,
+            "next", next,
             "timestamp", System.currentTimeMillis()
         ));
     }
 
     @GetMapping("/scans")
-    public ResponseEntity<List<ScanResult>> getAllScans() {
-        List<ScanResult> results = fileScanService.getAllScanResults();
+    public ResponseEntity<List<ScanSummary>> getAllScans() {
+        List<ScanSummary> results = fileScanService.getAllScanResults();
         return ResponseEntity.ok(results);
     }
 
@@ -96,23 +308,7 @@ public class FileScanController {
                 "success", false
             ));
         }
-
-        try {
-            boolean success = fileScanService.deleteDuplicateFiles(scanId, filePaths);
-            return ResponseEntity.ok(Map.of(
-                "success", success,
-                "deletedCount", filePaths.size(),
-                "scanId", scanId,
-                "message", "Files permanently deleted",
-                "warning", "This action cannot be undone"
-            ));
-        } catch (Exception e) {
-            logger.error("Error permanently deleting files for scanId: {}", scanId, e);
-            return ResponseEntity.status(500).body(Map.of(
-                "error", "Failed to permanently delete files: " + e.getMessage(),
-                "success", false
-            ));
-        }
+        return submitDeletion(scanId, filePaths, false);
     }
 
     @DeleteMapping("/directories/{scanId}")
@@ -127,25 +323,76 @@ public class FileScanController {
                 "success", false
             ));
         }
+        return submitDeletion(scanId, directoryPaths, true);
+    }
 
+    /**
+     * Deletion runs as a background job; the response only carries its ID for polling
+     */
+    private ResponseEntity<?> submitDeletion(String scanId, List<String> paths, boolean directories) {
         try {
-            boolean success = fileScanService.deleteDirectories(scanId, directoryPaths);
-            return ResponseEntity.ok(Map.of(
-                "success", success,
-                "deletedCount", directoryPaths.size(),
+            DeletionJob job = deletionService.submit(scanId, paths, directories);
+            if (job == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.accepted().body(Map.of(
+                "success", true,
+                "jobId", job.getJobId(),
                 "scanId", scanId,
-                "message", "Directories permanently deleted",
+                "status", job.getStatus(),
+                "total", job.getTotal(),
                 "warning", "This action cannot be undone"
             ));
         } catch (Exception e) {
-            logger.error("Error permanently deleting directories for scanId: {}", scanId, e);
+            logger.error("Error starting deletion for scanId: {}", scanId, e);
             return ResponseEntity.status(500).body(Map.of(
-                "error", "Failed to permanently delete directories: " + e.getMessage(),
+                "error", "Failed to start deletion: " + e.getMessage(),
                 "success", false
             ));
         }
     }
 
+    @GetMapping("/deletions/{jobId}")
+    public ResponseEntity<?> getDeletionJob(@PathVariable String jobId) {
+        DeletionJob job = deletionService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping("/deletions/{jobId}/report")
+    public ResponseEntity<?> getDeletionReport(@PathVariable String jobId,
+                                               @RequestParam(defaultValue = "false") boolean failuresOnly) {
+        DeletionJob job = deletionService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of(
+            "job", job,
+            "results", job.getResults(failuresOnly)
+        ));
+    }
+
+    @DeleteMapping("/deletions/{jobId}")
+    public ResponseEntity<?> cancelDeletion(@PathVariable String jobId) {
+        DeletionJob job = deletionService.cancel(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping("/hash-cache")
+    public ResponseEntity<Map<String, Object>> getHashCacheStats() {
+        return ResponseEntity.ok(hashCacheService.getStats());
+    }
+
+    @GetMapping("/extraction")
+    public ResponseEntity<Map<String, Object>> getExtractionStats() {
+        return ResponseEntity.ok(extractionGuard.getStats());
+    }
+
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("OK");
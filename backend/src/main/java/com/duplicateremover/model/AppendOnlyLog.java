@@ -0,0 +1,77 @@
+package com.duplicateremover.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only list stored in fixed-size chunks, so appending never copies existing entries.
+ * Every entry gets a sequence number (its index) and readers page through by sequence without
+ * locking: an entry is written before the size that covers it is published, so anything below
+ * {@link #size()} is safe to read. Appends are serialized among writers.
+ */
+public class AppendOnlyLog<T> {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Only chunk references are copied when the directory grows, one per CHUNK_SIZE entries
+    private volatile Object[][] chunks = new Object[4][];
+    private volatile int size;
+
+    /**
+     * Appends an entry and returns its sequence number
+     */
+    public synchronized int append(T entry) {
+        int seq = size;
+        int chunk = seq >>> CHUNK_BITS;
+        Object[][] current = chunks;
+        if (chunk == current.length) {
+            Object[][] grown = new Object[current.length * 2][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+            chunks = grown;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][seq & CHUNK_MASK] = entry;
+        // Publishes the entry (and any new chunk) to readers
+        size = seq + 1;
+        return seq;
+    }
+
+    /**
+     * Number of entries, which is also the sequence number of the next append
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Entries with sequence numbers from (inclusive) to to (exclusive), clamped to the current size
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> read(int from, int to) {
+        int end = Math.min(to, size);
+        int start = Math.max(0, from);
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        // Read after size: the directory seen here covers every published entry
+        Object[][] current = chunks;
+        List<T> entries = new ArrayList<>(end - start);
+        for (int seq = start; seq < end; seq++) {
+            entries.add((T) current[seq >>> CHUNK_BITS][seq & CHUNK_MASK]);
+        }
+        return entries;
+    }
+
+    /**
+     * Entries from sequence number since onwards
+     */
+    public List<T> since(int since) {
+        return read(since, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,37 @@
+package com.duplicateremover.model;
+
+/**
+ * What a ZIP-based file actually is, told apart by the entries of its central directory. Only
+ * word-processing documents have their text extracted; every other container is hashed by its
+ * bytes.
+ */
+public enum ContainerType {
+    DOCX("Documents", true),
+    XLSX("Documents", false),
+    PPTX("Documents", false),
+    ODT("Documents", true),
+    ODS("Documents", false),
+    ODP("Documents", false),
+    JAR("Applications", false),
+    APK("Applications", false),
+    ZIP("Archives", false);
+
+    private final String category;
+    private final boolean textExtracted;
+
+    ContainerType(String category, boolean textExtracted) {
+        this.category = category;
+        this.textExtracted = textExtracted;
+    }
+
+    /**
+     * The file type reported for this container, as for any other detected file
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    public boolean isTextExtracted() {
+        return textExtracted;
+    }
+}
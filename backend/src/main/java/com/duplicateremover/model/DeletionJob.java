@@ -0,0 +1,127 @@
+package com.duplicateremover.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A background deletion of files or directories with its progress and per-path report.
+ *
+ * Serialized as the progress snapshot; the per-path results are only returned by
+ * {@link #getResults(boolean)} so that polling stays cheap for large jobs.
+ */
+public class DeletionJob {
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, CANCELLED;
+
+        public boolean isTerminal() {
+            return this == COMPLETED || this == CANCELLED;
+        }
+    }
+
+    /**
+     * What happened to one path
+     */
+    public enum Outcome {
+        DELETED, NOT_FOUND, WRONG_TYPE, ACCESS_DENIED, FAILED, SKIPPED
+    }
+
+    public static class PathResult {
+        private final String path;
+        private final Outcome outcome;
+        private final String error;
+
+        public PathResult(String path, Outcome outcome, String error) {
+            this.path = path;
+            this.outcome = outcome;
+            this.error = error;
+        }
+
+        public String getPath() { return path; }
+        public Outcome getOutcome() { return outcome; }
+        public String getError() { return error; }
+    }
+
+    private final String jobId;
+    private final String scanId;
+    private final boolean directories;
+    private final int total;
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.QUEUED);
+    private volatile boolean cancelRequested;
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final LocalDateTime submitTime = LocalDateTime.now();
+    private volatile LocalDateTime endTime;
+    private final ConcurrentLinkedQueue<PathResult> results = new ConcurrentLinkedQueue<>();
+
+    public DeletionJob(String jobId, String scanId, boolean directories, int total) {
+        this.jobId = jobId;
+        this.scanId = scanId;
+        this.directories = directories;
+        this.total = total;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getScanId() { return scanId; }
+    public String getType() { return directories ? "directories" : "files"; }
+
+    @JsonIgnore
+    public boolean isDirectories() { return directories; }
+
+    public int getTotal() { return total; }
+    public Status getStatus() { return status.get(); }
+    public boolean isCancelRequested() { return cancelRequested; }
+    public int getDeleted() { return deleted.get(); }
+    public int getFailed() { return failed.get(); }
+    public int getSkipped() { return skipped.get(); }
+    public int getProcessed() { return deleted.get() + failed.get() + skipped.get(); }
+    public LocalDateTime getSubmitTime() { return submitTime; }
+    public LocalDateTime getEndTime() { return endTime; }
+
+    public double getProgressPercentage() {
+        return total == 0 ? 100.0 : (double) getProcessed() / total * 100.0;
+    }
+
+    public boolean start() {
+        return status.compareAndSet(Status.QUEUED, Status.RUNNING);
+    }
+
+    public void finish() {
+        status.set(cancelRequested ? Status.CANCELLED : Status.COMPLETED);
+        endTime = LocalDateTime.now();
+    }
+
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public void record(String path, Outcome outcome, String error) {
+        results.add(new PathResult(path, outcome, error));
+        switch (outcome) {
+            case DELETED: deleted.incrementAndGet(); break;
+            case SKIPPED: skipped.incrementAndGet(); break;
+            default: failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * The outcome of every processed path so far, in completion order; failuresOnly leaves out
+     * the deleted ones
+     */
+    public List<PathResult> getResults(boolean failuresOnly) {
+        List<PathResult> list = new ArrayList<>();
+        for (PathResult result : results) {
+            if (!failuresOnly || result.getOutcome() != Outcome.DELETED) {
+                list.add(result);
+            }
+        }
+        return list;
+    }
+}
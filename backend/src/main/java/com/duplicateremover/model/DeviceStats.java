@@ -0,0 +1,59 @@
+package com.duplicateremover.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read counters for one storage device during a scan, reported in the progress payload.
+ * Throughput covers the time since the scan first read from the device.
+ */
+public class DeviceStats {
+    private final String device;
+    private final String storageType;
+    private final int workers;
+    private final long maxBytesPerSecond;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong throttledMillis = new AtomicLong();
+    private volatile long firstReadNanos;
+
+    public DeviceStats(String device, String storageType, int workers, long maxBytesPerSecond) {
+        this.device = device;
+        this.storageType = storageType;
+        this.workers = workers;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public String getDevice() { return device; }
+
+    // hdd, ssd, nvme, network or unknown
+    public String getStorageType() { return storageType; }
+
+    public int getWorkers() { return workers; }
+
+    // 0 means no cap
+    public long getMaxBytesPerSecond() { return maxBytesPerSecond; }
+
+    public long getFiles() { return files.get(); }
+    public void recordFile() { files.incrementAndGet(); }
+
+    public long getBytesRead() { return bytesRead.get(); }
+    public void addBytesRead(long bytes) {
+        if (firstReadNanos == 0) {
+            firstReadNanos = System.nanoTime();
+        }
+        bytesRead.addAndGet(bytes);
+    }
+
+    // Time readers spent waiting for the bytes-per-second cap
+    public long getThrottledMillis() { return throttledMillis.get(); }
+    public void addThrottledMillis(long millis) { throttledMillis.addAndGet(millis); }
+
+    public double getBytesPerSecond() {
+        long start = firstReadNanos;
+        if (start == 0) {
+            return 0.0;
+        }
+        long elapsed = System.nanoTime() - start;
+        return elapsed <= 0 ? 0.0 : bytesRead.get() * 1_000_000_000.0 / elapsed;
+    }
+}
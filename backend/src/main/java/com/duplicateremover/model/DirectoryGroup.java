@@ -0,0 +1,35 @@
+package com.duplicateremover.model;
+
+import java.util.List;
+
+/**
+ * Directories whose whole subtrees are identical: the same names, the same file contents and the
+ * same nested directories. fileCount and bytes describe one copy; key is the subtree digest.
+ */
+public class DirectoryGroup {
+    private final String key;
+    private final List<String> directories;
+    private final int fileCount;
+    private final long bytes;
+
+    public DirectoryGroup(String key, List<String> directories, int fileCount, long bytes) {
+        this.key = key;
+        this.directories = directories;
+        this.fileCount = fileCount;
+        this.bytes = bytes;
+    }
+
+    public String getKey() { return key; }
+    public List<String> getDirectories() { return directories; }
+    public int getFileCount() { return fileCount; }
+    public long getBytes() { return bytes; }
+
+    public long getTotalBytes() {
+        return bytes * directories.size();
+    }
+
+    // Every copy but one
+    public long getWastedBytes() {
+        return bytes * (directories.size() - 1);
+    }
+}
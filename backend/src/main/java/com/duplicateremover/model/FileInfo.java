@@ -1,49 +1,123 @@
 package com.duplicateremover.model;
 
-import java.time.LocalDateTime;
-import java.util.Objects;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.apache.commons.codec.binary.Hex;
 
+import java.io.File;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * One scanned file, stored compactly because a large scan keeps millions of them on the heap.
+ *
+ * The directory is an interned {@link PathTrie.Node}, the hash is the raw digest and the time is
+ * epoch millis; the path, hex hash and LocalDateTime getters build their values on demand for
+ * the JSON responses. Approximate heap per file on a 64-bit JVM with compressed oops:
+ * <pre>
+ *   FileInfo object                        56 bytes
+ *   digest byte[] (SHA-256 / XXH3-128)     48 / 32 bytes (only for hashed files)
+ *   fileName String                        ~40 bytes + name length
+ *   directory, category                    shared across files
+ *   total                                  ~144 bytes + name length
+ * </pre>
+ * against roughly 300 bytes plus the full path length with a path string, hex hash and
+ * LocalDateTime per file.
+ */
 public class FileInfo {
-    private String filePath;
+
+    /**
+     * Joins an archive's path and a member's name into the member's path
+     */
+    public static final String ARCHIVE_SEPARATOR = "!" + File.separator;
+
+    /**
+     * Deterministic path order that compares directory nodes instead of building path strings
+     */
+    public static final Comparator<FileInfo> PATH_ORDER = (a, b) -> {
+        if (a.directory != null && b.directory != null) {
+            int byDirectory = a.directory.compareTo(b.directory);
+            return byDirectory != 0 ? byDirectory : a.fileName.compareTo(b.fileName);
+        }
+        return Comparator.<String>nullsFirst(Comparator.naturalOrder()).compare(a.getFilePath(), b.getFilePath());
+    };
+
+    private PathTrie.Node directory;
     private String fileName;
-    private String hash;
+    private byte[] digest;
     private long size;
     private String category;
-    private LocalDateTime createdTime; // Keep creation time for sorting/display purposes
+    private long createdTimeMillis; // Keep creation time for sorting/display purposes
     private boolean isDuplicate;
     private boolean markedForDeletion;
+    private boolean archiveMember;
+    private boolean perceptuallyHashed;
+    private long perceptualHash;
 
     public FileInfo() {}
 
     public FileInfo(String filePath, String fileName, String hash, long size) {
-        this.filePath = filePath;
+        this(filePath, fileName, hash, size, LocalDateTime.now());
+    }
+
+    public FileInfo(String filePath, String fileName, String hash, long size, LocalDateTime createdTime) {
+        setFilePath(filePath);
         this.fileName = fileName;
-        this.hash = hash;
+        setHash(hash);
         this.size = size;
-        this.createdTime = LocalDateTime.now();
-        this.isDuplicate = false;
-        this.markedForDeletion = false;
+        setCreatedTime(createdTime);
     }
 
-    public FileInfo(String filePath, String fileName, String hash, long size, LocalDateTime createdTime) {
-        this.filePath = filePath;
+    /**
+     * Creates a file in an interned directory; the form used by scans
+     */
+    public FileInfo(PathTrie.Node directory, String fileName, long size, long createdTimeMillis) {
+        this.directory = directory;
         this.fileName = fileName;
-        this.hash = hash;
         this.size = size;
-        this.createdTime = createdTime;
-        this.isDuplicate = false;
-        this.markedForDeletion = false;
+        this.createdTimeMillis = createdTimeMillis;
     }
 
     // Getters and Setters
-    public String getFilePath() { return filePath; }
-    public void setFilePath(String filePath) { this.filePath = filePath; }
+    public String getFilePath() {
+        return directory != null ? directory.resolve(fileName) : null;
+    }
+
+    /**
+     * Replaces the directory with a detached one; scans intern directories through a PathTrie instead
+     */
+    public void setFilePath(String filePath) {
+        this.directory = filePath != null ? new PathTrie().directoryOf(Paths.get(filePath)) : null;
+    }
+
+    @JsonIgnore
+    public PathTrie.Node getDirectory() { return directory; }
 
     public String getFileName() { return fileName; }
     public void setFileName(String fileName) { this.fileName = fileName; }
 
-    public String getHash() { return hash; }
-    public void setHash(String hash) { this.hash = hash; }
+    /**
+     * The hash as lower-case hex, built on demand
+     */
+    public String getHash() {
+        return digest != null ? Hex.encodeHexString(digest) : null;
+    }
+
+    public void setHash(String hash) {
+        this.digest = hash != null ? HashKey.decodeHex(hash) : null;
+    }
+
+    public boolean hasHash() { return digest != null; }
+
+    @JsonIgnore
+    public HashKey getHashKey() { return HashKey.wrap(digest); }
+
+    public void setHashKey(HashKey hashKey) {
+        this.digest = hashKey != null ? hashKey.getDigest() : null;
+    }
 
     public long getSize() { return size; }
     public void setSize(long size) { this.size = size; }
@@ -51,8 +125,18 @@ public class FileInfo {
     public String getCategory() { return category; }
     public void setCategory(String category) { this.category = category; }
 
-    public LocalDateTime getCreatedTime() { return createdTime; }
-    public void setCreatedTime(LocalDateTime createdTime) { this.createdTime = createdTime; }
+    public LocalDateTime getCreatedTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdTimeMillis), ZoneId.systemDefault());
+    }
+
+    public void setCreatedTime(LocalDateTime createdTime) {
+        this.createdTimeMillis = createdTime != null
+                ? createdTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0L;
+    }
+
+    @JsonIgnore
+    public long getCreatedTimeMillis() { return createdTimeMillis; }
 
     public boolean isDuplicate() { return isDuplicate; }
     public void setDuplicate(boolean duplicate) { isDuplicate = duplicate; }
@@ -60,6 +144,35 @@ public class FileInfo {
     public boolean isMarkedForDeletion() { return markedForDeletion; }
     public void setMarkedForDeletion(boolean markedForDeletion) { this.markedForDeletion = markedForDeletion; }
 
+    /**
+     * True for a file inside a ZIP, JAR or TAR archive. Its path is the archive's path, "!/" and
+     * the member's name; it exists only in the scan result and cannot be deleted on its own.
+     */
+    public boolean isArchiveMember() { return archiveMember; }
+    public void setArchiveMember(boolean archiveMember) { this.archiveMember = archiveMember; }
+
+    /**
+     * The 64-bit perceptual hash of an image as 16 hex digits, or null when the scan did not look
+     * for similar images or could not decode this one
+     */
+    public String getPerceptualHash() {
+        return perceptuallyHashed ? formatPerceptualHash(perceptualHash) : null;
+    }
+
+    public boolean hasPerceptualHash() { return perceptuallyHashed; }
+
+    @JsonIgnore
+    public long getPerceptualHashBits() { return perceptualHash; }
+
+    public void setPerceptualHash(long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+        this.perceptuallyHashed = true;
+    }
+
+    public static String formatPerceptualHash(long perceptualHash) {
+        return String.format("%016x", perceptualHash);
+    }
+
     /**
      * Extract extension from filename for backward compatibility
      * Note: This is only for display purposes, not for categorization
@@ -74,7 +187,7 @@ public class FileInfo {
      * Note: This is only for display purposes, not for duplicate detection
      */
     public LocalDateTime getLastModified() {
-        return createdTime; // Use creation time as fallback
+        return getCreatedTime(); // Use creation time as fallback
     }
 
     /**
@@ -86,7 +199,7 @@ public class FileInfo {
         if (this == other) return false; // Same object, not a duplicate
         
         // Primary check: content hash must match
-        if (!Objects.equals(this.hash, other.hash)) {
+        if (!Arrays.equals(this.digest, other.digest)) {
             return false;
         }
         
@@ -106,17 +219,18 @@ public class FileInfo {
         FileInfo fileInfo = (FileInfo) o;
         
         // Equality based on content hash and size only
-        return size == fileInfo.size && Objects.equals(hash, fileInfo.hash);
+        return size == fileInfo.size && Arrays.equals(digest, fileInfo.digest);
     }
 
     @Override
     public int hashCode() {
         // Hash code based on content hash and size only
-        return Objects.hash(hash, size);
+        return 31 * Arrays.hashCode(digest) + Long.hashCode(size);
     }
 
     @Override
     public String toString() {
+        String hash = getHash();
         return String.format("FileInfo{fileName='%s', hash='%s', size=%d, category='%s', isDuplicate=%s}",
                 fileName, hash != null ? hash.substring(0, Math.min(8, hash.length())) + "..." : "null", 
                 size, category, isDuplicate);
@@ -0,0 +1,87 @@
+package com.duplicateremover.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the duplicate funnel: size grouping -> partial hash -> full hash.
+ * Updated concurrently by the scan pipeline and reported in both progress and results.
+ */
+public class FunnelStats {
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong contentHashed = new AtomicLong();
+    private final AtomicLong sizeCandidates = new AtomicLong();
+    private final AtomicLong uniqueBySize = new AtomicLong();
+    private final AtomicLong partialHashed = new AtomicLong();
+    private final AtomicLong uniqueByPartialHash = new AtomicLong();
+    private final AtomicLong fullHashed = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong archiveMembers = new AtomicLong();
+    private final AtomicLong uniqueByCrc = new AtomicLong();
+    private final AtomicLong perceptualHashed = new AtomicLong();
+    private final AtomicLong perceptualHashFailed = new AtomicLong();
+
+    // Files whose hash was served by the persistent hash cache without reading the file
+    public long getCacheHits() { return cacheHits.get(); }
+    public void incrementCacheHits() { cacheHits.incrementAndGet(); }
+
+    // Files whose hash comes from extracted text; they skip the size funnel entirely
+    public long getContentHashed() { return contentHashed.get(); }
+    public void incrementContentHashed() { contentHashed.incrementAndGet(); }
+
+    public long getSizeCandidates() { return sizeCandidates.get(); }
+    public void incrementSizeCandidates() { sizeCandidates.incrementAndGet(); }
+
+    public long getUniqueBySize() { return uniqueBySize.get(); }
+    public void incrementUniqueBySize() { uniqueBySize.incrementAndGet(); }
+
+    public long getPartialHashed() { return partialHashed.get(); }
+    public void incrementPartialHashed() { partialHashed.incrementAndGet(); }
+
+    public long getUniqueByPartialHash() { return uniqueByPartialHash.get(); }
+    public void incrementUniqueByPartialHash() { uniqueByPartialHash.incrementAndGet(); }
+
+    public long getFullHashed() { return fullHashed.get(); }
+    public void incrementFullHashed() { fullHashed.incrementAndGet(); }
+
+    public long getBytesRead() { return bytesRead.get(); }
+    public void addBytesRead(long bytes) { bytesRead.addAndGet(bytes); }
+
+    // Files found inside ZIP, JAR and TAR archives; they also count in the stages they pass
+    public long getArchiveMembers() { return archiveMembers.get(); }
+    public void incrementArchiveMembers() { archiveMembers.incrementAndGet(); }
+
+    // Archive members ruled out by the CRC32 their archive stores, without reading them
+    public long getUniqueByCrc() { return uniqueByCrc.get(); }
+    public void incrementUniqueByCrc() { uniqueByCrc.incrementAndGet(); }
+
+    // Images decoded for a perceptual hash, and those no ImageIO reader could decode
+    public long getPerceptualHashed() { return perceptualHashed.get(); }
+    public void incrementPerceptualHashed() { perceptualHashed.incrementAndGet(); }
+
+    public long getPerceptualHashFailed() { return perceptualHashFailed.get(); }
+    public void incrementPerceptualHashFailed() { perceptualHashFailed.incrementAndGet(); }
+
+    /**
+     * All counters in a fixed order, for persisting a finished scan
+     */
+    public long[] toCounters() {
+        return new long[] {
+                cacheHits.get(), contentHashed.get(), sizeCandidates.get(), uniqueBySize.get(),
+                partialHashed.get(), uniqueByPartialHash.get(), fullHashed.get(), bytesRead.get(),
+                archiveMembers.get(), uniqueByCrc.get(), perceptualHashed.get(), perceptualHashFailed.get()
+        };
+    }
+
+    public static FunnelStats fromCounters(long[] counters) {
+        FunnelStats stats = new FunnelStats();
+        AtomicLong[] fields = {
+                stats.cacheHits, stats.contentHashed, stats.sizeCandidates, stats.uniqueBySize,
+                stats.partialHashed, stats.uniqueByPartialHash, stats.fullHashed, stats.bytesRead,
+                stats.archiveMembers, stats.uniqueByCrc, stats.perceptualHashed, stats.perceptualHashFailed
+        };
+        for (int i = 0; i < Math.min(fields.length, counters.length); i++) {
+            fields[i].set(counters[i]);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,63 @@
+package com.duplicateremover.model;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Arrays;
+
+/**
+ * Raw digest bytes used as a map key. Grouping by HashKey instead of hex strings halves the
+ * key size and skips hex encoding until a hash is actually shown to a client.
+ */
+public final class HashKey {
+
+    private final byte[] digest;
+    private final int hashCode;
+
+    private HashKey(byte[] digest) {
+        this.digest = digest;
+        this.hashCode = Arrays.hashCode(digest);
+    }
+
+    /**
+     * Wraps the array without copying; the caller must not modify it afterwards
+     */
+    public static HashKey wrap(byte[] digest) {
+        return digest != null ? new HashKey(digest) : null;
+    }
+
+    public static HashKey fromHex(String hex) {
+        return hex != null ? new HashKey(decodeHex(hex)) : null;
+    }
+
+    public static byte[] decodeHex(String hex) {
+        try {
+            return Hex.decodeHex(hex);
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException("Not a hex digest: " + hex, e);
+        }
+    }
+
+    public byte[] getDigest() { return digest; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HashKey)) return false;
+        HashKey other = (HashKey) o;
+        return hashCode == other.hashCode && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Lower-case hex, the form used in REST responses and the hash cache
+     */
+    @Override
+    public String toString() {
+        return Hex.encodeHexString(digest);
+    }
+}
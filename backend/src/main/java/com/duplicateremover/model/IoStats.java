@@ -0,0 +1,59 @@
+package com.duplicateremover.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File-system call counters for a scan, used to report how many syscalls each file costs.
+ * Counts are approximate: one per open, fstat, read, seek and close issued by the scanner.
+ */
+public class IoStats {
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong stats = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong seeks = new AtomicLong();
+    private final AtomicLong closes = new AtomicLong();
+
+    public long getFiles() { return files.get(); }
+    public void recordFile() { files.incrementAndGet(); }
+
+    public long getOpens() { return opens.get(); }
+    public void recordOpen() { opens.incrementAndGet(); }
+
+    public long getStats() { return stats.get(); }
+    public void recordStat() { stats.incrementAndGet(); }
+
+    public long getReads() { return reads.get(); }
+    public void recordRead() { reads.incrementAndGet(); }
+
+    public long getSeeks() { return seeks.get(); }
+    public void recordSeek() { seeks.incrementAndGet(); }
+
+    public long getCloses() { return closes.get(); }
+    public void recordClose() { closes.incrementAndGet(); }
+
+    public long getSyscalls() {
+        return opens.get() + stats.get() + reads.get() + seeks.get() + closes.get();
+    }
+
+    /**
+     * All counters in a fixed order, for persisting a finished scan
+     */
+    public long[] toCounters() {
+        return new long[] { files.get(), opens.get(), stats.get(), reads.get(), seeks.get(), closes.get() };
+    }
+
+    public static IoStats fromCounters(long[] counters) {
+        IoStats ioStats = new IoStats();
+        AtomicLong[] fields = { ioStats.files, ioStats.opens, ioStats.stats, ioStats.reads, ioStats.seeks, ioStats.closes };
+        for (int i = 0; i < Math.min(fields.length, counters.length); i++) {
+            fields[i].set(counters[i]);
+        }
+        return ioStats;
+    }
+
+    public double getSyscallsPerFile() {
+        long fileCount = files.get();
+        return fileCount == 0 ? 0.0 : (double) getSyscalls() / fileCount;
+    }
+}
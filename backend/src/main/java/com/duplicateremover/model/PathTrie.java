@@ -0,0 +1,137 @@
+package com.duplicateremover.model;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns directory paths so that every file in a directory shares one node instead of carrying
+ * its own copy of the full path. Each node stores only its last path segment and a parent link.
+ * Safe for concurrent use by the pipeline's metadata workers.
+ */
+public class PathTrie {
+
+    private final Map<String, Node> roots = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the interned node for the directory containing the given file
+     */
+    public Node directoryOf(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory == null) {
+            return root(file.toAbsolutePath().getRoot());
+        }
+        return directory(directory);
+    }
+
+    /**
+     * Returns the interned node for the given directory itself
+     */
+    public Node directory(Path directory) {
+        Path absolute = directory.toAbsolutePath();
+        Node node = root(absolute.getRoot());
+        for (Path segment : absolute) {
+            node = node.child(segment.toString());
+        }
+        return node;
+    }
+
+    private Node root(Path root) {
+        String name = root != null ? root.toString() : "";
+        return roots.computeIfAbsent(name, key -> new Node(key, null));
+    }
+
+    public static final class Node {
+        private final String segment;
+        private final Node parent;
+        private final int depth;
+        private volatile Map<String, Node> children;
+
+        private Node(String segment, Node parent) {
+            this.segment = segment;
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 0;
+        }
+
+        private Node child(String name) {
+            Map<String, Node> current = children;
+            if (current == null) {
+                synchronized (this) {
+                    current = children;
+                    if (current == null) {
+                        current = new ConcurrentHashMap<>(4);
+                        children = current;
+                    }
+                }
+            }
+            return current.computeIfAbsent(name, key -> new Node(key, this));
+        }
+
+        /**
+         * The last path segment, or the root itself such as "/" or "C:\"
+         */
+        public String getName() { return segment; }
+
+        public Node getParent() { return parent; }
+
+        // Path segments below the root; 0 for a root
+        public int getDepth() { return depth; }
+
+        /**
+         * Builds the full directory path; allocated on every call, so avoid it in hot loops
+         */
+        public String getPath() {
+            return appendPath(new StringBuilder(64)).toString();
+        }
+
+        /**
+         * Appends the path of a file in this directory
+         */
+        public String resolve(String fileName) {
+            StringBuilder path = appendPath(new StringBuilder(64));
+            if (parent != null) {
+                path.append(File.separatorChar);
+            }
+            return path.append(fileName).toString();
+        }
+
+        private StringBuilder appendPath(StringBuilder builder) {
+            if (parent == null) {
+                // Roots such as "/" or "C:\" already end with a separator
+                return builder.append(segment);
+            }
+            parent.appendPath(builder);
+            if (parent.parent != null) {
+                builder.append(File.separatorChar);
+            }
+            return builder.append(segment);
+        }
+
+        /**
+         * Orders directories segment by segment, ancestors first, without building any paths
+         */
+        public int compareTo(Node other) {
+            if (this == other) {
+                return 0;
+            }
+            Node a = this;
+            Node b = other;
+            while (a.depth > b.depth) {
+                a = a.parent;
+            }
+            while (b.depth > a.depth) {
+                b = b.parent;
+            }
+            if (a == b) {
+                // One is an ancestor of the other
+                return Integer.compare(this.depth, other.depth);
+            }
+            while (a.parent != b.parent) {
+                a = a.parent;
+                b = b.parent;
+            }
+            return a.segment.compareTo(b.segment);
+        }
+    }
+}
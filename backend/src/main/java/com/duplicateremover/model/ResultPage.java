@@ -0,0 +1,26 @@
+package com.duplicateremover.model;
+
+import java.util.List;
+
+/**
+ * One page of a scan result listing. nextCursor is null on the last page; total counts all
+ * entries matching the filters, across pages.
+ */
+public class ResultPage<T> {
+    private final List<T> items;
+    private final String nextCursor;
+    private final int total;
+    private final int limit;
+
+    public ResultPage(List<T> items, String nextCursor, int total, int limit) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.total = total;
+        this.limit = limit;
+    }
+
+    public List<T> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    public int getTotal() { return total; }
+    public int getLimit() { return limit; }
+}
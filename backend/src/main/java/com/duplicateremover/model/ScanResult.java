@@ -1,5 +1,7 @@
 package com.duplicateremover.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -10,11 +12,30 @@ public class ScanResult {
     private LocalDateTime scanTime;
     private List<FileInfo> files;
     private Map<String, List<FileInfo>> duplicateGroups;
-    private Map<String, List<FileInfo>> directoryDuplicates;
+    // Duplicate group key -> how the group was established, e.g. "sha256" or "xxh3-128+bytes"
+    private Map<String, String> groupAlgorithms;
+    // Subtree digest -> directories with identical contents, highest matching level only
+    private Map<String, DirectoryGroup> directoryDuplicates;
+    // Lowest perceptual hash -> images within maxImageDistance of each other, not all exact copies
+    private Map<String, List<FileInfo>> similarImageGroups;
+    // Hamming distance similar images were grouped at; null when the scan did not look for them
+    private Integer maxImageDistance;
     private Map<String, List<FileInfo>> categorizedFiles;
+    // Interned directories shared by the files of this result
+    @JsonIgnore
+    private PathTrie paths;
     private int totalFiles;
     private int duplicateCount;
+    // Bytes held by every copy but the first in each duplicate group
+    private long wastedBytes;
     private String status;
+    private String hashAlgorithm;
+    private String confirmation;
+    private FunnelStats funnelStats;
+    private IoStats ioStats;
+    // Lookup structures for updates, built on demand and never serialized
+    @JsonIgnore
+    private ScanResultIndex index;
 
     public ScanResult() {}
 
@@ -41,18 +62,49 @@ public class ScanResult {
     public Map<String, List<FileInfo>> getDuplicateGroups() { return duplicateGroups; }
     public void setDuplicateGroups(Map<String, List<FileInfo>> duplicateGroups) { this.duplicateGroups = duplicateGroups; }
 
-    public Map<String, List<FileInfo>> getDirectoryDuplicates() { return directoryDuplicates; }
-    public void setDirectoryDuplicates(Map<String, List<FileInfo>> directoryDuplicates) { this.directoryDuplicates = directoryDuplicates; }
+    public Map<String, String> getGroupAlgorithms() { return groupAlgorithms; }
+    public void setGroupAlgorithms(Map<String, String> groupAlgorithms) { this.groupAlgorithms = groupAlgorithms; }
+
+    public Map<String, DirectoryGroup> getDirectoryDuplicates() { return directoryDuplicates; }
+    public void setDirectoryDuplicates(Map<String, DirectoryGroup> directoryDuplicates) { this.directoryDuplicates = directoryDuplicates; }
+
+    public Map<String, List<FileInfo>> getSimilarImageGroups() { return similarImageGroups; }
+    public void setSimilarImageGroups(Map<String, List<FileInfo>> similarImageGroups) { this.similarImageGroups = similarImageGroups; }
+
+    public Integer getMaxImageDistance() { return maxImageDistance; }
+    public void setMaxImageDistance(Integer maxImageDistance) { this.maxImageDistance = maxImageDistance; }
 
     public Map<String, List<FileInfo>> getCategorizedFiles() { return categorizedFiles; }
     public void setCategorizedFiles(Map<String, List<FileInfo>> categorizedFiles) { this.categorizedFiles = categorizedFiles; }
 
+    public PathTrie getPaths() { return paths; }
+    public void setPaths(PathTrie paths) { this.paths = paths; }
+
     public int getTotalFiles() { return totalFiles; }
     public void setTotalFiles(int totalFiles) { this.totalFiles = totalFiles; }
 
     public int getDuplicateCount() { return duplicateCount; }
     public void setDuplicateCount(int duplicateCount) { this.duplicateCount = duplicateCount; }
 
+    public long getWastedBytes() { return wastedBytes; }
+    public void setWastedBytes(long wastedBytes) { this.wastedBytes = wastedBytes; }
+
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+
+    public String getHashAlgorithm() { return hashAlgorithm; }
+    public void setHashAlgorithm(String hashAlgorithm) { this.hashAlgorithm = hashAlgorithm; }
+
+    public String getConfirmation() { return confirmation; }
+    public void setConfirmation(String confirmation) { this.confirmation = confirmation; }
+
+    public FunnelStats getFunnelStats() { return funnelStats; }
+    public void setFunnelStats(FunnelStats funnelStats) { this.funnelStats = funnelStats; }
+
+    public IoStats getIoStats() { return ioStats; }
+    public void setIoStats(IoStats ioStats) { this.ioStats = ioStats; }
+
+    @JsonIgnore
+    public ScanResultIndex getIndex() { return index; }
+    public void setIndex(ScanResultIndex index) { this.index = index; }
 }
\ No newline at end of file
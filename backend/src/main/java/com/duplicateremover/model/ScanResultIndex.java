@@ -0,0 +1,114 @@
+package com.duplicateremover.model;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the files of a scan result by path, by directory and by containing archive without
+ * walking the file list.
+ *
+ * Files are keyed by directory path and then by name, so a lookup costs two hash probes and no
+ * path string is built per file: each directory's path is built once and cached by node. Archive
+ * members are also kept under the path of every archive that contains them, so deleting an
+ * archive finds its members directly. The index is not serialized; it is built on the first
+ * update of a result and maintained by ScanResultUpdater from then on. Not thread-safe; callers
+ * hold the result's lock.
+ */
+public class ScanResultIndex {
+
+    private final Map<String, Map<String, FileInfo>> filesByDirectory = new HashMap<>();
+    private final Map<PathTrie.Node, String> directoryPaths = new IdentityHashMap<>();
+    // Archive path -> members of that archive, including members of archives nested in it
+    private final Map<String, Set<FileInfo>> membersByArchive = new HashMap<>();
+
+    public ScanResultIndex(Collection<FileInfo> files) {
+        files.forEach(this::add);
+    }
+
+    public void add(FileInfo file) {
+        filesByDirectory.computeIfAbsent(directoryPath(file), directory -> new HashMap<>())
+                .put(file.getFileName(), file);
+        if (file.isArchiveMember()) {
+            String path = file.getFilePath();
+            for (int at = path.indexOf(FileInfo.ARCHIVE_SEPARATOR); at >= 0; at = path.indexOf(FileInfo.ARCHIVE_SEPARATOR, at + 1)) {
+                membersByArchive.computeIfAbsent(path.substring(0, at),
+                        archive -> Collections.newSetFromMap(new IdentityHashMap<>())).add(file);
+            }
+        }
+    }
+
+    public void remove(FileInfo file) {
+        String directory = directoryPath(file);
+        Map<String, FileInfo> files = filesByDirectory.get(directory);
+        if (files != null && files.get(file.getFileName()) == file) {
+            files.remove(file.getFileName());
+            if (files.isEmpty()) {
+                filesByDirectory.remove(directory);
+            }
+        }
+        if (file.isArchiveMember()) {
+            String path = file.getFilePath();
+            for (int at = path.indexOf(FileInfo.ARCHIVE_SEPARATOR); at >= 0; at = path.indexOf(FileInfo.ARCHIVE_SEPARATOR, at + 1)) {
+                Set<FileInfo> members = membersByArchive.get(path.substring(0, at));
+                if (members != null && members.remove(file) && members.isEmpty()) {
+                    membersByArchive.remove(path.substring(0, at));
+                }
+            }
+        }
+    }
+
+    /**
+     * The file with this path, or null if the result has none
+     */
+    public FileInfo find(String filePath) {
+        Path path;
+        try {
+            path = Paths.get(filePath);
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        Path parent = path.getParent();
+        Path name = path.getFileName();
+        if (name == null) {
+            return null;
+        }
+        Map<String, FileInfo> files = filesByDirectory.get(parent != null ? parent.toString() : "");
+        return files != null ? files.get(name.toString()) : null;
+    }
+
+    /**
+     * The members of the archive at this path, empty if it is not an archive with indexed members
+     */
+    public Collection<FileInfo> membersOf(String archivePath) {
+        Set<FileInfo> members = membersByArchive.get(archivePath);
+        return members != null ? new ArrayList<>(members) : Collections.emptyList();
+    }
+
+    /**
+     * The files directly in a directory, as named by {@link #directoryPath(FileInfo)}
+     */
+    public List<FileInfo> filesIn(String directoryPath) {
+        Map<String, FileInfo> files = filesByDirectory.get(directoryPath);
+        return files != null ? new ArrayList<>(files.values()) : Collections.emptyList();
+    }
+
+    /**
+     * The path of the file's directory, "" for a file without one
+     */
+    public String directoryPath(FileInfo file) {
+        PathTrie.Node directory = file.getDirectory();
+        if (directory == null) {
+            return "";
+        }
+        return directoryPaths.computeIfAbsent(directory, PathTrie.Node::getPath);
+    }
+}
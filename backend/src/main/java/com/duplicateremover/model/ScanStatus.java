@@ -0,0 +1,31 @@
+package com.duplicateremover.model;
+
+/**
+ * Lifecycle of a scan job. A job is queued until the scheduler gives it a slot, then scans
+ * until it completes, fails or is cancelled. The last three are terminal.
+ */
+public enum ScanStatus {
+    QUEUED,
+    SCANNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+
+    /**
+     * Whether a job in this state may move to next
+     */
+    public boolean canTransitionTo(ScanStatus next) {
+        switch (this) {
+            case QUEUED:
+                return next == SCANNING || next == FAILED || next == CANCELLED;
+            case SCANNING:
+                return next == COMPLETED || next == FAILED || next == CANCELLED;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.duplicateremover.model;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The headline numbers of a stored scan, enough to list scans without loading their files
+ */
+public class ScanSummary {
+    private String scanId;
+    private String directory;
+    private LocalDateTime scanTime;
+    private int totalFiles;
+    private int duplicateCount;
+    private String status;
+    private String hashAlgorithm;
+    // Category -> number of files
+    private Map<String, Integer> categoryCounts;
+
+    public ScanSummary() {}
+
+    public static ScanSummary of(ScanResult result) {
+        ScanSummary summary = new ScanSummary();
+        summary.scanId = result.getScanId();
+        summary.directory = result.getDirectory();
+        summary.scanTime = result.getScanTime();
+        summary.totalFiles = result.getTotalFiles();
+        summary.duplicateCount = result.getDuplicateCount();
+        summary.status = result.getStatus();
+        summary.hashAlgorithm = result.getHashAlgorithm();
+        summary.categoryCounts = new TreeMap<>();
+        if (result.getCategorizedFiles() != null) {
+            result.getCategorizedFiles().forEach((category, files) -> summary.categoryCounts.put(category, files.size()));
+        }
+        return summary;
+    }
+
+    public String getScanId() { return scanId; }
+    public void setScanId(String scanId) { this.scanId = scanId; }
+
+    public String getDirectory() { return directory; }
+    public void setDirectory(String directory) { this.directory = directory; }
+
+    public LocalDateTime getScanTime() { return scanTime; }
+    public void setScanTime(LocalDateTime scanTime) { this.scanTime = scanTime; }
+
+    public int getTotalFiles() { return totalFiles; }
+    public void setTotalFiles(int totalFiles) { this.totalFiles = totalFiles; }
+
+    public int getDuplicateCount() { return duplicateCount; }
+    public void setDuplicateCount(int duplicateCount) { this.duplicateCount = duplicateCount; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public String getHashAlgorithm() { return hashAlgorithm; }
+    public void setHashAlgorithm(String hashAlgorithm) { this.hashAlgorithm = hashAlgorithm; }
+
+    public Map<String, Integer> getCategoryCounts() { return categoryCounts; }
+    public void setCategoryCounts(Map<String, Integer> categoryCounts) { this.categoryCounts = categoryCounts; }
+}
@@ -0,0 +1,410 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.ContainerType;
+import com.duplicateremover.model.FileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lists and opens the members of ZIP, JAR, APK and TAR archives without extracting anything.
+ *
+ * A ZIP is listed from its central directory, streamed in one pass, and a TAR from the header
+ * blocks in front of each member, so listing never inflates or reads member data. Each listed
+ * member carries where its data starts and, for a ZIP, the CRC32 and sizes the directory
+ * stores, which the scan uses as a free prefilter before hashing. A member is opened as a
+ * {@link FileProcessingContext} over its range of the archive.
+ *
+ * Members that cannot be hashed on their own are left out: encrypted entries, compression
+ * methods other than stored and deflated, links and names that would leave the archive.
+ */
+final class ArchiveIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    static final String SEPARATOR = FileInfo.ARCHIVE_SEPARATOR;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int TAR_BLOCK = 512;
+    // Long names and pax headers larger than this are skipped with their member
+    private static final int MAX_TAR_METADATA_BYTES = 1024 * 1024;
+
+    private ArchiveIndex() {
+    }
+
+    /**
+     * One member of an archive
+     */
+    static final class Member {
+        private final String name;
+        private final long size;
+        private final long crc;
+        private final long offset;
+        private final long storedLength;
+        private final boolean deflated;
+        private final boolean zip;
+
+        private Member(String name, long size, long crc, long offset, long storedLength, boolean deflated, boolean zip) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+            this.offset = offset;
+            this.storedLength = storedLength;
+            this.deflated = deflated;
+            this.zip = zip;
+        }
+
+        /**
+         * The member's path inside the archive, with '/' separators
+         */
+        String getName() { return name; }
+
+        long getSize() { return size; }
+
+        /**
+         * The CRC32 stored for the member, or -1 when the format has none
+         */
+        long getCrc() { return crc; }
+    }
+
+    /**
+     * True when the scan indexes the members of this file; its type must have been detected
+     */
+    static boolean isIndexed(FileProcessingContext context) {
+        ContainerType containerType = context.getContainerType();
+        if (containerType != null) {
+            return containerType == ContainerType.ZIP || containerType == ContainerType.JAR
+                    || containerType == ContainerType.APK;
+        }
+        return isTar(context.getHeader(), context.getHeaderLength());
+    }
+
+    /**
+     * True when the header is a POSIX or GNU tar header
+     */
+    static boolean isTar(byte[] header, int length) {
+        return length >= TAR_BLOCK && header[257] == 'u' && header[258] == 's' && header[259] == 't'
+                && header[260] == 'a' && header[261] == 'r';
+    }
+
+    /**
+     * The path of a member of the archive at archivePath
+     */
+    static String memberPath(String archivePath, Member member) {
+        return archivePath + SEPARATOR + member.name.replace('/', File.separatorChar);
+    }
+
+    /**
+     * True when the path is a member of one of the given archives
+     */
+    static boolean isMemberOf(String memberPath, Collection<String> archivePaths) {
+        for (int at = memberPath.indexOf(SEPARATOR); at >= 0; at = memberPath.indexOf(SEPARATOR, at + 1)) {
+            if (archivePaths.contains(memberPath.substring(0, at))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists up to maxMembers members of an archive for which {@link #isIndexed} holds
+     */
+    static List<Member> list(FileProcessingContext archive, int maxMembers) throws IOException {
+        List<Member> members = new ArrayList<>();
+        if (isTar(archive.getHeader(), archive.getHeaderLength())) {
+            listTar(archive, maxMembers, members);
+        } else {
+            listZip(archive, maxMembers, members);
+        }
+        if (members.size() >= maxMembers) {
+            logger.warn("Archive has more than {} members, indexing only the first: {}", maxMembers, archive.getFilePath());
+        }
+        return members;
+    }
+
+    /**
+     * Opens a listed member; close it before its archive
+     */
+    static FileProcessingContext open(FileProcessingContext archive, Member member, String memberPath) throws IOException {
+        if (!member.zip) {
+            return FileProcessingContext.openMember(archive, memberPath, member.offset, member.size, member.size, false);
+        }
+        // The local header repeats the name and has its own extra field, so it decides where data starts
+        ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        archive.readFully(local, member.offset);
+        if (local.getInt(0) != LOCAL_HEADER) {
+            throw new IOException("Missing local header for archive member: " + memberPath);
+        }
+        long dataOffset = member.offset + LOCAL_HEADER_SIZE
+                + Short.toUnsignedInt(local.getShort(26)) + Short.toUnsignedInt(local.getShort(28));
+        return FileProcessingContext.openMember(archive, memberPath, dataOffset, member.storedLength, member.size,
+                member.deflated);
+    }
+
+    private static void listZip(FileProcessingContext archive, int maxMembers, List<Member> members) throws IOException {
+        long[] location = ZipContainers.locateCentralDirectory(archive);
+        if (location == null) {
+            return;
+        }
+        byte[] fixed = new byte[CENTRAL_HEADER_SIZE];
+        ByteBuffer header = ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN);
+        try (InputStream in = archive.openStream(location[0], location[1])) {
+            while (members.size() < maxMembers) {
+                if (in.readNBytes(fixed, 0, CENTRAL_HEADER_SIZE) < CENTRAL_HEADER_SIZE
+                        || header.getInt(0) != CENTRAL_HEADER) {
+                    return;
+                }
+                int flags = Short.toUnsignedInt(header.getShort(8));
+                int method = Short.toUnsignedInt(header.getShort(10));
+                long crc = Integer.toUnsignedLong(header.getInt(16));
+                long storedLength = Integer.toUnsignedLong(header.getInt(20));
+                long size = Integer.toUnsignedLong(header.getInt(24));
+                long offset = Integer.toUnsignedLong(header.getInt(42));
+                byte[] name = readExactly(in, Short.toUnsignedInt(header.getShort(28)));
+                byte[] extra = readExactly(in, Short.toUnsignedInt(header.getShort(30)));
+                readExactly(in, Short.toUnsignedInt(header.getShort(32)));
+                if (name == null || extra == null) {
+                    return;
+                }
+
+                // ZIP64 sizes and offset replace, in this order, the fields that are saturated
+                ByteBuffer extraFields = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+                while (extraFields.remaining() >= 4) {
+                    int id = Short.toUnsignedInt(extraFields.getShort());
+                    int length = Short.toUnsignedInt(extraFields.getShort());
+                    if (length > extraFields.remaining()) {
+                        break;
+                    }
+                    if (id == ZIP64_EXTRA) {
+                        ByteBuffer zip64 = extraFields.slice().order(ByteOrder.LITTLE_ENDIAN);
+                        zip64.limit(length);
+                        if (size == 0xFFFFFFFFL && zip64.remaining() >= 8) {
+                            size = zip64.getLong();
+                        }
+                        if (storedLength == 0xFFFFFFFFL && zip64.remaining() >= 8) {
+                            storedLength = zip64.getLong();
+                        }
+                        if (offset == 0xFFFFFFFFL && zip64.remaining() >= 8) {
+                            offset = zip64.getLong();
+                        }
+                    }
+                    extraFields.position(extraFields.position() + length);
+                }
+
+                String memberName = normalize(new String(name, StandardCharsets.UTF_8));
+                boolean encrypted = (flags & 1) != 0;
+                if (memberName == null || encrypted || (method != STORED && method != DEFLATED)
+                        || size < 0 || storedLength < 0 || offset < 0) {
+                    continue;
+                }
+                members.add(new Member(memberName, size, crc, offset, storedLength, method == DEFLATED, true));
+            }
+        }
+    }
+
+    private static void listTar(FileProcessingContext archive, int maxMembers, List<Member> members) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(TAR_BLOCK);
+        byte[] header = block.array();
+        String longName = null;
+        String paxPath = null;
+        long paxSize = -1;
+        long position = 0;
+        while (position + TAR_BLOCK <= archive.getSize() && members.size() < maxMembers) {
+            block.clear();
+            archive.readFully(block, position);
+            if (isZeroBlock(header)) {
+                return;
+            }
+            byte type = header[156];
+            long size = type == '0' || type == 0 || type == '7' ? (paxSize >= 0 ? paxSize : tarNumber(header, 124, 12))
+                    : tarNumber(header, 124, 12);
+            long data = position + TAR_BLOCK;
+            if (size < 0 || data + size > archive.getSize()) {
+                return;
+            }
+            switch (type) {
+                case 'L':
+                    longName = size <= MAX_TAR_METADATA_BYTES ? cString(readData(archive, data, size), 0, (int) size) : null;
+                    break;
+                case 'x':
+                    if (size <= MAX_TAR_METADATA_BYTES) {
+                        byte[] records = readData(archive, data, size);
+                        paxPath = paxValue(records, "path");
+                        String paxLength = paxValue(records, "size");
+                        paxSize = paxLength != null ? parseLong(paxLength) : -1;
+                    }
+                    break;
+                case 'g':
+                    // Global pax headers apply to the whole archive and name no member
+                    break;
+                case '0':
+                case 0:
+                case '7':
+                    String name = paxPath != null ? paxPath : longName != null ? longName : ustarName(header);
+                    String memberName = normalize(name);
+                    if (memberName != null) {
+                        members.add(new Member(memberName, size, -1, data, size, false, false));
+                    }
+                    longName = null;
+                    paxPath = null;
+                    paxSize = -1;
+                    break;
+                default:
+                    // Directories, links and devices have no content of their own
+                    longName = null;
+                    paxPath = null;
+                    paxSize = -1;
+                    break;
+            }
+            position = data + (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+        }
+    }
+
+    /**
+     * The member name with '/' separators and no leading slash, or null for directories and
+     * names that are empty or climb out of the archive
+     */
+    private static String normalize(String name) {
+        if (name == null || name.isEmpty() || name.endsWith("/") || name.endsWith("\\")) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (String segment : name.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..") || segment.indexOf('\0') >= 0) {
+                return null;
+            }
+            if (normalized.length() > 0) {
+                normalized.append('/');
+            }
+            normalized.append(segment);
+        }
+        return normalized.length() > 0 ? normalized.toString() : null;
+    }
+
+    private static byte[] readExactly(InputStream in, int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        return bytes.length == length ? bytes : null;
+    }
+
+    private static byte[] readData(FileProcessingContext archive, long position, long length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) length);
+        archive.readFully(data, position);
+        return data.array();
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads an octal field, or the base-256 form GNU tar uses for large values; -1 when invalid
+     */
+    private static long tarNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = 1; i < length; i++) {
+                if (value > (Long.MAX_VALUE >> 8)) {
+                    return -1;
+                }
+                value = (value << 8) | (header[offset + i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        boolean digits = false;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) | (b - '0');
+                digits = true;
+            } else if (b == 0 || b == ' ') {
+                if (digits) {
+                    break;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return digits ? value : -1;
+    }
+
+    private static String ustarName(byte[] header) {
+        String name = cString(header, 0, 100);
+        if (isTar(header, header.length)) {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The value of a key in pax extended header records, each "length key=value\n"
+     */
+    private static String paxValue(byte[] records, String key) {
+        int position = 0;
+        while (position < records.length) {
+            int space = position;
+            long length = 0;
+            while (space < records.length && records[space] >= '0' && records[space] <= '9' && length < records.length) {
+                length = length * 10 + (records[space] - '0');
+                space++;
+            }
+            if (space >= records.length || records[space] != ' ' || length <= space - position
+                    || position + length > records.length) {
+                return null;
+            }
+            int end = (int) (position + length) - 1;
+            int equals = space + 1;
+            while (equals < end && records[equals] != '=') {
+                equals++;
+            }
+            if (equals < end && key.equals(new String(records, space + 1, equals - space - 1, StandardCharsets.UTF_8))) {
+                return new String(records, equals + 1, end - equals - 1, StandardCharsets.UTF_8);
+            }
+            position += (int) length;
+        }
+        return null;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
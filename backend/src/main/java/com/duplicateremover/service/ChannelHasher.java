@@ -0,0 +1,93 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.IoStats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Feeds the raw bytes of a file channel into a hasher without copying them onto the heap.
+ *
+ * Files at or above the mmap threshold are digested through memory-mapped windows; smaller files
+ * are read through a pooled direct buffer. Either way heap use is constant in the file size.
+ * Buffers are pooled rather than kept per thread, so short-lived virtual threads do not each
+ * allocate one.
+ */
+public class ChannelHasher {
+
+    private final long mmapThreshold;
+    private final long mmapWindowBytes;
+    private final int bufferBytes;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param mmapThreshold    files of at least this many bytes are memory-mapped; 0 disables mmap
+     * @param mmapWindowBytes  size of each mapped window
+     * @param bufferBytes      size of each pooled direct read buffer
+     */
+    public ChannelHasher(long mmapThreshold, long mmapWindowBytes, int bufferBytes) {
+        this.mmapThreshold = mmapThreshold;
+        this.mmapWindowBytes = Math.min(Math.max(mmapWindowBytes, bufferBytes), Integer.MAX_VALUE);
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * Feeds bytes [0, size) of the channel, leaving its position untouched
+     */
+    public void update(HashAlgorithm.Hasher hasher, FileChannel channel, long size, IoStats ioStats) throws IOException {
+        if (mmapThreshold > 0 && size >= mmapThreshold) {
+            updateMapped(hasher, channel, size, ioStats);
+        } else {
+            updateBuffered(hasher, channel, size, ioStats);
+        }
+    }
+
+    private void updateMapped(HashAlgorithm.Hasher hasher, FileChannel channel, long size, IoStats ioStats) throws IOException {
+        for (long position = 0; position < size; position += mmapWindowBytes) {
+            long length = Math.min(mmapWindowBytes, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            ioStats.recordRead();
+            // Pages fault in as the hasher walks the window, so account for it up front
+            DeviceIo.afterRead(length);
+            hasher.update(window);
+        }
+    }
+
+    private void updateBuffered(HashAlgorithm.Hasher hasher, FileChannel channel, long size, IoStats ioStats) throws IOException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferBytes);
+        }
+        try {
+            readInto(hasher, channel, size, ioStats, buffer);
+        } finally {
+            // The pool grows to the peak number of concurrent readers and no further
+            buffers.offer(buffer);
+        }
+    }
+
+    private static void readInto(HashAlgorithm.Hasher hasher, FileChannel channel, long size, IoStats ioStats,
+                                 ByteBuffer buffer) throws IOException {
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            if (size - position < buffer.capacity()) {
+                buffer.limit((int) (size - position));
+            }
+            int read = channel.read(buffer, position);
+            ioStats.recordRead();
+            if (read < 0) {
+                throw new EOFException("File shrank while hashing");
+            }
+            DeviceIo.afterRead(read);
+            position += read;
+            buffer.flip();
+            hasher.update(buffer);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.DeletionJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Deletes files and directories as background jobs instead of on the request thread.
+ *
+ * A job's paths are grouped by storage device and cut into batches. Each device is worked by as
+ * many lanes as its I/O budget allows (see {@link StorageDevices}), and every delete holds one of
+ * the device's slots, so a bulk cleanup neither thrashes a spinning disk nor starves a scan
+ * reading from it. Each path costs one lstat and one unlink through NIO. Outcomes are recorded
+ * per path; the scan result is updated once when the job ends, including after a cancellation.
+ */
+@Service
+public class DeletionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeletionService.class);
+
+    @Autowired
+    private FileScanService fileScanService;
+
+    @Autowired
+    private StorageDevices storageDevices;
+
+    @Autowired
+    private ScanExecutors scanExecutors;
+
+    // Threads shared by the lanes of all devices
+    @Value("${scan.delete.threads:8}")
+    private int threads;
+
+    @Value("${scan.delete.batch-size:256}")
+    private int batchSize;
+
+    // How long finished jobs and their reports stay available
+    @Value("${scan.delete.retention-ms:3600000}")
+    private long retentionMillis;
+
+    private final Map<String, DeletionJob> jobs = new ConcurrentHashMap<>();
+    private ExecutorService coordinator;
+    private ExecutorService lanes;
+
+    @PostConstruct
+    public void start() {
+        // Jobs run one after another; the paths of one job are deleted in parallel
+        coordinator = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "delete-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lanes = scanExecutors.newStage("delete", threads, 1024);
+    }
+
+    @PreDestroy
+    public void stop() {
+        jobs.values().forEach(DeletionJob::requestCancel);
+        coordinator.shutdownNow();
+        lanes.shutdownNow();
+    }
+
+    /**
+     * Queues the deletion of files, or of whole directories; null when the scan is unknown
+     */
+    public DeletionJob submit(String scanId, List<String> paths, boolean directories) {
+        if (fileScanService.getScanSummary(scanId) == null) {
+            return null;
+        }
+        pruneFinishedJobs();
+        DeletionJob job = new DeletionJob(UUID.randomUUID().toString(), scanId, directories, paths.size());
+        jobs.put(job.getJobId(), job);
+        List<String> snapshot = new ArrayList<>(paths);
+        coordinator.execute(() -> run(job, snapshot));
+        logger.info("Queued deletion job {} for {} {} of scan {}", job.getJobId(), paths.size(), job.getType(), scanId);
+        return job;
+    }
+
+    public DeletionJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Stops a job at the next path; paths not reached are reported as SKIPPED
+     */
+    public DeletionJob cancel(String jobId) {
+        DeletionJob job = jobs.get(jobId);
+        if (job != null && !job.getStatus().isTerminal()) {
+            job.requestCancel();
+        }
+        return job;
+    }
+
+    private void run(DeletionJob job, List<String> paths) {
+        if (!job.start()) {
+            return;
+        }
+        Queue<String> removedFiles = new ConcurrentLinkedQueue<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Map.Entry<StorageDevices.Device, List<List<String>>> entry : batchesByDevice(paths).entrySet()) {
+                StorageDevices.Device device = entry.getKey();
+                Queue<List<String>> batches = new ConcurrentLinkedQueue<>(entry.getValue());
+                int laneCount = Math.min(device.getWorkers(), batches.size());
+                for (int i = 0; i < laneCount; i++) {
+                    futures.add(lanes.submit(() -> {
+                        for (List<String> batch; (batch = batches.poll()) != null; ) {
+                            deleteBatch(job, device, batch, removedFiles);
+                        }
+                    }));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            logger.error("Deletion job {} could not start all its lanes", job.getJobId(), e);
+            job.requestCancel();
+        } finally {
+            // Every lane has stopped before the scan is updated, so no deletion lands after it
+            awaitLanes(job, futures);
+            try {
+                fileScanService.removeDeletedFiles(job.getScanId(), removedFiles);
+            } catch (RuntimeException e) {
+                logger.error("Failed to update scan {} after deletion job {}", job.getScanId(), job.getJobId(), e);
+            }
+            job.finish();
+            logger.info("Deletion job {} {}: {} deleted, {} failed, {} skipped", job.getJobId(),
+                    job.getStatus().name().toLowerCase(), job.getDeleted(), job.getFailed(), job.getSkipped());
+        }
+    }
+
+    /**
+     * Waits for every lane, even after one failed or the coordinator was interrupted; an
+     * interrupt cancels the job so the lanes skip their remaining paths, and is restored after
+     */
+    private void awaitLanes(DeletionJob job, List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    job.requestCancel();
+                } catch (ExecutionException e) {
+                    logger.error("Deletion lane of job {} failed", job.getJobId(), e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Groups paths by the device holding them, looking up each parent directory only once
+     */
+    private Map<StorageDevices.Device, List<List<String>>> batchesByDevice(List<String> paths) {
+        Map<String, StorageDevices.Device> deviceByParent = new HashMap<>();
+        Map<StorageDevices.Device, List<List<String>>> batches = new LinkedHashMap<>();
+        for (String path : paths) {
+            Path parent;
+            try {
+                parent = Paths.get(path).toAbsolutePath().getParent();
+            } catch (InvalidPathException e) {
+                parent = null;
+            }
+            Path lookup = parent != null ? parent : Paths.get("").toAbsolutePath();
+            StorageDevices.Device device = deviceByParent.computeIfAbsent(lookup.toString(),
+                    key -> storageDevices.deviceOf(lookup));
+            List<List<String>> deviceBatches = batches.computeIfAbsent(device, key -> new ArrayList<>());
+            if (deviceBatches.isEmpty() || deviceBatches.get(deviceBatches.size() - 1).size() >= batchSize) {
+                deviceBatches.add(new ArrayList<>(batchSize));
+            }
+            deviceBatches.get(deviceBatches.size() - 1).add(path);
+        }
+        return batches;
+    }
+
+    private void deleteBatch(DeletionJob job, StorageDevices.Device device, List<String> batch,
+                             Collection<String> removedFiles) {
+        for (String path : batch) {
+            if (job.isCancelRequested() || Thread.currentThread().isInterrupted()) {
+                job.record(path, DeletionJob.Outcome.SKIPPED, null);
+                continue;
+            }
+            try {
+                device.acquireReader();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.record(path, DeletionJob.Outcome.SKIPPED, null);
+                continue;
+            }
+            try {
+                if (job.isDirectories()) {
+                    deleteDirectory(job, path, removedFiles);
+                } else {
+                    deleteFile(job, path, removedFiles);
+                }
+            } finally {
+                device.releaseReader();
+            }
+        }
+    }
+
+    private void deleteFile(DeletionJob job, String path, Collection<String> removedFiles) {
+        if (isArchiveMember(path)) {
+            job.record(path, DeletionJob.Outcome.WRONG_TYPE, "Path is inside an archive");
+            return;
+        }
+        try {
+            Path file = Paths.get(path);
+            if (Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+                job.record(path, DeletionJob.Outcome.WRONG_TYPE, "Path is a directory");
+                return;
+            }
+            delete(file);
+            removedFiles.add(path);
+            job.record(path, DeletionJob.Outcome.DELETED, null);
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            recordFailure(job, path, e);
+        }
+    }
+
+    private void deleteDirectory(DeletionJob job, String path, Collection<String> removedFiles) {
+        try {
+            Path directory = Paths.get(path);
+            if (!Files.readAttributes(directory, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory()) {
+                job.record(path, DeletionJob.Outcome.WRONG_TYPE, "Path is not a directory");
+                return;
+            }
+            // Depth first: files, then each directory once it is empty; links are removed, not followed
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    delete(file);
+                    removedFiles.add(file.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            job.record(path, DeletionJob.Outcome.DELETED, null);
+        } catch (IOException | InvalidPathException | SecurityException e) {
+            recordFailure(job, path, e);
+        }
+    }
+
+    /**
+     * True when the path names a member of an archive that exists, rather than a file on disk
+     */
+    private static boolean isArchiveMember(String path) {
+        for (int at = path.indexOf(ArchiveIndex.SEPARATOR); at >= 0; at = path.indexOf(ArchiveIndex.SEPARATOR, at + 1)) {
+            try {
+                if (Files.isRegularFile(Paths.get(path.substring(0, at)), LinkOption.NOFOLLOW_LINKS)) {
+                    return true;
+                }
+            } catch (InvalidPathException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void delete(Path path) throws IOException {
+        try {
+            Files.delete(path);
+        } catch (AccessDeniedException e) {
+            // Read-only files cannot be deleted on Windows; clear the flag once and retry
+            if (!path.toFile().setWritable(true)) {
+                throw e;
+            }
+            Files.delete(path);
+        }
+    }
+
+    private static void recordFailure(DeletionJob job, String path, Exception e) {
+        DeletionJob.Outcome outcome;
+        if (e instanceof NoSuchFileException) {
+            outcome = DeletionJob.Outcome.NOT_FOUND;
+        } else if (e instanceof AccessDeniedException || e instanceof SecurityException) {
+            outcome = DeletionJob.Outcome.ACCESS_DENIED;
+        } else {
+            outcome = DeletionJob.Outcome.FAILED;
+        }
+        if (outcome == DeletionJob.Outcome.FAILED) {
+            logger.warn("Failed to delete {}: {}", path, e.toString());
+        }
+        job.record(path, outcome, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    private void pruneFinishedJobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minusNanos(retentionMillis * 1_000_000L);
+        jobs.values().removeIf(job -> job.getStatus().isTerminal() && job.getEndTime().isBefore(cutoff));
+    }
+}
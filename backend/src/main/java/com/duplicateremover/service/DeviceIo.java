@@ -0,0 +1,142 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.DeviceStats;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.PathTrie;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One scan's view of a storage device: the shared device budget plus this scan's counters.
+ *
+ * Reads are accounted through {@link #afterRead(long)}, which the low-level readers call after
+ * every read. It applies to the device bound to the calling thread by {@link #call(IoCall)};
+ * reads on unbound threads (API calls, the confirm stage) are neither counted nor throttled.
+ */
+public class DeviceIo {
+
+    private static final ThreadLocal<DeviceIo> CURRENT = new ThreadLocal<>();
+
+    private final StorageDevices.Device device;
+    private final DeviceStats stats;
+
+    private DeviceIo(StorageDevices.Device device, DeviceStats stats) {
+        this.device = device;
+        this.stats = stats;
+    }
+
+    public StorageDevices.Device getDevice() { return device; }
+
+    public DeviceStats getStats() { return stats; }
+
+    /**
+     * A read against one device
+     */
+    public interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Performs a read holding one of the device's reader slots, with the bytes accounted to this
+     * device. Only the read itself should run inside, never a hand-off to another stage, so that
+     * a slot is never held while waiting for queue space.
+     */
+    public <T> T call(IoCall<T> read) throws IOException {
+        try {
+            device.acquireReader();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for device " + device.getName());
+        }
+        DeviceIo previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return read.call();
+        } finally {
+            CURRENT.set(previous);
+            device.releaseReader();
+        }
+    }
+
+    /**
+     * The device bound to the calling thread, or null
+     */
+    static DeviceIo current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs a read for a thread that already holds one of this device's reader slots and waits
+     * for the result, such as a guarded extraction; the slot is not taken a second time
+     */
+    <T> T callOnBehalf(IoCall<T> read) throws IOException {
+        DeviceIo previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return read.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Counts bytes read by the calling thread and waits out the device's bytes-per-second cap
+     */
+    public static void afterRead(long bytes) throws InterruptedIOException {
+        DeviceIo current = CURRENT.get();
+        if (current == null || bytes <= 0) {
+            return;
+        }
+        current.stats.addBytesRead(bytes);
+        long throttled = current.device.throttle(bytes);
+        if (throttled > 0) {
+            current.stats.addThrottledMillis(throttled);
+        }
+    }
+
+    /**
+     * Resolves the devices of one scan's files. Lookups are cached per directory, so the file
+     * store is only queried once per directory.
+     */
+    public static class Registry {
+        private final StorageDevices storageDevices;
+        private final Map<String, DeviceStats> stats;
+        private final Map<PathTrie.Node, DeviceIo> byDirectory = new ConcurrentHashMap<>();
+
+        /**
+         * @param stats where this scan's per-device counters are published, keyed by device name
+         */
+        public Registry(StorageDevices storageDevices, Map<String, DeviceStats> stats) {
+            this.storageDevices = storageDevices;
+            this.stats = stats;
+        }
+
+        public DeviceIo of(FileInfo file) {
+            return byDirectory.computeIfAbsent(file.getDirectory(), directory -> {
+                StorageDevices.Device device = storageDevices.deviceOf(Paths.get(pathOnDisk(file, directory)));
+                DeviceStats deviceStats = stats.computeIfAbsent(device.getName(), name -> new DeviceStats(
+                        name, device.getStorageType(), device.getWorkers(), device.getMaxBytesPerSecond()));
+                return new DeviceIo(device, deviceStats);
+            });
+        }
+
+        /**
+         * The directory, or for an archive member the archive it is read through, which exists on
+         * disk and has the same device
+         */
+        private static String pathOnDisk(FileInfo file, PathTrie.Node directory) {
+            if (file.isArchiveMember()) {
+                String path = file.getFilePath();
+                int at = path.indexOf(ArchiveIndex.SEPARATOR);
+                if (at > 0) {
+                    return path.substring(0, at);
+                }
+            }
+            return directory.getPath();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.DirectoryGroup;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.PathTrie;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds identical directory subtrees with one bottom-up pass over a Merkle tree of the scan.
+ *
+ * Each directory's digest is a SHA-256 over its entries sorted by name: file names with their
+ * sizes and content hashes, and subdirectory names with the subdirectories' digests. Directories
+ * are hashed deepest first, so every digest is built from finished child digests and each file
+ * and directory is visited once. A file without a full hash was proven unique by the funnel, so
+ * its directory and all ancestors can never match and are not hashed at all.
+ *
+ * Only the highest matching level is reported: a group is left out when its directories are
+ * exactly the same-named children of an already matching group of parents. A directory keeps
+ * its digest, counts and links only; its file and child lists are dropped once it is hashed.
+ */
+final class DirectoryMerkle {
+
+    private static final byte FILE = 'F';
+    private static final byte DIRECTORY = 'D';
+
+    private DirectoryMerkle() {
+    }
+
+    /**
+     * One directory of the scan while it is hashed
+     */
+    private static final class Directory {
+        private final PathTrie.Node node;
+        private final Directory parent;
+        private List<FileInfo> files;
+        private List<Directory> children;
+        private HashKey digest;
+        private boolean duplicated;
+        private int fileCount;
+        private long bytes;
+
+        private Directory(PathTrie.Node node, Directory parent) {
+            this.node = node;
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Duplicate directory groups among the given files, keyed by subtree digest. Directories
+     * above scanDirectory are not considered.
+     */
+    static Map<String, DirectoryGroup> findDuplicates(Collection<FileInfo> files, String scanDirectory) {
+        int rootDepth = depthOf(scanDirectory);
+        Map<PathTrie.Node, Directory> directories = new IdentityHashMap<>();
+        List<List<Directory>> byDepth = new ArrayList<>();
+        for (FileInfo file : files) {
+            PathTrie.Node node = file.getDirectory();
+            // Archive members are not directories on disk
+            if (node == null || node.getDepth() < rootDepth || file.isArchiveMember()) {
+                continue;
+            }
+            Directory directory = directory(node, rootDepth, directories, byDepth);
+            if (directory.files == null) {
+                directory.files = new ArrayList<>(4);
+            }
+            directory.files.add(file);
+        }
+
+        MessageDigest sha256 = sha256();
+        Map<HashKey, List<Directory>> byDigest = new HashMap<>();
+        for (int depth = byDepth.size() - 1; depth >= 0; depth--) {
+            for (Directory directory : byDepth.get(depth)) {
+                hash(directory, sha256);
+                if (directory.digest != null) {
+                    byDigest.computeIfAbsent(directory.digest, key -> new ArrayList<>(2)).add(directory);
+                }
+            }
+        }
+
+        List<List<Directory>> matches = new ArrayList<>();
+        for (List<Directory> group : byDigest.values()) {
+            if (group.size() > 1) {
+                group.forEach(directory -> directory.duplicated = true);
+                matches.add(group);
+            }
+        }
+        Map<String, DirectoryGroup> groups = new ConcurrentHashMap<>();
+        for (List<Directory> group : matches) {
+            if (coveredByParents(group)) {
+                continue;
+            }
+            List<String> paths = new ArrayList<>(group.size());
+            group.forEach(directory -> paths.add(directory.node.getPath()));
+            Collections.sort(paths);
+            Directory first = group.get(0);
+            String key = first.digest.toString();
+            groups.put(key, new DirectoryGroup(key, paths, first.fileCount, first.bytes));
+        }
+        return groups;
+    }
+
+    /**
+     * The directory for a node, creating it and any missing ancestors down from the scan root
+     */
+    private static Directory directory(PathTrie.Node node, int rootDepth, Map<PathTrie.Node, Directory> directories,
+                                       List<List<Directory>> byDepth) {
+        Directory directory = directories.get(node);
+        if (directory != null) {
+            return directory;
+        }
+        Directory parent = node.getDepth() > rootDepth
+                ? directory(node.getParent(), rootDepth, directories, byDepth)
+                : null;
+        directory = new Directory(node, parent);
+        directories.put(node, directory);
+        int level = node.getDepth() - rootDepth;
+        while (byDepth.size() <= level) {
+            byDepth.add(new ArrayList<>());
+        }
+        byDepth.get(level).add(directory);
+        if (parent != null) {
+            if (parent.children == null) {
+                parent.children = new ArrayList<>(4);
+            }
+            parent.children.add(directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Sets the digest, file count and bytes of a directory whose children are already hashed;
+     * the digest stays null when anything below it is unique
+     */
+    private static void hash(Directory directory, MessageDigest sha256) {
+        List<FileInfo> files = directory.files != null ? directory.files : Collections.emptyList();
+        List<Directory> children = directory.children != null ? directory.children : Collections.emptyList();
+        directory.files = null;
+        directory.children = null;
+
+        int fileCount = files.size();
+        long bytes = 0;
+        for (FileInfo file : files) {
+            if (!file.hasHash()) {
+                return;
+            }
+            bytes += file.getSize();
+        }
+        for (Directory child : children) {
+            if (child.digest == null) {
+                return;
+            }
+            fileCount += child.fileCount;
+            bytes += child.bytes;
+        }
+
+        // Entries in name order; file and directory names never collide within one directory
+        List<Object> entries = new ArrayList<>(files.size() + children.size());
+        entries.addAll(files);
+        entries.addAll(children);
+        entries.sort(Comparator.comparing(DirectoryMerkle::name));
+        sha256.reset();
+        for (Object entry : entries) {
+            if (entry instanceof FileInfo) {
+                FileInfo file = (FileInfo) entry;
+                sha256.update(FILE);
+                update(sha256, file.getFileName());
+                updateLong(sha256, file.getSize());
+                sha256.update(file.getHashKey().getDigest());
+            } else {
+                Directory child = (Directory) entry;
+                sha256.update(DIRECTORY);
+                update(sha256, child.node.getName());
+                sha256.update(child.digest.getDigest());
+            }
+        }
+        directory.digest = HashKey.wrap(sha256.digest());
+        directory.fileCount = fileCount;
+        directory.bytes = bytes;
+    }
+
+    /**
+     * True when the group only repeats a match one level up: every directory's parent is
+     * duplicated, all parents have the same digest and each parent holds one of the directories
+     */
+    private static boolean coveredByParents(List<Directory> group) {
+        HashKey parentDigest = null;
+        Set<Directory> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Directory directory : group) {
+            Directory parent = directory.parent;
+            if (parent == null || !parent.duplicated || !parents.add(parent)) {
+                return false;
+            }
+            if (parentDigest == null) {
+                parentDigest = parent.digest;
+            } else if (!parentDigest.equals(parent.digest)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String name(Object entry) {
+        return entry instanceof FileInfo ? ((FileInfo) entry).getFileName() : ((Directory) entry).node.getName();
+    }
+
+    // Length-prefixed so that entry boundaries are unambiguous
+    private static void update(MessageDigest sha256, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        updateLong(sha256, bytes.length);
+        sha256.update(bytes);
+    }
+
+    private static void updateLong(MessageDigest sha256, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            sha256.update((byte) (value >>> shift));
+        }
+    }
+
+    private static int depthOf(String scanDirectory) {
+        if (scanDirectory == null) {
+            return 0;
+        }
+        try {
+            return Paths.get(scanDirectory).toAbsolutePath().normalize().getNameCount();
+        } catch (InvalidPathException e) {
+            return 0;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
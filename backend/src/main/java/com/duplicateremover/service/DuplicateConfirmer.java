@@ -0,0 +1,141 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.IoStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verifies groups produced by a non-cryptographic hash, either by SHA-256 or byte by byte.
+ *
+ * Only files inside a colliding group are read again. The largest verified subset keeps the
+ * group's key; any file that turns out to differ is re-keyed by its SHA-256 hash, which can only
+ * match files whose equality SHA-256 proves. Files that cannot be read are left out of every group.
+ */
+public class DuplicateConfirmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateConfirmer.class);
+
+    private final FileHashService fileHashService;
+    private final ScanOptions options;
+    private final FileScanService.ScanProgress progress;
+    private final HashAlgorithm sha256;
+
+    public DuplicateConfirmer(FileHashService fileHashService, ScanOptions options,
+                              FileScanService.ScanProgress progress) {
+        this.fileHashService = fileHashService;
+        this.options = options;
+        this.progress = progress;
+        this.sha256 = fileHashService.getAlgorithm(Sha256HashAlgorithm.NAME);
+    }
+
+    public boolean isEnabled() {
+        return options.getConfirmation() != ScanOptions.Confirmation.NONE;
+    }
+
+    /**
+     * Splits a colliding group into groups of provably equal files, updating the hash of every
+     * re-keyed file and recording how each returned group was established in groupAlgorithms.
+     * Returns the group unchanged when confirmation is disabled.
+     */
+    public Map<String, List<FileInfo>> confirmGroup(String hash, List<FileInfo> group,
+                                                    Map<String, String> groupAlgorithms) {
+        Map<String, List<FileInfo>> confirmed = new LinkedHashMap<>();
+        if (!isEnabled() || group.size() < 2) {
+            confirmed.put(hash, group);
+            return confirmed;
+        }
+
+        List<List<FileInfo>> partitions = options.getConfirmation() == ScanOptions.Confirmation.BYTES
+                ? partitionByBytes(group)
+                : partitionBySha256(group);
+
+        List<FileInfo> largest = partitions.stream().max((a, b) -> a.size() - b.size()).orElse(new ArrayList<>());
+        for (List<FileInfo> partition : partitions) {
+            String key = hash;
+            String algorithm = options.getGroupAlgorithm();
+            if (partition != largest) {
+                algorithm = Sha256HashAlgorithm.NAME;
+                key = sha256Key(partition.get(0));
+                if (key == null) {
+                    continue;
+                }
+                for (FileInfo file : partition) {
+                    file.setHash(key);
+                }
+                logger.info("Hash collision in group {}: split off {} file(s) as {}", hash, partition.size(), key);
+            }
+            for (FileInfo file : partition) {
+                file.setDuplicate(partition.size() > 1);
+            }
+            confirmed.put(key, partition);
+            groupAlgorithms.putIfAbsent(key, algorithm);
+        }
+        return confirmed;
+    }
+
+    private List<List<FileInfo>> partitionBySha256(List<FileInfo> group) {
+        Map<String, List<FileInfo>> byKey = new LinkedHashMap<>();
+        for (FileInfo file : group) {
+            String key = sha256Key(file);
+            if (key != null) {
+                byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(file);
+            }
+        }
+        return new ArrayList<>(byKey.values());
+    }
+
+    private List<List<FileInfo>> partitionByBytes(List<FileInfo> group) {
+        List<FileInfo> textHashed = new ArrayList<>();
+        List<List<FileInfo>> partitions = new ArrayList<>();
+        IoStats ioStats = progress.getIoStats();
+        for (FileInfo file : group) {
+            try {
+                // Documents match on extracted text, which only SHA-256 can confirm
+                if (fileHashService.isContentHashed(file.getFilePath())) {
+                    textHashed.add(file);
+                    continue;
+                }
+                List<FileInfo> match = null;
+                for (List<FileInfo> partition : partitions) {
+                    if (fileHashService.contentEquals(partition.get(0).getFilePath(), file.getFilePath(), ioStats)) {
+                        match = partition;
+                        break;
+                    }
+                }
+                if (match == null) {
+                    match = new ArrayList<>();
+                    partitions.add(match);
+                }
+                match.add(file);
+            } catch (IOException e) {
+                reportFailure(file, e);
+            }
+        }
+        if (!textHashed.isEmpty()) {
+            partitions.addAll(partitionBySha256(textHashed));
+        }
+        return partitions;
+    }
+
+    private String sha256Key(FileInfo file) {
+        try {
+            return fileHashService.generateHash(file.getFilePath(), sha256);
+        } catch (IOException e) {
+            reportFailure(file, e);
+            return null;
+        }
+    }
+
+    private void reportFailure(FileInfo file, IOException e) {
+        logger.warn("Failed to confirm duplicate: {}", file.getFilePath(), e);
+        progress.addError("Failed to confirm: " + file.getFilePath() + " - " + e.getMessage());
+        file.setDuplicate(false);
+    }
+}
@@ -0,0 +1,386 @@
+package com.duplicateremover.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.FilterInputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs document text extraction with a time and memory budget per file.
+ *
+ * Extraction runs on its own threads while the scan worker waits at most the time budget. The
+ * stream the parser reads, the writer it fills and the extractor's own page or paragraph loop
+ * all check the budget, so an extraction that runs out stops at its next check. One that never
+ * reaches a check again is abandoned: it gives up its slot, its thread is not reused, and its
+ * channel is closed by the worker with the file. At most a limited number of abandoned
+ * extractions may still be running; beyond that, and when no slot frees up within the queue
+ * wait, documents are not handed off at all. Memory is budgeted as the bytes the extracting
+ * thread allocates, where the JVM can measure it, and documents above a size limit are not
+ * parsed.
+ *
+ * When a budget runs out the caller falls back to hashing the file's bytes, exactly as for a
+ * document that cannot be parsed, and the fallback is counted by reason. Time, memory and
+ * busy fallbacks depend on load, so they mark the file's context and its hash is not cached.
+ */
+@Service
+public class ExtractionGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionGuard.class);
+
+    // Stream and writer calls between checks of the allocation counter, which is not free
+    private static final int ALLOCATION_CHECK_INTERVAL = 64;
+
+    public enum Fallback {
+        TIMEOUT, MEMORY, BUSY, TOO_LARGE, ERROR
+    }
+
+    /**
+     * Extracts text from the guarded stream into the guarded writer; false when there is none.
+     * Loops over pages or paragraphs call the checkpoint, since a parser may work from data it
+     * has already read without reading or writing again.
+     */
+    @FunctionalInterface
+    public interface Extractor {
+        boolean extract(InputStream in, Writer out, Checkpoint checkpoint) throws Exception;
+    }
+
+    /**
+     * Throws once the extraction's budget has run out
+     */
+    public interface Checkpoint {
+        void check();
+    }
+
+    @Autowired
+    private ScanExecutors scanExecutors;
+
+    @Value("${scan.extract.timeout-ms:30000}")
+    private long timeoutMillis;
+
+    // Bytes the extracting thread may allocate per file; 0 disables the check
+    @Value("${scan.extract.max-allocated-bytes:1073741824}")
+    private long maxAllocatedBytes;
+
+    // Larger documents are byte-hashed without parsing
+    @Value("${scan.extract.max-document-bytes:268435456}")
+    private long maxDocumentBytes;
+
+    @Value("${scan.extract.threads:0}")
+    private int threads;
+
+    // How long a scan worker waits for an extraction slot before hashing bytes instead
+    @Value("${scan.extract.queue-wait-ms:5000}")
+    private long queueWaitMillis;
+
+    // Timed-out extractions that may still be running; 0 allows as many as there are threads
+    @Value("${scan.extract.max-abandoned:0}")
+    private int maxAbandoned;
+
+    private ExecutorService executor;
+    private Semaphore slots;
+    private int abandonedLimit;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    private final AtomicInteger abandoned = new AtomicInteger();
+    private final AtomicLong extracted = new AtomicLong();
+    private final Map<Fallback, AtomicLong> fallbacks = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // Never blocks: the slots bound the running extractions, and abandoned ones give theirs up
+        executor = scanExecutors.newElasticStage("extract");
+        slots = new Semaphore(count, true);
+        abandonedLimit = maxAbandoned > 0 ? maxAbandoned : count;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (maxAllocatedBytes > 0 && bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else if (maxAllocatedBytes > 0) {
+            logger.warn("This JVM cannot measure per-thread allocation; extraction only has a time budget");
+        }
+        for (Fallback fallback : Fallback.values()) {
+            fallbacks.put(fallback, new AtomicLong());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getMaxDocumentBytes() {
+        return maxDocumentBytes;
+    }
+
+    /**
+     * Runs the extractor within the budgets and returns its result, or false after counting a
+     * fallback. Nothing reaches out once the budget has run out, so the caller may hash the
+     * file's bytes instead. The calling worker waits at most the queue wait plus the time
+     * budget.
+     */
+    public boolean extract(FileProcessingContext context, Writer out, String format, Extractor extractor)
+            throws IOException {
+        if (context.getSize() > maxDocumentBytes) {
+            return fallback(context, format, Fallback.TOO_LARGE, null);
+        }
+        if (abandoned.get() >= abandonedLimit) {
+            return fallback(context, format, Fallback.BUSY, null);
+        }
+        try {
+            if (!slots.tryAcquire(queueWaitMillis, TimeUnit.MILLISECONDS)) {
+                return fallback(context, format, Fallback.BUSY, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to extract " + context.getFilePath(), e);
+        }
+        Budget budget = new Budget(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        DeviceIo device = DeviceIo.current();
+        FutureTask<Boolean> result = new FutureTask<>(() -> {
+            try {
+                budget.start();
+                DeviceIo.IoCall<Boolean> call = () -> {
+                    try (InputStream in = new GuardedInputStream(context.openStream(), budget)) {
+                        return extractor.extract(in, new GuardedWriter(out, budget), budget);
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                };
+                return device != null ? device.callOnBehalf(call) : call.call();
+            } finally {
+                budget.finish();
+            }
+        });
+        try {
+            executor.execute(result);
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            return fallback(context, format, Fallback.ERROR, e);
+        }
+        try {
+            boolean extractedText = result.get(Math.max(0, budget.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (budget.exceeded != null) {
+                // The parser swallowed the budget error, so the text it produced is incomplete
+                return fallback(context, format, budget.exceeded, null);
+            }
+            extracted.incrementAndGet();
+            return extractedText;
+        } catch (TimeoutException e) {
+            // Not interrupted: interrupting a channel read would close the channel the caller hashes next
+            budget.abort(Fallback.TIMEOUT);
+            budget.abandon();
+            return fallback(context, format, Fallback.TIMEOUT, null);
+        } catch (InterruptedException e) {
+            budget.abort(Fallback.TIMEOUT);
+            budget.abandon();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + context.getFilePath(), e);
+        } catch (ExecutionException e) {
+            Fallback reason = budget.exceeded != null ? budget.exceeded : Fallback.ERROR;
+            return fallback(context, format, reason, reason == Fallback.ERROR ? e.getCause() : null);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("extracted", extracted.get());
+        Map<String, Long> byReason = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<Fallback, AtomicLong> entry : fallbacks.entrySet()) {
+            byReason.put(entry.getKey().name().toLowerCase(), entry.getValue().get());
+            total += entry.getValue().get();
+        }
+        stats.put("fallbacks", total);
+        stats.put("fallbacksByReason", byReason);
+        stats.put("abandoned", abandoned.get());
+        stats.put("timeoutMs", timeoutMillis);
+        stats.put("maxAllocatedBytes", threadBean != null ? maxAllocatedBytes : 0);
+        stats.put("maxDocumentBytes", maxDocumentBytes);
+        return stats;
+    }
+
+    private boolean fallback(FileProcessingContext context, String format, Fallback reason, Throwable error) {
+        fallbacks.get(reason).incrementAndGet();
+        if (reason == Fallback.TIMEOUT || reason == Fallback.MEMORY || reason == Fallback.BUSY) {
+            context.markExtractionOverBudget();
+        }
+        if (error != null) {
+            logger.warn("Failed to extract {} text, hashing bytes instead: {}", format, context.getFilePath(), error);
+        } else {
+            logger.info("{} text extraction over budget ({}), hashing bytes instead: {}",
+                    format, reason.name().toLowerCase(), context.getFilePath());
+        }
+        return false;
+    }
+
+    /**
+     * Thrown from a guarded stream or writer once the budget has run out. Unchecked so that
+     * parsers which recover from IOExceptions do not swallow it.
+     */
+    private static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private BudgetExceededException(Fallback reason) {
+            super("Extraction budget exceeded: " + reason.name().toLowerCase(), null, false, false);
+        }
+    }
+
+    /**
+     * The budget of one extraction, checked from the extracting thread. It also holds the
+     * extraction's slot, which goes back when the extraction finishes or is abandoned, whichever
+     * comes first.
+     */
+    private final class Budget implements Checkpoint {
+        private static final int RUNNING = 0;
+        private static final int FINISHED = 1;
+        private static final int ABANDONED = 2;
+
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private volatile Fallback exceeded;
+        private long threadId;
+        private long allocatedAtStart = -1;
+        private int calls;
+
+        private Budget(long deadline) {
+            this.deadline = deadline;
+        }
+
+        private void start() {
+            if (threadBean != null) {
+                threadId = Thread.currentThread().getId();
+                // -1 where unsupported, e.g. on virtual threads
+                allocatedAtStart = threadBean.getThreadAllocatedBytes(threadId);
+            }
+        }
+
+        private void abort(Fallback reason) {
+            if (exceeded == null) {
+                exceeded = reason;
+            }
+        }
+
+        /**
+         * Called by the extracting thread when it is done, in time or not
+         */
+        private void finish() {
+            if (state.getAndSet(FINISHED) == ABANDONED) {
+                abandoned.decrementAndGet();
+            } else {
+                slots.release();
+            }
+        }
+
+        /**
+         * Called by the waiting worker when it gives up on the extraction
+         */
+        private void abandon() {
+            abandoned.incrementAndGet();
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                logger.warn("Abandoned an extraction still running past its budget; {} abandoned", abandoned.get());
+                slots.release();
+            } else {
+                abandoned.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void check() {
+            if (exceeded == null) {
+                if (System.nanoTime() - deadline > 0) {
+                    abort(Fallback.TIMEOUT);
+                } else if (allocatedAtStart >= 0 && ++calls % ALLOCATION_CHECK_INTERVAL == 0
+                        && threadBean.getThreadAllocatedBytes(threadId) - allocatedAtStart > maxAllocatedBytes) {
+                    abort(Fallback.MEMORY);
+                }
+            }
+            if (exceeded != null) {
+                throw new BudgetExceededException(exceeded);
+            }
+        }
+    }
+
+    private static final class GuardedInputStream extends FilterInputStream {
+        private final Budget budget;
+
+        private GuardedInputStream(InputStream in, Budget budget) {
+            super(in);
+            this.budget = budget;
+        }
+
+        @Override
+        public int read() throws IOException {
+            budget.check();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            budget.check();
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            budget.check();
+            return super.skip(n);
+        }
+    }
+
+    private static final class GuardedWriter extends FilterWriter {
+        private final Budget budget;
+
+        private GuardedWriter(Writer out, Budget budget) {
+            super(out);
+            this.budget = budget;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            budget.check();
+            super.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            budget.check();
+            super.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            budget.check();
+            super.write(str, off, len);
+        }
+
+        @Override
+        public void close() {
+            // The caller owns the target writer
+        }
+    }
+}
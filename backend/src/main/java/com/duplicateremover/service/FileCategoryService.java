@@ -17,16 +17,28 @@ public class FileCategoryService {
     private FileHashService fileHashService;
 
     /**
-     * Categorizes files based on their content rather than extensions
+     * Categorizes files based on their content rather than extensions.
+     * Files already categorized during the scan are left as they are and not read again.
      */
     public List<FileInfo> categorizeFiles(List<FileInfo> files) {
         for (FileInfo file : files) {
-            String category = categorizeFileByContent(file);
-            file.setCategory(category);
+            if (file.getCategory() == null) {
+                file.setCategory(categorizeFileByContent(file));
+            }
         }
         return files;
     }
 
+    /**
+     * Categorizes a file from a content type the caller already detected, so no file access is needed
+     */
+    public String categorize(String contentBasedCategory, String fileName) {
+        if ("Unknown".equals(contentBasedCategory)) {
+            return categorizeByFilenamePatterns(fileName);
+        }
+        return contentBasedCategory;
+    }
+
     /**
      * Categorizes a single file based on its content using magic number detection
      */
@@ -1,63 +1,336 @@
 package com.duplicateremover.service;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import com.duplicateremover.model.ContainerType;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.IoStats;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
 import org.apache.poi.hwpf.HWPFDocument;
+import org.apache.poi.hwpf.usermodel.Range;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
+import javax.annotation.PostConstruct;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 
 @Service
 public class FileHashService {
 
     private static final Logger logger = LoggerFactory.getLogger(FileHashService.class);
 
-    public String generateSHA256Hash(String filePath) throws IOException {
+    // In-memory budget for a PDF before PDFBox spills it to a scratch file
+    private static final long PDF_MAIN_MEMORY_BYTES = 64L * 1024 * 1024;
+    // Pages stripped per call; the budget is checked before each call as well as on every read and write
+    private static final int PDF_PAGES_PER_CALL = 1;
+    private static final int TEXT_CHUNK_CHARS = 8192;
+    private static final int MEMBER_BUFFER_BYTES = 64 * 1024;
+
+    private static final String ODF_TEXT_NS = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+    private static final XMLInputFactory ODF_XML = XMLInputFactory.newFactory();
+
+    static {
+        // content.xml is untrusted input: no DTDs, no external entities
+        ODF_XML.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        ODF_XML.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    @Autowired
+    private HashCacheService hashCacheService;
+
+    @Autowired
+    private ExtractionGuard extractionGuard;
+
+    @Autowired
+    private List<HashAlgorithm> hashAlgorithms;
+
+    @Value("${scan.hashing.algorithm:" + Sha256HashAlgorithm.NAME + "}")
+    private String defaultAlgorithmName;
+
+    @Value("${scan.hashing.mmap-threshold-bytes:67108864}")
+    private long mmapThresholdBytes;
+
+    @Value("${scan.hashing.mmap-window-bytes:268435456}")
+    private long mmapWindowBytes;
+
+    @Value("${scan.hashing.buffer-bytes:1048576}")
+    private int bufferBytes;
+
+    // Memory plus scratch file PDFBox may use for one document
+    @Value("${scan.extract.pdf-max-storage-bytes:1073741824}")
+    private long pdfMaxStorageBytes;
+
+    private ChannelHasher channelHasher;
+    private final Map<String, HashAlgorithm> algorithmsByName = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        channelHasher = new ChannelHasher(mmapThresholdBytes, mmapWindowBytes, bufferBytes);
+        for (HashAlgorithm algorithm : hashAlgorithms) {
+            algorithmsByName.put(algorithm.getName(), algorithm);
+        }
+        getAlgorithm(defaultAlgorithmName);
+    }
+
+    /**
+     * Looks up a hash algorithm by name; null or blank selects the configured default
+     */
+    public HashAlgorithm getAlgorithm(String name) {
+        String algorithmName = name == null || name.trim().isEmpty() ? defaultAlgorithmName : name.trim();
+        HashAlgorithm algorithm = algorithmsByName.get(algorithmName.toLowerCase());
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Unknown hash algorithm: " + algorithmName
+                    + " (supported: " + String.join(", ", algorithmsByName.keySet()) + ")");
+        }
+        return algorithm;
+    }
+
+    public String generateHash(String filePath, HashAlgorithm algorithm) throws IOException {
+        // Unchanged files (same size, mtime and inode) reuse the hash from an earlier scan
+        HashCacheService.FileVersion version = HashCacheService.FileVersion.of(Paths.get(filePath));
+        HashCacheService.CacheEntry cached = hashCacheService.get(filePath, version, algorithm.getName());
+        if (cached != null) {
+            logger.debug("Using cached hash for file: {}", filePath);
+            return cached.getHash();
+        }
+
+        try (FileProcessingContext context = FileProcessingContext.open(filePath, new IoStats())) {
+            String hash = computeHash(context, algorithm);
+            cacheHash(context, version, algorithm, hash, null);
+            return hash;
+        }
+    }
+
+    /**
+     * Returns the cached hash and category of this exact file version without touching the file,
+     * or null
+     */
+    public HashCacheService.CacheEntry findCachedHash(String filePath, HashCacheService.FileVersion version,
+                                                      HashAlgorithm algorithm) {
+        return hashCacheService.get(filePath, version, algorithm.getName());
+    }
+
+    /**
+     * Hashes the file and stores the result, together with its category, in the cache, skipping
+     * the cache lookup. Used by callers that already missed via {@link #findCachedHash}.
+     */
+    public String generateAndCacheHash(String filePath, String category, HashAlgorithm algorithm,
+                                       IoStats ioStats) throws IOException {
+        HashCacheService.FileVersion version = HashCacheService.FileVersion.of(Paths.get(filePath));
+        ioStats.recordStat();
+        try (FileProcessingContext context = FileProcessingContext.open(filePath, ioStats)) {
+            String hash = computeHash(context, algorithm);
+            cacheHash(context, version, algorithm, hash, category);
+            return hash;
+        }
+    }
+
+    /**
+     * Hashes a member of an archive exactly like a file and caches it under the member's path and
+     * the archive's version, so an unchanged archive is not read again by later scans
+     */
+    public String generateAndCacheMemberHash(FileProcessingContext member, HashCacheService.FileVersion archiveVersion,
+                                             String category, HashAlgorithm algorithm) throws IOException {
+        String hash = computeHash(member, algorithm);
+        cacheHash(member, archiveVersion, algorithm, hash, category);
+        return hash;
+    }
+
+    /**
+     * Caches a hash unless it is a byte hash standing in for text that could not be extracted
+     * under load; a later scan may extract it and match its text-equal copies
+     */
+    private void cacheHash(FileProcessingContext context, HashCacheService.FileVersion version,
+                           HashAlgorithm algorithm, String hash, String category) {
+        if (context.isExtractionOverBudget()) {
+            logger.debug("Not caching the byte hash of a document extracted over budget: {}", context.getFilePath());
+            return;
+        }
+        hashCacheService.put(context.getFilePath(), version, algorithm.getName(), hash, category);
+    }
+
+    /**
+     * Returns the cached perceptual hash of this exact image version without touching the file,
+     * or null
+     */
+    public Long findCachedPerceptualHash(String filePath, HashCacheService.FileVersion version) {
+        HashCacheService.CacheEntry cached = hashCacheService.get(filePath, version, PerceptualHash.NAME);
+        return cached != null ? Long.parseUnsignedLong(cached.getHash(), 16) : null;
+    }
+
+    /**
+     * Decodes an image at reduced resolution, computes its perceptual hash and caches it. Throws
+     * an IOException for images ImageIO cannot read.
+     */
+    public long generateAndCachePerceptualHash(String filePath, HashCacheService.FileVersion version,
+                                               IoStats ioStats) throws IOException {
+        long hash;
+        try (FileProcessingContext context = FileProcessingContext.open(filePath, ioStats)) {
+            hash = PerceptualHash.compute(context);
+        }
+        hashCacheService.put(filePath, version, PerceptualHash.NAME, FileInfo.formatPerceptualHash(hash), null);
+        return hash;
+    }
+
+    private String computeHash(FileProcessingContext context, HashAlgorithm algorithm) throws IOException {
         // First detect file type
-        String fileType = detectFileTypeFromContent(filePath);
+        String fileType = detectFileType(context);
         
         // For all file types, try to extract text content for cross-format comparison
-        String contentHash = generateUniversalContentHash(filePath, fileType);
+        String contentHash = generateUniversalContentHash(context, fileType, algorithm);
         if (contentHash != null) {
-            logger.debug("Using universal content hashing for file: {} (type: {})", filePath, fileType);
+            logger.debug("Using universal content hashing for file: {} (type: {})", context.getFilePath(), fileType);
             return contentHash;
         }
         
         // Fallback to standard hashing for files that don't support text extraction
-        logger.debug("Using standard hashing for file: {} (type: {})", filePath, fileType);
-        try (FileInputStream fis = new FileInputStream(filePath)) {
-            return DigestUtils.sha256Hex(fis);
+        logger.debug("Using standard hashing for file: {} (type: {})", context.getFilePath(), fileType);
+        HashAlgorithm.Hasher hasher = algorithm.newHasher();
+        if (context.isArchiveMember()) {
+            // A member is a range of its archive's channel, possibly compressed
+            try (InputStream in = context.openStream()) {
+                byte[] buffer = new byte[MEMBER_BUFFER_BYTES];
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    hasher.update(buffer, 0, read);
+                }
+            }
+        } else {
+            channelHasher.update(hasher, context.getChannel(), context.getSize(), context.getIoStats());
         }
+        return hasher.digestHex();
+    }
+
+    /**
+     * Compares two files byte by byte. Only meaningful for byte-hashed files; content-hashed
+     * documents in different formats are equal without sharing any bytes.
+     */
+    public boolean contentEquals(String firstPath, String secondPath, IoStats ioStats) throws IOException {
+        try (FileProcessingContext first = FileProcessingContext.open(firstPath, ioStats);
+             FileProcessingContext second = FileProcessingContext.open(secondPath, ioStats)) {
+            if (first.getSize() != second.getSize()) {
+                return false;
+            }
+            ByteBuffer firstBuffer = ByteBuffer.allocate((int) Math.min(first.getSize(), bufferBytes));
+            ByteBuffer secondBuffer = ByteBuffer.allocate(firstBuffer.capacity());
+            for (long position = 0; position < first.getSize(); position += firstBuffer.capacity()) {
+                int length = (int) Math.min(firstBuffer.capacity(), first.getSize() - position);
+                firstBuffer.clear().limit(length);
+                secondBuffer.clear().limit(length);
+                first.readFully(firstBuffer, position);
+                second.readFully(secondBuffer, position);
+                if (!firstBuffer.flip().equals(secondBuffer.flip())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public boolean isContentHashed(String filePath) throws IOException {
+        try (FileProcessingContext context = FileProcessingContext.open(filePath, new IoStats())) {
+            return isContentHashed(context);
+        }
+    }
+
+    /**
+     * Returns true when the hash of this file is derived from its extracted text rather than its
+     * raw bytes. Such files can match other files of a different size, so size-based candidate
+     * filtering must not be applied to them.
+     */
+    public boolean isContentHashed(FileProcessingContext context) {
+        switch (detectFileType(context)) {
+            case "Documents":
+                // Spreadsheets and presentations are hashed by their bytes
+                return context.getContainerType() == null || context.getContainerType().isTextExtracted();
+            case "Images":
+            case "Applications":
+            case "Archives":
+            case "Audio":
+            case "Videos":
+                return false;
+            default:
+                // Unknown and Others go through generic text extraction, which only succeeds for text
+                return isTextContent(context.getHeader(), context.getHeaderLength());
+        }
+    }
+
+    /**
+     * Generates a cheap hash over the file size plus the first and last sampleBytes of the file.
+     * Equal partial hashes do not prove equality; they only mark candidates for a full hash.
+     */
+    public HashKey generatePartialHash(FileProcessingContext context, int sampleBytes,
+                                      HashAlgorithm algorithm) throws IOException {
+        long size = context.getSize();
+        HashAlgorithm.Hasher hasher = algorithm.newHasher();
+        byte[] sizeBytes = Long.toString(size).getBytes(StandardCharsets.US_ASCII);
+        hasher.update(sizeBytes, 0, sizeBytes.length);
+
+        int headLength = (int) Math.min(size, sampleBytes);
+        if (headLength <= context.getHeaderLength()) {
+            // Already in memory from opening the file
+            hasher.update(context.getHeader(), 0, headLength);
+        } else {
+            ByteBuffer head = ByteBuffer.allocate(headLength);
+            context.readFully(head, 0);
+            hasher.update(head.flip());
+        }
+
+        long tailStart = Math.max(headLength, size - sampleBytes);
+        if (tailStart < size) {
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - tailStart));
+            context.readFully(tail, tailStart);
+            hasher.update(tail.flip());
+        }
+        return HashKey.wrap(hasher.digest());
     }
 
     /**
      * Generates a universal content hash that can be compared across different file formats
      */
-    private String generateUniversalContentHash(String filePath, String fileType) throws IOException {
+    private String generateUniversalContentHash(FileProcessingContext context, String fileType,
+                                                HashAlgorithm algorithm) throws IOException {
+        String filePath = context.getFilePath();
         try {
-            String extractedText = extractTextContent(filePath, fileType);
-            if (extractedText != null && !extractedText.trim().isEmpty()) {
-                // Normalize text content (remove extra whitespace, normalize line endings)
-                String normalizedText = normalizeText(extractedText);
-                String hash = DigestUtils.sha256Hex(normalizedText.getBytes("UTF-8"));
-                
+            // Extractors write into the normalizer, which hashes as it goes instead of building the text
+            TextNormalizer normalizer = new TextNormalizer(algorithm.newHasher());
+            if (!extractTextContent(context, fileType, normalizer)) {
+                // Partial text from a failed or aborted extraction must never become a hash
+                return null;
+            }
+            HashAlgorithm.Hasher hasher = normalizer.finish();
+            if (!normalizer.isEmpty()) {
+                String hash = hasher.digestHex();
+
                 logger.debug("Successfully extracted text from {} (type: {}). Text length: {}, Hash: {}", 
-                           filePath, fileType, normalizedText.length(), hash.substring(0, 8) + "...");
+                           filePath, fileType, normalizer.getLength(), hash.substring(0, 8) + "...");
                 
                 return hash;
             } else {
@@ -71,12 +344,14 @@ public class FileHashService {
     }
 
     /**
-     * Extracts text content from any supported file type
+     * Extracts text content from any supported file type into the writer.
+     * Returns false when the type has no extractable text or extraction failed.
      */
-    private String extractTextContent(String filePath, String fileType) throws IOException {
+    private boolean extractTextContent(FileProcessingContext context, String fileType, Writer out) throws IOException {
+        String filePath = context.getFilePath();
         switch (fileType) {
             case "Documents":
-                return extractDocumentText(filePath);
+                return extractDocumentText(context, out);
             case "Images":
                 return extractImageText(filePath);
             case "Applications":
@@ -88,169 +363,230 @@ public class FileHashService {
             case "Videos":
                 return extractVideoText(filePath);
             default:
-                return extractGenericText(filePath);
+                return extractGenericText(context, out);
         }
     }
 
     /**
      * Extracts text from document files (PDF, DOCX, DOC, etc.)
      */
-    private String extractDocumentText(String filePath) throws IOException {
+    private boolean extractDocumentText(FileProcessingContext context, Writer out) throws IOException {
+        byte[] header = context.getHeader();
         // Check if it's a PDF
-        if (isPDF(filePath)) {
-            return extractPDFText(filePath);
+        if (isPDF(header, context.getHeaderLength())) {
+            return extractPDFText(context, out);
         }
-        // Check if it's a DOCX
-        else if (isDOCX(filePath)) {
-            return extractDOCXText(filePath);
+        // ZIP-based documents: only word processing formats carry comparable text
+        else if (context.getContainerType() != null) {
+            switch (context.getContainerType()) {
+                case DOCX:
+                    return extractDOCXText(context, out);
+                case ODT:
+                    return extractODTText(context, out);
+                default:
+                    return false;
+            }
         }
         // Check if it's a DOC
-        else if (isDOC(filePath)) {
-            return extractDOCText(filePath);
+        else if (isDOC(header, context.getHeaderLength())) {
+            return extractDOCText(context, out);
         }
         // Try generic text extraction
         else {
-            return extractGenericText(filePath);
+            return extractGenericText(context, out);
         }
     }
 
     /**
-     * Extracts text from PDF files
+     * Extracts text from PDF files, one page at a time, within the extraction budget
      */
-    private String extractPDFText(String filePath) throws IOException {
-        try (PDDocument document = PDDocument.load(new java.io.File(filePath))) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
-        } catch (Exception e) {
-            logger.warn("Failed to extract PDF text: {}", filePath, e);
-            return null;
-        }
+    private boolean extractPDFText(FileProcessingContext context, Writer out) throws IOException {
+        // Large documents spill from memory into a scratch file instead of growing the heap
+        MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(PDF_MAIN_MEMORY_BYTES,
+                Math.max(PDF_MAIN_MEMORY_BYTES, pdfMaxStorageBytes));
+        return extractionGuard.extract(context, out, "PDF", (in, text, checkpoint) -> {
+            try (PDDocument document = PDDocument.load(in, memory)) {
+                PDFTextStripper stripper = new PDFTextStripper();
+                int pages = document.getNumberOfPages();
+                for (int page = 1; page <= pages; page += PDF_PAGES_PER_CALL) {
+                    checkpoint.check();
+                    stripper.setStartPage(page);
+                    stripper.setEndPage(Math.min(pages, page + PDF_PAGES_PER_CALL - 1));
+                    stripper.writeText(document, text);
+                }
+                return true;
+            }
+        });
     }
 
     /**
-     * Extracts text from DOCX files
+     * Extracts text from DOCX files within the extraction budget
      */
-    private String extractDOCXText(String filePath) throws IOException {
-        try (FileInputStream fis = new FileInputStream(filePath);
-             XWPFDocument document = new XWPFDocument(fis)) {
-            
-            StringBuilder content = new StringBuilder();
-            
-            // Extract text from paragraphs
-            document.getParagraphs().forEach(paragraph -> {
-                content.append(paragraph.getText()).append("\n");
-            });
-            
-            // Extract text from tables
-            document.getTables().forEach(table -> {
-                table.getRows().forEach(row -> {
-                    row.getTableCells().forEach(cell -> {
-                        content.append(cell.getText()).append("\t");
-                    });
-                    content.append("\n");
-                });
-            });
-            
-            return content.toString();
-            
-        } catch (Exception e) {
-            logger.warn("Failed to extract DOCX text: {}", filePath, e);
-            return null;
-        }
+    private boolean extractDOCXText(FileProcessingContext context, Writer out) throws IOException {
+        return extractionGuard.extract(context, out, "DOCX", (in, text, checkpoint) -> {
+            try (XWPFDocument document = new XWPFDocument(in)) {
+                // Extract text from paragraphs
+                for (XWPFParagraph paragraph : document.getParagraphs()) {
+                    checkpoint.check();
+                    text.write(paragraph.getText());
+                    text.write('\n');
+                }
+
+                // Extract text from tables
+                for (XWPFTable table : document.getTables()) {
+                    for (XWPFTableRow row : table.getRows()) {
+                        checkpoint.check();
+                        for (XWPFTableCell cell : row.getTableCells()) {
+                            text.write(cell.getText());
+                            text.write('\t');
+                        }
+                        text.write('\n');
+                    }
+                }
+                return true;
+            }
+        });
     }
 
     /**
-     * Extracts text from DOC files
+     * Extracts text from ODT files within the extraction budget: the text of content.xml, with
+     * paragraphs, headings, tabs, spaces and line breaks written as in a DOCX
      */
-    private String extractDOCText(String filePath) throws IOException {
-        try (FileInputStream fis = new FileInputStream(filePath);
-             HWPFDocument document = new HWPFDocument(fis)) {
-            
-            return document.getRange().text();
-            
-        } catch (Exception e) {
-            logger.warn("Failed to extract DOC text: {}", filePath, e);
-            return null;
-        }
+    private boolean extractODTText(FileProcessingContext context, Writer out) throws IOException {
+        return extractionGuard.extract(context, out, "ODT", (in, text, checkpoint) -> {
+            ZipInputStream zip = new ZipInputStream(in);
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (!"content.xml".equals(entry.getName())) {
+                    continue;
+                }
+                XMLStreamReader xml = ODF_XML.createXMLStreamReader(zip);
+                try {
+                    while (xml.hasNext()) {
+                        checkpoint.check();
+                        int event = xml.next();
+                        if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                            text.write(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                        } else if (event == XMLStreamConstants.START_ELEMENT && ODF_TEXT_NS.equals(xml.getNamespaceURI())) {
+                            switch (xml.getLocalName()) {
+                                case "tab":
+                                    text.write('\t');
+                                    break;
+                                case "line-break":
+                                    text.write('\n');
+                                    break;
+                                case "s":
+                                    String count = xml.getAttributeValue(ODF_TEXT_NS, "c");
+                                    for (int i = count != null ? Integer.parseInt(count) : 1; i > 0; i--) {
+                                        text.write(' ');
+                                    }
+                                    break;
+                                default:
+                                    break;
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT && ODF_TEXT_NS.equals(xml.getNamespaceURI())
+                                && ("p".equals(xml.getLocalName()) || "h".equals(xml.getLocalName()))) {
+                            text.write('\n');
+                        }
+                    }
+                } finally {
+                    xml.close();
+                }
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Extracts text from DOC files within the extraction budget
+     */
+    private boolean extractDOCText(FileProcessingContext context, Writer out) throws IOException {
+        return extractionGuard.extract(context, out, "DOC", (in, text, checkpoint) -> {
+            try (HWPFDocument document = new HWPFDocument(in)) {
+                // Paragraph by paragraph; together they cover the same text as Range.text()
+                Range range = document.getRange();
+                for (int i = 0; i < range.numParagraphs(); i++) {
+                    checkpoint.check();
+                    text.write(range.getParagraph(i).text());
+                }
+                return true;
+            }
+        });
     }
 
     /**
      * Extracts text from image files (OCR would be needed for full implementation)
      */
-    private String extractImageText(String filePath) throws IOException {
+    private boolean extractImageText(String filePath) throws IOException {
         // For now, return null as OCR is not implemented
         // In a production system, you would integrate with Tesseract or similar OCR
         logger.debug("Image text extraction not implemented for: {}", filePath);
-        return null;
+        return false;
     }
 
     /**
      * Extracts text from application files
      */
-    private String extractApplicationText(String filePath) throws IOException {
+    private boolean extractApplicationText(String filePath) throws IOException {
         // For executable files, we can't extract meaningful text content
         logger.debug("Application text extraction not applicable for: {}", filePath);
-        return null;
+        return false;
     }
 
     /**
      * Extracts text from archive files
      */
-    private String extractArchiveText(String filePath) throws IOException {
+    private boolean extractArchiveText(String filePath) throws IOException {
         // For archive files, we could extract text from contained files
         // For now, return null as this is complex
         logger.debug("Archive text extraction not implemented for: {}", filePath);
-        return null;
+        return false;
     }
 
     /**
      * Extracts text from audio files
      */
-    private String extractAudioText(String filePath) throws IOException {
+    private boolean extractAudioText(String filePath) throws IOException {
         // For audio files, speech-to-text would be needed
         logger.debug("Audio text extraction not implemented for: {}", filePath);
-        return null;
+        return false;
     }
 
     /**
      * Extracts text from video files
      */
-    private String extractVideoText(String filePath) throws IOException {
+    private boolean extractVideoText(String filePath) throws IOException {
         // For video files, speech-to-text and OCR would be needed
         logger.debug("Video text extraction not implemented for: {}", filePath);
-        return null;
+        return false;
     }
 
     /**
      * Generic text extraction for unknown file types
      */
-    private String extractGenericText(String filePath) throws IOException {
-        try (FileInputStream fis = new FileInputStream(filePath)) {
-            byte[] buffer = new byte[8192];
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int bytesRead;
-            
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            
-            byte[] content = baos.toByteArray();
-            
-            // Check if content is mostly text
-            if (isTextContent(content)) {
-                return new String(content, "UTF-8");
+    private boolean extractGenericText(FileProcessingContext context, Writer out) throws IOException {
+        // The header already tells whether this is text; binary files are never read in full
+        if (!isTextContent(context.getHeader(), context.getHeaderLength())) {
+            return false;
+        }
+
+        // Decode in chunks; malformed input becomes U+FFFD exactly as new String(bytes, UTF_8) did
+        try (Reader reader = new InputStreamReader(context.openStream(), StandardCharsets.UTF_8)) {
+            char[] chunk = new char[TEXT_CHUNK_CHARS];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
             }
-            
-            return null;
         }
+        return true;
     }
 
     /**
      * Checks if byte array contains mostly text content
      */
-    private boolean isTextContent(byte[] content) {
+    private boolean isTextContent(byte[] content, int length) {
         int textBytes = 0;
-        int totalBytes = Math.min(content.length, 1024); // Check first 1KB
+        int totalBytes = Math.min(length, 1024); // Check first 1KB
         
         for (int i = 0; i < totalBytes; i++) {
             byte b = content[i];
@@ -267,80 +603,62 @@ public class FileHashService {
         return totalBytes > 0 && (textBytes * 100 / totalBytes) > 90;
     }
 
-    /**
-     * Normalizes text content for consistent comparison
-     */
-    private String normalizeText(String text) {
-        if (text == null) return "";
-        
-        return text
-            .replaceAll("\\s+", " ")  // Replace multiple whitespace with single space
-            .replaceAll("\\n\\s*\\n", "\n")  // Remove empty lines
-            .trim()  // Remove leading/trailing whitespace
-            .toLowerCase();  // Convert to lowercase for case-insensitive comparison
-    }
-
     /**
      * Checks if file is a PDF
      */
-    private boolean isPDF(String filePath) throws IOException {
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            if (file.length() < 4) return false;
-            byte[] header = new byte[4];
-            file.read(header);
-            return header[0] == 0x25 && header[1] == 0x50 && header[2] == 0x44 && header[3] == 0x46;
-        }
-    }
-
-    /**
-     * Checks if file is a DOCX
-     */
-    private boolean isDOCX(String filePath) throws IOException {
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            if (file.length() < 4) return false;
-            byte[] header = new byte[4];
-            file.read(header);
-            return header[0] == 0x50 && header[1] == 0x4B && header[2] == 0x03 && header[3] == 0x04;
-        }
+    private boolean isPDF(byte[] header, int length) {
+        if (length < 4) return false;
+        return header[0] == 0x25 && header[1] == 0x50 && header[2] == 0x44 && header[3] == 0x46;
     }
 
     /**
      * Checks if file is a DOC
      */
-    private boolean isDOC(String filePath) throws IOException {
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            if (file.length() < 4) return false;
-            byte[] header = new byte[4];
-            file.read(header);
-            return (header[0] & 0xFF) == 0xD0 && (header[1] & 0xFF) == 0xCF && header[2] == 0x11 && (header[3] & 0xFF) == 0xE0;
-        }
+    private boolean isDOC(byte[] header, int length) {
+        if (length < 4) return false;
+        return (header[0] & 0xFF) == 0xD0 && (header[1] & 0xFF) == 0xCF && header[2] == 0x11 && (header[3] & 0xFF) == 0xE0;
     }
 
     /**
      * Detects file type based on content (magic numbers) rather than extension
      */
     public String detectFileTypeFromContent(String filePath) {
-        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
-            if (file.length() < 4) {
-                return "Unknown";
-            }
-
-            byte[] header = new byte[16]; // Read first 16 bytes for magic number detection
-            int bytesRead = file.read(header);
-            
-            if (bytesRead < 4) {
-                return "Unknown";
-            }
-
-            // Check common file signatures (magic numbers)
-            return detectFileTypeByMagicNumber(header);
-
+        try (FileProcessingContext context = FileProcessingContext.open(filePath, new IoStats())) {
+            return detectFileType(context);
         } catch (IOException e) {
             logger.warn("Failed to read file header for type detection: {}", filePath, e);
             return "Unknown";
         }
     }
 
+    /**
+     * Detects the file type from the header already read by the context; the result is kept on
+     * the context so later steps do not detect it again
+     */
+    public String detectFileType(FileProcessingContext context) {
+        if (context.getFileType() == null) {
+            if (context.getHeaderLength() < 4) {
+                context.setFileType("Unknown");
+            } else if (ZipContainers.isZip(context.getHeader(), context.getHeaderLength())) {
+                // Office documents, JARs and APKs are all ZIPs; the central directory tells them apart
+                ContainerType containerType = ZipContainers.detect(context);
+                context.setContainerType(containerType);
+                context.setFileType(containerType.getCategory());
+            } else if (ArchiveIndex.isTar(context.getHeader(), context.getHeaderLength())) {
+                // The tar magic sits at offset 257, past the bytes matched below
+                context.setFileType("Archives");
+            } else {
+                // Magic numbers are matched against the first 16 bytes, zero-padded for short files
+                byte[] magic = Arrays.copyOf(context.getHeader(), 16);
+                if (context.getHeaderLength() < 16) {
+                    Arrays.fill(magic, context.getHeaderLength(), 16, (byte) 0);
+                }
+                context.setFileType(detectFileTypeByMagicNumber(magic));
+            }
+        }
+        return context.getFileType();
+    }
+
     private String detectFileTypeByMagicNumber(byte[] header) {
         // Images
         if (header.length >= 4) {
@@ -368,10 +686,6 @@ public class FileHashService {
             if (header[0] == 0x25 && header[1] == 0x50 && header[2] == 0x44 && header[3] == 0x46) {
                 return "Documents";
             }
-            // MS Office (newer formats)
-            if (header[0] == 0x50 && header[1] == 0x4B && header[2] == 0x03 && header[3] == 0x04) {
-                return "Documents";
-            }
             // MS Office (older formats)
             if ((header[0] & 0xFF) == 0xD0 && (header[1] & 0xFF) == 0xCF && header[2] == 0x11 && (header[3] & 0xFF) == 0xE0) {
                 return "Documents";
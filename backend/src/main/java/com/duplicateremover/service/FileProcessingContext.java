@@ -0,0 +1,274 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.ContainerType;
+import com.duplicateremover.model.IoStats;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A single open handle on a file being scanned.
+ *
+ * The file is opened once and its header is read once into a per-thread buffer; type detection,
+ * categorization and hashing all work from that header and the same channel. A context belongs
+ * to the thread that opened it and must be closed on that thread.
+ *
+ * A context can also stand for one member of a ZIP or TAR archive. It then reads a range of the
+ * archive's channel, inflating it when the member is compressed, and its size, header and stream
+ * are the member's. A compressed member can only be read as a stream.
+ */
+public class FileProcessingContext implements Closeable {
+
+    public static final int HEADER_SIZE = 1024;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> HEADER_BUFFERS = ThreadLocal.withInitial(() -> new byte[HEADER_SIZE]);
+    // Members are opened while their archive's context, and its header, is still in use
+    private static final ThreadLocal<byte[]> MEMBER_HEADER_BUFFERS = ThreadLocal.withInitial(() -> new byte[HEADER_SIZE]);
+
+    private final String filePath;
+    private final FileChannel channel;
+    private final IoStats ioStats;
+    private final long size;
+    // Where the data lies in the channel: the whole file, or the stored bytes of an archive member
+    private final long offset;
+    private final long storedLength;
+    private final boolean deflated;
+    private final boolean member;
+    private final byte[] header;
+    private final int headerLength;
+    private String fileType;
+    private ContainerType containerType;
+    private boolean extractionOverBudget;
+
+    private FileProcessingContext(String filePath, FileChannel channel, IoStats ioStats) throws IOException {
+        this.filePath = filePath;
+        this.channel = channel;
+        this.ioStats = ioStats;
+
+        this.size = channel.size();
+        ioStats.recordStat();
+        this.offset = 0;
+        this.storedLength = size;
+        this.deflated = false;
+        this.member = false;
+
+        this.header = HEADER_BUFFERS.get();
+        this.headerLength = (int) Math.min(size, HEADER_SIZE);
+        readFully(ByteBuffer.wrap(header, 0, headerLength), 0);
+    }
+
+    public static FileProcessingContext open(String filePath, IoStats ioStats) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        ioStats.recordOpen();
+        try {
+            return new FileProcessingContext(filePath, channel, ioStats);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            ioStats.recordClose();
+            throw e;
+        }
+    }
+
+    private FileProcessingContext(FileProcessingContext archive, String memberPath, long offset, long storedLength,
+                                  long size, boolean deflated) throws IOException {
+        this.filePath = memberPath;
+        this.channel = archive.channel;
+        this.ioStats = archive.ioStats;
+        this.size = size;
+        this.offset = offset;
+        this.storedLength = storedLength;
+        this.deflated = deflated;
+        this.member = true;
+
+        this.header = MEMBER_HEADER_BUFFERS.get();
+        this.headerLength = (int) Math.min(size, HEADER_SIZE);
+        if (deflated) {
+            try (InputStream in = openStream()) {
+                int read = in.readNBytes(header, 0, headerLength);
+                if (read < headerLength) {
+                    throw new EOFException("Unexpected end of archive member: " + memberPath);
+                }
+            }
+        } else {
+            readFully(ByteBuffer.wrap(header, 0, headerLength), 0);
+        }
+    }
+
+    /**
+     * Opens a member of an archive whose data starts at offset in the archive, storedLength bytes
+     * long and raw-deflated when deflated is set. The member shares the archive's channel, so it
+     * must be closed before the archive.
+     */
+    static FileProcessingContext openMember(FileProcessingContext archive, String memberPath, long offset,
+                                            long storedLength, long size, boolean deflated) throws IOException {
+        if (offset < 0 || storedLength < 0 || offset + storedLength > archive.size
+                || (!deflated && storedLength != size)) {
+            throw new IOException("Archive member lies outside its archive: " + memberPath);
+        }
+        return new FileProcessingContext(archive, memberPath, offset, storedLength, size, deflated);
+    }
+
+    public String getFilePath() { return filePath; }
+
+    public long getSize() { return size; }
+
+    /**
+     * The first {@link #getHeaderLength()} bytes of the file. The array is shared by every
+     * context opened on this thread, so it must not be kept after the context is closed.
+     */
+    public byte[] getHeader() { return header; }
+
+    public int getHeaderLength() { return headerLength; }
+
+    public String getFileType() { return fileType; }
+    public void setFileType(String fileType) { this.fileType = fileType; }
+
+    /**
+     * What a ZIP-based file contains, or null for any other file
+     */
+    public ContainerType getContainerType() { return containerType; }
+    public void setContainerType(ContainerType containerType) { this.containerType = containerType; }
+
+    /**
+     * True when text extraction ran out of time, memory or free extraction threads and the file
+     * was hashed by its bytes instead. Another scan may extract it, so that hash is not cached.
+     */
+    public boolean isExtractionOverBudget() { return extractionOverBudget; }
+    void markExtractionOverBudget() { this.extractionOverBudget = true; }
+
+    /**
+     * The file's channel; for an archive member, the archive's, which is why members are never
+     * hashed from it
+     */
+    public FileChannel getChannel() { return channel; }
+
+    public boolean isArchiveMember() { return member; }
+
+    public IoStats getIoStats() { return ioStats; }
+
+    /**
+     * Reads until the buffer is full, starting at the given file position
+     */
+    public void readFully(ByteBuffer buffer, long position) throws IOException {
+        if (deflated) {
+            throw new IOException("A compressed archive member can only be read as a stream: " + filePath);
+        }
+        if (position + buffer.remaining() > size) {
+            throw new EOFException("Unexpected end of file: " + filePath);
+        }
+        position += offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            ioStats.recordRead();
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file: " + filePath);
+            }
+            DeviceIo.afterRead(read);
+            position += read;
+        }
+    }
+
+    /**
+     * Returns a buffered stream over the whole file, or the member's uncompressed bytes. Closing
+     * the stream leaves the channel open, so the same context can be read again after a failed
+     * extraction.
+     */
+    public InputStream openStream() throws IOException {
+        InputStream stored = openStream(offset, storedLength);
+        if (!deflated) {
+            return stored;
+        }
+        Inflater inflater = new Inflater(true);
+        return new BufferedInputStream(new InflaterInputStream(stored, inflater, STREAM_BUFFER_SIZE) {
+            private boolean dummyByte;
+
+            @Override
+            protected void fill() throws IOException {
+                len = in.read(buf, 0, buf.length);
+                if (len < 0) {
+                    // Raw inflation may need one byte past the end of the data, as in ZipFile
+                    if (dummyByte) {
+                        throw new EOFException("Unexpected end of archive member: " + filePath);
+                    }
+                    dummyByte = true;
+                    buf[0] = 0;
+                    len = 1;
+                }
+                inf.setInput(buf, 0, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                inflater.end();
+                super.close();
+            }
+        }, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns a buffered stream over a range of the channel. Reads are positional, so several
+     * streams over the same channel do not disturb each other.
+     */
+    InputStream openStream(long start, long length) {
+        ioStats.recordSeek();
+        InputStream counting = new InputStream() {
+            private long position = start;
+            private final long end = start + length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) > 0 ? one[0] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                ioStats.recordRead();
+                int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+                if (read < 0) {
+                    return -1;
+                }
+                DeviceIo.afterRead(read);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        };
+        return new BufferedInputStream(counting, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Closes the file; a member leaves its archive's channel open
+     */
+    @Override
+    public void close() throws IOException {
+        if (!member) {
+            channel.close();
+            ioStats.recordClose();
+        }
+    }
+}
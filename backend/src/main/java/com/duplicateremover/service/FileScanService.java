@@ -1,24 +1,39 @@
 package com.duplicateremover.service;
 
+import com.duplicateremover.model.AppendOnlyLog;
+import com.duplicateremover.model.DeviceStats;
+import com.duplicateremover.model.DirectoryGroup;
 import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.FunnelStats;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.IoStats;
+import com.duplicateremover.model.PathTrie;
+import com.duplicateremover.model.ResultPage;
 import com.duplicateremover.model.ScanResult;
-import org.apache.commons.io.FileUtils;
+import com.duplicateremover.model.ScanStatus;
+import com.duplicateremover.model.ScanSummary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Service
 public class FileScanService {
@@ -31,47 +46,131 @@ public class FileScanService {
     @Autowired
     private FileCategoryService categoryService;
 
-    private final Map<String, ScanResult> scanResults = new ConcurrentHashMap<>();
+    @Autowired
+    private HashCacheService hashCacheService;
+
+    @Autowired
+    private ScanJobScheduler scanJobScheduler;
+
+    @Autowired
+    private StorageDevices storageDevices;
+
+    @Autowired
+    private ScanExecutors scanExecutors;
+
+    @Autowired
+    private ScanResultStore scanResultStore;
+
+    // Stage pool sizes; 0 means "derive from the number of available processors"
+    @Value("${scan.pipeline.metadata-threads:0}")
+    private int metadataThreads;
+
+    @Value("${scan.pipeline.hash-threads:0}")
+    private int hashThreads;
+
+    @Value("${scan.pipeline.grouping-threads:2}")
+    private int groupingThreads;
+
+    @Value("${scan.pipeline.queue-capacity:1024}")
+    private int queueCapacity;
+
+    // Bytes sampled from each end of a file for the partial hash funnel stage
+    @Value("${scan.funnel.partial-hash-bytes:4096}")
+    private int partialHashBytes;
+
+    // Members indexed per ZIP, JAR or TAR archive; 0 disables archive indexing
+    @Value("${scan.archives.max-members:100000}")
+    private int maxArchiveMembers;
+
+    // Hamming distance between perceptual hashes up to which images count as similar; negative is off
+    @Value("${scan.images.max-distance:-1}")
+    private int defaultMaxImageDistance;
+
+    // Second pass for groups found by a non-cryptographic hash: none, sha256 or bytes
+    @Value("${scan.hashing.confirmation:sha256}")
+    private String defaultConfirmation;
+
+    // How long progress and live duplicates of a finished scan stay available; results are stored
+    @Value("${scan.progress.retention-ms:3600000}")
+    private long progressRetentionMillis;
+
     private final Map<String, ScanProgress> scanProgress = new ConcurrentHashMap<>();
-    private final Map<String, List<FileInfo>> currentDuplicates = new ConcurrentHashMap<>();
+    private final Map<String, AppendOnlyLog<FileInfo>> currentDuplicates = new ConcurrentHashMap<>();
 
     public static class ScanProgress {
         private String scanId;
-        private String status;
-        private int totalFiles;
-        private int processedFiles;
-        private int duplicateCount;
+        private final AtomicReference<ScanStatus> status = new AtomicReference<>(ScanStatus.QUEUED);
+        private volatile boolean cancelRequested;
+        private volatile String stage;
+        private final AtomicInteger totalFiles = new AtomicInteger();
+        private final AtomicInteger processedFiles = new AtomicInteger();
+        private final AtomicInteger duplicateCount = new AtomicInteger();
         private LocalDateTime startTime;
-        private LocalDateTime lastUpdate;
-        private String currentDirectory;
-        private List<String> errors;
+        private volatile LocalDateTime lastUpdate;
+        private volatile String currentDirectory;
+        private volatile boolean walkCompleted;
+        private final List<String> errors;
+        private final FunnelStats funnelStats = new FunnelStats();
+        private final IoStats ioStats = new IoStats();
+        private final Map<String, DeviceStats> deviceStats = new ConcurrentHashMap<>();
 
         public ScanProgress(String scanId) {
             this.scanId = scanId;
-            this.status = "STARTED";
-            this.totalFiles = 0;
-            this.processedFiles = 0;
-            this.duplicateCount = 0;
             this.startTime = LocalDateTime.now();
             this.lastUpdate = LocalDateTime.now();
-            this.errors = new ArrayList<>();
+            this.errors = Collections.synchronizedList(new ArrayList<>());
         }
 
         // Getters and Setters
         public String getScanId() { return scanId; }
         public void setScanId(String scanId) { this.scanId = scanId; }
 
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
+        public ScanStatus getStatus() { return status.get(); }
+
+        /**
+         * Moves to next if the current status allows it; returns false and changes nothing otherwise
+         */
+        public boolean transitionTo(ScanStatus next) {
+            ScanStatus current;
+            do {
+                current = status.get();
+                if (!current.canTransitionTo(next)) {
+                    return false;
+                }
+            } while (!status.compareAndSet(current, next));
+            lastUpdate = LocalDateTime.now();
+            return true;
+        }
+
+        public boolean isCancelRequested() { return cancelRequested; }
+        public void requestCancel() { cancelRequested = true; }
+
+        /**
+         * Stops the calling stage once the scan has been cancelled
+         */
+        public void checkCancelled() {
+            if (cancelRequested) {
+                throw new CancellationException("Scan cancelled: " + scanId);
+            }
+        }
+
+        // Pipeline stage currently being drained, e.g. "walk", "hash" or "confirm"
+        public String getStage() { return stage; }
+        public void setStage(String stage) { this.stage = stage; }
 
-        public int getTotalFiles() { return totalFiles; }
-        public void setTotalFiles(int totalFiles) { this.totalFiles = totalFiles; }
+        // Files discovered so far; only final once walkCompleted is set
+        public int getTotalFiles() { return totalFiles.get(); }
+        public void setTotalFiles(int totalFiles) { this.totalFiles.set(totalFiles); }
+        public void incrementTotalFiles() { totalFiles.incrementAndGet(); }
 
-        public int getProcessedFiles() { return processedFiles; }
-        public void setProcessedFiles(int processedFiles) { this.processedFiles = processedFiles; }
+        public boolean isWalkCompleted() { return walkCompleted; }
+        public void setWalkCompleted(boolean walkCompleted) { this.walkCompleted = walkCompleted; }
 
-        public int getDuplicateCount() { return duplicateCount; }
-        public void setDuplicateCount(int duplicateCount) { this.duplicateCount = duplicateCount; }
+        public int getProcessedFiles() { return processedFiles.get(); }
+        public void setProcessedFiles(int processedFiles) { this.processedFiles.set(processedFiles); }
+
+        public int getDuplicateCount() { return duplicateCount.get(); }
+        public void setDuplicateCount(int duplicateCount) { this.duplicateCount.set(duplicateCount); }
 
         public LocalDateTime getStartTime() { return startTime; }
         public void setStartTime(LocalDateTime startTime) { this.startTime = startTime; }
@@ -82,45 +181,74 @@ public class FileScanService {
         public String getCurrentDirectory() { return currentDirectory; }
         public void setCurrentDirectory(String currentDirectory) { this.currentDirectory = currentDirectory; }
 
-        public List<String> getErrors() { return errors; }
-        public void setErrors(List<String> errors) { this.errors = errors; }
+        /**
+         * Returns a snapshot of the errors; pipeline workers keep appending while a scan runs
+         */
+        public List<String> getErrors() {
+            synchronized (errors) {
+                return new ArrayList<>(errors);
+            }
+        }
+
+        public void addError(String error) { errors.add(error); }
+
+        public FunnelStats getFunnelStats() { return funnelStats; }
+
+        public IoStats getIoStats() { return ioStats; }
+
+        // Read counters per storage device, keyed by device name
+        public Map<String, DeviceStats> getDeviceStats() { return deviceStats; }
+
+        public void incrementProcessedFiles() {
+            processedFiles.incrementAndGet();
+            lastUpdate = LocalDateTime.now();
+        }
+
+        public void incrementDuplicateCount() { duplicateCount.incrementAndGet(); }
 
         public double getProgressPercentage() {
-            if (totalFiles == 0) return 0.0;
-            return (double) processedFiles / totalFiles * 100.0;
+            int total = totalFiles.get();
+            if (total == 0) return 0.0;
+            return (double) processedFiles.get() / total * 100.0;
         }
     }
 
     public String startScan(String directory) {
+        return startScan(directory, null, null, null, 0);
+    }
+
+    /**
+     * Queues a scan hashing with the named algorithm and confirmation and grouping images up to
+     * maxImageDistance apart; null selects the configured defaults. Unknown names and distances
+     * out of range are rejected with an IllegalArgumentException before the scan starts. Scans
+     * with a higher priority leave the queue first.
+     */
+    public String startScan(String directory, String hashAlgorithm, String confirmation, Integer maxImageDistance,
+                            int priority) {
+        ScanOptions options = scanOptions(hashAlgorithm, confirmation, maxImageDistance);
+        pruneFinishedScans();
         String scanId = UUID.randomUUID().toString();
-        logger.info("Starting scan for directory: {} with scanId: {}", directory, scanId);
+        logger.info("Starting scan for directory: {} with scanId: {} using {}",
+                directory, scanId, options.getGroupAlgorithm());
 
         // Initialize progress tracking
         ScanProgress progress = new ScanProgress(scanId);
         scanProgress.put(scanId, progress);
-        currentDuplicates.put(scanId, new ArrayList<>());
+        currentDuplicates.put(scanId, new AppendOnlyLog<>());
 
-        // Start scanning in a separate thread to allow real-time updates
-        new Thread(() -> {
-            try {
-                performScanWithProgress(scanId, directory);
-            } catch (Exception e) {
-                logger.error("Error during scan for directory: {}", directory, e);
-                progress.setStatus("FAILED");
-                progress.getErrors().add(e.getMessage());
-            }
-        }).start();
+        // Queue the scan; the scheduler runs it once a slot on its device is free
+        scanJobScheduler.submit(progress, directory, priority,
+                () -> performScanWithProgress(scanId, directory, options));
 
         return scanId;
     }
 
-    private void performScanWithProgress(String scanId, String directory) throws IOException {
+    private void performScanWithProgress(String scanId, String directory, ScanOptions options) throws IOException {
         ScanProgress progress = scanProgress.get(scanId);
         if (progress == null) {
             throw new IllegalStateException("Progress tracking not initialized for scanId: " + scanId);
         }
         
-        progress.setStatus("SCANNING");
         progress.setCurrentDirectory(directory);
 
         Path directoryPath = Paths.get(directory);
@@ -129,84 +257,32 @@ public class FileScanService {
             throw new IllegalArgumentException("Directory does not exist or is not a directory: " + directory);
         }
 
-        List<FileInfo> allFiles = new ArrayList<>();
-        Map<String, List<FileInfo>> hashGroups = new HashMap<>();
-        List<FileInfo> duplicates = new ArrayList<>();
-
-        try (Stream<Path> paths = Files.walk(directoryPath)) {
-            List<Path> filePaths = paths.filter(Files::isRegularFile)
-                                       .collect(Collectors.toList());
-
-            progress.setTotalFiles(filePaths.size());
-            logger.info("Found {} files to process", filePaths.size());
-
-            for (int i = 0; i < filePaths.size(); i++) {
-                Path filePath = filePaths.get(i);
-                try {
-                    FileInfo fileInfo = createFileInfo(filePath);
-                    allFiles.add(fileInfo);
-                    
-                    // Update progress
-                    progress.setProcessedFiles(i + 1);
-                    progress.setLastUpdate(LocalDateTime.now());
-
-                    // Check for duplicates in real-time
-                    String hash = fileInfo.getHash();
-                    if (hash != null && !hash.isEmpty()) {
-                        if (hashGroups.containsKey(hash)) {
-                            // Found a duplicate
-                            List<FileInfo> group = hashGroups.get(hash);
-                            group.add(fileInfo);
-                            fileInfo.setDuplicate(true);
-                            
-                            // Mark all files in the group as duplicates
-                            for (FileInfo existingFile : group) {
-                                existingFile.setDuplicate(true);
-                            }
-                            
-                            // Update duplicate count
-                            progress.setDuplicateCount(progress.getDuplicateCount() + 1);
-                            
-                            // Add to current duplicates list (only add the new duplicate)
-                            duplicates.add(fileInfo);
-                            currentDuplicates.put(scanId, new ArrayList<>(duplicates));
-                            
-                            logger.debug("Found duplicate: {}", fileInfo.getFileName());
-                        } else {
-                            // New hash, create a new group
-                            List<FileInfo> newGroup = new ArrayList<>();
-                            newGroup.add(fileInfo);
-                            hashGroups.put(hash, newGroup);
-                        }
-                    } else {
-                        logger.warn("Skipping file with null/empty hash: {}", filePath);
-                        progress.getErrors().add("Invalid hash for file: " + filePath.toString());
-                    }
+        AppendOnlyLog<FileInfo> duplicates = currentDuplicates.get(scanId);
+        ScanPipeline pipeline = new ScanPipeline(scanId, directoryPath, progress, fileHashService, categoryService, options,
+                duplicates::append, new DeviceIo.Registry(storageDevices, progress.getDeviceStats()), scanExecutors, pipelineSettings());
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Scan interrupted: " + scanId, e);
+        }
 
-                    // Update progress every 10 files or for duplicates
-                    if ((i + 1) % 10 == 0 || fileInfo.isDuplicate()) {
-                        progress.setLastUpdate(LocalDateTime.now());
-                    }
+        hashCacheService.evictIfNeeded();
+        progress.checkCancelled();
+        progress.setStage("results");
 
-                } catch (IOException e) {
-                    logger.warn("Failed to process file: {}", filePath, e);
-                    progress.getErrors().add("Failed to process: " + filePath.toString() + " - " + e.getMessage());
-                } catch (Exception e) {
-                    logger.error("Unexpected error processing file: {}", filePath, e);
-                    progress.getErrors().add("Unexpected error: " + filePath.toString() + " - " + e.getMessage());
-                }
-            }
-        }
+        List<FileInfo> allFiles = pipeline.getAllFiles();
+        Map<HashKey, List<FileInfo>> hashGroups = pipeline.getHashGroups();
 
-        // Categorize files
+        // Categorize files (the pipeline already categorized everything it read; this only fills gaps)
         List<FileInfo> categorizedFiles = categoryService.categorizeFiles(allFiles);
         Map<String, List<FileInfo>> categorizedGroups = categorizedFiles.stream()
-                .collect(Collectors.groupingBy(FileInfo::getCategory));
+                .collect(Collectors.groupingBy(FileInfo::getCategory, ConcurrentHashMap::new, Collectors.toList()));
 
-        // Create final duplicate groups with smart selection
+        // Create final duplicate groups with smart selection; only these get hex keys
         Map<String, List<FileInfo>> duplicateGroups = hashGroups.entrySet().stream()
                 .filter(entry -> entry.getValue().size() > 1)
-                .collect(Collectors.toMap(Map.Entry::getKey, entry -> {
+                .collect(Collectors.toConcurrentMap(entry -> entry.getKey().toString(), entry -> {
                     List<FileInfo> group = entry.getValue();
                     // Mark files for deletion (keep the first one as original)
                     for (int i = 1; i < group.size(); i++) {
@@ -215,85 +291,497 @@ public class FileScanService {
                     return group;
                 }));
 
-        // Detect directory duplicates
-        Map<String, List<FileInfo>> directoryDuplicates = detectDirectoryDuplicates(allFiles);
+        Map<String, String> groupAlgorithms = new ConcurrentHashMap<>();
+        for (String hash : duplicateGroups.keySet()) {
+            groupAlgorithms.put(hash, pipeline.getGroupAlgorithms().getOrDefault(hash, options.getGroupAlgorithm()));
+        }
+
+        // Detect identical directory subtrees
+        Map<String, DirectoryGroup> directoryDuplicates = DirectoryMerkle.findDuplicates(allFiles, directory);
+        logger.info("Found {} duplicate directory groups", directoryDuplicates.size());
+
+        Map<String, List<FileInfo>> similarImageGroups = null;
+        if (options.isFindingSimilarImages()) {
+            similarImageGroups = SimilarImages.findGroups(allFiles, options.getMaxImageDistance());
+            logger.info("Found {} groups of similar images", similarImageGroups.size());
+        }
 
         // Create scan result
         ScanResult scanResult = new ScanResult(scanId, directory, LocalDateTime.now());
         scanResult.setFiles(categorizedFiles);
+        scanResult.setPaths(pipeline.getPaths());
         scanResult.setDuplicateGroups(duplicateGroups);
+        scanResult.setGroupAlgorithms(groupAlgorithms);
+        scanResult.setHashAlgorithm(options.getHashAlgorithm().getName());
+        scanResult.setConfirmation(options.getConfirmation().name().toLowerCase());
         scanResult.setDirectoryDuplicates(directoryDuplicates);
+        if (similarImageGroups != null) {
+            scanResult.setSimilarImageGroups(similarImageGroups);
+            scanResult.setMaxImageDistance(options.getMaxImageDistance());
+        }
         scanResult.setCategorizedFiles(categorizedGroups);
         scanResult.setTotalFiles(allFiles.size());
-        scanResult.setDuplicateCount(duplicateGroups.values().stream()
-                .mapToInt(group -> group.size() - 1)
-                .sum());
+        ScanResultUpdater.recount(scanResult);
+        scanResult.setFunnelStats(progress.getFunnelStats());
+        scanResult.setIoStats(progress.getIoStats());
 
-        // Update final status
-        progress.setStatus("COMPLETED");
         progress.setLastUpdate(LocalDateTime.now());
-        scanResults.put(scanId, scanResult);
+        scanResultStore.save(scanResult);
         
         logger.info("Scan completed successfully for scanId: {}", scanId);
     }
 
-    private Map<String, List<FileInfo>> detectDirectoryDuplicates(List<FileInfo> allFiles) {
-        Map<String, List<FileInfo>> directoryGroups = new HashMap<>();
-        
-        // Group files by directory
-        Map<String, List<FileInfo>> filesByDirectory = allFiles.stream()
-                .collect(Collectors.groupingBy(file -> {
-                    Path path = Paths.get(file.getFilePath());
-                    return path.getParent().toString();
-                }));
+    /**
+     * Rescans the directory of an existing scan and updates its result in place.
+     * Only added and modified files are hashed; unchanged files are matched by size and mtime.
+     * Returns null when the scan is unknown.
+     */
+    public String startRescan(String scanId, int priority) {
+        ScanResult scanResult = scanResultStore.load(scanId);
+        if (scanResult == null) {
+            return null;
+        }
+        ScanProgress previous = scanProgress.get(scanId);
+        if (previous != null && !previous.getStatus().isTerminal()) {
+            throw new IllegalStateException("Scan is still " + previous.getStatus().name().toLowerCase() + ": " + scanId);
+        }
+        logger.info("Starting rescan for directory: {} with scanId: {}", scanResult.getDirectory(), scanId);
 
-        // Create directory signatures for comparison
-        Map<String, String> directorySignatures = new HashMap<>();
-        
-        for (Map.Entry<String, List<FileInfo>> entry : filesByDirectory.entrySet()) {
-            String directory = entry.getKey();
-            List<FileInfo> files = entry.getValue();
-            
-            // Create a signature for the directory based on file names, sizes, and hashes
-            String directorySignature = files.stream()
-                    .sorted(Comparator.comparing(FileInfo::getFileName))
-                    .map(file -> file.getFileName() + ":" + file.getSize() + ":" + file.getHash())
-                    .collect(Collectors.joining("|"));
-            
-            if (!directorySignature.isEmpty()) {
-                directorySignatures.put(directory, directorySignature);
+        ScanProgress progress = new ScanProgress(scanId);
+        scanProgress.put(scanId, progress);
+        currentDuplicates.put(scanId, new AppendOnlyLog<>());
+
+        scanJobScheduler.submit(progress, scanResult.getDirectory(), priority,
+                () -> performRescan(scanResult, progress));
+
+        return scanId;
+    }
+
+    private void performRescan(ScanResult scanResult, ScanProgress progress) throws IOException, InterruptedException {
+        progress.setCurrentDirectory(scanResult.getDirectory());
+
+        Path directoryPath = Paths.get(scanResult.getDirectory());
+        if (!Files.exists(directoryPath) || !Files.isDirectory(directoryPath)) {
+            throw new IllegalArgumentException("Directory does not exist or is not a directory: " + scanResult.getDirectory());
+        }
+
+        if (scanResult.getPaths() == null) {
+            scanResult.setPaths(new PathTrie());
+        }
+        PathTrie pathTrie = scanResult.getPaths();
+        Map<String, FileInfo> previousByPath = new HashMap<>();
+        for (FileInfo file : scanResult.getFiles()) {
+            previousByPath.put(file.getFilePath(), file);
+        }
+
+        // Walk metadata only and diff it against the stored entries
+        progress.setStage("walk");
+        List<FileInfo> added = new ArrayList<>();
+        List<FileInfo> removed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        // The same walk as a scan's, so unreadable directories are skipped instead of ending the rescan
+        ScanPipeline.walkFiles(directoryPath, progress, (path, attributes) -> {
+            Path absolutePath = path.toAbsolutePath();
+            String filePath = absolutePath.toString();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            seen.add(filePath);
+
+            FileInfo previous = previousByPath.get(filePath);
+            if (previous != null && previous.getSize() == attributes.size()
+                    && lastModified == previous.getCreatedTimeMillis()) {
+                return;
+            }
+            if (previous != null) {
+                removed.add(previous);
+            }
+            added.add(new FileInfo(pathTrie.directoryOf(absolutePath), path.getFileName().toString(),
+                    attributes.size(), lastModified));
+        });
+        progress.checkCancelled();
+        progress.setCurrentDirectory(scanResult.getDirectory());
+        Set<String> changedPaths = new HashSet<>();
+        for (FileInfo previous : scanResult.getFiles()) {
+            if (!previous.isArchiveMember() && !seen.contains(previous.getFilePath())) {
+                removed.add(previous);
+            }
+        }
+        removed.forEach(file -> changedPaths.add(file.getFilePath()));
+        // Members of unchanged archives stay; those of changed archives are replaced by listing them again
+        for (FileInfo previous : scanResult.getFiles()) {
+            if (previous.isArchiveMember() && ArchiveIndex.isMemberOf(previous.getFilePath(), changedPaths)) {
+                removed.add(previous);
+            }
+        }
+
+        // Hashes are only comparable within one algorithm, so keep the one the scan started with
+        ScanOptions options = scanOptions(scanResult.getHashAlgorithm(), scanResult.getConfirmation(),
+                scanResult.getMaxImageDistance() != null ? scanResult.getMaxImageDistance() : -1);
+
+        progress.setStage("archive");
+        List<RescanMember> pendingMembers = indexArchives(added, pathTrie, options.getHashAlgorithm(), progress);
+        logger.info("Rescan of {} found {} added/modified and {} removed/modified files",
+                scanResult.getDirectory(), added.size(), removed.size());
+
+        progress.setTotalFiles(added.size());
+        progress.setWalkCompleted(true);
+
+        // Byte-hashed files only need a hash when some other file shares their size
+        Set<FileInfo> removedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        removedSet.addAll(removed);
+        Map<Long, List<FileInfo>> sizePeers = new HashMap<>();
+        for (FileInfo file : scanResult.getFiles()) {
+            if (!removedSet.contains(file)) {
+                sizePeers.computeIfAbsent(file.getSize(), k -> new ArrayList<>()).add(file);
+            }
+        }
+        for (FileInfo file : added) {
+            sizePeers.computeIfAbsent(file.getSize(), k -> new ArrayList<>()).add(file);
+        }
+
+        // FileInfo.equals compares hash and size, so membership checks must go by identity
+        Set<FileInfo> addedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        addedSet.addAll(added);
+        Set<FileInfo> rehashedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<FileInfo> toHash = new ArrayList<>();
+        List<FileInfo> rehashed = new ArrayList<>();
+        for (FileInfo file : added) {
+            List<FileInfo> peers = sizePeers.get(file.getSize());
+            if (file.isArchiveMember()) {
+                // Cached and content-hashed members were hashed while their archive was listed
+                if (!file.hasHash() && peers.size() == 1) {
+                    progress.getFunnelStats().incrementUniqueBySize();
+                }
+            } else if (peers.size() > 1 || fileHashService.isContentHashed(file.getFilePath())) {
+                toHash.add(file);
+            } else {
+                progress.getFunnelStats().incrementUniqueBySize();
+            }
+            if (peers.size() > 1) {
+                for (FileInfo peer : peers) {
+                    if (!peer.hasHash() && !peer.isArchiveMember() && !addedSet.contains(peer) && rehashedSet.add(peer)) {
+                        rehashed.add(peer);
+                        toHash.add(peer);
+                    }
+                }
+            }
+        }
+
+        List<RescanMember> membersToHash = new ArrayList<>();
+        for (RescanMember pending : pendingMembers) {
+            if (sizePeers.get(pending.file.getSize()).size() > 1) {
+                membersToHash.add(pending);
+            }
+        }
+
+        progress.setStage("hash");
+        hashFiles(toHash, options.getHashAlgorithm(), progress);
+        hashMembers(membersToHash, options.getHashAlgorithm(), progress);
+        categoryService.categorizeFiles(added);
+        if (options.isFindingSimilarImages()) {
+            progress.setStage("image");
+            perceptualHashImages(added, progress);
+        }
+
+        progress.checkCancelled();
+        progress.setStage("results");
+        synchronized (scanResult) {
+            new ScanResultUpdater(scanResult).applyChanges(removed, added, rehashed);
+            List<FileInfo> hashed = new ArrayList<>(toHash);
+            for (FileInfo file : added) {
+                if (file.isArchiveMember() && file.hasHash()) {
+                    hashed.add(file);
+                }
+            }
+            confirmChangedGroups(scanResult, options, progress, hashed);
+            scanResult.setScanTime(LocalDateTime.now());
+            scanResultStore.save(scanResult);
+        }
+        hashCacheService.evictIfNeeded();
+
+        progress.setProcessedFiles(added.size());
+        progress.setDuplicateCount(scanResult.getDuplicateCount());
+        progress.setLastUpdate(LocalDateTime.now());
+        logger.info("Rescan completed successfully for scanId: {}", scanResult.getScanId());
+    }
+
+    /**
+     * Archive stage of a rescan: lists the members of every added or modified archive as a scan
+     * does and adds them to the added files. Cached and content-hashed members get their hash
+     * right away; byte-hashed ones are returned, to be hashed only if their size is shared.
+     * Every added file is categorized from the header read here.
+     */
+    private List<RescanMember> indexArchives(List<FileInfo> added, PathTrie pathTrie, HashAlgorithm algorithm,
+                                             ScanProgress progress) throws InterruptedException {
+        if (maxArchiveMembers <= 0) {
+            return Collections.emptyList();
+        }
+        Queue<FileInfo> members = new ConcurrentLinkedQueue<>();
+        Queue<RescanMember> pending = new ConcurrentLinkedQueue<>();
+        FunnelStats funnelStats = progress.getFunnelStats();
+        readFiles(added, "archive", progress, archive -> {
+            try (FileProcessingContext context = FileProcessingContext.open(archive.getFilePath(), progress.getIoStats())) {
+                String fileType = fileHashService.detectFileType(context);
+                archive.setCategory(categoryService.categorize(fileType, archive.getFileName()));
+                if (!ArchiveIndex.isIndexed(context)) {
+                    return;
+                }
+                HashCacheService.FileVersion version = HashCacheService.FileVersion.of(Paths.get(archive.getFilePath()));
+                for (ArchiveIndex.Member member : ArchiveIndex.list(context, maxArchiveMembers)) {
+                    if (progress.isCancelRequested()) {
+                        return;
+                    }
+                    String memberPath = ArchiveIndex.memberPath(archive.getFilePath(), member);
+                    FileInfo file;
+                    try {
+                        Path path = Paths.get(memberPath);
+                        file = new FileInfo(pathTrie.directoryOf(path), path.getFileName().toString(), member.getSize(),
+                                archive.getCreatedTimeMillis());
+                    } catch (InvalidPathException e) {
+                        logger.debug("Skipping archive member without a valid path: {}", memberPath);
+                        continue;
+                    }
+                    file.setArchiveMember(true);
+                    funnelStats.incrementArchiveMembers();
+
+                    // Members are cached under their own path and the archive's version
+                    HashCacheService.CacheEntry cached = fileHashService.findCachedHash(memberPath, version, algorithm);
+                    if (cached != null && cached.getCategory() != null) {
+                        file.setCategory(cached.getCategory());
+                        file.setHash(cached.getHash());
+                        funnelStats.incrementCacheHits();
+                        members.add(file);
+                        continue;
+                    }
+                    try (FileProcessingContext memberContext = ArchiveIndex.open(context, member, memberPath)) {
+                        file.setCategory(categoryService.categorize(fileHashService.detectFileType(memberContext),
+                                file.getFileName()));
+                        if (fileHashService.isContentHashed(memberContext)) {
+                            file.setHash(fileHashService.generateAndCacheMemberHash(memberContext, version,
+                                    file.getCategory(), algorithm));
+                            funnelStats.incrementContentHashed();
+                            funnelStats.incrementFullHashed();
+                        } else {
+                            funnelStats.incrementSizeCandidates();
+                            pending.add(new RescanMember(file, member, archive, version));
+                        }
+                        members.add(file);
+                    } catch (IOException e) {
+                        logger.warn("Failed to process archive member: {}", memberPath, e);
+                        progress.addError("Failed to process: " + memberPath + " - " + e.getMessage());
+                    }
+                }
+            }
+        });
+        added.addAll(members);
+        return new ArrayList<>(pending);
+    }
+
+    /**
+     * Hashes byte-hashed archive members straight from their archives, opening each archive once
+     */
+    private void hashMembers(List<RescanMember> members, HashAlgorithm algorithm, ScanProgress progress)
+            throws InterruptedException {
+        Map<FileInfo, List<RescanMember>> byArchive = new IdentityHashMap<>();
+        for (RescanMember pending : members) {
+            byArchive.computeIfAbsent(pending.archive, k -> new ArrayList<>()).add(pending);
+        }
+        readFiles(new ArrayList<>(byArchive.keySet()), "member", progress, archive -> {
+            try (FileProcessingContext context = FileProcessingContext.open(archive.getFilePath(), progress.getIoStats())) {
+                for (RescanMember pending : byArchive.get(archive)) {
+                    if (progress.isCancelRequested()) {
+                        return;
+                    }
+                    String memberPath = pending.file.getFilePath();
+                    try (FileProcessingContext memberContext = ArchiveIndex.open(context, pending.member, memberPath)) {
+                        pending.file.setHash(fileHashService.generateAndCacheMemberHash(memberContext, pending.version,
+                                pending.file.getCategory(), algorithm));
+                        progress.getFunnelStats().incrementFullHashed();
+                    } catch (IOException e) {
+                        logger.warn("Failed to process archive member: {}", memberPath, e);
+                        progress.addError("Failed to process: " + memberPath + " - " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A byte-hashed member a rescan listed, with what it takes to hash it from its archive later
+     */
+    private static class RescanMember {
+        private final FileInfo file;
+        private final ArchiveIndex.Member member;
+        private final FileInfo archive;
+        private final HashCacheService.FileVersion version;
+
+        private RescanMember(FileInfo file, ArchiveIndex.Member member, FileInfo archive,
+                             HashCacheService.FileVersion version) {
+            this.file = file;
+            this.member = member;
+            this.archive = archive;
+            this.version = version;
+        }
+    }
+
+    private void hashFiles(List<FileInfo> files, HashAlgorithm algorithm, ScanProgress progress)
+            throws InterruptedException {
+        readFiles(files, "hash", progress, file -> {
+            file.setHash(fileHashService.generateHash(file.getFilePath(), algorithm));
+            progress.getFunnelStats().incrementFullHashed();
+        });
+    }
+
+    /**
+     * Gives the images among the files their perceptual hashes. As in a scan, cached hashes are
+     * looked up without a device slot, only decoding runs inside DeviceIo.call with the device's
+     * reader slots and byte cap, and an image that cannot be decoded, whatever ImageIO throws, is
+     * only counted and left out of the similar-image groups.
+     */
+    private void perceptualHashImages(List<FileInfo> files, ScanProgress progress) throws InterruptedException {
+        FunnelStats funnelStats = progress.getFunnelStats();
+        Map<FileInfo, HashCacheService.FileVersion> toDecode = new IdentityHashMap<>();
+        for (FileInfo file : files) {
+            if (file.isArchiveMember() || !"Images".equals(file.getCategory())) {
+                continue;
+            }
+            String filePath = file.getFilePath();
+            try {
+                HashCacheService.FileVersion version = HashCacheService.FileVersion.of(Paths.get(filePath));
+                Long cached = fileHashService.findCachedPerceptualHash(filePath, version);
+                if (cached != null) {
+                    file.setPerceptualHash(cached);
+                } else {
+                    toDecode.put(file, version);
+                }
+            } catch (IOException e) {
+                logger.debug("No perceptual hash for image: {} - {}", filePath, e.getMessage());
+                funnelStats.incrementPerceptualHashFailed();
             }
         }
+        // readFiles runs each decode through DeviceIo.call
+        readFiles(new ArrayList<>(toDecode.keySet()), "image", progress, file -> {
+            String filePath = file.getFilePath();
+            try {
+                file.setPerceptualHash(fileHashService.generateAndCachePerceptualHash(filePath, toDecode.get(file),
+                        progress.getIoStats()));
+                funnelStats.incrementPerceptualHashed();
+            } catch (IOException e) {
+                logger.debug("No perceptual hash for image: {} - {}", filePath, e.getMessage());
+                funnelStats.incrementPerceptualHashFailed();
+            } catch (Exception e) {
+                logger.warn("Unexpected error decoding image: {}", filePath, e);
+                funnelStats.incrementPerceptualHashFailed();
+            }
+        });
+    }
 
-        // Group directories by signature
-        Map<String, List<String>> signatureGroups = new HashMap<>();
-        for (Map.Entry<String, String> entry : directorySignatures.entrySet()) {
-            String directory = entry.getKey();
-            String signature = entry.getValue();
-            
-            signatureGroups.computeIfAbsent(signature, k -> new ArrayList<>()).add(directory);
-        }
-
-        // Create directory duplicate groups
-        for (Map.Entry<String, List<String>> entry : signatureGroups.entrySet()) {
-            String signature = entry.getKey();
-            List<String> directories = entry.getValue();
-            
-            if (directories.size() > 1) {
-                // This is a duplicate directory group
-                List<FileInfo> allFilesInGroup = new ArrayList<>();
-                for (String directory : directories) {
-                    List<FileInfo> filesInDir = filesByDirectory.get(directory);
-                    if (filesInDir != null) {
-                        allFilesInGroup.addAll(filesInDir);
+    /**
+     * A read of one file by a rescan worker
+     */
+    private interface FileRead {
+        void read(FileInfo file) throws IOException;
+    }
+
+    /**
+     * Runs a read for each file on a bounded pool and waits for all of them. A failed read is
+     * reported as a scan error for its file.
+     */
+    private void readFiles(List<FileInfo> files, String stageName, ScanProgress progress, FileRead read)
+            throws InterruptedException {
+        ScanPipeline.PipelineSettings settings = pipelineSettings();
+        ExecutorService pool = scanExecutors.newStage("rescan-" + progress.getScanId().substring(0, 8) + "-" + stageName,
+                settings.getHashThreads(), settings.getQueueCapacity());
+        // Workers beyond a device's reader budget wait for a slot instead of reading
+        DeviceIo.Registry devices = new DeviceIo.Registry(storageDevices, progress.getDeviceStats());
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (FileInfo file : files) {
+                futures.add(pool.submit(() -> {
+                    if (progress.isCancelRequested()) {
+                        return;
+                    }
+                    try {
+                        devices.of(file).call(() -> {
+                            read.read(file);
+                            return null;
+                        });
+                    } catch (IOException e) {
+                        logger.warn("Failed to process file: {}", file.getFilePath(), e);
+                        progress.addError("Failed to process: " + file.getFilePath() + " - " + e.getMessage());
                     }
+                    progress.setLastUpdate(LocalDateTime.now());
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.error("Unexpected error reading file", e.getCause());
                 }
-                directoryGroups.put(signature, allFilesInGroup);
             }
+        } finally {
+            // Never interrupted: a read of the hash cache on an interrupted thread closes its file
+            pool.shutdown();
         }
+    }
 
-        logger.info("Found {} duplicate directory groups", directoryGroups.size());
-        return directoryGroups;
+    /**
+     * Re-runs the scan's confirmation on the duplicate groups a rescan touched and brings the
+     * per-group algorithms in line with the updated groups
+     */
+    private void confirmChangedGroups(ScanResult scanResult, ScanOptions options, ScanProgress progress,
+                                      List<FileInfo> hashedFiles) {
+        Map<String, List<FileInfo>> duplicateGroups = scanResult.getDuplicateGroups();
+        Map<String, String> groupAlgorithms = scanResult.getGroupAlgorithms();
+        if (groupAlgorithms == null) {
+            groupAlgorithms = new ConcurrentHashMap<>();
+            scanResult.setGroupAlgorithms(groupAlgorithms);
+        }
+        groupAlgorithms.keySet().retainAll(duplicateGroups.keySet());
+
+        DuplicateConfirmer confirmer = new DuplicateConfirmer(fileHashService, options, progress);
+        Set<String> changedHashes = new HashSet<>();
+        for (FileInfo file : hashedFiles) {
+            String hash = file.getHash();
+            if (confirmer.isEnabled() && hash != null && duplicateGroups.containsKey(hash)) {
+                changedHashes.add(hash);
+            }
+        }
+        for (String hash : changedHashes) {
+            groupAlgorithms.remove(hash);
+            Map<String, List<FileInfo>> confirmed = confirmer.confirmGroup(hash, duplicateGroups.remove(hash), groupAlgorithms);
+            for (Map.Entry<String, List<FileInfo>> entry : confirmed.entrySet()) {
+                if (entry.getValue().size() < 2) {
+                    groupAlgorithms.remove(entry.getKey());
+                    continue;
+                }
+                List<FileInfo> group = duplicateGroups.merge(entry.getKey(), entry.getValue(), (existing, split) -> {
+                    List<FileInfo> merged = new ArrayList<>(existing);
+                    merged.addAll(split);
+                    return merged;
+                });
+                for (int i = 0; i < group.size(); i++) {
+                    group.get(i).setMarkedForDeletion(i > 0);
+                }
+            }
+        }
+        for (String hash : duplicateGroups.keySet()) {
+            groupAlgorithms.putIfAbsent(hash, options.getGroupAlgorithm());
+        }
+        ScanResultUpdater.recount(scanResult);
+    }
+
+    /**
+     * Cancels a queued or running scan. Returns the status after the request, or null when the
+     * scan is unknown; a running scan stays SCANNING until its pipeline notices the cancellation.
+     */
+    public ScanStatus cancelScan(String scanId) {
+        ScanProgress progress = scanProgress.get(scanId);
+        if (progress == null) {
+            return null;
+        }
+        scanJobScheduler.cancel(scanId);
+        return progress.getStatus();
     }
 
     public Map<String, Object> getScanProgress(String scanId) {
@@ -304,8 +792,12 @@ public class FileScanService {
 
         Map<String, Object> result = new HashMap<>();
         result.put("scanId", progress.getScanId());
-        result.put("status", progress.getStatus());
+        result.put("status", progress.getStatus().name());
+        result.put("cancelRequested", progress.isCancelRequested());
+        result.put("queuePosition", scanJobScheduler.queuePosition(scanId));
+        result.put("stage", progress.getStage());
         result.put("totalFiles", progress.getTotalFiles());
+        result.put("walkCompleted", progress.isWalkCompleted());
         result.put("processedFiles", progress.getProcessedFiles());
         result.put("duplicateCount", progress.getDuplicateCount());
         result.put("progressPercentage", progress.getProgressPercentage());
@@ -313,264 +805,133 @@ public class FileScanService {
         result.put("lastUpdate", progress.getLastUpdate());
         result.put("currentDirectory", progress.getCurrentDirectory());
         result.put("errors", progress.getErrors());
+        result.put("funnel", progress.getFunnelStats());
+        result.put("io", progress.getIoStats());
+        result.put("devices", new ArrayList<>(progress.getDeviceStats().values()));
 
         return result;
     }
 
-    public List<FileInfo> getCurrentDuplicates(String scanId) {
+    /**
+     * Duplicates found so far by a running scan, in discovery order. A rescan starts a new log.
+     */
+    public AppendOnlyLog<FileInfo> getCurrentDuplicates(String scanId) {
         return currentDuplicates.get(scanId);
     }
 
-    private FileInfo createFileInfo(Path filePath) throws IOException {
-        File file = filePath.toFile();
-        String fileName = file.getName();
-        String hash = fileHashService.generateSHA256Hash(file.getAbsolutePath());
-        long size = file.length();
-        LocalDateTime createdTime = LocalDateTime.ofInstant(
-                Files.getLastModifiedTime(filePath).toInstant(),
-                ZoneId.systemDefault()
-        );
+    private ScanOptions scanOptions(String hashAlgorithm, String confirmation, Integer maxImageDistance) {
+        ScanOptions.Confirmation selected = ScanOptions.Confirmation.fromName(confirmation);
+        if (selected == null) {
+            selected = ScanOptions.Confirmation.fromName(defaultConfirmation);
+        }
+        return new ScanOptions(fileHashService.getAlgorithm(hashAlgorithm),
+                selected != null ? selected : ScanOptions.Confirmation.NONE,
+                maxImageDistance != null ? maxImageDistance : defaultMaxImageDistance);
+    }
 
-        return new FileInfo(
-                file.getAbsolutePath(),
-                fileName,
-                hash,
-                size,
-                createdTime
+    private ScanPipeline.PipelineSettings pipelineSettings() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new ScanPipeline.PipelineSettings(
+                metadataThreads > 0 ? metadataThreads : Math.max(2, processors / 4),
+                hashThreads > 0 ? hashThreads : processors,
+                groupingThreads,
+                queueCapacity,
+                partialHashBytes,
+                maxArchiveMembers
         );
     }
 
     public ScanResult getScanResult(String scanId) {
-        return scanResults.get(scanId);
+        return scanResultStore.load(scanId);
     }
 
-    public List<ScanResult> getAllScanResults() {
-        return new ArrayList<>(scanResults.values());
+    /**
+     * One page of a scan's files, or null when the scan is unknown
+     */
+    public ResultPage<Object> getFilePage(String scanId, ScanResultQuery.Filter filter, String sort,
+                                          String cursor, int limit, Set<String> fields) {
+        ScanResult scanResult = scanResultStore.load(scanId);
+        if (scanResult == null) {
+            return null;
+        }
+        // Deletions and rescans update the result under this lock
+        synchronized (scanResult) {
+            return new ScanResultQuery(scanResult).files(filter, sort, cursor, limit, fields);
+        }
     }
 
     /**
-     * Permanently deletes duplicate files
-     * WARNING: This operation cannot be undone!
+     * One page of a scan's duplicate groups, or null when the scan is unknown
      */
-    public boolean deleteDuplicateFiles(String scanId, List<String> filePaths) {
-        logger.info("Permanently deleting {} files for scanId: {}", filePaths.size(), scanId);
-        
-        boolean allDeleted = true;
-        int successCount = 0;
-        int failureCount = 0;
-        
-        // Get the scan result to update it after deletion
-        ScanResult scanResult = scanResults.get(scanId);
+    public ResultPage<Object> getGroupPage(String scanId, String type, ScanResultQuery.Filter filter, String sort,
+                                           String cursor, int limit, Set<String> fields) {
+        ScanResult scanResult = scanResultStore.load(scanId);
         if (scanResult == null) {
-            logger.error("Scan result not found for scanId: {}", scanId);
-            return false;
-        }
-        
-        List<String> successfullyDeletedFiles = new ArrayList<>();
-        
-        for (String filePath : filePaths) {
-            try {
-                File fileToDelete = new File(filePath);
-                logger.info("Attempting to permanently delete file: {}", filePath);
-                
-                if (!fileToDelete.exists()) {
-                    logger.warn("File does not exist: {}", filePath);
-                    failureCount++;
-                    continue;
-                }
-                
-                if (!fileToDelete.isFile()) {
-                    logger.warn("Path is not a file: {}", filePath);
-                    failureCount++;
-                    continue;
-                }
-                
-                // Check if file is writable/deletable
-                if (!fileToDelete.canWrite()) {
-                    logger.warn("No write permission for file: {}", filePath);
-                    failureCount++;
-                    allDeleted = false;
-                    continue;
-                }
-                
-                try {
-                    // Attempt direct deletion
-                    if (fileToDelete.delete()) {
-                        logger.info("Successfully permanently deleted file: {}", filePath);
-                        successCount++;
-                        successfullyDeletedFiles.add(filePath);
-                    } else {
-                        // If direct deletion fails, try to make it writable first
-                        logger.warn("Direct deletion failed, trying to make file writable: {}", filePath);
-                        if (fileToDelete.setWritable(true) && fileToDelete.delete()) {
-                            logger.info("Successfully deleted file after setting writable: {}", filePath);
-                            successCount++;
-                            successfullyDeletedFiles.add(filePath);
-                        } else {
-                            logger.error("Failed to permanently delete file: {}", filePath);
-                            failureCount++;
-                            allDeleted = false;
-                        }
-                    }
-                } catch (SecurityException e) {
-                    logger.error("Security exception deleting file: {}", filePath, e);
-                    allDeleted = false;
-                    failureCount++;
-                }
-            } catch (Exception e) {
-                logger.error("Unexpected error deleting file: {}", filePath, e);
-                allDeleted = false;
-                failureCount++;
-            }
+            return null;
         }
-        
-        // Update the scan result to remove successfully deleted files
-        if (!successfullyDeletedFiles.isEmpty()) {
-            updateScanResultAfterDeletion(scanResult, successfullyDeletedFiles);
+        synchronized (scanResult) {
+            return new ScanResultQuery(scanResult).groups(type, filter, sort, cursor, limit, fields);
         }
-        
-        logger.info("Permanent file deletion completed. Success: {}, Failed: {}, All successful: {}", 
-                   successCount, failureCount, allDeleted);
-        
-        // Return true if at least some files were successfully deleted
-        return successCount > 0;
     }
 
     /**
-     * Permanently deletes duplicate directories
-     * WARNING: This operation cannot be undone!
+     * The files of a scan for streaming out, or null when the scan is unknown
      */
-    public boolean deleteDirectories(String scanId, List<String> directoryPaths) {
-        logger.info("Permanently deleting {} directories for scanId: {}", directoryPaths.size(), scanId);
-        
-        boolean allDeleted = true;
-        int successCount = 0;
-        int failureCount = 0;
-        
-        for (String directoryPath : directoryPaths) {
-            try {
-                File dirToDelete = new File(directoryPath);
-                logger.info("Attempting to permanently delete directory: {}", directoryPath);
-                
-                if (!dirToDelete.exists()) {
-                    logger.warn("Directory does not exist: {}", directoryPath);
-                    failureCount++;
-                    continue;
-                }
-                
-                if (!dirToDelete.isDirectory()) {
-                    logger.warn("Path is not a directory: {}", directoryPath);
-                    failureCount++;
-                    continue;
-                }
-                
-                // Check if directory is accessible
-                if (!dirToDelete.canRead() || !dirToDelete.canWrite()) {
-                    logger.warn("No read/write permission for directory: {}", directoryPath);
-                    failureCount++;
-                    allDeleted = false;
-                    continue;
-                }
-                
-                try {
-                    // Recursively delete directory using FileUtils
-                    FileUtils.deleteDirectory(dirToDelete);
-                    logger.info("Successfully permanently deleted directory: {}", directoryPath);
-                    successCount++;
-                } catch (IOException e) {
-                    logger.error("Failed to permanently delete directory: {}", directoryPath, e);
-                    failureCount++;
-                    allDeleted = false;
-                } catch (SecurityException e) {
-                    logger.error("Security exception deleting directory: {}", directoryPath, e);
-                    allDeleted = false;
-                    failureCount++;
-                }
-            } catch (Exception e) {
-                logger.error("Unexpected error deleting directory: {}", directoryPath, e);
-                allDeleted = false;
-                failureCount++;
-            }
-        }
-        
-        logger.info("Permanent directory deletion completed. Success: {}, Failed: {}, All successful: {}", 
-                   successCount, failureCount, allDeleted);
-        
-        return successCount > 0;
+    public ScanResultStore.FileSource getResultFiles(String scanId) {
+        return scanResultStore.files(scanId);
     }
 
-    private void updateScanResultAfterDeletion(ScanResult scanResult, List<String> deletedFilePaths) {
-        logger.info("Updating scan result after deletion of {} files", deletedFilePaths.size());
-        
-        // Remove deleted files from the main files list
-        List<FileInfo> updatedFiles = scanResult.getFiles().stream()
-                .filter(file -> !deletedFilePaths.contains(file.getFilePath()))
-                .collect(Collectors.toList());
-        scanResult.setFiles(updatedFiles);
-        
-        // Update duplicate groups - remove deleted files and clean up empty groups
-        Map<String, List<FileInfo>> updatedDuplicateGroups = new HashMap<>();
-        for (Map.Entry<String, List<FileInfo>> entry : scanResult.getDuplicateGroups().entrySet()) {
-            List<FileInfo> filteredGroup = entry.getValue().stream()
-                    .filter(file -> !deletedFilePaths.contains(file.getFilePath()))
-                    .collect(Collectors.toList());
-            
-            // Only keep groups that still have duplicates (more than 1 file)
-            if (filteredGroup.size() > 1) {
-                updatedDuplicateGroups.put(entry.getKey(), filteredGroup);
+    public ScanSummary getScanSummary(String scanId) {
+        ScanResult scanResult = scanResultStore.load(scanId);
+        return scanResult != null ? ScanSummary.of(scanResult) : null;
+    }
+
+    /**
+     * Summaries of all stored scans, newest first; full results are loaded one at a time
+     * through {@link #getScanResult(String)}
+     */
+    public List<ScanSummary> getAllScanResults() {
+        return scanResultStore.listSummaries();
+    }
+
+    /**
+     * Drops progress and live duplicates of scans that finished longer than the retention ago.
+     * Their results stay in the result store.
+     */
+    private void pruneFinishedScans() {
+        LocalDateTime cutoff = LocalDateTime.now().minusNanos(progressRetentionMillis * 1_000_000L);
+        scanProgress.entrySet().removeIf(entry -> {
+            ScanProgress progress = entry.getValue();
+            if (progress.getStatus().isTerminal() && progress.getLastUpdate().isBefore(cutoff)) {
+                currentDuplicates.remove(entry.getKey());
+                return true;
             }
+            return false;
+        });
+    }
+
+    /**
+     * Drops files that a deletion job removed from disk from the stored result of their scan
+     */
+    public void removeDeletedFiles(String scanId, Collection<String> deletedFilePaths) {
+        if (deletedFilePaths.isEmpty()) {
+            return;
         }
-        scanResult.setDuplicateGroups(updatedDuplicateGroups);
-        
-        // Update categorized files
-        Map<String, List<FileInfo>> updatedCategorizedFiles = new HashMap<>();
-        for (Map.Entry<String, List<FileInfo>> entry : scanResult.getCategorizedFiles().entrySet()) {
-            List<FileInfo> filteredCategoryFiles = entry.getValue().stream()
-                    .filter(file -> !deletedFilePaths.contains(file.getFilePath()))
-                    .collect(Collectors.toList());
-            
-            if (!filteredCategoryFiles.isEmpty()) {
-                updatedCategorizedFiles.put(entry.getKey(), filteredCategoryFiles);
-            }
+        ScanResult scanResult = scanResultStore.load(scanId);
+        if (scanResult == null) {
+            logger.warn("Scan result not found for scanId: {}", scanId);
+            return;
         }
-        scanResult.setCategorizedFiles(updatedCategorizedFiles);
-        
-        // Update duplicate status on remaining files
-        // Group files by hash to determine which ones are still duplicates
-        Map<String, List<FileInfo>> filesByHash = updatedFiles.stream()
-                .collect(Collectors.groupingBy(FileInfo::getHash));
-        
-        // Update duplicate status for each file
-        for (FileInfo file : updatedFiles) {
-            List<FileInfo> filesWithSameHash = filesByHash.get(file.getHash());
-            boolean wasDuplicate = file.isDuplicate();
-            if (filesWithSameHash != null && filesWithSameHash.size() <= 1) {
-                // Only one file with this hash, so it's unique now
-                file.setDuplicate(false);
-                if (wasDuplicate) {
-                    logger.info("File {} is now unique (was duplicate)", file.getFileName());
-                }
-            } else if (filesWithSameHash != null && filesWithSameHash.size() > 1) {
-                // Multiple files with same hash, so they are duplicates
-                file.setDuplicate(true);
-                if (!wasDuplicate) {
-                    logger.info("File {} is now duplicate (was unique)", file.getFileName());
-                }
-            }
+        synchronized (scanResult) {
+            updateScanResultAfterDeletion(scanResult, deletedFilePaths);
+            scanResultStore.save(scanResult);
         }
-        
-        // Recalculate counts
-        scanResult.setTotalFiles(updatedFiles.size());
-        int newDuplicateCount = updatedDuplicateGroups.values().stream()
-                .mapToInt(group -> group.size() - 1)
-                .sum();
-        scanResult.setDuplicateCount(newDuplicateCount);
-        
-        // Log final state
-        int uniqueFiles = (int) updatedFiles.stream().filter(f -> !f.isDuplicate()).count();
-        int duplicateFiles = (int) updatedFiles.stream().filter(f -> f.isDuplicate()).count();
-        
-        logger.info("Scan result updated. New totals - Files: {}, Unique: {}, Duplicates: {}, Duplicate Groups: {}", 
-                   updatedFiles.size(), uniqueFiles, duplicateFiles, newDuplicateCount);
+    }
+
+    private void updateScanResultAfterDeletion(ScanResult scanResult, Collection<String> deletedFilePaths) {
+        logger.info("Updating scan result after deletion of {} files", deletedFilePaths.size());
+        int removed = new ScanResultUpdater(scanResult).applyDeletions(deletedFilePaths);
+        logger.info("Scan result updated. Removed: {}, Files: {}, Duplicates: {}, Wasted bytes: {}",
+                   removed, scanResult.getTotalFiles(), scanResult.getDuplicateCount(), scanResult.getWastedBytes());
     }
 }
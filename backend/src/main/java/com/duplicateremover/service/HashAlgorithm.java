@@ -0,0 +1,57 @@
+package com.duplicateremover.service;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A hash function used to group duplicate files. Implementations are Spring components and are
+ * picked per scan by name; every hash in a scan result comes from the same algorithm.
+ */
+public interface HashAlgorithm {
+
+    /**
+     * Name used in scan requests, scan results and hash cache keys
+     */
+    String getName();
+
+    /**
+     * Whether a collision can be treated as proof of equal content. Groups produced by a
+     * non-cryptographic algorithm can be confirmed with a second pass.
+     */
+    boolean isCryptographic();
+
+    Hasher newHasher();
+
+    default String hashHex(byte[] bytes) {
+        Hasher hasher = newHasher();
+        hasher.update(bytes, 0, bytes.length);
+        return hasher.digestHex();
+    }
+
+    /**
+     * Incremental hash state for one input. Not thread-safe.
+     */
+    interface Hasher {
+        void update(byte[] bytes, int offset, int length);
+
+        /**
+         * Consumes the remaining bytes of the buffer
+         */
+        void update(ByteBuffer buffer);
+
+        /**
+         * Finishes the hash and returns the raw digest, a fixed width per algorithm
+         */
+        byte[] digest();
+
+        /**
+         * An independent hasher holding the same input so far
+         */
+        Hasher copy();
+
+        default String digestHex() {
+            return Hex.encodeHexString(digest());
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.duplicateremover.service;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of file hashes backed by an H2 MVStore, with one map per hash algorithm.
+ *
+ * Entries are looked up by absolute path and only count as a hit when size, last-modified
+ * time and file key (inode on POSIX systems) still match, so a replaced or edited file is
+ * always re-hashed. The store is bounded by entry count; least recently used entries are
+ * evicted once the bound is exceeded.
+ *
+ * Access times are kept to the day. A hit does not write: it queues the path when its access
+ * day is out of date, and queued paths are written out in one batch at the end of a scan. Each
+ * map has a second map ordered by access day and path, so eviction removes the oldest entries
+ * by walking that index from the start instead of reading and sorting every entry.
+ */
+@Service
+public class HashCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashCacheService.class);
+
+    // Bump when the hashing scheme changes so stale hashes are never served
+    private static final String FORMAT_VERSION = "2";
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Paths whose access time waits to be written, per algorithm; further hits are not recorded
+    private static final int MAX_PENDING_ACCESSES = 100_000;
+
+    @Value("${scan.hash-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${scan.hash-cache.path:${user.home}/.duplicate-remover/hash-cache.mv}")
+    private String storePath;
+
+    @Value("${scan.hash-cache.max-entries:5000000}")
+    private int maxEntries;
+
+    private volatile MVStore store;
+    private final Map<String, MVMap<String, String>> entriesByAlgorithm = new ConcurrentHashMap<>();
+    // Per algorithm, "<access day>|<path>" of every entry, oldest first
+    private final Map<String, MVMap<String, String>> accessIndexByAlgorithm = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> pendingAccesses = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Identity of a file version; a cached hash is only valid for the exact same version
+     */
+    public static class FileVersion {
+        private final long size;
+        private final long lastModifiedMillis;
+        private final String fileKey;
+
+        public FileVersion(long size, long lastModifiedMillis, String fileKey) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.fileKey = fileKey != null ? fileKey : "";
+        }
+
+        public static FileVersion of(Path path) throws IOException {
+            return of(Files.readAttributes(path, BasicFileAttributes.class));
+        }
+
+        public static FileVersion of(BasicFileAttributes attributes) {
+            Object fileKey = attributes.fileKey();
+            return new FileVersion(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    fileKey != null ? fileKey.toString() : null);
+        }
+
+        public long getSize() { return size; }
+        public long getLastModifiedMillis() { return lastModifiedMillis; }
+        public String getFileKey() { return fileKey; }
+    }
+
+    /**
+     * A cached hash together with the category detected when the file was hashed (may be null)
+     */
+    public static class CacheEntry {
+        private final String hash;
+        private final String category;
+
+        public CacheEntry(String hash, String category) {
+            this.hash = hash;
+            this.category = category;
+        }
+
+        public String getHash() { return hash; }
+        public String getCategory() { return category; }
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            logger.info("Hash cache disabled");
+            return;
+        }
+        try {
+            Path path = Paths.get(storePath).toAbsolutePath();
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            // "retry:" reopens the file after a read on an interrupted thread closed it, which would
+            // otherwise break the store for every other thread
+            store = new MVStore.Builder().fileName("retry:" + path).compress().open();
+
+            String prefix = "hashes-v" + FORMAT_VERSION + "-";
+            for (String mapName : store.getMapNames()) {
+                if (mapName.startsWith(prefix)) {
+                    entries(mapName.substring(prefix.length()));
+                } else if (mapName.startsWith("hashes-")
+                        || mapName.startsWith("access-") && !mapName.startsWith("access-v" + FORMAT_VERSION + "-")) {
+                    // Written by an older hashing scheme and never readable again
+                    store.removeMap(mapName);
+                }
+            }
+            logger.info("Opened hash cache at {} with maps for {}", path, entriesByAlgorithm.keySet());
+        } catch (Exception e) {
+            logger.warn("Failed to open hash cache at {}, continuing without it", storePath, e);
+            store = null;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            flushAccessTimes();
+            store.close();
+            store = null;
+            entriesByAlgorithm.clear();
+            accessIndexByAlgorithm.clear();
+            pendingAccesses.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    private MVMap<String, String> entries(String algorithm) {
+        MVStore current = store;
+        if (current == null) {
+            return null;
+        }
+        return entriesByAlgorithm.computeIfAbsent(algorithm, name -> {
+            accessIndexByAlgorithm.put(name, current.openMap("access-v" + FORMAT_VERSION + "-" + name));
+            pendingAccesses.put(name, ConcurrentHashMap.newKeySet());
+            return current.openMap("hashes-v" + FORMAT_VERSION + "-" + name);
+        });
+    }
+
+    /**
+     * Returns the cached entry for this exact file version, or null on a miss
+     */
+    public CacheEntry get(String filePath, FileVersion version, String algorithm) {
+        MVMap<String, String> entries = entries(algorithm);
+        if (entries == null) {
+            return null;
+        }
+        String value = entries.get(filePath);
+        if (value != null) {
+            String[] parts = value.split("\\|", 6);
+            if (parts.length == 6
+                    && Long.parseLong(parts[0]) == version.getSize()
+                    && Long.parseLong(parts[1]) == version.getLastModifiedMillis()
+                    && parts[5].equals(version.getFileKey())) {
+                hits.incrementAndGet();
+                // The access time is refreshed later, at most once a day, so LRU eviction keeps hot entries
+                Set<String> pending = pendingAccesses.get(algorithm);
+                if (Long.parseLong(parts[2]) / DAY_MILLIS < System.currentTimeMillis() / DAY_MILLIS
+                        && pending.size() < MAX_PENDING_ACCESSES) {
+                    pending.add(filePath);
+                }
+                return new CacheEntry(parts[3], parts[4].isEmpty() ? null : parts[4]);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String filePath, FileVersion version, String algorithm, String hash, String category) {
+        MVMap<String, String> entries = entries(algorithm);
+        if (entries == null || hash == null) {
+            return;
+        }
+        String value = encode(version, hash, category);
+        replaceAccessKey(algorithm, filePath, entries.put(filePath, value), value);
+    }
+
+    public void invalidate(String filePath) {
+        entriesByAlgorithm.forEach((algorithm, entries) ->
+                replaceAccessKey(algorithm, filePath, entries.remove(filePath), null));
+    }
+
+    /**
+     * Writes queued access times, then drops least recently used entries until each algorithm's
+     * map is back under 90% of the bound
+     */
+    public void evictIfNeeded() {
+        if (store == null) {
+            return;
+        }
+        flushAccessTimes();
+        entriesByAlgorithm.forEach(this::evictIfNeeded);
+    }
+
+    private void flushAccessTimes() {
+        long now = System.currentTimeMillis();
+        int updated = 0;
+        for (Map.Entry<String, MVMap<String, String>> map : entriesByAlgorithm.entrySet()) {
+            MVMap<String, String> entries = map.getValue();
+            Set<String> pending = pendingAccesses.get(map.getKey());
+            for (String filePath : new ArrayList<>(pending)) {
+                pending.remove(filePath);
+                String value = entries.get(filePath);
+                String[] parts = value != null ? value.split("\\|", 6) : null;
+                if (parts == null || parts.length != 6 || Long.parseLong(parts[2]) / DAY_MILLIS >= now / DAY_MILLIS) {
+                    continue;
+                }
+                String touched = parts[0] + "|" + parts[1] + "|" + now + "|" + parts[3] + "|" + parts[4] + "|" + parts[5];
+                // Skip the entry if a put replaced it meanwhile
+                if (entries.replace(filePath, value, touched)) {
+                    replaceAccessKey(map.getKey(), filePath, value, touched);
+                    updated++;
+                }
+            }
+        }
+        if (updated > 0) {
+            store.commit();
+            logger.debug("Updated access times of {} hash cache entries", updated);
+        }
+    }
+
+    private void evictIfNeeded(String algorithm, MVMap<String, String> entries) {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        MVMap<String, String> accessIndex = accessIndexByAlgorithm.get(algorithm);
+        if (accessIndex.size() < entries.size()) {
+            rebuildAccessIndex(entries, accessIndex);
+        }
+
+        int target = (int) (maxEntries * 0.9);
+        int toRemove = entries.size() - target;
+        int removed = 0;
+        // Oldest first; the iterator reads a snapshot, so removing as it goes is safe
+        Iterator<String> keys = accessIndex.keyIterator(null);
+        while (removed < toRemove && keys.hasNext()) {
+            String accessKey = keys.next();
+            accessIndex.remove(accessKey);
+            String filePath = accessKey.substring(accessKey.indexOf('|') + 1);
+            String value = entries.get(filePath);
+            // A key left behind by an entry that was replaced since is only dropped
+            if (value != null && accessKey.equals(accessKey(filePath, value))) {
+                entries.remove(filePath);
+                removed++;
+                evictions.incrementAndGet();
+            }
+        }
+        store.commit();
+        logger.info("Evicted {} entries from hash cache, {} remain", removed, entries.size());
+    }
+
+    /**
+     * Indexes every entry; needed once for a cache written before the index existed
+     */
+    private void rebuildAccessIndex(MVMap<String, String> entries, MVMap<String, String> accessIndex) {
+        logger.info("Indexing access times of {} hash cache entries", entries.size());
+        accessIndex.clear();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String accessKey = accessKey(entry.getKey(), entry.getValue());
+            if (accessKey != null) {
+                accessIndex.put(accessKey, "");
+            }
+        }
+    }
+
+    private void replaceAccessKey(String algorithm, String filePath, String oldValue, String newValue) {
+        MVMap<String, String> accessIndex = accessIndexByAlgorithm.get(algorithm);
+        if (accessIndex == null) {
+            return;
+        }
+        String oldKey = oldValue != null ? accessKey(filePath, oldValue) : null;
+        String newKey = newValue != null ? accessKey(filePath, newValue) : null;
+        if (oldKey != null && !oldKey.equals(newKey)) {
+            accessIndex.remove(oldKey);
+        }
+        if (newKey != null) {
+            accessIndex.put(newKey, "");
+        }
+    }
+
+    /**
+     * The access index key of an entry: its access day, zero-padded so keys sort by day, and path
+     */
+    private static String accessKey(String filePath, String value) {
+        String[] parts = value.split("\\|", 4);
+        if (parts.length < 4) {
+            return null;
+        }
+        return String.format("%08d|%s", Long.parseLong(parts[2]) / DAY_MILLIS, filePath);
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        Map<String, Integer> entryCounts = new HashMap<>();
+        entriesByAlgorithm.forEach((algorithm, entries) -> entryCounts.put(algorithm, entries.size()));
+        stats.put("entries", entryCounts.values().stream().mapToInt(Integer::intValue).sum());
+        stats.put("entriesByAlgorithm", entryCounts);
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("pendingAccessUpdates", pendingAccesses.values().stream().mapToInt(Set::size).sum());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    private String encode(FileVersion version, String hash, String category) {
+        return version.getSize() + "|" + version.getLastModifiedMillis() + "|" + System.currentTimeMillis()
+                + "|" + hash + "|" + (category != null ? category : "") + "|" + version.getFileKey();
+    }
+}
@@ -0,0 +1,144 @@
+package com.duplicateremover.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A 64-bit perceptual hash (pHash) of an image, for finding resized and re-encoded copies.
+ *
+ * The image is decoded with ImageIO at reduced resolution: the reader skips rows and columns so
+ * that the shorter side keeps about {@link #DECODE_SIZE} pixels, which bounds the decoded image
+ * whatever the source resolution. Its luminance is averaged down to a 32x32 grid, the lowest 8x8
+ * frequencies of the grid's DCT are kept, and each bit tells whether a frequency lies above
+ * their median. Scaling, recompression and small color changes flip few bits, so the Hamming
+ * distance between two hashes measures how alike the images look.
+ */
+final class PerceptualHash {
+
+    /**
+     * Cache map name for perceptual hashes, beside those of the content hash algorithms
+     */
+    static final String NAME = "phash";
+
+    private static final int GRID = 32;
+    private static final int FREQUENCIES = 8;
+    private static final int DECODE_SIZE = 4 * GRID;
+    // cos((2x + 1) * u * pi / 2N) for the kept frequencies u of a row of N = GRID samples
+    private static final double[][] COSINES = new double[FREQUENCIES][GRID];
+
+    static {
+        for (int u = 0; u < FREQUENCIES; u++) {
+            for (int x = 0; x < GRID; x++) {
+                COSINES[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * GRID));
+            }
+        }
+    }
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Decodes the file's first image and hashes it. Throws an IOException when no installed
+     * ImageIO reader understands the format.
+     */
+    static long compute(FileProcessingContext context) throws IOException {
+        try (InputStream in = context.openStream();
+             ImageInputStream images = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(images);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for: " + context.getFilePath());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0) {
+                    throw new IOException("Image has no pixels: " + context.getFilePath());
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width, height) / DECODE_SIZE);
+                param.setSourceSubsampling(step, step, 0, 0);
+                return hash(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    private static long hash(BufferedImage image) {
+        double[][] grid = luminanceGrid(image);
+
+        // Separable DCT-II, rows then columns, computing only the kept frequencies
+        double[][] rows = new double[GRID][FREQUENCIES];
+        for (int y = 0; y < GRID; y++) {
+            for (int u = 0; u < FREQUENCIES; u++) {
+                double sum = 0;
+                for (int x = 0; x < GRID; x++) {
+                    sum += grid[y][x] * COSINES[u][x];
+                }
+                rows[y][u] = sum;
+            }
+        }
+        double[] coefficients = new double[FREQUENCIES * FREQUENCIES];
+        for (int v = 0; v < FREQUENCIES; v++) {
+            for (int u = 0; u < FREQUENCIES; u++) {
+                double sum = 0;
+                for (int y = 0; y < GRID; y++) {
+                    sum += rows[y][u] * COSINES[v][y];
+                }
+                coefficients[v * FREQUENCIES + u] = sum;
+            }
+        }
+
+        double[] sorted = coefficients.clone();
+        Arrays.sort(sorted);
+        double median = (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+        long bits = 0;
+        for (int i = 0; i < coefficients.length; i++) {
+            if (coefficients[i] > median) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Mean luminance of each cell of a GRID x GRID division of the image; every cell covers at
+     * least one pixel, so images smaller than the grid are stretched
+     */
+    private static double[][] luminanceGrid(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[][] grid = new double[GRID][GRID];
+        for (int cellY = 0; cellY < GRID; cellY++) {
+            int top = cellY * height / GRID;
+            int bottom = Math.max(top + 1, (cellY + 1) * height / GRID);
+            for (int cellX = 0; cellX < GRID; cellX++) {
+                int left = cellX * width / GRID;
+                int right = Math.max(left + 1, (cellX + 1) * width / GRID);
+                double sum = 0;
+                for (int y = top; y < bottom; y++) {
+                    for (int x = left; x < right; x++) {
+                        int rgb = image.getRGB(x, y);
+                        sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                    }
+                }
+                grid[cellY][cellX] = sum / ((bottom - top) * (right - left));
+            }
+        }
+        return grid;
+    }
+}
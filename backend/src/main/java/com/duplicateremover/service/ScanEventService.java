@@ -0,0 +1,253 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.AppendOnlyLog;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.ScanStatus;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes scan events to Server-Sent Events subscribers instead of having clients poll.
+ *
+ * A single ticker samples each watched scan once per interval and serializes the progress
+ * snapshot once for all of its subscribers. Every subscriber only receives what changed since
+ * its last send: a "stage" event when status or pipeline stage moves, a "progress" event when
+ * the snapshot differs, and "duplicates" events carrying the entries after its cursor. A
+ * subscriber whose previous send is still in flight skips the tick, so slow clients get the
+ * latest state coalesced into one send instead of a growing queue. A final "complete" event
+ * closes the stream once the scan has finished and every duplicate was delivered.
+ */
+@Service
+public class ScanEventService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanEventService.class);
+
+    @Autowired
+    private FileScanService fileScanService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${scan.events.interval-ms:500}")
+    private long intervalMs;
+
+    @Value("${scan.events.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    // Upper bound on duplicates per event; a lagging subscriber catches up over several ticks
+    @Value("${scan.events.max-duplicates-per-event:500}")
+    private int maxDuplicatesPerEvent;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+    private ExecutorService senders;
+
+    @PostConstruct
+    public void start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(daemonThreads("scan-events-tick"));
+        senders = Executors.newCachedThreadPool(daemonThreads("scan-events-send"));
+        ticker.scheduleWithFixedDelay(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+        senders.shutdownNow();
+        subscribers.values().forEach(scanSubscribers -> scanSubscribers.forEach(s -> s.emitter.complete()));
+        subscribers.clear();
+    }
+
+    /**
+     * Subscribes to a scan's events, starting with the duplicates after index since.
+     * Returns null when the scan is unknown.
+     */
+    public SseEmitter subscribe(String scanId, int since) {
+        if (fileScanService.getScanProgress(scanId) == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(scanId, emitter, Math.max(0, since));
+        subscribers.computeIfAbsent(scanId, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        logger.debug("New event subscriber for scan {}", scanId);
+        return emitter;
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.scanId, (scanId, scanSubscribers) -> {
+            scanSubscribers.remove(subscriber);
+            return scanSubscribers.isEmpty() ? null : scanSubscribers;
+        });
+    }
+
+    private void tick() {
+        try {
+            for (Map.Entry<String, Set<Subscriber>> entry : subscribers.entrySet()) {
+                tickScan(entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            // An escaping exception would cancel the schedule for good
+            logger.error("Failed to publish scan events", e);
+        }
+    }
+
+    private void tickScan(String scanId, Set<Subscriber> scanSubscribers) throws JsonProcessingException {
+        Map<String, Object> progress = fileScanService.getScanProgress(scanId);
+        if (progress == null) {
+            scanSubscribers.forEach(subscriber -> subscriber.emitter.complete());
+            return;
+        }
+        // Sized after the progress was read, so a COMPLETED snapshot always covers every duplicate
+        AppendOnlyLog<FileInfo> duplicates = fileScanService.getCurrentDuplicates(scanId);
+        int duplicateCount = duplicates != null ? duplicates.size() : 0;
+        Snapshot snapshot = new Snapshot(
+                objectMapper.writeValueAsString(progress),
+                (String) progress.get("status"),
+                (String) progress.get("stage"),
+                duplicates,
+                duplicateCount);
+
+        for (Subscriber subscriber : scanSubscribers) {
+            if (subscriber.sending.compareAndSet(false, true)) {
+                senders.execute(() -> subscriber.send(snapshot));
+            }
+        }
+    }
+
+    private static boolean isFinished(String status) {
+        return status != null && ScanStatus.valueOf(status).isTerminal();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * State of one scan at one tick, shared by all of its subscribers
+     */
+    private class Snapshot {
+        private final String progressJson;
+        private final String status;
+        private final String stage;
+        private final AppendOnlyLog<FileInfo> duplicates;
+        // Log size when sampled; entries appended later go out on the next tick
+        private final int duplicateCount;
+        // Serialized duplicate slices by starting cursor; subscribers in step share one
+        private final Map<Integer, String> slices = new ConcurrentHashMap<>();
+
+        private Snapshot(String progressJson, String status, String stage,
+                         AppendOnlyLog<FileInfo> duplicates, int duplicateCount) {
+            this.progressJson = progressJson;
+            this.status = status;
+            this.stage = stage;
+            this.duplicates = duplicates;
+            this.duplicateCount = duplicateCount;
+        }
+
+        private int duplicateCount() {
+            return duplicateCount;
+        }
+
+        private int sliceEnd(int from) {
+            return Math.min(duplicateCount(), from + Math.max(1, maxDuplicatesPerEvent));
+        }
+
+        private String slice(int from) {
+            return slices.computeIfAbsent(from, start -> {
+                Map<String, Object> payload = new HashMap<>();
+                payload.put("from", start);
+                payload.put("duplicates", duplicates.read(start, sliceEnd(start)));
+                try {
+                    return objectMapper.writeValueAsString(payload);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Failed to serialize duplicates", e);
+                }
+            });
+        }
+    }
+
+    private class Subscriber {
+        private final String scanId;
+        private final SseEmitter emitter;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private AppendOnlyLog<FileInfo> log;
+        private int cursor;
+        private String lastStatus;
+        private String lastStage;
+        private String lastProgressJson;
+
+        private Subscriber(String scanId, SseEmitter emitter, int cursor) {
+            this.scanId = scanId;
+            this.emitter = emitter;
+            this.cursor = cursor;
+        }
+
+        private void send(Snapshot snapshot) {
+            try {
+                if (!Objects.equals(snapshot.status, lastStatus) || !Objects.equals(snapshot.stage, lastStage)) {
+                    Map<String, Object> stage = new HashMap<>();
+                    stage.put("status", snapshot.status);
+                    stage.put("stage", snapshot.stage);
+                    emitter.send(SseEmitter.event().name("stage").data(stage, MediaType.APPLICATION_JSON));
+                    lastStatus = snapshot.status;
+                    lastStage = snapshot.stage;
+                }
+                if (!snapshot.progressJson.equals(lastProgressJson)) {
+                    emitter.send(SseEmitter.event().name("progress").data(snapshot.progressJson, MediaType.APPLICATION_JSON));
+                    lastProgressJson = snapshot.progressJson;
+                }
+                if (log != null && snapshot.duplicates != log) {
+                    // The scan was restarted (rescan) and its log begins again
+                    cursor = 0;
+                }
+                log = snapshot.duplicates;
+                if (cursor < snapshot.duplicateCount()) {
+                    emitter.send(SseEmitter.event().name("duplicates").id(Integer.toString(snapshot.sliceEnd(cursor)))
+                            .data(snapshot.slice(cursor), MediaType.APPLICATION_JSON));
+                    cursor = snapshot.sliceEnd(cursor);
+                }
+                if (isFinished(snapshot.status) && cursor >= snapshot.duplicateCount()) {
+                    emitter.send(SseEmitter.event().name("complete").data(snapshot.progressJson, MediaType.APPLICATION_JSON));
+                    emitter.complete();
+                    remove(this);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client went away; the emitter callbacks may not fire for a broken connection
+                logger.debug("Dropping event subscriber for scan {}: {}", scanId, e.getMessage());
+                remove(this);
+            } finally {
+                sending.set(false);
+            }
+        }
+    }
+}
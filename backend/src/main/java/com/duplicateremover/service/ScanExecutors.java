@@ -0,0 +1,234 @@
+package com.duplicateremover.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run per-file scan work, in one of two modes.
+ *
+ * In "platform" mode (the default) a stage is a fixed pool of platform threads behind a bounded
+ * queue. In "virtual" mode every task gets its own virtual thread and a per-stage semaphore caps
+ * how many run at once; a full stage blocks the submitter just like a full queue does. Blocking
+ * file reads and POI/PDFBox parsing then park a virtual thread instead of holding an OS thread.
+ *
+ * The build still targets Java 11, so virtual threads are looked up reflectively. On a JVM older
+ * than 21 the virtual mode logs a warning and falls back to platform threads.
+ */
+@Service
+public class ScanExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanExecutors.class);
+
+    // platform or virtual
+    @Value("${scan.threads.mode:platform}")
+    private String mode;
+
+    // Tasks a stage runs at once in virtual mode, replacing its platform thread count
+    @Value("${scan.threads.virtual-max-concurrent:256}")
+    private int virtualMaxConcurrent;
+
+    private boolean virtual;
+
+    @PostConstruct
+    public void init() {
+        if ("virtual".equalsIgnoreCase(mode.trim())) {
+            virtual = virtualThreadFactory("probe-") != null;
+            if (!virtual) {
+                logger.warn("scan.threads.mode=virtual needs Java 21 or newer (running {}); using platform threads",
+                        System.getProperty("java.version"));
+            }
+        } else if (!"platform".equalsIgnoreCase(mode.trim())) {
+            throw new IllegalArgumentException("Unknown scan.threads.mode: " + mode + " (supported: platform, virtual)");
+        }
+        logger.info("Scan work runs on {} threads", virtual ? "virtual" : "platform");
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * A pipeline stage: at most threads tasks at once on platform threads behind a queue of
+     * queueCapacity, or up to the virtual concurrency limit on virtual threads. Either way a
+     * full stage blocks the submitting thread until there is room.
+     */
+    public ExecutorService newStage(String threadPrefix, int threads, int queueCapacity) {
+        if (virtual) {
+            return new VirtualStage(threadPrefix, virtualThreadFactory(threadPrefix + "-"),
+                    Math.max(threads, virtualMaxConcurrent));
+        }
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), platformThreadFactory(threadPrefix),
+                (task, executor) -> {
+                    // Back-pressure: block the upstream stage until this stage has room
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Stage " + threadPrefix + " is shut down");
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while queueing for stage " + threadPrefix, e);
+                    }
+                });
+    }
+
+    /**
+     * A stage that never queues or blocks: each task starts at once on an idle pooled platform
+     * thread or a new one, or on its own virtual thread. The caller bounds how many tasks run. A
+     * thread stuck in a task is simply not reused, so the next task gets a fresh one.
+     */
+    public ExecutorService newElasticStage(String threadPrefix) {
+        if (virtual) {
+            return new VirtualStage(threadPrefix, virtualThreadFactory(threadPrefix + "-"), Integer.MAX_VALUE);
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), platformThreadFactory(threadPrefix));
+    }
+
+    /**
+     * An unbounded executor starting one virtual thread per task, for request handling; null
+     * unless virtual mode is active
+     */
+    public ExecutorService newVirtualThreadPerTaskExecutor(String threadPrefix) {
+        return virtual ? new VirtualStage(threadPrefix, virtualThreadFactory(threadPrefix + "-"), Integer.MAX_VALUE) : null;
+    }
+
+    private static ThreadFactory platformThreadFactory(String threadPrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, threadPrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Thread.ofVirtual().name(prefix, 1).factory(), or null before Java 21
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One virtual thread per task, with a semaphore bounding how many are alive
+     */
+    private static final class VirtualStage extends AbstractExecutorService {
+        private final String name;
+        private final ThreadFactory threadFactory;
+        private final Semaphore permits;
+        private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+        private final Object lock = new Object();
+        private int active;
+        private boolean shutdown;
+
+        private VirtualStage(String name, ThreadFactory threadFactory, int maxConcurrent) {
+            this.name = name;
+            this.threadFactory = threadFactory;
+            this.permits = new Semaphore(maxConcurrent);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for stage " + name, e);
+            }
+            Thread thread = threadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    running.remove(Thread.currentThread());
+                    synchronized (lock) {
+                        active--;
+                        lock.notifyAll();
+                    }
+                    permits.release();
+                }
+            });
+            synchronized (lock) {
+                if (shutdown) {
+                    permits.release();
+                    throw new RejectedExecutionException("Stage " + name + " is shut down");
+                }
+                active++;
+            }
+            running.add(thread);
+            thread.start();
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (lock) {
+                shutdown = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            running.forEach(Thread::interrupt);
+            // Tasks never queue here; anything accepted is already running
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (lock) {
+                return shutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (lock) {
+                return shutdown && active == 0;
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (lock) {
+                while (!(shutdown && active == 0)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.ScanStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs scan jobs with bounded concurrency instead of one unmanaged thread per request.
+ *
+ * Jobs wait in a priority queue (higher priority first, then submission order) until both a
+ * global slot and a slot on the device holding their root are free, so two scans of the same
+ * disk do not seek against each other while scans of other disks keep going. Cancellation is
+ * cooperative: a queued job is dropped, a running one is flagged and stops at the pipeline's next
+ * check. Job threads are never interrupted, since an interrupted read of the hash cache or the
+ * result store closes the store's file for every other thread. On shutdown queued jobs are
+ * cancelled and running ones get a grace period before they are cancelled too.
+ */
+@Service
+public class ScanJobScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanJobScheduler.class);
+
+    @Autowired
+    private StorageDevices storageDevices;
+
+    @Value("${scan.jobs.max-concurrent:2}")
+    private int maxConcurrent;
+
+    // Scans allowed at once on one device (file store); 0 disables the per-device limit
+    @Value("${scan.jobs.max-per-device:1}")
+    private int maxPerDevice;
+
+    @Value("${scan.jobs.shutdown-grace-ms:10000}")
+    private long shutdownGraceMs;
+
+    /**
+     * Body of a scan job; throws to fail the job
+     */
+    public interface ScanTask {
+        void run() throws Exception;
+    }
+
+    private final PriorityQueue<ScanJob> queue = new PriorityQueue<>(
+            Comparator.comparingInt((ScanJob job) -> -job.priority).thenComparingLong(job -> job.sequence));
+    private final Map<String, ScanJob> running = new HashMap<>();
+    private final Map<String, Integer> runningPerDevice = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private ExecutorService workers;
+    private boolean shuttingDown;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "scan-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a job for the given root; progress moves from QUEUED to SCANNING once it starts
+     */
+    public synchronized void submit(FileScanService.ScanProgress progress, String directory, int priority,
+                                    ScanTask task) {
+        if (shuttingDown) {
+            throw new IllegalStateException("Scan scheduler is shutting down");
+        }
+        ScanJob job = new ScanJob(progress, directory, deviceOf(directory), priority,
+                sequence.incrementAndGet(), task);
+        queue.add(job);
+        logger.info("Queued scan {} of {} on device {} with priority {}",
+                progress.getScanId(), directory, job.device, priority);
+        dispatch();
+    }
+
+    /**
+     * Cancels a queued or running job. Returns false when no such job is waiting or running.
+     */
+    public boolean cancel(String scanId) {
+        ScanJob job;
+        synchronized (this) {
+            job = running.get(scanId);
+            if (job == null) {
+                for (Iterator<ScanJob> it = queue.iterator(); it.hasNext(); ) {
+                    ScanJob queued = it.next();
+                    if (queued.progress.getScanId().equals(scanId)) {
+                        it.remove();
+                        queued.progress.requestCancel();
+                        queued.progress.transitionTo(ScanStatus.CANCELLED);
+                        logger.info("Cancelled queued scan {}", scanId);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        job.progress.requestCancel();
+        logger.info("Cancellation requested for running scan {}", scanId);
+        return true;
+    }
+
+    /**
+     * Position of a queued job, 1 being next in line; 0 when it is not queued
+     */
+    public synchronized int queuePosition(String scanId) {
+        List<ScanJob> ordered = new ArrayList<>(queue);
+        ordered.sort(queue.comparator());
+        for (int i = 0; i < ordered.size(); i++) {
+            if (ordered.get(i).progress.getScanId().equals(scanId)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private synchronized void dispatch() {
+        if (shuttingDown || queue.isEmpty() || running.size() >= Math.max(1, maxConcurrent)) {
+            return;
+        }
+        // Walk the queue in priority order and start whatever fits; a job waiting for a busy
+        // device does not hold back jobs on other devices
+        List<ScanJob> ordered = new ArrayList<>(queue);
+        ordered.sort(queue.comparator());
+        for (ScanJob job : ordered) {
+            if (running.size() >= Math.max(1, maxConcurrent)) {
+                break;
+            }
+            int onDevice = runningPerDevice.getOrDefault(job.device, 0);
+            if (maxPerDevice > 0 && onDevice >= maxPerDevice) {
+                continue;
+            }
+            queue.remove(job);
+            running.put(job.progress.getScanId(), job);
+            runningPerDevice.put(job.device, onDevice + 1);
+            workers.execute(() -> execute(job));
+        }
+    }
+
+    private void execute(ScanJob job) {
+        FileScanService.ScanProgress progress = job.progress;
+        String scanId = progress.getScanId();
+        try {
+            if (!progress.transitionTo(ScanStatus.SCANNING)) {
+                return;
+            }
+            job.task.run();
+            // A job that got all the way through completes even if a cancel arrived at the end
+            progress.transitionTo(ScanStatus.COMPLETED);
+        } catch (Exception e) {
+            if (progress.isCancelRequested()) {
+                progress.transitionTo(ScanStatus.CANCELLED);
+                logger.info("Scan {} cancelled", scanId);
+            } else {
+                logger.error("Error during scan for directory: {}", job.directory, e);
+                progress.addError(e.getMessage());
+                progress.transitionTo(ScanStatus.FAILED);
+            }
+        } finally {
+            finished(job);
+        }
+    }
+
+    private synchronized void finished(ScanJob job) {
+        running.remove(job.progress.getScanId());
+        runningPerDevice.computeIfPresent(job.device, (device, count) -> count > 1 ? count - 1 : null);
+        notifyAll();
+        dispatch();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        List<ScanJob> toCancel;
+        synchronized (this) {
+            shuttingDown = true;
+            for (ScanJob job : queue) {
+                job.progress.requestCancel();
+                job.progress.transitionTo(ScanStatus.CANCELLED);
+            }
+            queue.clear();
+
+            long deadline = System.currentTimeMillis() + shutdownGraceMs;
+            long remaining;
+            while (!running.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            toCancel = new ArrayList<>(running.values());
+        }
+        if (!toCancel.isEmpty()) {
+            logger.info("Cancelling {} running scans for shutdown", toCancel.size());
+            toCancel.forEach(job -> cancel(job.progress.getScanId()));
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+            // Left running rather than interrupted; the threads are daemons and end with the JVM
+            synchronized (this) {
+                logger.warn("Scan jobs still running at shutdown: {}", running.keySet());
+            }
+        }
+    }
+
+    /**
+     * Device holding a root; roots that cannot be resolved count as their own device, they will
+     * fail as soon as they start anyway
+     */
+    private String deviceOf(String directory) {
+        try {
+            return storageDevices.deviceOf(Paths.get(directory).toAbsolutePath()).getName();
+        } catch (RuntimeException e) {
+            return directory;
+        }
+    }
+
+    private static class ScanJob {
+        private final FileScanService.ScanProgress progress;
+        private final String directory;
+        private final String device;
+        private final int priority;
+        private final long sequence;
+        private final ScanTask task;
+
+        private ScanJob(FileScanService.ScanProgress progress, String directory, String device, int priority,
+                        long sequence, ScanTask task) {
+            this.progress = progress;
+            this.directory = directory;
+            this.device = device;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.duplicateremover.service;
+
+/**
+ * Per-scan choices made by the caller of POST /api/scan
+ */
+public class ScanOptions {
+
+    /**
+     * Second pass run inside colliding groups of a non-cryptographic hash
+     */
+    public enum Confirmation {
+        NONE, SHA256, BYTES;
+
+        public static Confirmation fromName(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return null;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown confirmation: " + name + " (supported: none, sha256, bytes)");
+            }
+        }
+    }
+
+    private final HashAlgorithm hashAlgorithm;
+    private final Confirmation confirmation;
+    private final int maxImageDistance;
+
+    public ScanOptions(HashAlgorithm hashAlgorithm, Confirmation confirmation) {
+        this(hashAlgorithm, confirmation, -1);
+    }
+
+    /**
+     * @param maxImageDistance Hamming distance up to which images are grouped as similar; negative
+     *                         leaves images unhashed
+     */
+    public ScanOptions(HashAlgorithm hashAlgorithm, Confirmation confirmation, int maxImageDistance) {
+        if (maxImageDistance > SimilarImages.MAX_DISTANCE) {
+            throw new IllegalArgumentException("Image distance must be at most " + SimilarImages.MAX_DISTANCE
+                    + " (negative turns similar images off): " + maxImageDistance);
+        }
+        this.hashAlgorithm = hashAlgorithm;
+        // A cryptographic hash is its own confirmation
+        this.confirmation = hashAlgorithm.isCryptographic() ? Confirmation.NONE : confirmation;
+        this.maxImageDistance = Math.max(-1, maxImageDistance);
+    }
+
+    public HashAlgorithm getHashAlgorithm() { return hashAlgorithm; }
+    public Confirmation getConfirmation() { return confirmation; }
+
+    public boolean isFindingSimilarImages() { return maxImageDistance >= 0; }
+    public int getMaxImageDistance() { return maxImageDistance; }
+
+    /**
+     * How the duplicate groups of this scan were established, e.g. "xxh3-128+sha256"
+     */
+    public String getGroupAlgorithm() {
+        return confirmation == Confirmation.NONE
+                ? hashAlgorithm.getName()
+                : hashAlgorithm.getName() + "+" + confirmation.name().toLowerCase();
+    }
+}
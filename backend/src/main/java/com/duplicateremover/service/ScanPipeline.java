@@ -0,0 +1,822 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.FunnelStats;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.IoStats;
+import com.duplicateremover.model.PathTrie;
+import org.h2.mvstore.MVStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a single scan as a pipeline of stages: walk -> metadata -> partial hash -> hash -> group.
+ * The walk streams files into the pipeline as it finds them.
+ * Every stage after the walk owns a bounded executor (see {@link ScanExecutors}), and a
+ * full stage blocks the upstream stage instead of growing without limit.
+ *
+ * Byte-hashed files go through a duplicate funnel: they are bucketed by size and only reach the
+ * partial hash stage once a second file of the same size shows up, and only reach the full hash
+ * stage once their partial hash collides too. Files that stay alone in a bucket are never fully
+ * read and keep a null hash. Content-hashed files (text extracted from documents) can match files
+ * of another size, so they skip the funnel and are always fully hashed.
+ *
+ * When the scan hashes with a non-cryptographic algorithm and asks for confirmation, a final
+ * confirm stage re-checks only the groups that collided.
+ *
+ * The partial hash and hash stages run one worker pool per storage device, sized to the device's
+ * reader budget, so a slow disk never ties up the workers of a fast one.
+ *
+ * ZIP, JAR and TAR archives are also indexed member by member on an archive stage, in parallel
+ * across archives. Members become files of the scan, with paths inside their archive, and go
+ * through the same funnel from their listed sizes: content-hashed members are always hashed, and
+ * byte-hashed ones only when a file shares their size or, among members alone with their size,
+ * when another member has the same stored CRC32. Members are hashed straight from the archive,
+ * one archive open for all of its members, and never extracted to disk.
+ *
+ * When the scan looks for similar images, every image file also gets a perceptual hash on an
+ * image stage beside the funnel, from the hash cache or by decoding it at reduced resolution.
+ * Grouping the hashes is left to the caller once the pipeline has run.
+ */
+public class ScanPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanPipeline.class);
+
+    private final String scanId;
+    private final Path root;
+    private final FileScanService.ScanProgress progress;
+    private final FileHashService fileHashService;
+    private final FileCategoryService categoryService;
+    private final ScanOptions options;
+    private final HashAlgorithm hashAlgorithm;
+    private final Consumer<FileInfo> duplicateListener;
+    private final DeviceIo.Registry devices;
+    private final ScanExecutors executors;
+    private final PipelineSettings settings;
+
+    private final FunnelStats funnelStats;
+    private final IoStats ioStats;
+
+    // Set once run() returns; stage tasks still queued then are dropped unrun
+    private volatile boolean stopped;
+    // Set after the first failed hash cache lookup, which alone is logged
+    private volatile boolean cacheFailed;
+
+    private final PathTrie paths = new PathTrie();
+    private final Queue<FileInfo> allFiles = new ConcurrentLinkedQueue<>();
+    private final Map<Long, List<FileInfo>> sizeBuckets = new ConcurrentHashMap<>();
+    private final Map<HashKey, List<FileInfo>> partialHashBuckets = new ConcurrentHashMap<>();
+    private final Set<Long> cachedSizes = ConcurrentHashMap.newKeySet();
+    private final Map<HashKey, List<FileInfo>> hashGroups = new ConcurrentHashMap<>();
+    private final Map<String, String> groupAlgorithms = new ConcurrentHashMap<>();
+    // Byte-hashed archive members by size, waiting until every file's size is known
+    private final Map<Long, List<PendingMember>> pendingMembers = new ConcurrentHashMap<>();
+
+    /**
+     * Worker counts, queue depth and funnel sample size for the pipeline stages
+     */
+    public static class PipelineSettings {
+        private final int metadataThreads;
+        private final int hashThreads;
+        private final int groupingThreads;
+        private final int queueCapacity;
+        private final int partialHashBytes;
+        private final int maxArchiveMembers;
+
+        /**
+         * @param maxArchiveMembers members indexed per archive; 0 leaves archives unopened
+         */
+        public PipelineSettings(int metadataThreads, int hashThreads, int groupingThreads, int queueCapacity,
+                                int partialHashBytes, int maxArchiveMembers) {
+            this.metadataThreads = Math.max(1, metadataThreads);
+            this.hashThreads = Math.max(1, hashThreads);
+            this.groupingThreads = Math.max(1, groupingThreads);
+            this.queueCapacity = Math.max(1, queueCapacity);
+            this.partialHashBytes = Math.max(1, partialHashBytes);
+            this.maxArchiveMembers = Math.max(0, maxArchiveMembers);
+        }
+
+        public int getMetadataThreads() { return metadataThreads; }
+        public int getHashThreads() { return hashThreads; }
+        public int getGroupingThreads() { return groupingThreads; }
+        public int getQueueCapacity() { return queueCapacity; }
+        public int getPartialHashBytes() { return partialHashBytes; }
+        public int getMaxArchiveMembers() { return maxArchiveMembers; }
+    }
+
+    public ScanPipeline(String scanId, Path root, FileScanService.ScanProgress progress,
+                        FileHashService fileHashService, FileCategoryService categoryService, ScanOptions options,
+                        Consumer<FileInfo> duplicateListener, DeviceIo.Registry devices, ScanExecutors executors,
+                        PipelineSettings settings) {
+        this.scanId = scanId;
+        this.root = root;
+        this.progress = progress;
+        this.fileHashService = fileHashService;
+        this.categoryService = categoryService;
+        this.options = options;
+        this.hashAlgorithm = options.getHashAlgorithm();
+        this.duplicateListener = duplicateListener;
+        this.devices = devices;
+        this.executors = executors;
+        this.settings = settings;
+        this.funnelStats = progress.getFunnelStats();
+        this.ioStats = progress.getIoStats();
+    }
+
+    /**
+     * Runs all stages to completion. The returned files and groups are sorted by path
+     * so the "original" kept in each group does not depend on thread scheduling.
+     * Throws a CancellationException once the scan has been cancelled.
+     */
+    public void run() throws IOException, InterruptedException {
+        ExecutorService metadataStage = newStage("metadata", settings.getMetadataThreads());
+        DeviceStage partialHashStage = new DeviceStage("partial");
+        DeviceStage hashStage = new DeviceStage("hash");
+        DeviceStage archiveStage = new DeviceStage("archive");
+        DeviceStage memberStage = new DeviceStage("member");
+        DeviceStage imageStage = new DeviceStage("image");
+        ExecutorService groupingStage = newStage("group", settings.getGroupingThreads());
+        Stages stages = new Stages(partialHashStage, hashStage, archiveStage, imageStage, groupingStage);
+
+        try {
+            progress.setStage("walk");
+            // Walk stage: files are handed to the metadata stage as they are discovered, so hashing
+            // starts right away and the full path list never has to sit on the heap
+            walkFiles(root, progress, (file, attributes) -> {
+                progress.incrementTotalFiles();
+                metadataStage.execute(unlessStopped(() -> collectMetadata(file, attributes, stages)));
+            });
+            progress.checkCancelled();
+            progress.setWalkCompleted(true);
+            progress.setCurrentDirectory(root.toString());
+            logger.info("Discovered {} files to process", progress.getTotalFiles());
+
+            // Each stage only feeds stages after it, so draining them in order is enough.
+            // Once a funnel stage has drained, whatever is still alone in a bucket is unique.
+            progress.setStage("metadata");
+            awaitStage(metadataStage);
+            progress.setStage("archive");
+            archiveStage.await();
+            hashArchiveMembers(memberStage, stages);
+            releaseUniqueFiles(sizeBuckets.values(), funnelStats::incrementUniqueBySize);
+            progress.setStage("partial");
+            partialHashStage.await();
+            releaseUniqueByPartialHash(stages);
+            progress.setStage("hash");
+            hashStage.await();
+            memberStage.await();
+            progress.setStage("image");
+            imageStage.await();
+            progress.setStage("group");
+            awaitStage(groupingStage);
+            confirmGroups();
+        } finally {
+            // Stages are shut down, never interrupted: a thread interrupted while reading the hash
+            // cache or result store closes the store's file for every other thread
+            stopped = true;
+            metadataStage.shutdown();
+            partialHashStage.shutdown();
+            hashStage.shutdown();
+            archiveStage.shutdown();
+            memberStage.shutdown();
+            imageStage.shutdown();
+            groupingStage.shutdown();
+        }
+    }
+
+    /**
+     * Walks the tree under root and hands every regular file to the consumer with its attributes.
+     * Symlinked files come with their target's attributes. Directories and files that cannot be
+     * read are reported as scan errors and skipped. The walk stops once the scan is cancelled.
+     */
+    static void walkFiles(Path root, FileScanService.ScanProgress progress,
+                          BiConsumer<Path, BasicFileAttributes> consumer) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (progress.isCancelRequested()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                progress.setCurrentDirectory(dir.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                if (progress.isCancelRequested()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (attributes.isSymbolicLink() && Files.isRegularFile(file)) {
+                    // Symlinked files are scanned like their targets, as Files.isRegularFile did before
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                }
+                if (attributes.isRegularFile()) {
+                    consumer.accept(file, attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.warn("Failed to visit: {}", file, e);
+                progress.addError("Failed to process: " + file + " - " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public List<FileInfo> getAllFiles() {
+        List<FileInfo> files = new ArrayList<>(allFiles);
+        files.sort(FileInfo.PATH_ORDER);
+        return files;
+    }
+
+    public Map<HashKey, List<FileInfo>> getHashGroups() {
+        for (List<FileInfo> group : hashGroups.values()) {
+            group.sort(FileInfo.PATH_ORDER);
+        }
+        return hashGroups;
+    }
+
+    /**
+     * Directories of every file in this scan; kept with the result so rescans intern into it too
+     */
+    public PathTrie getPaths() {
+        return paths;
+    }
+
+    /**
+     * Algorithms of groups settled by the confirm stage; other groups use the scan's algorithm
+     */
+    public Map<String, String> getGroupAlgorithms() {
+        return groupAlgorithms;
+    }
+
+    private void collectMetadata(Path filePath, BasicFileAttributes attributes, Stages stages) {
+        try {
+            Path absolutePath = filePath.toAbsolutePath();
+            FileInfo fileInfo = new FileInfo(
+                    paths.directoryOf(absolutePath),
+                    absolutePath.getFileName().toString(),
+                    attributes.size(),
+                    attributes.lastModifiedTime().toMillis()
+            );
+
+            ioStats.recordFile();
+            devices.of(fileInfo).getStats().recordFile();
+
+            // Unchanged files already hashed by an earlier scan skip all file reads. They still join
+            // their size bucket so that new files of the same size are compared against them.
+            HashCacheService.FileVersion version = HashCacheService.FileVersion.of(attributes);
+            HashCacheService.CacheEntry cached = fromCache(fileInfo.getFilePath(),
+                    () -> fileHashService.findCachedHash(fileInfo.getFilePath(), version, hashAlgorithm));
+
+            // One open and one header read serve type detection, categorization and the funnel decision
+            boolean contentHashed = false;
+            boolean archive;
+            if (cached != null && cached.getCategory() != null) {
+                fileInfo.setCategory(cached.getCategory());
+                // The archive stage reads the header to tell indexed archives from other ones
+                archive = "Archives".equals(cached.getCategory()) || "Applications".equals(cached.getCategory());
+            } else {
+                try (FileProcessingContext context = FileProcessingContext.open(fileInfo.getFilePath(), ioStats)) {
+                    String fileType = fileHashService.detectFileType(context);
+                    fileInfo.setCategory(categoryService.categorize(fileType, fileInfo.getFileName()));
+                    contentHashed = cached == null && fileHashService.isContentHashed(context);
+                    archive = ArchiveIndex.isIndexed(context);
+                }
+            }
+            if (archive && settings.getMaxArchiveMembers() > 0) {
+                stages.archive.execute(fileInfo, () -> indexArchive(fileInfo, version, stages));
+            }
+            if (options.isFindingSimilarImages() && "Images".equals(fileInfo.getCategory())) {
+                Long perceptualHash = fromCache(fileInfo.getFilePath(),
+                        () -> fileHashService.findCachedPerceptualHash(fileInfo.getFilePath(), version));
+                if (perceptualHash != null) {
+                    fileInfo.setPerceptualHash(perceptualHash);
+                } else {
+                    stages.image.execute(fileInfo, () -> perceptualHashFile(fileInfo, version));
+                }
+            }
+
+            if (cached != null) {
+                fileInfo.setHash(cached.getHash());
+                funnelStats.incrementCacheHits();
+                cachedSizes.add(fileInfo.getSize());
+                for (FileInfo candidate : addToBucket(sizeBuckets, fileInfo.getSize(), fileInfo)) {
+                    stages.partialHash.execute(candidate, () -> partialHashFile(candidate, stages));
+                }
+                stages.grouping.execute(() -> groupFile(fileInfo));
+            } else if (contentHashed) {
+                funnelStats.incrementContentHashed();
+                stages.hash.execute(fileInfo, () -> hashFile(fileInfo, stages));
+            } else {
+                funnelStats.incrementSizeCandidates();
+                for (FileInfo candidate : addToBucket(sizeBuckets, fileInfo.getSize(), fileInfo)) {
+                    stages.partialHash.execute(candidate, () -> partialHashFile(candidate, stages));
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to process file: {}", filePath, e);
+            progress.addError("Failed to process: " + filePath + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        }
+    }
+
+    /**
+     * Runs a hash cache lookup, counting a cache that cannot be read as a miss so that a damaged
+     * cache slows scans down instead of failing every file
+     */
+    private <T> T fromCache(String filePath, Supplier<T> lookup) {
+        try {
+            return lookup.get();
+        } catch (MVStoreException e) {
+            if (!cacheFailed) {
+                cacheFailed = true;
+                logger.warn("Hash cache lookup failed, counting it as a miss: {}", filePath, e);
+            } else {
+                logger.debug("Hash cache lookup failed, counting it as a miss: {} - {}", filePath, e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private void partialHashFile(FileInfo fileInfo, Stages stages) {
+        try {
+            HashKey partialHash = devices.of(fileInfo).call(() -> {
+                try (FileProcessingContext context = FileProcessingContext.open(fileInfo.getFilePath(), ioStats)) {
+                    return fileHashService.generatePartialHash(context, settings.getPartialHashBytes(), hashAlgorithm);
+                }
+            });
+            funnelStats.incrementPartialHashed();
+            funnelStats.addBytesRead(Math.min(fileInfo.getSize(), 2L * settings.getPartialHashBytes()));
+
+            for (FileInfo candidate : addToBucket(partialHashBuckets, partialHash, fileInfo)) {
+                stages.hash.execute(candidate, () -> hashFile(candidate, stages));
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to process file: {}", fileInfo.getFilePath(), e);
+            progress.addError("Failed to process: " + fileInfo.getFilePath() + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        }
+    }
+
+    private void hashFile(FileInfo fileInfo, Stages stages) {
+        try {
+            fileInfo.setHash(devices.of(fileInfo).call(() -> fileHashService.generateAndCacheHash(
+                    fileInfo.getFilePath(), fileInfo.getCategory(), hashAlgorithm, ioStats)));
+            funnelStats.incrementFullHashed();
+            funnelStats.addBytesRead(fileInfo.getSize());
+            stages.grouping.execute(() -> groupFile(fileInfo));
+        } catch (IOException e) {
+            logger.warn("Failed to process file: {}", fileInfo.getFilePath(), e);
+            progress.addError("Failed to process: " + fileInfo.getFilePath() + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        } catch (Exception e) {
+            logger.error("Unexpected error processing file: {}", fileInfo.getFilePath(), e);
+            progress.addError("Unexpected error: " + fileInfo.getFilePath() + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        }
+    }
+
+    /**
+     * Image stage: a failure only leaves the image out of similar-image groups, so it is counted
+     * rather than reported as a scan error
+     */
+    private void perceptualHashFile(FileInfo fileInfo, HashCacheService.FileVersion version) {
+        try {
+            fileInfo.setPerceptualHash(devices.of(fileInfo).call(() ->
+                    fileHashService.generateAndCachePerceptualHash(fileInfo.getFilePath(), version, ioStats)));
+            funnelStats.incrementPerceptualHashed();
+        } catch (IOException e) {
+            logger.debug("No perceptual hash for image: {} - {}", fileInfo.getFilePath(), e.getMessage());
+            funnelStats.incrementPerceptualHashFailed();
+        } catch (Exception e) {
+            logger.warn("Unexpected error decoding image: {}", fileInfo.getFilePath(), e);
+            funnelStats.incrementPerceptualHashFailed();
+        }
+    }
+
+    private void groupFile(FileInfo fileInfo) {
+        allFiles.add(fileInfo);
+
+        HashKey hash = fileInfo.getHashKey();
+        if (hash == null) {
+            logger.warn("Skipping file with null/empty hash: {}", fileInfo.getFilePath());
+            progress.addError("Invalid hash for file: " + fileInfo.getFilePath());
+            progress.incrementProcessedFiles();
+            return;
+        }
+
+        // compute() runs atomically per key, so concurrent groupers never lose a member
+        boolean[] duplicate = new boolean[1];
+        hashGroups.compute(hash, (key, group) -> {
+            if (group == null) {
+                group = new ArrayList<>();
+            } else {
+                duplicate[0] = true;
+                fileInfo.setDuplicate(true);
+                for (FileInfo existingFile : group) {
+                    existingFile.setDuplicate(true);
+                }
+            }
+            group.add(fileInfo);
+            return group;
+        });
+
+        if (duplicate[0]) {
+            progress.incrementDuplicateCount();
+            duplicateListener.accept(fileInfo);
+            logger.debug("Found duplicate: {}", fileInfo.getFileName());
+        }
+        progress.incrementProcessedFiles();
+    }
+
+    /**
+     * Adds a file to its funnel bucket and returns the files that must move on to the next stage:
+     * nothing for the first file of a bucket, both files when the second one arrives, and just
+     * the new file after that. Files that already carry a cached hash are never released.
+     */
+    private <K> List<FileInfo> addToBucket(Map<K, List<FileInfo>> buckets, K key, FileInfo fileInfo) {
+        List<FileInfo> released = new ArrayList<>(2);
+        buckets.compute(key, (k, bucket) -> {
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+            } else {
+                if (bucket.size() == 1 && !bucket.get(0).hasHash()) {
+                    released.add(bucket.get(0));
+                }
+                if (!fileInfo.hasHash()) {
+                    released.add(fileInfo);
+                }
+            }
+            bucket.add(fileInfo);
+            return bucket;
+        });
+        return released;
+    }
+
+    /**
+     * Completes every file still alone in its bucket; such files cannot have a duplicate
+     */
+    private void releaseUniqueFiles(Collection<List<FileInfo>> buckets, Runnable counter) {
+        for (List<FileInfo> bucket : buckets) {
+            // A lone cached file was already sent straight to grouping
+            if (bucket.size() == 1 && !bucket.get(0).hasHash()) {
+                allFiles.add(bucket.get(0));
+                counter.run();
+                progress.incrementProcessedFiles();
+            }
+        }
+    }
+
+    /**
+     * Completes files whose partial hash matched nothing. Cached files never get a partial hash,
+     * so a file sharing its size with a cached file still needs a full hash to compare against it.
+     */
+    private void releaseUniqueByPartialHash(Stages stages) {
+        for (List<FileInfo> bucket : partialHashBuckets.values()) {
+            if (bucket.size() != 1) {
+                continue;
+            }
+            FileInfo fileInfo = bucket.get(0);
+            if (cachedSizes.contains(fileInfo.getSize())) {
+                stages.hash.execute(fileInfo, () -> hashFile(fileInfo, stages));
+            } else {
+                allFiles.add(fileInfo);
+                funnelStats.incrementUniqueByPartialHash();
+                progress.incrementProcessedFiles();
+            }
+        }
+    }
+
+    /**
+     * Archive stage: lists an archive's members and settles every member that can be settled
+     * without the other files' sizes. Cached and content-hashed members are grouped right away;
+     * byte-hashed ones wait in {@link #pendingMembers}.
+     */
+    private void indexArchive(FileInfo archive, HashCacheService.FileVersion version, Stages stages) {
+        try {
+            devices.of(archive).call(() -> {
+                try (FileProcessingContext context = FileProcessingContext.open(archive.getFilePath(), ioStats)) {
+                    fileHashService.detectFileType(context);
+                    if (!ArchiveIndex.isIndexed(context)) {
+                        return null;
+                    }
+                    for (ArchiveIndex.Member member : ArchiveIndex.list(context, settings.getMaxArchiveMembers())) {
+                        if (progress.isCancelRequested()) {
+                            return null;
+                        }
+                        indexMember(context, archive, version, member, stages);
+                    }
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to index archive: {}", archive.getFilePath(), e);
+            progress.addError("Failed to index archive: " + archive.getFilePath() + " - " + e.getMessage());
+        } catch (Exception e) {
+            logger.error("Unexpected error indexing archive: {}", archive.getFilePath(), e);
+            progress.addError("Unexpected error: " + archive.getFilePath() + " - " + e.getMessage());
+        }
+    }
+
+    private void indexMember(FileProcessingContext archiveContext, FileInfo archive, HashCacheService.FileVersion version,
+                             ArchiveIndex.Member member, Stages stages) {
+        String memberPath = ArchiveIndex.memberPath(archive.getFilePath(), member);
+        FileInfo fileInfo;
+        try {
+            Path path = Paths.get(memberPath);
+            fileInfo = new FileInfo(paths.directoryOf(path), path.getFileName().toString(), member.getSize(),
+                    archive.getCreatedTimeMillis());
+        } catch (InvalidPathException e) {
+            logger.debug("Skipping archive member without a valid path: {}", memberPath);
+            return;
+        }
+        fileInfo.setArchiveMember(true);
+        progress.incrementTotalFiles();
+        funnelStats.incrementArchiveMembers();
+
+        // Members are cached under their own path and the archive's version
+        HashCacheService.CacheEntry cached = fromCache(memberPath,
+                () -> fileHashService.findCachedHash(memberPath, version, hashAlgorithm));
+        if (cached != null && cached.getCategory() != null) {
+            fileInfo.setCategory(cached.getCategory());
+            fileInfo.setHash(cached.getHash());
+            funnelStats.incrementCacheHits();
+            cachedSizes.add(fileInfo.getSize());
+            for (FileInfo candidate : addToBucket(sizeBuckets, fileInfo.getSize(), fileInfo)) {
+                stages.partialHash.execute(candidate, () -> partialHashFile(candidate, stages));
+            }
+            stages.grouping.execute(() -> groupFile(fileInfo));
+            return;
+        }
+
+        try (FileProcessingContext context = ArchiveIndex.open(archiveContext, member, memberPath)) {
+            String fileType = fileHashService.detectFileType(context);
+            fileInfo.setCategory(categoryService.categorize(fileType, fileInfo.getFileName()));
+            if (fileHashService.isContentHashed(context)) {
+                fileInfo.setHash(fileHashService.generateAndCacheMemberHash(context, version, fileInfo.getCategory(),
+                        hashAlgorithm));
+                funnelStats.incrementContentHashed();
+                funnelStats.incrementFullHashed();
+                funnelStats.addBytesRead(fileInfo.getSize());
+                stages.grouping.execute(() -> groupFile(fileInfo));
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to process archive member: {}", memberPath, e);
+            progress.addError("Failed to process: " + memberPath + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+            return;
+        }
+
+        funnelStats.incrementSizeCandidates();
+        PendingMember pending = new PendingMember(fileInfo, member, archive, version);
+        pendingMembers.compute(fileInfo.getSize(), (size, members) -> {
+            if (members == null) {
+                members = new ArrayList<>(1);
+            }
+            members.add(pending);
+            return members;
+        });
+    }
+
+    /**
+     * Decides, once every file's size is known, which byte-hashed members need a hash: all members
+     * of a size that other files share, and among members alone with their size those whose
+     * CRC32 matches another's. TAR members store no CRC32, so they are compared by size alone.
+     * The rest are unique. Members to hash are queued per archive.
+     */
+    private void hashArchiveMembers(DeviceStage memberStage, Stages stages) {
+        Map<FileInfo, List<PendingMember>> byArchive = new IdentityHashMap<>();
+        for (Map.Entry<Long, List<PendingMember>> entry : pendingMembers.entrySet()) {
+            List<PendingMember> members = entry.getValue();
+            List<FileInfo> files = sizeBuckets.get(entry.getKey());
+            if (files != null) {
+                // A file whose partial hash matches nothing still needs a full hash to meet these members
+                cachedSizes.add(entry.getKey());
+                if (files.size() == 1 && !files.get(0).hasHash()) {
+                    FileInfo file = files.get(0);
+                    stages.hash.execute(file, () -> hashFile(file, stages));
+                }
+                // The bucket is no longer a lone file, so the funnel does not release it as unique
+                members.forEach(pending -> files.add(pending.file));
+                members.forEach(pending -> byArchive.computeIfAbsent(pending.archive, k -> new ArrayList<>()).add(pending));
+                continue;
+            }
+
+            Map<Long, Integer> crcCounts = new HashMap<>();
+            boolean unknownCrc = false;
+            for (PendingMember pending : members) {
+                unknownCrc |= pending.member.getCrc() < 0;
+                crcCounts.merge(pending.member.getCrc(), 1, Integer::sum);
+            }
+            for (PendingMember pending : members) {
+                if (members.size() > 1 && (unknownCrc || crcCounts.get(pending.member.getCrc()) > 1)) {
+                    byArchive.computeIfAbsent(pending.archive, k -> new ArrayList<>()).add(pending);
+                } else {
+                    allFiles.add(pending.file);
+                    if (members.size() > 1) {
+                        funnelStats.incrementUniqueByCrc();
+                    } else {
+                        funnelStats.incrementUniqueBySize();
+                    }
+                    progress.incrementProcessedFiles();
+                }
+            }
+        }
+        pendingMembers.clear();
+        byArchive.forEach((archive, members) -> memberStage.execute(archive, () -> hashMembers(archive, members, stages)));
+    }
+
+    private void hashMembers(FileInfo archive, List<PendingMember> members, Stages stages) {
+        try {
+            devices.of(archive).call(() -> {
+                try (FileProcessingContext archiveContext = FileProcessingContext.open(archive.getFilePath(), ioStats)) {
+                    for (PendingMember pending : members) {
+                        if (progress.isCancelRequested()) {
+                            return null;
+                        }
+                        hashMember(archiveContext, pending, stages);
+                    }
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to open archive: {}", archive.getFilePath(), e);
+            progress.addError("Failed to process: " + archive.getFilePath() + " - " + e.getMessage());
+            members.forEach(pending -> progress.incrementProcessedFiles());
+        }
+    }
+
+    private void hashMember(FileProcessingContext archiveContext, PendingMember pending, Stages stages) {
+        FileInfo fileInfo = pending.file;
+        String memberPath = fileInfo.getFilePath();
+        try (FileProcessingContext context = ArchiveIndex.open(archiveContext, pending.member, memberPath)) {
+            fileInfo.setHash(fileHashService.generateAndCacheMemberHash(context, pending.version, fileInfo.getCategory(),
+                    hashAlgorithm));
+            funnelStats.incrementFullHashed();
+            funnelStats.addBytesRead(fileInfo.getSize());
+            stages.grouping.execute(() -> groupFile(fileInfo));
+        } catch (IOException e) {
+            logger.warn("Failed to process archive member: {}", memberPath, e);
+            progress.addError("Failed to process: " + memberPath + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        } catch (Exception e) {
+            logger.error("Unexpected error processing archive member: {}", memberPath, e);
+            progress.addError("Unexpected error: " + memberPath + " - " + e.getMessage());
+            progress.incrementProcessedFiles();
+        }
+    }
+
+    /**
+     * Confirm stage: splits colliding groups of a non-cryptographic hash into provably equal files
+     */
+    private void confirmGroups() throws InterruptedException {
+        DuplicateConfirmer confirmer = new DuplicateConfirmer(fileHashService, options, progress);
+        if (!confirmer.isEnabled()) {
+            return;
+        }
+        List<Map.Entry<HashKey, List<FileInfo>>> colliding = new ArrayList<>();
+        for (Map.Entry<HashKey, List<FileInfo>> entry : hashGroups.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                colliding.add(entry);
+            }
+        }
+        logger.info("Confirming {} duplicate groups with {}", colliding.size(), options.getConfirmation());
+        progress.setStage("confirm");
+
+        ExecutorService confirmStage = newStage("confirm", settings.getHashThreads());
+        try {
+            for (Map.Entry<HashKey, List<FileInfo>> entry : colliding) {
+                confirmStage.execute(unlessStopped(() -> confirmer.confirmGroup(entry.getKey().toString(),
+                        entry.getValue(), groupAlgorithms).forEach((hash, group) -> hashGroups.put(HashKey.fromHex(hash), group))));
+            }
+            awaitStage(confirmStage);
+        } finally {
+            confirmStage.shutdown();
+        }
+    }
+
+    /**
+     * Skips the task once the scan is cancelled or the pipeline has stopped, so that stages drain
+     * their queues quickly without being interrupted
+     */
+    private Runnable unlessStopped(Runnable task) {
+        return () -> {
+            if (!stopped && !progress.isCancelRequested()) {
+                task.run();
+            }
+        };
+    }
+
+    private ExecutorService newStage(String stageName, int threads) {
+        return executors.newStage("scan-" + scanId.substring(0, 8) + "-" + stageName, threads,
+                settings.getQueueCapacity());
+    }
+
+    /**
+     * A stage with one bounded pool per storage device, created when the device's first file arrives
+     */
+    private class DeviceStage {
+        private final String stageName;
+        private final Map<String, ExecutorService> pools = new ConcurrentHashMap<>();
+
+        private DeviceStage(String stageName) {
+            this.stageName = stageName;
+        }
+
+        private void execute(FileInfo fileInfo, Runnable task) {
+            StorageDevices.Device device = devices.of(fileInfo).getDevice();
+            ExecutorService pool = pools.computeIfAbsent(device.getName(), name -> newStage(
+                    stageName + "-" + pools.size(), device.getWorkers()));
+            pool.execute(unlessStopped(task));
+        }
+
+        /**
+         * Drains every device pool; upstream stages are drained first, so no pool is added meanwhile
+         */
+        private void await() throws InterruptedException {
+            for (ExecutorService pool : pools.values()) {
+                awaitStage(pool);
+            }
+        }
+
+        private void shutdown() {
+            pools.values().forEach(ExecutorService::shutdown);
+        }
+    }
+
+    private static class Stages {
+        private final DeviceStage partialHash;
+        private final DeviceStage hash;
+        private final DeviceStage archive;
+        private final DeviceStage image;
+        private final ExecutorService grouping;
+
+        private Stages(DeviceStage partialHash, DeviceStage hash, DeviceStage archive, DeviceStage image,
+                       ExecutorService grouping) {
+            this.partialHash = partialHash;
+            this.hash = hash;
+            this.archive = archive;
+            this.image = image;
+            this.grouping = grouping;
+        }
+    }
+
+    /**
+     * A byte-hashed archive member and where to find it again for hashing
+     */
+    private static class PendingMember {
+        private final FileInfo file;
+        private final ArchiveIndex.Member member;
+        private final FileInfo archive;
+        private final HashCacheService.FileVersion version;
+
+        private PendingMember(FileInfo file, ArchiveIndex.Member member, FileInfo archive,
+                              HashCacheService.FileVersion version) {
+            this.file = file;
+            this.member = member;
+            this.archive = archive;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Drains a stage; a cancelled scan stops waiting and the caller's finally discards the rest
+     */
+    private void awaitStage(ExecutorService stage) throws InterruptedException {
+        stage.shutdown();
+        while (!stage.awaitTermination(1, TimeUnit.SECONDS)) {
+            progress.checkCancelled();
+            progress.setLastUpdate(LocalDateTime.now());
+        }
+        progress.checkCancelled();
+    }
+}
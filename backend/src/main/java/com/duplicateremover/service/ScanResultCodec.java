@@ -0,0 +1,634 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.DirectoryGroup;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.FunnelStats;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.IoStats;
+import com.duplicateremover.model.PathTrie;
+import com.duplicateremover.model.ScanResult;
+import com.duplicateremover.model.ScanSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.stream.Collectors;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary form of a scan result for the result store.
+ *
+ * A result is stored in parts: a head with its metadata and the list of file chunks, the files
+ * in chunks of consecutive files, and the groups. Each chunk carries its own table of the
+ * directories its files are in, so a chunk is decoded on its own and the chunks of a result
+ * share interned directory nodes through one PathTrie. Groups refer to files by their position
+ * in the file list; a file that is in no chunk, only in groups, is written with the groups.
+ * Categories are not stored as lists, since every file record names its category. Chunks and
+ * groups are deflated.
+ *
+ * Results stored whole by format 4 and older can still be decoded, so the store can move them
+ * into parts.
+ */
+final class ScanResultCodec {
+
+    // 2 added the count of listed files ahead of the file table, for streaming exports;
+    // 3 replaced the per-directory file groups and signatures with subtree directory groups;
+    // 4 added perceptual hashes of images and the similar image groups with their distance;
+    // 5 split the result into a head, file chunks and groups
+    private static final int FORMAT_VERSION = 5;
+    private static final int WHOLE_FORMAT_VERSION = 4;
+    private static final int SUMMARY_VERSION = 1;
+
+    private ScanResultCodec() {
+    }
+
+    /**
+     * The metadata of a stored result and where its parts are
+     */
+    static final class Head {
+        final ScanResult result;
+        final int[] chunkIds;
+        final int[] chunkSizes;
+        final int groupsId;
+
+        private Head(ScanResult result, int[] chunkIds, int[] chunkSizes, int groupsId) {
+            this.result = result;
+            this.chunkIds = chunkIds;
+            this.chunkSizes = chunkSizes;
+            this.groupsId = groupsId;
+        }
+    }
+
+    static byte[] encodeHead(ScanResult result, int[] chunkIds, int[] chunkSizes, int groupsId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, result.getScanId());
+            writeString(out, result.getDirectory());
+            writeString(out, result.getScanTime() != null ? result.getScanTime().toString() : null);
+            writeString(out, result.getStatus());
+            writeString(out, result.getHashAlgorithm());
+            writeString(out, result.getConfirmation());
+            out.writeInt(result.getTotalFiles());
+            writeCounters(out, result.getFunnelStats() != null ? result.getFunnelStats().toCounters() : null);
+            writeCounters(out, result.getIoStats() != null ? result.getIoStats().toCounters() : null);
+            out.writeInt(result.getMaxImageDistance() != null ? result.getMaxImageDistance() : -1);
+            out.writeInt(groupsId);
+            out.writeInt(chunkIds.length);
+            for (int i = 0; i < chunkIds.length; i++) {
+                out.writeInt(chunkIds[i]);
+                out.writeInt(chunkSizes[i]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The metadata of a result; its files and groups are read from the parts the head lists
+     */
+    static Head decodeHead(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            readPartVersion(in);
+            ScanResult result = new ScanResult();
+            result.setScanId(readString(in));
+            result.setDirectory(readString(in));
+            String scanTime = readString(in);
+            result.setScanTime(scanTime != null ? LocalDateTime.parse(scanTime) : null);
+            result.setStatus(readString(in));
+            result.setHashAlgorithm(readString(in));
+            result.setConfirmation(readString(in));
+            result.setTotalFiles(in.readInt());
+            long[] funnel = readCounters(in);
+            result.setFunnelStats(funnel != null ? FunnelStats.fromCounters(funnel) : null);
+            long[] io = readCounters(in);
+            result.setIoStats(io != null ? IoStats.fromCounters(io) : null);
+            int maxImageDistance = in.readInt();
+            result.setMaxImageDistance(maxImageDistance >= 0 ? maxImageDistance : null);
+            int groupsId = in.readInt();
+            int chunks = in.readInt();
+            int[] chunkIds = new int[chunks];
+            int[] chunkSizes = new int[chunks];
+            for (int i = 0; i < chunks; i++) {
+                chunkIds[i] = in.readInt();
+                chunkSizes[i] = in.readInt();
+            }
+            return new Head(result, chunkIds, chunkSizes, groupsId);
+        }
+    }
+
+    /**
+     * One chunk of consecutive files with the directories they are in
+     */
+    static byte[] encodeFiles(List<FileInfo> files) throws IOException {
+        Map<PathTrie.Node, Integer> directoryIndex = new IdentityHashMap<>();
+        List<PathTrie.Node> directories = directories(files, directoryIndex);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+            out.writeInt(FORMAT_VERSION);
+            writeFiles(out, files, directories, directoryIndex);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<FileInfo> decodeFiles(byte[] data, PathTrie paths) throws IOException {
+        List<FileInfo> files = new ArrayList<>();
+        forEachFile(data, paths, files::add);
+        return files;
+    }
+
+    /**
+     * A consumer of files that may fail writing them somewhere
+     */
+    interface FileVisitor {
+        void visit(FileInfo file) throws IOException;
+    }
+
+    /**
+     * Passes the files of one chunk to the visitor one at a time, in order; only the chunk's
+     * directories and the current file are decoded ahead
+     */
+    static void forEachFile(byte[] data, PathTrie paths, FileVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            readPartVersion(in);
+            PathTrie.Node[] directories = readDirectories(in, paths);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                visitor.visit(readFile(in, directories));
+            }
+        }
+    }
+
+    /**
+     * The duplicate, similar image and directory groups of a result and the algorithms of its
+     * duplicate groups. Files are written as their position in the result's file list, found by
+     * binary search when the list is in path order.
+     */
+    static byte[] encodeGroups(ScanResult result, boolean pathOrdered) throws IOException {
+        List<FileInfo> files = result.getFiles() != null ? result.getFiles() : new ArrayList<>();
+        Map<FileInfo, Integer> positions = pathOrdered ? null : new IdentityHashMap<>();
+        if (positions != null) {
+            for (int i = 0; i < files.size(); i++) {
+                positions.putIfAbsent(files.get(i), i);
+            }
+        }
+        // Files that are only in groups, written here; referred to as -1, -2 and so on
+        List<FileInfo> extras = new ArrayList<>();
+        Map<FileInfo, Integer> fileIndex = new IdentityHashMap<>();
+        for (Map<String, List<FileInfo>> groups : groupMaps(result)) {
+            if (groups == null) {
+                continue;
+            }
+            for (List<FileInfo> group : groups.values()) {
+                for (FileInfo file : group) {
+                    if (fileIndex.containsKey(file)) {
+                        continue;
+                    }
+                    Integer position = positions != null ? positions.get(file) : positionOf(files, file);
+                    if (position == null || position < 0) {
+                        position = -extras.size() - 1;
+                        extras.add(file);
+                    }
+                    fileIndex.put(file, position);
+                }
+            }
+        }
+        Map<PathTrie.Node, Integer> directoryIndex = new IdentityHashMap<>();
+        List<PathTrie.Node> directories = directories(extras, directoryIndex);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+            out.writeInt(FORMAT_VERSION);
+            writeFiles(out, extras, directories, directoryIndex);
+            for (Map<String, List<FileInfo>> groups : groupMaps(result)) {
+                writeGroups(out, groups, fileIndex);
+            }
+            writeStrings(out, result.getGroupAlgorithms());
+            writeDirectoryGroups(out, result.getDirectoryDuplicates());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restores the groups of a result whose files are already decoded, and its categories from
+     * the files
+     */
+    static void decodeGroups(byte[] data, ScanResult result) throws IOException {
+        List<FileInfo> listed = result.getFiles();
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            readPartVersion(in);
+            PathTrie.Node[] directories = readDirectories(in, result.getPaths());
+            FileInfo[] extras = new FileInfo[in.readInt()];
+            for (int i = 0; i < extras.length; i++) {
+                extras[i] = readFile(in, directories);
+            }
+            FileLookup lookup = position -> position >= 0 ? listed.get(position) : extras[-position - 1];
+            result.setDuplicateGroups(readGroups(in, lookup));
+            result.setSimilarImageGroups(readGroups(in, lookup));
+            result.setGroupAlgorithms(readStrings(in));
+            result.setDirectoryDuplicates(readDirectoryGroups(in));
+        }
+        // In file order, as a scan builds them
+        result.setCategorizedFiles(listed.stream().filter(file -> file.getCategory() != null)
+                .collect(Collectors.groupingBy(FileInfo::getCategory, ConcurrentHashMap::new, Collectors.toList())));
+        // Not stored; cheap to derive from the groups
+        ScanResultUpdater.recount(result);
+    }
+
+    /**
+     * Decodes a result stored whole by format 4 or older
+     */
+    static ScanResult decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            int version = in.readInt();
+            if (version < 1 || version > WHOLE_FORMAT_VERSION) {
+                throw new IOException("Unsupported scan result format " + version);
+            }
+            ScanResult result = new ScanResult();
+            result.setScanId(readString(in));
+            result.setDirectory(readString(in));
+            String scanTime = readString(in);
+            result.setScanTime(scanTime != null ? LocalDateTime.parse(scanTime) : null);
+            result.setStatus(readString(in));
+            result.setHashAlgorithm(readString(in));
+            result.setConfirmation(readString(in));
+            result.setTotalFiles(in.readInt());
+            result.setDuplicateCount(in.readInt());
+            long[] funnel = readCounters(in);
+            result.setFunnelStats(funnel != null ? FunnelStats.fromCounters(funnel) : null);
+            long[] io = readCounters(in);
+            result.setIoStats(io != null ? IoStats.fromCounters(io) : null);
+
+            PathTrie paths = new PathTrie();
+            result.setPaths(paths);
+            PathTrie.Node[] directories = new PathTrie.Node[in.readInt()];
+            for (int i = 0; i < directories.length; i++) {
+                directories[i] = paths.directory(Paths.get(readString(in)));
+            }
+            FileInfo[] files = new FileInfo[in.readInt()];
+            if (version >= 2) {
+                in.readInt();
+            }
+            for (int i = 0; i < files.length; i++) {
+                files[i] = readFile(in, directories);
+            }
+            FileLookup lookup = i -> files[i];
+
+            result.setFiles(readIndexList(in, lookup));
+            result.setDuplicateGroups(readGroups(in, lookup));
+            if (version < 3) {
+                // Old per-directory groups; replaced below
+                readGroups(in, lookup);
+            }
+            result.setCategorizedFiles(readGroups(in, lookup));
+            if (version >= 4) {
+                result.setSimilarImageGroups(readGroups(in, lookup));
+            }
+            result.setGroupAlgorithms(readStrings(in));
+            if (version >= 3) {
+                result.setDirectoryDuplicates(readDirectoryGroups(in));
+            } else {
+                readStrings(in);
+                result.setDirectoryDuplicates(DirectoryMerkle.findDuplicates(result.getFiles(), result.getDirectory()));
+            }
+            if (version >= 4) {
+                int maxImageDistance = in.readInt();
+                result.setMaxImageDistance(maxImageDistance >= 0 ? maxImageDistance : null);
+            }
+            // Not stored; cheap to derive from the groups
+            ScanResultUpdater.recount(result);
+            return result;
+        }
+    }
+
+    static byte[] encodeSummary(ScanSummary summary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SUMMARY_VERSION);
+            writeString(out, summary.getScanId());
+            writeString(out, summary.getDirectory());
+            writeString(out, summary.getScanTime() != null ? summary.getScanTime().toString() : null);
+            writeString(out, summary.getStatus());
+            writeString(out, summary.getHashAlgorithm());
+            out.writeInt(summary.getTotalFiles());
+            out.writeInt(summary.getDuplicateCount());
+            Map<String, Integer> categoryCounts = summary.getCategoryCounts();
+            out.writeInt(categoryCounts != null ? categoryCounts.size() : -1);
+            if (categoryCounts != null) {
+                for (Map.Entry<String, Integer> entry : categoryCounts.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static ScanSummary decodeSummary(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int version = in.readInt();
+            if (version != SUMMARY_VERSION) {
+                throw new IOException("Unsupported scan summary format " + version);
+            }
+            ScanSummary summary = new ScanSummary();
+            summary.setScanId(readString(in));
+            summary.setDirectory(readString(in));
+            String scanTime = readString(in);
+            summary.setScanTime(scanTime != null ? LocalDateTime.parse(scanTime) : null);
+            summary.setStatus(readString(in));
+            summary.setHashAlgorithm(readString(in));
+            summary.setTotalFiles(in.readInt());
+            summary.setDuplicateCount(in.readInt());
+            int categories = in.readInt();
+            if (categories >= 0) {
+                Map<String, Integer> categoryCounts = new TreeMap<>();
+                for (int i = 0; i < categories; i++) {
+                    categoryCounts.put(readString(in), in.readInt());
+                }
+                summary.setCategoryCounts(categoryCounts);
+            }
+            return summary;
+        }
+    }
+
+    private static void readPartVersion(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported scan result part format " + version);
+        }
+    }
+
+    /**
+     * The distinct directories of the files, in order of first use, and their indexes
+     */
+    private static List<PathTrie.Node> directories(List<FileInfo> files, Map<PathTrie.Node, Integer> directoryIndex) {
+        List<PathTrie.Node> directories = new ArrayList<>();
+        for (FileInfo file : files) {
+            if (file.getDirectory() != null && !directoryIndex.containsKey(file.getDirectory())) {
+                directoryIndex.put(file.getDirectory(), directories.size());
+                directories.add(file.getDirectory());
+            }
+        }
+        return directories;
+    }
+
+    private static void writeFiles(DataOutputStream out, List<FileInfo> files, List<PathTrie.Node> directories,
+                                   Map<PathTrie.Node, Integer> directoryIndex) throws IOException {
+        out.writeInt(directories.size());
+        for (PathTrie.Node directory : directories) {
+            writeString(out, directory.getPath());
+        }
+        out.writeInt(files.size());
+        for (FileInfo file : files) {
+            Integer directory = directoryIndex.get(file.getDirectory());
+            out.writeInt(directory != null ? directory : -1);
+            writeString(out, file.getFileName());
+            out.writeLong(file.getSize());
+            out.writeLong(file.getCreatedTimeMillis());
+            byte[] digest = file.hasHash() ? file.getHashKey().getDigest() : null;
+            out.writeShort(digest != null ? digest.length : -1);
+            if (digest != null) {
+                out.write(digest);
+            }
+            writeString(out, file.getCategory());
+            out.writeByte((file.isDuplicate() ? 1 : 0) | (file.isMarkedForDeletion() ? 2 : 0)
+                    | (file.isArchiveMember() ? 4 : 0) | (file.hasPerceptualHash() ? 8 : 0));
+            if (file.hasPerceptualHash()) {
+                out.writeLong(file.getPerceptualHashBits());
+            }
+        }
+    }
+
+    private static PathTrie.Node[] readDirectories(DataInputStream in, PathTrie paths) throws IOException {
+        PathTrie.Node[] directories = new PathTrie.Node[in.readInt()];
+        for (int i = 0; i < directories.length; i++) {
+            directories[i] = paths.directory(Paths.get(readString(in)));
+        }
+        return directories;
+    }
+
+    private static FileInfo readFile(DataInputStream in, PathTrie.Node[] directories) throws IOException {
+        int directory = in.readInt();
+        String fileName = readString(in);
+        long size = in.readLong();
+        long createdTimeMillis = in.readLong();
+        FileInfo file = new FileInfo(directory >= 0 ? directories[directory] : null, fileName, size, createdTimeMillis);
+        int digestLength = in.readShort();
+        if (digestLength >= 0) {
+            byte[] digest = new byte[digestLength];
+            in.readFully(digest);
+            file.setHashKey(HashKey.wrap(digest));
+        }
+        // Categories are a handful of names shared by all files, as after a scan
+        String category = readString(in);
+        file.setCategory(category != null ? category.intern() : null);
+        int flags = in.readByte();
+        file.setDuplicate((flags & 1) != 0);
+        file.setMarkedForDeletion((flags & 2) != 0);
+        file.setArchiveMember((flags & 4) != 0);
+        if ((flags & 8) != 0) {
+            file.setPerceptualHash(in.readLong());
+        }
+        return file;
+    }
+
+    private static List<Map<String, List<FileInfo>>> groupMaps(ScanResult result) {
+        List<Map<String, List<FileInfo>>> maps = new ArrayList<>(2);
+        maps.add(result.getDuplicateGroups());
+        maps.add(result.getSimilarImageGroups());
+        return maps;
+    }
+
+    /**
+     * The position of a file in a path-ordered list, or -1 if it is not there
+     */
+    private static int positionOf(List<FileInfo> files, FileInfo file) {
+        int found = Collections.binarySearch(files, file, FileInfo.PATH_ORDER);
+        if (found < 0) {
+            return -1;
+        }
+        // Equal paths are adjacent; the file itself is one of them
+        for (int i = found; i >= 0 && FileInfo.PATH_ORDER.compare(files.get(i), file) == 0; i--) {
+            if (files.get(i) == file) {
+                return i;
+            }
+        }
+        for (int i = found + 1; i < files.size() && FileInfo.PATH_ORDER.compare(files.get(i), file) == 0; i++) {
+            if (files.get(i) == file) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The file a stored index refers to
+     */
+    private interface FileLookup {
+        FileInfo get(int index);
+    }
+
+    private static void writeIndexList(DataOutputStream out, List<FileInfo> files, Map<FileInfo, Integer> fileIndex)
+            throws IOException {
+        out.writeInt(files != null ? files.size() : -1);
+        if (files != null) {
+            for (FileInfo file : files) {
+                out.writeInt(fileIndex.get(file));
+            }
+        }
+    }
+
+    private static List<FileInfo> readIndexList(DataInputStream in, FileLookup files) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<FileInfo> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(files.get(in.readInt()));
+        }
+        return list;
+    }
+
+    private static void writeGroups(DataOutputStream out, Map<String, List<FileInfo>> groups,
+                                    Map<FileInfo, Integer> fileIndex) throws IOException {
+        out.writeInt(groups != null ? groups.size() : -1);
+        if (groups != null) {
+            for (Map.Entry<String, List<FileInfo>> entry : groups.entrySet()) {
+                writeString(out, entry.getKey());
+                writeIndexList(out, entry.getValue(), fileIndex);
+            }
+        }
+    }
+
+    private static Map<String, List<FileInfo>> readGroups(DataInputStream in, FileLookup files) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        // Concurrent like the maps a scan builds, since deletions and rescans update them in place
+        Map<String, List<FileInfo>> groups = new ConcurrentHashMap<>(Math.max(16, size * 4 / 3));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            groups.put(key, readIndexList(in, files));
+        }
+        return groups;
+    }
+
+    private static void writeDirectoryGroups(DataOutputStream out, Map<String, DirectoryGroup> groups) throws IOException {
+        out.writeInt(groups != null ? groups.size() : -1);
+        if (groups != null) {
+            for (DirectoryGroup group : groups.values()) {
+                writeString(out, group.getKey());
+                out.writeInt(group.getFileCount());
+                out.writeLong(group.getBytes());
+                out.writeInt(group.getDirectories().size());
+                for (String directory : group.getDirectories()) {
+                    writeString(out, directory);
+                }
+            }
+        }
+    }
+
+    private static Map<String, DirectoryGroup> readDirectoryGroups(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, DirectoryGroup> groups = new ConcurrentHashMap<>(Math.max(16, size * 4 / 3));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            int fileCount = in.readInt();
+            long bytes = in.readLong();
+            int count = in.readInt();
+            List<String> directories = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                directories.add(readString(in));
+            }
+            groups.put(key, new DirectoryGroup(key, directories, fileCount, bytes));
+        }
+        return groups;
+    }
+
+    private static void writeStrings(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map != null ? map.size() : -1);
+        if (map != null) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> map = new ConcurrentHashMap<>(Math.max(16, size * 4 / 3));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            String value = readString(in);
+            if (key != null && value != null) {
+                map.put(key, value);
+            }
+        }
+        return map;
+    }
+
+    private static void writeCounters(DataOutputStream out, long[] counters) throws IOException {
+        out.writeInt(counters != null ? counters.length : -1);
+        if (counters != null) {
+            for (long counter : counters) {
+                out.writeLong(counter);
+            }
+        }
+    }
+
+    private static long[] readCounters(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        long[] counters = new long[length];
+        for (int i = 0; i < length; i++) {
+            counters[i] = in.readLong();
+        }
+        return counters;
+    }
+
+    // Length-prefixed UTF-8; unlike writeUTF it has no 64 KiB limit and allows null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,167 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the files of a scan as NDJSON (one object per line) or CSV, straight to the response.
+ *
+ * Rows are produced one file at a time from {@link ScanResultStore#files(String)} and written
+ * with Jackson's streaming generator or a plain writer, so memory stays flat however large the
+ * scan is. The first row is flushed right away so clients see bytes before the export finishes.
+ */
+@Service
+public class ScanResultExporter {
+
+    // Rows between explicit flushes; the writers' own buffers flush in between as they fill
+    private static final int FLUSH_EVERY = 10_000;
+
+    private static final String[] COLUMNS = {
+            "filePath", "fileName", "size", "hash", "category", "extension", "lastModified", "duplicate", "markedForDeletion"
+    };
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() { return contentType; }
+        public String getExtension() { return extension; }
+
+        public static Format fromName(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return NDJSON;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown export format: " + name + " (supported: ndjson, csv)");
+            }
+        }
+    }
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    public void export(ScanResultStore.FileSource files, Format format, boolean gzip, OutputStream out) throws IOException {
+        // syncFlush so a flush pushes the rows written so far through the compressor
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(out, 65536, true) : null;
+        OutputStream target = compressed != null ? compressed : out;
+        if (format == Format.CSV) {
+            writeCsv(files, target);
+        } else {
+            writeNdjson(files, target);
+        }
+        if (compressed != null) {
+            compressed.finish();
+        }
+        out.flush();
+    }
+
+    private void writeNdjson(ScanResultStore.FileSource files, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            int[] rows = {0};
+            files.forEach(file -> {
+                generator.writeStartObject();
+                generator.writeStringField("filePath", file.getFilePath());
+                generator.writeStringField("fileName", file.getFileName());
+                generator.writeNumberField("size", file.getSize());
+                if (file.hasHash()) {
+                    generator.writeStringField("hash", file.getHash());
+                } else {
+                    generator.writeNullField("hash");
+                }
+                generator.writeStringField("category", file.getCategory());
+                generator.writeStringField("extension", file.getExtension());
+                generator.writeStringField("lastModified", timestamp(file));
+                generator.writeBooleanField("duplicate", file.isDuplicate());
+                generator.writeBooleanField("markedForDeletion", file.isMarkedForDeletion());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                if (++rows[0] == 1 || rows[0] % FLUSH_EVERY == 0) {
+                    generator.flush();
+                }
+            });
+        }
+    }
+
+    private void writeCsv(ScanResultStore.FileSource files, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+        writer.write(String.join(",", COLUMNS));
+        writer.write("\r\n");
+        writer.flush();
+        int[] rows = {0};
+        files.forEach(file -> {
+            writeCsvField(writer, file.getFilePath());
+            writer.write(',');
+            writeCsvField(writer, file.getFileName());
+            writer.write(',');
+            writer.write(Long.toString(file.getSize()));
+            writer.write(',');
+            writeCsvField(writer, file.getHash());
+            writer.write(',');
+            writeCsvField(writer, file.getCategory());
+            writer.write(',');
+            writeCsvField(writer, file.getExtension());
+            writer.write(',');
+            writeCsvField(writer, timestamp(file));
+            writer.write(',');
+            writer.write(Boolean.toString(file.isDuplicate()));
+            writer.write(',');
+            writer.write(Boolean.toString(file.isMarkedForDeletion()));
+            writer.write("\r\n");
+            if (++rows[0] == 1 || rows[0] % FLUSH_EVERY == 0) {
+                writer.flush();
+            }
+        });
+        // Not closed: the response stream belongs to the container
+        writer.flush();
+    }
+
+    /**
+     * RFC 4180: quote fields containing separators, quotes or line breaks and double the quotes
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static String timestamp(FileInfo file) {
+        LocalDateTime lastModified = file.getLastModified();
+        return lastModified != null ? lastModified.toString() : null;
+    }
+}
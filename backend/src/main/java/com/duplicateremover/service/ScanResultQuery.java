@@ -0,0 +1,407 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.DirectoryGroup;
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.ResultPage;
+import com.duplicateremover.model.ScanResult;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Pages through the files and duplicate groups of a scan result.
+ *
+ * Pagination is keyset based: the cursor holds the sort key of the last entry returned, and the
+ * next page is the first limit entries after it. A page is selected in one pass with a heap of
+ * limit + 1 entries, so nothing the size of the scan is copied or sorted and the response only
+ * grows with the page. Cursors stay valid while the result changes; deleted entries simply no
+ * longer appear.
+ */
+public class ScanResultQuery {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    // Fields a file can be projected to, in response order
+    private static final Map<String, Function<FileInfo, Object>> FILE_FIELDS = new LinkedHashMap<>();
+
+    static {
+        FILE_FIELDS.put("filePath", FileInfo::getFilePath);
+        FILE_FIELDS.put("fileName", FileInfo::getFileName);
+        FILE_FIELDS.put("hash", FileInfo::getHash);
+        FILE_FIELDS.put("size", FileInfo::getSize);
+        FILE_FIELDS.put("extension", FileInfo::getExtension);
+        FILE_FIELDS.put("category", FileInfo::getCategory);
+        FILE_FIELDS.put("lastModified", FileInfo::getLastModified);
+        FILE_FIELDS.put("duplicate", FileInfo::isDuplicate);
+        FILE_FIELDS.put("markedForDeletion", FileInfo::isMarkedForDeletion);
+    }
+
+    /**
+     * Conditions on a file; null fields match everything
+     */
+    public static class Filter {
+        private final String category;
+        private final Long minSize;
+        private final String extension;
+        private final String pathPrefix;
+
+        public Filter(String category, Long minSize, String extension, String pathPrefix) {
+            this.category = blankToNull(category);
+            this.minSize = minSize;
+            String trimmed = blankToNull(extension);
+            this.extension = trimmed != null && trimmed.startsWith(".") ? trimmed.substring(1) : trimmed;
+            this.pathPrefix = blankToNull(pathPrefix);
+        }
+
+        public boolean matches(FileInfo file) {
+            return (minSize == null || file.getSize() >= minSize)
+                    && (category == null || category.equalsIgnoreCase(file.getCategory()))
+                    && (extension == null || extension.equalsIgnoreCase(file.getExtension()))
+                    && (pathPrefix == null || file.getFilePath().startsWith(pathPrefix));
+        }
+
+        /**
+         * A directory group matches on its paths and on the size of one copy; categories and
+         * extensions are properties of files, which directory groups do not list
+         */
+        public boolean matches(DirectoryGroup group) {
+            if (category != null || extension != null) {
+                throw new IllegalArgumentException("category and extension filters only apply to content groups");
+            }
+            if (minSize != null && group.getBytes() < minSize) {
+                return false;
+            }
+            if (pathPrefix == null) {
+                return true;
+            }
+            for (String directory : group.getDirectories()) {
+                if (directory.startsWith(pathPrefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean matchesAny(List<FileInfo> files) {
+            for (FileInfo file : files) {
+                if (matches(file)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String blankToNull(String value) {
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+    }
+
+    /**
+     * A duplicate group with its sizes worked out once: files for content groups, the
+     * directories of a directory group otherwise
+     */
+    private static final class Group {
+        private final String key;
+        private final List<FileInfo> files;
+        private final DirectoryGroup directories;
+        private final int copies;
+        private final long totalBytes;
+        private final long wastedBytes;
+
+        private Group(String key, List<FileInfo> files) {
+            this.key = key;
+            this.files = files;
+            this.directories = null;
+            this.copies = files.size();
+            long total = 0;
+            for (FileInfo file : files) {
+                total += file.getSize();
+            }
+            this.totalBytes = total;
+            // Every copy but one is wasted
+            this.wastedBytes = copies > 1 ? total - total / copies : 0;
+        }
+
+        private Group(DirectoryGroup directories) {
+            this.key = directories.getKey();
+            this.files = null;
+            this.directories = directories;
+            this.copies = directories.getDirectories().size();
+            this.totalBytes = directories.getTotalBytes();
+            this.wastedBytes = directories.getWastedBytes();
+        }
+    }
+
+    private final ScanResult result;
+
+    public ScanResultQuery(ScanResult result) {
+        this.result = result;
+    }
+
+    /**
+     * Files of the scan. sort is path, name, size or modified, prefixed with "-" for descending;
+     * fields lists the file fields to return, or null for whole files.
+     */
+    public ResultPage<Object> files(Filter filter, String sort, String cursor, int limit, Set<String> fields) {
+        Function<FileInfo, Object> projection = fileProjection(fields);
+        SortKey<FileInfo> order = fileSort(sort != null ? sort : "path");
+        ResultPage<FileInfo> page = page(files(), filter::matches, order, cursor, limit);
+        List<Object> items = new ArrayList<>(page.getItems().size());
+        page.getItems().forEach(file -> items.add(projection.apply(file)));
+        return new ResultPage<>(items, page.getNextCursor(), page.getTotal(), page.getLimit());
+    }
+
+    /**
+     * Duplicate groups, by content (type "content") or by directory (type "directory"). sort is
+     * wasted, size, count or key, prefixed with "-" for descending; the default puts the groups
+     * wasting the most bytes first. A content group matches the filter when any of its files
+     * does, and fields projects the files inside each group. Directory groups are returned as
+     * they are, with their paths instead of files.
+     */
+    public ResultPage<Object> groups(String type, Filter filter, String sort, String cursor, int limit, Set<String> fields) {
+        boolean byDirectory;
+        if (type == null || type.equalsIgnoreCase("content")) {
+            byDirectory = false;
+        } else if (type.equalsIgnoreCase("directory")) {
+            byDirectory = true;
+        } else {
+            throw new IllegalArgumentException("Unknown group type: " + type + " (supported: content, directory)");
+        }
+        Function<FileInfo, Object> projection = fileProjection(fields);
+        SortKey<Group> order = groupSort(sort != null ? sort : "-wasted");
+
+        List<Group> groups = new ArrayList<>();
+        if (byDirectory) {
+            if (result.getDirectoryDuplicates() != null) {
+                for (DirectoryGroup group : result.getDirectoryDuplicates().values()) {
+                    if (filter.matches(group)) {
+                        groups.add(new Group(group));
+                    }
+                }
+            }
+        } else if (result.getDuplicateGroups() != null) {
+            result.getDuplicateGroups().forEach((key, files) -> {
+                if (files != null && !files.isEmpty() && filter.matchesAny(files)) {
+                    groups.add(new Group(key, files));
+                }
+            });
+        }
+        ResultPage<Group> page = page(groups, group -> true, order, cursor, limit);
+        if (byDirectory) {
+            List<Object> items = new ArrayList<>(page.getItems().size());
+            page.getItems().forEach(group -> items.add(group.directories));
+            return new ResultPage<>(items, page.getNextCursor(), page.getTotal(), page.getLimit());
+        }
+
+        Map<String, String> algorithms = result.getGroupAlgorithms();
+        List<Object> items = new ArrayList<>(page.getItems().size());
+        for (Group group : page.getItems()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", group.key);
+            if (algorithms != null) {
+                item.put("algorithm", algorithms.get(group.key));
+            }
+            item.put("fileCount", group.files.size());
+            item.put("totalBytes", group.totalBytes);
+            item.put("wastedBytes", group.wastedBytes);
+            List<Object> files = new ArrayList<>(group.files.size());
+            group.files.forEach(file -> files.add(projection.apply(file)));
+            item.put("files", files);
+            items.add(item);
+        }
+        return new ResultPage<>(items, page.getNextCursor(), page.getTotal(), page.getLimit());
+    }
+
+    private List<FileInfo> files() {
+        return result.getFiles() != null ? result.getFiles() : Collections.emptyList();
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.max(1, Math.min(MAX_LIMIT, limit));
+    }
+
+    private static Function<FileInfo, Object> fileProjection(Set<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return file -> file;
+        }
+        List<Map.Entry<String, Function<FileInfo, Object>>> selected = new ArrayList<>();
+        for (Map.Entry<String, Function<FileInfo, Object>> field : FILE_FIELDS.entrySet()) {
+            if (fields.contains(field.getKey())) {
+                selected.add(field);
+            }
+        }
+        for (String field : fields) {
+            if (!FILE_FIELDS.containsKey(field)) {
+                throw new IllegalArgumentException("Unknown field: " + field + " (supported: " + FILE_FIELDS.keySet() + ")");
+            }
+        }
+        return file -> {
+            Map<String, Object> projected = new LinkedHashMap<>();
+            selected.forEach(field -> projected.put(field.getKey(), field.getValue().apply(file)));
+            return projected;
+        };
+    }
+
+    /**
+     * A sort order: a primary key (Long or String), ascending or descending, and a unique
+     * string tie-breaker that always ascends so the order is total
+     */
+    private static final class SortKey<T> {
+        private final Function<T, Comparable<?>> primary;
+        private final Function<T, String> tieBreaker;
+        private final boolean descending;
+
+        private SortKey(Function<T, Comparable<?>> primary, Function<T, String> tieBreaker, boolean descending) {
+            this.primary = primary;
+            this.tieBreaker = tieBreaker;
+            this.descending = descending;
+        }
+    }
+
+    private static SortKey<FileInfo> fileSort(String sort) {
+        boolean descending = sort.startsWith("-");
+        String name = descending ? sort.substring(1) : sort;
+        Function<FileInfo, String> path = FileInfo::getFilePath;
+        switch (name) {
+            case "path":
+                return new SortKey<>(file -> "", path, descending);
+            case "name":
+                return new SortKey<>(FileInfo::getFileName, path, descending);
+            case "size":
+                return new SortKey<>(FileInfo::getSize, path, descending);
+            case "modified":
+                return new SortKey<>(FileInfo::getCreatedTimeMillis, path, descending);
+            default:
+                throw new IllegalArgumentException("Unknown sort: " + sort + " (supported: path, name, size, modified)");
+        }
+    }
+
+    private static SortKey<Group> groupSort(String sort) {
+        boolean descending = sort.startsWith("-");
+        String name = descending ? sort.substring(1) : sort;
+        Function<Group, String> key = group -> group.key;
+        switch (name) {
+            case "wasted":
+                return new SortKey<>(group -> group.wastedBytes, key, descending);
+            case "size":
+                return new SortKey<>(group -> group.totalBytes, key, descending);
+            case "count":
+                return new SortKey<>(group -> (long) group.copies, key, descending);
+            case "key":
+                return new SortKey<>(group -> "", key, descending);
+            default:
+                throw new IllegalArgumentException("Unknown sort: " + sort + " (supported: wasted, size, count, key)");
+        }
+    }
+
+    /**
+     * An entry with its sort key computed once
+     */
+    private static final class Keyed<T> {
+        private final T item;
+        private final Comparable<?> primary;
+        private final String tieBreaker;
+
+        private Keyed(T item, Comparable<?> primary, String tieBreaker) {
+            this.item = item;
+            this.primary = primary;
+            this.tieBreaker = tieBreaker;
+        }
+    }
+
+    private static <T> ResultPage<T> page(List<T> items, Predicate<T> filter, SortKey<T> order, String cursor, int limit) {
+        Comparator<Keyed<T>> comparator = comparator(order);
+        Keyed<T> after = cursor != null && !cursor.isEmpty() ? decodeCursor(cursor) : null;
+        boolean checkedCursor = false;
+        // Largest of the limit + 1 smallest entries on top, so it is the one to drop
+        PriorityQueue<Keyed<T>> smallest = new PriorityQueue<>(limit + 1, comparator.reversed());
+        int total = 0;
+        for (T item : items) {
+            if (!filter.test(item)) {
+                continue;
+            }
+            total++;
+            Keyed<T> keyed = new Keyed<>(item, order.primary.apply(item), order.tieBreaker.apply(item));
+            if (after != null && !checkedCursor) {
+                if (keyed.primary.getClass() != after.primary.getClass()) {
+                    throw new IllegalArgumentException("Cursor was issued for a different sort");
+                }
+                checkedCursor = true;
+            }
+            if (after != null && comparator.compare(keyed, after) <= 0) {
+                continue;
+            }
+            if (smallest.size() <= limit) {
+                smallest.add(keyed);
+            } else if (comparator.compare(keyed, smallest.peek()) < 0) {
+                smallest.poll();
+                smallest.add(keyed);
+            }
+        }
+        List<Keyed<T>> selected = new ArrayList<>(smallest);
+        selected.sort(comparator);
+        String nextCursor = null;
+        if (selected.size() > limit) {
+            selected = selected.subList(0, limit);
+            nextCursor = encodeCursor(selected.get(limit - 1));
+        }
+        List<T> page = new ArrayList<>(selected.size());
+        selected.forEach(keyed -> page.add(keyed.item));
+        return new ResultPage<>(page, nextCursor, total, limit);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Comparator<Keyed<T>> comparator(SortKey<T> order) {
+        Comparator<Keyed<T>> byPrimary = (a, b) -> ((Comparable) a.primary).compareTo(b.primary);
+        if (order.descending) {
+            byPrimary = byPrimary.reversed();
+        }
+        return byPrimary.thenComparing(keyed -> keyed.tieBreaker);
+    }
+
+    // "L<long>" or "S<string>", a NUL, then the tie-breaker; base64url so it survives a query string
+    private static String encodeCursor(Keyed<?> last) {
+        String primary = last.primary instanceof Long ? "L" + last.primary : "S" + last.primary;
+        String raw = primary + '\0' + last.tieBreaker;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static <T> Keyed<T> decodeCursor(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        int separator = raw.indexOf('\0');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        String value = raw.substring(1, separator);
+        Comparable<?> primary;
+        if (raw.charAt(0) == 'L') {
+            try {
+                primary = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        } else {
+            primary = value;
+        }
+        return new Keyed<>(null, primary, raw.substring(separator + 1));
+    }
+}
@@ -0,0 +1,547 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.PathTrie;
+import com.duplicateremover.model.ScanResult;
+import com.duplicateremover.model.ScanSummary;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Completed scan results, kept in an H2 MVStore next to the hash cache so they survive restarts.
+ *
+ * Only a small LRU of recently used results stays on the heap; everything else is decoded on
+ * demand. Listing scans reads the separately stored summaries and never touches the file lists.
+ * A result that is still referenced elsewhere (a deletion in progress, a rescan) is handed out
+ * as the same instance, so updates made through it are not lost to a second decoded copy.
+ *
+ * Each result is stored in parts under keys starting with its scan id: a head, the groups, and
+ * the files in path order in chunks of up to {@code scan.results.chunk-files}. For every result
+ * on the heap the store remembers which files each chunk held and a fingerprint of them, so
+ * saving it again after a deletion or rescan only rewrites the chunks whose files changed, plus
+ * the head and groups. Parts are never overwritten: a rewritten part gets a new key, and the
+ * replaced keys are removed once no read of that scan is in progress, so a long export sees the
+ * result as it was when the export started. Results stored whole by an older version are moved
+ * into parts when they are first read.
+ *
+ * When the store is disabled or cannot be opened, results are kept in memory as before.
+ */
+@Service
+public class ScanResultStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanResultStore.class);
+
+    @Value("${scan.results.enabled:true}")
+    private boolean enabled;
+
+    @Value("${scan.results.path:${user.home}/.duplicate-remover/scan-results.mv}")
+    private String storePath;
+
+    // Decoded results kept on the heap
+    @Value("${scan.results.cache-size:4}")
+    private int cacheSize;
+
+    @Value("${scan.results.chunk-files:4096}")
+    private int chunkFiles;
+
+    private volatile MVStore store;
+    // Results stored whole by format 4 and older
+    private MVMap<String, byte[]> results;
+    private MVMap<String, byte[]> parts;
+    private MVMap<String, byte[]> summaries;
+
+    // Guards the maps below and the switch of a result to a new head
+    private final Object partsLock = new Object();
+    // How the stored chunks of each result on the heap were cut; weak, like the results themselves
+    private final Map<ScanResult, Layout> layouts = new WeakHashMap<>();
+    // Reads in progress per scan, and replaced parts to remove once they end
+    private final Map<String, Integer> readers = new HashMap<>();
+    private final Map<String, List<String>> replacedParts = new HashMap<>();
+
+    // Fallback when there is no store
+    private final Map<String, ScanResult> inMemory = new ConcurrentHashMap<>();
+
+    private final Object cacheLock = new Object();
+    private Map<String, ScanResult> hot;
+    private final Map<String, WeakReference<ScanResult>> live = new HashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    @PostConstruct
+    public void open() {
+        int capacity = Math.max(1, cacheSize);
+        hot = new LinkedHashMap<String, ScanResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScanResult> eldest) {
+                return size() > capacity;
+            }
+        };
+        if (!enabled) {
+            logger.info("Scan result store disabled, results are kept in memory");
+            return;
+        }
+        try {
+            Path path = Paths.get(storePath).toAbsolutePath();
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            // "retry:" reopens the file after a read on an interrupted thread closed it; a stopped
+            // deletion job still saves its result from the interrupted coordinator
+            store = new MVStore.Builder().fileName("retry:" + path).compress().open();
+            results = store.openMap("results");
+            parts = store.openMap("result-parts");
+            summaries = store.openMap("summaries");
+            logger.info("Opened scan result store at {} with {} results", path, summaries.size());
+        } catch (Exception e) {
+            logger.warn("Failed to open scan result store at {}, keeping results in memory", storePath, e);
+            store = null;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    public boolean isPersistent() {
+        return store != null;
+    }
+
+    /**
+     * Writes a result (again) after it was created or changed
+     */
+    public void save(ScanResult result) {
+        if (store == null) {
+            inMemory.put(result.getScanId(), result);
+            return;
+        }
+        try {
+            writeParts(result);
+            summaries.put(result.getScanId(), ScanResultCodec.encodeSummary(ScanSummary.of(result)));
+            store.commit();
+        } catch (IOException e) {
+            logger.error("Failed to store scan result {}, keeping it in memory only", result.getScanId(), e);
+        }
+        remember(result);
+    }
+
+    /**
+     * The result of a scan, decoded from the store when it is not on the heap; null if unknown
+     */
+    public ScanResult load(String scanId) {
+        if (store == null) {
+            return inMemory.get(scanId);
+        }
+        synchronized (cacheLock) {
+            ScanResult result = hot.get(scanId);
+            if (result == null) {
+                WeakReference<ScanResult> reference = live.get(scanId);
+                result = reference != null ? reference.get() : null;
+                if (result != null) {
+                    hot.put(scanId, result);
+                }
+            }
+            if (result != null) {
+                cacheHits.incrementAndGet();
+                return result;
+            }
+        }
+        ScanResult decoded;
+        try {
+            decoded = readParts(scanId);
+            if (decoded == null) {
+                decoded = moveToParts(scanId);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to read stored scan result {}", scanId, e);
+            return null;
+        }
+        if (decoded == null) {
+            return null;
+        }
+        loads.incrementAndGet();
+        // Another thread may have decoded the same result meanwhile; keep the first
+        synchronized (cacheLock) {
+            WeakReference<ScanResult> reference = live.get(scanId);
+            ScanResult existing = reference != null ? reference.get() : null;
+            if (existing != null) {
+                hot.put(scanId, existing);
+                return existing;
+            }
+        }
+        remember(decoded);
+        return decoded;
+    }
+
+    /**
+     * The files of one stored result, read in scan order
+     */
+    public interface FileSource {
+        void forEach(ScanResultCodec.FileVisitor visitor) throws IOException;
+    }
+
+    /**
+     * The files of a scan, for a long read such as an export; null if unknown. With a store the
+     * files are decoded one chunk at a time as the read goes, so the result is never loaded onto
+     * the heap, and changes saved after the read starts do not affect it.
+     */
+    public FileSource files(String scanId) {
+        if (store == null) {
+            ScanResult result = inMemory.get(scanId);
+            if (result == null) {
+                return null;
+            }
+            List<FileInfo> files;
+            synchronized (result) {
+                files = result.getFiles() != null ? new ArrayList<>(result.getFiles()) : new ArrayList<>();
+            }
+            return visitor -> {
+                for (FileInfo file : files) {
+                    visitor.visit(file);
+                }
+            };
+        }
+        if (!parts.containsKey(headKey(scanId)) && load(scanId) == null) {
+            return null;
+        }
+        return visitor -> {
+            ScanResultCodec.Head head = startRead(scanId);
+            if (head == null) {
+                return;
+            }
+            try {
+                for (int id : head.chunkIds) {
+                    // Directories are only shared within a chunk here, so memory stays flat
+                    ScanResultCodec.forEachFile(part(chunkKey(scanId, id)), new PathTrie(), visitor);
+                }
+            } finally {
+                endRead(scanId);
+            }
+        };
+    }
+
+    /**
+     * All stored scans, newest first, without loading any of them
+     */
+    public List<ScanSummary> listSummaries() {
+        List<ScanSummary> list = new ArrayList<>();
+        if (store == null) {
+            inMemory.values().forEach(result -> list.add(ScanSummary.of(result)));
+        } else {
+            for (Map.Entry<String, byte[]> entry : summaries.entrySet()) {
+                try {
+                    list.add(ScanResultCodec.decodeSummary(entry.getValue()));
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable summary of scan {}", entry.getKey(), e);
+                }
+            }
+        }
+        list.sort(Comparator.comparing(ScanSummary::getScanTime, Comparator.nullsLast(Comparator.reverseOrder())));
+        return list;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("persistent", isPersistent());
+        stats.put("results", store != null ? summaries.size() : inMemory.size());
+        synchronized (cacheLock) {
+            stats.put("cached", hot.size());
+        }
+        stats.put("cacheSize", cacheSize);
+        stats.put("loads", loads.get());
+        stats.put("cacheHits", cacheHits.get());
+        return stats;
+    }
+
+    /**
+     * Writes the parts of a result that changed since it was last written or read, then
+     * switches to the new head
+     */
+    private void writeParts(ScanResult result) throws IOException {
+        String scanId = result.getScanId();
+        List<FileInfo> files = result.getFiles() != null ? result.getFiles() : Collections.emptyList();
+        boolean pathOrdered = isPathOrdered(files);
+        Layout previous;
+        synchronized (partsLock) {
+            previous = layouts.get(result);
+        }
+        List<String> replaced = new ArrayList<>();
+        Layout layout;
+        if (previous != null && pathOrdered && !previous.chunks.isEmpty()) {
+            layout = new Layout(previous.nextId);
+            replaced.add(groupsKey(scanId, previous.groupsId));
+            // Each file goes to the chunk whose range holds its path; untouched chunks keep their key
+            int from = 0;
+            for (int i = 0; i < previous.chunks.size(); i++) {
+                Chunk chunk = previous.chunks.get(i);
+                int to = i + 1 < previous.chunks.size() ? lowerBound(files, previous.chunks.get(i + 1).first) : files.size();
+                List<FileInfo> slice = files.subList(from, to);
+                from = to;
+                if (slice.size() == chunk.size && fingerprint(slice) == chunk.fingerprint) {
+                    layout.chunks.add(chunk);
+                } else {
+                    replaced.add(chunkKey(scanId, chunk.id));
+                    writeChunks(scanId, slice, layout);
+                }
+            }
+        } else {
+            ScanResultCodec.Head stored = storedHead(scanId);
+            layout = new Layout(0);
+            if (stored != null) {
+                replaced.add(groupsKey(scanId, stored.groupsId));
+                for (int id : stored.chunkIds) {
+                    replaced.add(chunkKey(scanId, id));
+                    layout.nextId = Math.max(layout.nextId, id + 1);
+                }
+                layout.nextId = Math.max(layout.nextId, stored.groupsId + 1);
+            }
+            writeChunks(scanId, files, layout);
+        }
+        layout.groupsId = layout.nextId++;
+        parts.put(groupsKey(scanId, layout.groupsId), ScanResultCodec.encodeGroups(result, pathOrdered));
+
+        int[] chunkIds = new int[layout.chunks.size()];
+        int[] chunkSizes = new int[layout.chunks.size()];
+        for (int i = 0; i < chunkIds.length; i++) {
+            chunkIds[i] = layout.chunks.get(i).id;
+            chunkSizes[i] = layout.chunks.get(i).size;
+        }
+        byte[] head = ScanResultCodec.encodeHead(result, chunkIds, chunkSizes, layout.groupsId);
+        synchronized (partsLock) {
+            parts.put(headKey(scanId), head);
+            layouts.put(result, layout);
+            if (readers.containsKey(scanId)) {
+                replacedParts.computeIfAbsent(scanId, id -> new ArrayList<>()).addAll(replaced);
+            } else {
+                replaced.forEach(parts::remove);
+            }
+        }
+    }
+
+    private void writeChunks(String scanId, List<FileInfo> files, Layout layout) throws IOException {
+        for (int from = 0; from < files.size(); from += chunkFiles) {
+            List<FileInfo> chunk = files.subList(from, Math.min(files.size(), from + chunkFiles));
+            int id = layout.nextId++;
+            parts.put(chunkKey(scanId, id), ScanResultCodec.encodeFiles(chunk));
+            layout.chunks.add(new Chunk(id, chunk.get(0), chunk.size(), fingerprint(chunk)));
+        }
+    }
+
+    /**
+     * Decodes a result from its parts, or returns null if it has none
+     */
+    private ScanResult readParts(String scanId) throws IOException {
+        ScanResultCodec.Head head = startRead(scanId);
+        if (head == null) {
+            return null;
+        }
+        try {
+            ScanResult result = head.result;
+            PathTrie paths = new PathTrie();
+            result.setPaths(paths);
+            Layout layout = new Layout(head.groupsId + 1);
+            layout.groupsId = head.groupsId;
+            List<FileInfo> files = new ArrayList<>(Arrays.stream(head.chunkSizes).sum());
+            for (int id : head.chunkIds) {
+                List<FileInfo> chunk = ScanResultCodec.decodeFiles(part(chunkKey(scanId, id)), paths);
+                layout.chunks.add(new Chunk(id, chunk.get(0), chunk.size(), fingerprint(chunk)));
+                layout.nextId = Math.max(layout.nextId, id + 1);
+                files.addAll(chunk);
+            }
+            result.setFiles(files);
+            ScanResultCodec.decodeGroups(part(groupsKey(scanId, head.groupsId)), result);
+            synchronized (partsLock) {
+                layouts.put(result, layout);
+            }
+            return result;
+        } finally {
+            endRead(scanId);
+        }
+    }
+
+    /**
+     * Decodes a result stored whole by an older version and stores it again in parts; null if
+     * there is none
+     */
+    private ScanResult moveToParts(String scanId) throws IOException {
+        synchronized (partsLock) {
+            byte[] data = results.get(scanId);
+            if (data == null) {
+                // Moved by another thread meanwhile, or unknown
+                return parts.containsKey(headKey(scanId)) ? readParts(scanId) : null;
+            }
+            ScanResult result = ScanResultCodec.decode(data);
+            // Older versions did not keep files in path order, which chunks and updates rely on
+            if (result.getFiles() != null) {
+                result.getFiles().sort(FileInfo.PATH_ORDER);
+            }
+            if (result.getCategorizedFiles() != null) {
+                result.getCategorizedFiles().values().forEach(files -> files.sort(FileInfo.PATH_ORDER));
+            }
+            writeParts(result);
+            results.remove(scanId);
+            store.commit();
+            logger.info("Moved stored scan result {} into {} file chunks", scanId, layouts.get(result).chunks.size());
+            return result;
+        }
+    }
+
+    private ScanResultCodec.Head storedHead(String scanId) throws IOException {
+        byte[] head = parts.get(headKey(scanId));
+        return head != null ? ScanResultCodec.decodeHead(head) : null;
+    }
+
+    /**
+     * Registers a read of a scan's parts and returns the head it reads from, or null if the scan
+     * has none; parts replaced meanwhile stay until {@link #endRead(String)}
+     */
+    private ScanResultCodec.Head startRead(String scanId) throws IOException {
+        synchronized (partsLock) {
+            ScanResultCodec.Head head = storedHead(scanId);
+            if (head != null) {
+                readers.merge(scanId, 1, Integer::sum);
+            }
+            return head;
+        }
+    }
+
+    private void endRead(String scanId) {
+        synchronized (partsLock) {
+            if (readers.computeIfPresent(scanId, (id, count) -> count > 1 ? count - 1 : null) == null) {
+                List<String> replaced = replacedParts.remove(scanId);
+                if (replaced != null) {
+                    replaced.forEach(parts::remove);
+                }
+            }
+        }
+    }
+
+    private byte[] part(String key) throws IOException {
+        byte[] data = parts.get(key);
+        if (data == null) {
+            throw new IOException("Missing stored scan result part " + key);
+        }
+        return data;
+    }
+
+    private static String headKey(String scanId) {
+        return scanId + "/head";
+    }
+
+    private static String groupsKey(String scanId, int id) {
+        return scanId + "/groups/" + id;
+    }
+
+    private static String chunkKey(String scanId, int id) {
+        return scanId + "/files/" + id;
+    }
+
+    private static boolean isPathOrdered(List<FileInfo> files) {
+        for (int i = 1; i < files.size(); i++) {
+            if (FileInfo.PATH_ORDER.compare(files.get(i - 1), files.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The position of the first file that does not sort before the given one
+     */
+    private static int lowerBound(List<FileInfo> files, FileInfo file) {
+        int low = 0;
+        int high = files.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (FileInfo.PATH_ORDER.compare(files.get(middle), file) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Changes when a file of the chunk is replaced or one of the fields a deletion or rescan
+     * updates in place changes
+     */
+    private static long fingerprint(List<FileInfo> files) {
+        long fingerprint = files.size();
+        for (FileInfo file : files) {
+            long state = System.identityHashCode(file);
+            state = state * 31 + ((file.isDuplicate() ? 1 : 0) | (file.isMarkedForDeletion() ? 2 : 0)
+                    | (file.isArchiveMember() ? 4 : 0) | (file.hasPerceptualHash() ? 8 : 0));
+            state = state * 31 + Objects.hashCode(file.getCategory());
+            state = state * 31 + (file.hasHash() ? file.getHashKey().hashCode() : 0);
+            state = state * 31 + Long.hashCode(file.getPerceptualHashBits());
+            state = state * 31 + Long.hashCode(file.getSize());
+            fingerprint = fingerprint * 0x9E3779B97F4A7C15L + state;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * The chunks a result's files were last written in or read from
+     */
+    private static final class Layout {
+        final List<Chunk> chunks = new ArrayList<>();
+        int nextId;
+        int groupsId;
+
+        Layout(int nextId) {
+            this.nextId = nextId;
+        }
+    }
+
+    private static final class Chunk {
+        final int id;
+        // The files of this chunk sort at or after this one and before the next chunk's
+        final FileInfo first;
+        final int size;
+        final long fingerprint;
+
+        Chunk(int id, FileInfo first, int size, long fingerprint) {
+            this.id = id;
+            this.first = first;
+            this.size = size;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private void remember(ScanResult result) {
+        synchronized (cacheLock) {
+            hot.put(result.getScanId(), result);
+            live.put(result.getScanId(), new WeakReference<>(result));
+            live.values().removeIf(reference -> reference.get() == null);
+        }
+    }
+}
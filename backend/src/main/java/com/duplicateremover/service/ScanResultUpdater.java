@@ -0,0 +1,363 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.HashKey;
+import com.duplicateremover.model.ScanResult;
+import com.duplicateremover.model.ScanResultIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a set of file changes to an existing ScanResult without rebuilding it.
+ *
+ * Files are found through the result's {@link ScanResultIndex}, which is built on first use and
+ * kept current here, and only the duplicate groups and categories holding a changed file are
+ * rewritten. Rewritten lists are replaced rather than mutated, because the full result is
+ * serialized outside the lock, so a list that loses files is still copied once: the file list
+ * and each touched category list are kept in path order, the removed files are located in them
+ * by binary search and the runs between them are copied in bulk. Directory groups are rebuilt
+ * with a Merkle pass over all files whenever anything changes; similar image groups are rebuilt
+ * after a rescan and pruned after deletions. The caller then saves the result, which rewrites
+ * the stored file chunks that changed and the groups. Callers hold the result's lock.
+ */
+public class ScanResultUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanResultUpdater.class);
+
+    private final ScanResult scanResult;
+
+    public ScanResultUpdater(ScanResult scanResult) {
+        this.scanResult = scanResult;
+    }
+
+    /**
+     * @param removed   files that no longer exist, or old versions of modified files
+     * @param added     new files and new versions of modified files, already hashed and categorized
+     * @param rehashed  files still in the result whose hash was computed for the first time
+     */
+    public void applyChanges(Collection<FileInfo> removed, Collection<FileInfo> added, Collection<FileInfo> rehashed) {
+        Set<FileInfo> removedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        removedSet.addAll(removed);
+
+        // Files
+        List<FileInfo> updatedFiles = new ArrayList<>(scanResult.getFiles().size() - removed.size() + added.size());
+        for (FileInfo file : scanResult.getFiles()) {
+            if (!removedSet.contains(file)) {
+                updatedFiles.add(file);
+            }
+        }
+        updatedFiles.addAll(added);
+        updatedFiles.sort(FileInfo.PATH_ORDER);
+        ScanResultIndex index = index();
+        scanResult.setFiles(updatedFiles);
+        removed.forEach(index::remove);
+        added.forEach(index::add);
+
+        updateCategories(removedSet, added);
+        updateDuplicateGroups(updatedFiles, removed, added, rehashed);
+        updateDirectoryDuplicates();
+        updateSimilarImages();
+
+        scanResult.setTotalFiles(updatedFiles.size());
+        recount(scanResult);
+
+        logger.info("Applied {} removals, {} additions and {} rehashes to scan {}",
+                removed.size(), added.size(), rehashed.size(), scanResult.getScanId());
+    }
+
+    /**
+     * Removes files that were deleted from disk. Each path, and each member of a deleted
+     * archive, is resolved through the index; the file list and the categories holding a deleted
+     * file are copied without it and its duplicate group is rewritten, with duplicateCount and
+     * wastedBytes adjusted group by group. Paths the result does not contain are ignored.
+     * Returns the number of files removed.
+     */
+    public int applyDeletions(Collection<String> deletedFilePaths) {
+        ScanResultIndex index = index();
+        Set<FileInfo> deleted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String filePath : deletedFilePaths) {
+            FileInfo file = index.find(filePath);
+            if (file != null) {
+                deleted.add(file);
+            }
+            // A deleted archive takes its members with it
+            deleted.addAll(index.membersOf(filePath));
+        }
+        if (deleted.isEmpty()) {
+            return 0;
+        }
+
+        List<FileInfo> updatedFiles = without(scanResult.getFiles(), deleted);
+        scanResult.setFiles(updatedFiles);
+        deleted.forEach(index::remove);
+
+        updateCategories(deleted, Collections.emptyList());
+        removeFromDuplicateGroups(deleted);
+        updateDirectoryDuplicates();
+        removeFromSimilarImages(deleted);
+
+        scanResult.setTotalFiles(updatedFiles.size());
+        logger.info("Removed {} deleted files from scan {}", deleted.size(), scanResult.getScanId());
+        return deleted.size();
+    }
+
+    /**
+     * Recomputes duplicateCount and wastedBytes from the duplicate groups
+     */
+    public static void recount(ScanResult scanResult) {
+        int duplicateCount = 0;
+        long wastedBytes = 0;
+        Map<String, List<FileInfo>> duplicateGroups = scanResult.getDuplicateGroups();
+        if (duplicateGroups != null) {
+            for (List<FileInfo> group : duplicateGroups.values()) {
+                duplicateCount += group.size() - 1;
+                wastedBytes += wastedBytes(group);
+            }
+        }
+        scanResult.setDuplicateCount(duplicateCount);
+        scanResult.setWastedBytes(wastedBytes);
+    }
+
+    private static long wastedBytes(List<FileInfo> group) {
+        return group.isEmpty() ? 0 : group.get(0).getSize() * (group.size() - 1);
+    }
+
+    private ScanResultIndex index() {
+        ScanResultIndex index = scanResult.getIndex();
+        if (index == null) {
+            index = new ScanResultIndex(scanResult.getFiles());
+            scanResult.setIndex(index);
+        }
+        return index;
+    }
+
+    /**
+     * Drops deleted files from their groups. Group keys are the members' hashes, so each deleted
+     * file leads straight to its group.
+     */
+    private void removeFromDuplicateGroups(Set<FileInfo> deleted) {
+        Map<String, List<FileInfo>> duplicateGroups = scanResult.getDuplicateGroups();
+        Set<String> affectedGroups = new HashSet<>();
+        for (FileInfo file : deleted) {
+            String hash = file.getHash();
+            if (hash != null && duplicateGroups.containsKey(hash)) {
+                affectedGroups.add(hash);
+            }
+        }
+
+        int duplicateCount = scanResult.getDuplicateCount();
+        long wastedBytes = scanResult.getWastedBytes();
+        for (String hash : affectedGroups) {
+            List<FileInfo> group = duplicateGroups.get(hash);
+            duplicateCount -= group.size() - 1;
+            wastedBytes -= wastedBytes(group);
+            List<FileInfo> remaining = new ArrayList<>(group.size());
+            for (FileInfo file : group) {
+                if (!deleted.contains(file)) {
+                    remaining.add(file);
+                }
+            }
+            for (int i = 0; i < remaining.size(); i++) {
+                // The first remaining file becomes the original if the original was deleted
+                remaining.get(i).setDuplicate(remaining.size() > 1);
+                remaining.get(i).setMarkedForDeletion(remaining.size() > 1 && i > 0);
+            }
+            if (remaining.size() > 1) {
+                duplicateGroups.put(hash, remaining);
+                duplicateCount += remaining.size() - 1;
+                wastedBytes += wastedBytes(remaining);
+            } else {
+                duplicateGroups.remove(hash);
+                if (scanResult.getGroupAlgorithms() != null) {
+                    scanResult.getGroupAlgorithms().remove(hash);
+                }
+            }
+        }
+        scanResult.setDuplicateCount(duplicateCount);
+        scanResult.setWastedBytes(wastedBytes);
+    }
+
+    private void updateCategories(Set<FileInfo> removed, Collection<FileInfo> added) {
+        Map<String, List<FileInfo>> categorizedFiles = scanResult.getCategorizedFiles();
+
+        Map<String, Set<FileInfo>> removedByCategory = new HashMap<>();
+        for (FileInfo file : removed) {
+            if (file.getCategory() != null) {
+                removedByCategory.computeIfAbsent(file.getCategory(),
+                        category -> Collections.newSetFromMap(new IdentityHashMap<>())).add(file);
+            }
+        }
+        for (Map.Entry<String, Set<FileInfo>> entry : removedByCategory.entrySet()) {
+            List<FileInfo> remaining = without(categorizedFiles.getOrDefault(entry.getKey(), Collections.emptyList()),
+                    entry.getValue());
+            if (remaining.isEmpty()) {
+                categorizedFiles.remove(entry.getKey());
+            } else {
+                categorizedFiles.put(entry.getKey(), remaining);
+            }
+        }
+
+        Map<String, List<FileInfo>> addedByCategory = added.stream()
+                .collect(Collectors.groupingBy(FileInfo::getCategory));
+        for (Map.Entry<String, List<FileInfo>> entry : addedByCategory.entrySet()) {
+            List<FileInfo> updated = new ArrayList<>(categorizedFiles.getOrDefault(entry.getKey(), Collections.emptyList()));
+            updated.addAll(entry.getValue());
+            // Kept in path order, as a scan builds them, so removals can find files by position
+            updated.sort(FileInfo.PATH_ORDER);
+            categorizedFiles.put(entry.getKey(), updated);
+        }
+    }
+
+    /**
+     * A copy of a path-ordered list without the removed files. Each removed file is found by
+     * binary search and the runs between them are copied in bulk; when one is not where its path
+     * puts it, as in a list stored by an older version, the list is filtered file by file instead.
+     */
+    private static List<FileInfo> without(List<FileInfo> files, Set<FileInfo> removed) {
+        int[] positions = new int[removed.size()];
+        int count = 0;
+        for (FileInfo file : removed) {
+            int position = positionOf(files, file);
+            if (position < 0) {
+                List<FileInfo> remaining = new ArrayList<>(files.size());
+                for (FileInfo candidate : files) {
+                    if (!removed.contains(candidate)) {
+                        remaining.add(candidate);
+                    }
+                }
+                return remaining;
+            }
+            positions[count++] = position;
+        }
+        Arrays.sort(positions, 0, count);
+        List<FileInfo> remaining = new ArrayList<>(files.size() - count);
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            remaining.addAll(files.subList(from, positions[i]));
+            from = positions[i] + 1;
+        }
+        remaining.addAll(files.subList(from, files.size()));
+        return remaining;
+    }
+
+    /**
+     * The position of the file in a path-ordered list, or -1 if it is not found there
+     */
+    private static int positionOf(List<FileInfo> files, FileInfo file) {
+        int found = Collections.binarySearch(files, file, FileInfo.PATH_ORDER);
+        if (found < 0) {
+            return -1;
+        }
+        // Equal paths are adjacent; the file itself is one of them
+        for (int i = found; i >= 0 && FileInfo.PATH_ORDER.compare(files.get(i), file) == 0; i--) {
+            if (files.get(i) == file) {
+                return i;
+            }
+        }
+        for (int i = found + 1; i < files.size() && FileInfo.PATH_ORDER.compare(files.get(i), file) == 0; i++) {
+            if (files.get(i) == file) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void updateDuplicateGroups(List<FileInfo> files, Collection<FileInfo> removed,
+                                       Collection<FileInfo> added, Collection<FileInfo> rehashed) {
+        Set<HashKey> affectedHashes = new HashSet<>();
+        for (Collection<FileInfo> changed : List.of(removed, added, rehashed)) {
+            for (FileInfo file : changed) {
+                if (file.hasHash()) {
+                    affectedHashes.add(file.getHashKey());
+                }
+            }
+        }
+        if (affectedHashes.isEmpty()) {
+            return;
+        }
+
+        Map<HashKey, List<FileInfo>> membersByHash = new HashMap<>();
+        for (FileInfo file : files) {
+            HashKey hash = file.getHashKey();
+            if (hash != null && affectedHashes.contains(hash)) {
+                membersByHash.computeIfAbsent(hash, k -> new ArrayList<>()).add(file);
+            }
+        }
+
+        Map<String, List<FileInfo>> duplicateGroups = scanResult.getDuplicateGroups();
+        for (HashKey hash : affectedHashes) {
+            List<FileInfo> members = membersByHash.getOrDefault(hash, Collections.emptyList());
+            for (int i = 0; i < members.size(); i++) {
+                // Keep the first file as the original, as a full scan would
+                members.get(i).setDuplicate(members.size() > 1);
+                members.get(i).setMarkedForDeletion(members.size() > 1 && i > 0);
+            }
+            if (members.size() > 1) {
+                duplicateGroups.put(hash.toString(), members);
+            } else {
+                duplicateGroups.remove(hash.toString());
+            }
+        }
+    }
+
+    /**
+     * A change anywhere below a directory changes the digests of all its ancestors, so the
+     * directory groups are rebuilt with one linear Merkle pass and replaced as a whole
+     */
+    private void updateDirectoryDuplicates() {
+        if (scanResult.getDirectoryDuplicates() != null) {
+            scanResult.setDirectoryDuplicates(DirectoryMerkle.findDuplicates(scanResult.getFiles(), scanResult.getDirectory()));
+        }
+    }
+
+    /**
+     * Drops deleted files from their similar image groups without regrouping the rest, which
+     * would compare every image again. A group that was only joined through a deleted image
+     * stays whole until the next rescan.
+     */
+    private void removeFromSimilarImages(Set<FileInfo> deleted) {
+        Map<String, List<FileInfo>> similarImageGroups = scanResult.getSimilarImageGroups();
+        if (similarImageGroups == null) {
+            return;
+        }
+        for (Map.Entry<String, List<FileInfo>> entry : similarImageGroups.entrySet()) {
+            List<FileInfo> group = entry.getValue();
+            if (group.stream().noneMatch(deleted::contains)) {
+                continue;
+            }
+            List<FileInfo> remaining = new ArrayList<>(group.size());
+            for (FileInfo file : group) {
+                if (!deleted.contains(file)) {
+                    remaining.add(file);
+                }
+            }
+            if (remaining.size() > 1 && !SimilarImages.exactCopies(remaining)) {
+                similarImageGroups.put(entry.getKey(), remaining);
+            } else {
+                similarImageGroups.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the similar image groups from the stored hashes after a rescan, when new images
+     * may join or bridge groups; the index pass is cheap next to decoding them
+     */
+    private void updateSimilarImages() {
+        if (scanResult.getMaxImageDistance() != null) {
+            scanResult.setSimilarImageGroups(SimilarImages.findGroups(scanResult.getFiles(), scanResult.getMaxImageDistance()));
+        }
+    }
+}
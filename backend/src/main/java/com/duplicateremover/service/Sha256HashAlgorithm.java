@@ -0,0 +1,55 @@
+package com.duplicateremover.service;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * SHA-256, the original duplicate hash. Slow but collision-resistant.
+ */
+@Component
+public class Sha256HashAlgorithm implements HashAlgorithm {
+
+    public static final String NAME = "sha256";
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public boolean isCryptographic() { return true; }
+
+    @Override
+    public Hasher newHasher() {
+        return hasher(DigestUtils.getSha256Digest());
+    }
+
+    private static Hasher hasher(MessageDigest digest) {
+        return new Hasher() {
+            @Override
+            public void update(byte[] bytes, int offset, int length) {
+                digest.update(bytes, offset, length);
+            }
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+
+            @Override
+            public byte[] digest() {
+                return digest.digest();
+            }
+
+            @Override
+            public Hasher copy() {
+                try {
+                    return hasher((MessageDigest) digest.clone());
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException("SHA-256 digest cannot be copied", e);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,178 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.FileInfo;
+import com.duplicateremover.model.HashKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Groups images whose perceptual hashes lie within a Hamming distance of each other.
+ *
+ * Pairs are found with a multi-index hash: each 64-bit hash is split into bands, and each band
+ * indexes the hashes by its value. Two hashes at most maxDistance apart differ in at most
+ * maxDistance / bands bits of some band, so probing every band value within that many bits of an
+ * image's own finds all of its neighbours, exactly, while only comparing hashes that share a
+ * nearly equal band. Bands are about log2 of the number of hashes wide, which keeps buckets near
+ * one entry: four 16-bit bands up to 65536 distinct hashes, three of 21 or 22 bits beyond. Images
+ * with the same hash are indexed once.
+ *
+ * Neighbours are grouped transitively. A group is only reported when it holds images that are
+ * not byte-for-byte copies of each other; those are already exact duplicate groups.
+ */
+final class SimilarImages {
+
+    /**
+     * Largest supported distance; the probes per band grow steeply with it
+     */
+    static final int MAX_DISTANCE = 12;
+
+    private static final int NARROW_BAND_HASHES = 1 << 16;
+
+    private SimilarImages() {
+    }
+
+    /**
+     * Groups of similar images among the given files, keyed by the group's lowest perceptual hash
+     * in hex. Files without a perceptual hash are ignored.
+     */
+    static Map<String, List<FileInfo>> findGroups(Collection<FileInfo> files, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("Image distance must be between 0 and " + MAX_DISTANCE + ": " + maxDistance);
+        }
+        Map<Long, List<FileInfo>> byHash = new HashMap<>();
+        for (FileInfo file : files) {
+            if (file.hasPerceptualHash()) {
+                byHash.computeIfAbsent(file.getPerceptualHashBits(), key -> new ArrayList<>(1)).add(file);
+            }
+        }
+        long[] hashes = new long[byHash.size()];
+        int count = 0;
+        for (Long hash : byHash.keySet()) {
+            hashes[count++] = hash;
+        }
+
+        int[] parents = new int[hashes.length];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        int bands = hashes.length <= NARROW_BAND_HASHES ? 4 : 3;
+        int start = 0;
+        for (int band = 0; band < bands; band++) {
+            int width = (64 - start) / (bands - band);
+            int[][] buckets = buckets(hashes, start, width);
+            int[] probes = probes(width, maxDistance / bands);
+            for (int i = 0; i < hashes.length; i++) {
+                int value = bandValue(hashes[i], start, width);
+                for (int probe : probes) {
+                    int[] bucket = buckets[value ^ probe];
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (int j : bucket) {
+                        if (j > i && PerceptualHash.distance(hashes[i], hashes[j]) <= maxDistance) {
+                            union(parents, i, j);
+                        }
+                    }
+                }
+            }
+            start += width;
+        }
+
+        Map<Integer, List<Long>> components = new HashMap<>();
+        for (int i = 0; i < hashes.length; i++) {
+            components.computeIfAbsent(find(parents, i), key -> new ArrayList<>(1)).add(hashes[i]);
+        }
+        Map<String, List<FileInfo>> groups = new ConcurrentHashMap<>();
+        for (List<Long> component : components.values()) {
+            List<FileInfo> group = new ArrayList<>();
+            long lowest = -1L;
+            for (long hash : component) {
+                group.addAll(byHash.get(hash));
+                lowest = Long.compareUnsigned(hash, lowest) < 0 ? hash : lowest;
+            }
+            if (group.size() > 1 && !exactCopies(group)) {
+                group.sort(FileInfo.PATH_ORDER);
+                groups.put(FileInfo.formatPerceptualHash(lowest), group);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * True when every file of the group has the same content hash
+     */
+    static boolean exactCopies(List<FileInfo> group) {
+        Set<HashKey> contents = new HashSet<>();
+        for (FileInfo file : group) {
+            // A file without a content hash was proven unique by the funnel
+            if (!file.hasHash()) {
+                return false;
+            }
+            contents.add(file.getHashKey());
+        }
+        return contents.size() == 1;
+    }
+
+    /**
+     * Indexes of the hashes by their value in one band; null where no hash has that value
+     */
+    private static int[][] buckets(long[] hashes, int start, int width) {
+        int[] sizes = new int[1 << width];
+        for (long hash : hashes) {
+            sizes[bandValue(hash, start, width)]++;
+        }
+        int[][] buckets = new int[1 << width][];
+        for (int value = 0; value < buckets.length; value++) {
+            if (sizes[value] > 0) {
+                buckets[value] = new int[sizes[value]];
+                sizes[value] = 0;
+            }
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            int value = bandValue(hashes[i], start, width);
+            buckets[value][sizes[value]++] = i;
+        }
+        return buckets;
+    }
+
+    /**
+     * Every band mask with at most radius bits set; XORed with a band value they reach all values
+     * within that distance
+     */
+    private static int[] probes(int width, int radius) {
+        List<Integer> masks = new ArrayList<>();
+        for (int mask = 0; mask < 1 << width; mask++) {
+            if (Integer.bitCount(mask) <= radius) {
+                masks.add(mask);
+            }
+        }
+        return masks.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int bandValue(long hash, int start, int width) {
+        return (int) (hash >>> start) & ((1 << width) - 1);
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int i, int j) {
+        int first = find(parents, i);
+        int second = find(parents, j);
+        if (first != second) {
+            parents[Math.max(first, second)] = Math.min(first, second);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.duplicateremover.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps files to the storage device (file store) holding them and owns each device's I/O budget.
+ *
+ * A device gets a number of concurrent readers that depends on its kind: spinning disks thrash
+ * under parallel random reads, network mounts add latency per request, while NVMe needs deep
+ * queues to saturate. Every device also gets an optional bytes-per-second cap. Budgets are
+ * shared by all scans, so concurrent scans of one array stay within the cap together.
+ */
+@Service
+public class StorageDevices {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageDevices.class);
+
+    private static final Set<String> NETWORK_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smbfs", "smb2", "smb3", "afs", "9p", "ceph", "glusterfs", "lustre",
+            "davfs", "fuse.sshfs", "fuse.rclone", "fuse.s3fs", "fuse.glusterfs"));
+
+    @Value("${scan.io.workers.hdd:1}")
+    private int hddWorkers;
+
+    @Value("${scan.io.workers.ssd:4}")
+    private int ssdWorkers;
+
+    @Value("${scan.io.workers.nvme:16}")
+    private int nvmeWorkers;
+
+    @Value("${scan.io.workers.network:2}")
+    private int networkWorkers;
+
+    // 0 means "one per available processor"
+    @Value("${scan.io.workers.unknown:0}")
+    private int unknownWorkers;
+
+    // Per-device read cap shared by all scans; 0 disables throttling
+    @Value("${scan.io.max-bytes-per-second:0}")
+    private long maxBytesPerSecond;
+
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the device holding the given path; paths whose file store cannot be read count as
+     * a device of their own
+     */
+    public Device deviceOf(Path path) {
+        FileStore store;
+        try {
+            store = Files.getFileStore(path);
+        } catch (IOException | RuntimeException e) {
+            String name = path.toAbsolutePath().toString();
+            return devices.computeIfAbsent(name, key -> newDevice(key, "unknown"));
+        }
+        return devices.computeIfAbsent(store.name(), key -> newDevice(key, storageType(store)));
+    }
+
+    private Device newDevice(String name, String storageType) {
+        int workers;
+        switch (storageType) {
+            case "hdd": workers = hddWorkers; break;
+            case "ssd": workers = ssdWorkers; break;
+            case "nvme": workers = nvmeWorkers; break;
+            case "network": workers = networkWorkers; break;
+            default: workers = unknownWorkers;
+        }
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        logger.info("Storage device {} is {} with {} I/O workers{}", name, storageType, workers,
+                maxBytesPerSecond > 0 ? " capped at " + maxBytesPerSecond + " bytes/s" : "");
+        return new Device(name, storageType, workers, maxBytesPerSecond);
+    }
+
+    /**
+     * Classifies a file store as network, nvme, hdd or ssd; the last two come from the Linux
+     * rotational flag of the backing block device, anything undetectable is unknown
+     */
+    private static String storageType(FileStore store) {
+        String type = store.type() != null ? store.type().toLowerCase() : "";
+        if (NETWORK_TYPES.contains(type)) {
+            return "network";
+        }
+        String name = store.name();
+        if (name == null || !name.startsWith("/dev/")) {
+            return "unknown";
+        }
+        try {
+            // Resolves /dev/mapper/* and /dev/disk/by-* links to the kernel name, e.g. dm-0 or sda1
+            String block = Paths.get(name).toRealPath().getFileName().toString();
+            if (block.startsWith("nvme")) {
+                return "nvme";
+            }
+            Path sysfs = Paths.get("/sys/class/block", block).toRealPath();
+            Path rotational = sysfs.resolve("queue/rotational");
+            if (!Files.exists(rotational)) {
+                // Partitions carry no queue of their own; the parent disk does
+                rotational = sysfs.getParent().resolve("queue/rotational");
+            }
+            String value = new String(Files.readAllBytes(rotational), StandardCharsets.US_ASCII).trim();
+            return "1".equals(value) ? "hdd" : "ssd";
+        } catch (IOException | RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * One storage device with its reader budget and read pacing
+     */
+    public static final class Device {
+        private final String name;
+        private final String storageType;
+        private final int workers;
+        private final long maxBytesPerSecond;
+        private final Semaphore readers;
+        private long nextReadNanos;
+
+        private Device(String name, String storageType, int workers, long maxBytesPerSecond) {
+            this.name = name;
+            this.storageType = storageType;
+            this.workers = workers;
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            this.readers = new Semaphore(workers);
+        }
+
+        public String getName() { return name; }
+        public String getStorageType() { return storageType; }
+        public int getWorkers() { return workers; }
+        public long getMaxBytesPerSecond() { return maxBytesPerSecond; }
+
+        public void acquireReader() throws InterruptedException { readers.acquire(); }
+        public void releaseReader() { readers.release(); }
+
+        /**
+         * Accounts for bytes just read and sleeps as long as the cap requires; each read waits
+         * for the time booked by the reads before it. Returns the milliseconds slept.
+         */
+        public long throttle(long bytes) throws InterruptedIOException {
+            if (maxBytesPerSecond <= 0 || bytes <= 0) {
+                return 0;
+            }
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextReadNanos);
+                nextReadNanos = start + bytes * 1_000_000_000L / maxBytesPerSecond;
+                waitNanos = start - now;
+            }
+            if (waitNanos <= 0) {
+                return 0;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling reads on " + name);
+            }
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.duplicateremover.service;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Normalizes extracted text while it is written and feeds the UTF-8 result straight into a hasher.
+ *
+ * The output is byte for byte what {@code text.replaceAll("\\s+", " ").trim().toLowerCase()}
+ * produced over the whole string, without ever holding the whole text: whitespace runs collapse
+ * as they arrive, trailing characters that trim() would drop are held back until something
+ * follows them, and lower-casing runs over bounded segments.
+ *
+ * Lower-casing is per character except for the final sigma, whose form depends on the cased
+ * letters around it within its word, and a few Turkish and Lithuanian rules that look at the
+ * neighbouring letter. A segment therefore only ends where no such rule can look across:
+ * <ul>
+ *   <li>before whitespace or a control character, or after a Han ideograph, all of which
+ *       always end a word;</li>
+ *   <li>between two cased letters other than capital sigma, so a sigma on either side finds a
+ *       cased letter before reaching the cut;</li>
+ *   <li>between two uncased letters or digits (kana, Hangul, Thai, numbers) when no cased
+ *       letter has come since the last word end, so a sigma has nothing to find across the
+ *       cut.</li>
+ * </ul>
+ * Cuts only fall between characters of the Basic Multilingual Plane. A word that mixes cased
+ * letters with a long run of digits or uncased letters can therefore outgrow the segment size.
+ *
+ * A long run of whitespace and control characters is hashed ahead, all but its last character,
+ * while a copy of the hasher keeps the state from before it in case the text ends there.
+ * Not thread-safe.
+ */
+public class TextNormalizer extends Writer {
+
+    private static final int SEGMENT_CHARS = 8192;
+    private static final int PENDING_CHARS = 64 * 1024;
+    private static final char CAPITAL_SIGMA = '\u03A3';
+
+    private HashAlgorithm.Hasher hasher;
+    private final StringBuilder segment = new StringBuilder(SEGMENT_CHARS + 16);
+    // Collapsed whitespace and control characters that trim() drops unless more text follows
+    private final StringBuilder pendingLow = new StringBuilder();
+    // The hash before pending characters were hashed ahead, and the length it covers
+    private HashAlgorithm.Hasher trimmed;
+    private long trimmedLength;
+    private boolean inWhitespace;
+    private boolean started;
+    // A cased letter has come since the last whitespace or Han ideograph
+    private boolean casedSinceBreak;
+    private long length;
+
+    public TextNormalizer(HashAlgorithm.Hasher hasher) {
+        this.hasher = hasher;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            accept(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            accept(text.charAt(i));
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        accept((char) c);
+    }
+
+    private void accept(char c) {
+        if (isWhitespace(c)) {
+            // Same set as the regex \s
+            if (started && !inWhitespace) {
+                appendPending(' ');
+            }
+            inWhitespace = true;
+            casedSinceBreak = false;
+            return;
+        }
+        inWhitespace = false;
+        if (c <= ' ') {
+            // Control characters are not \s but are still removed by trim() at either end
+            if (started) {
+                appendPending(c);
+            }
+            return;
+        }
+
+        if (pendingLow.length() > 0) {
+            if (segment.length() >= SEGMENT_CHARS) {
+                flushSegment();
+            }
+            segment.append(pendingLow);
+            pendingLow.setLength(0);
+            trimmed = null;
+        } else if (segment.length() >= SEGMENT_CHARS && canCut(segment.charAt(segment.length() - 1), c)) {
+            flushSegment();
+        }
+        segment.append(c);
+        if (isHan(c)) {
+            casedSinceBreak = false;
+        } else {
+            // A supplementary letter is only known once its low surrogate arrives
+            casedSinceBreak |= isCased(Character.codePointBefore(segment, segment.length()));
+        }
+        started = true;
+    }
+
+    private void appendPending(char c) {
+        pendingLow.append(c);
+        if (pendingLow.length() < PENDING_CHARS) {
+            return;
+        }
+        // Hash all but the last pending character, which keeps the next segment from starting right after it
+        flushSegment();
+        if (trimmed == null) {
+            trimmed = hasher.copy();
+            trimmedLength = length;
+        }
+        int ahead = pendingLow.length() - 1;
+        byte[] bytes = new byte[ahead];
+        for (int i = 0; i < ahead; i++) {
+            bytes[i] = (byte) pendingLow.charAt(i);
+        }
+        hasher.update(bytes, 0, ahead);
+        length += ahead;
+        pendingLow.delete(0, ahead);
+    }
+
+    /**
+     * Hashes the remaining text, dropping trailing whitespace and control characters, and returns
+     * the hasher holding the normalized text: the one passed in, unless trailing characters had
+     * been hashed ahead and the copy from before them is used instead
+     */
+    public HashAlgorithm.Hasher finish() {
+        pendingLow.setLength(0);
+        if (trimmed != null) {
+            hasher = trimmed;
+            length = trimmedLength;
+            trimmed = null;
+        }
+        flushSegment();
+        return hasher;
+    }
+
+    /**
+     * Whether the normalized text is empty, i.e. the input was blank
+     */
+    public boolean isEmpty() {
+        return !started;
+    }
+
+    /**
+     * Number of normalized characters hashed so far
+     */
+    public long getLength() {
+        return length;
+    }
+
+    private void flushSegment() {
+        if (segment.length() == 0) {
+            return;
+        }
+        String lowerCase = segment.toString().toLowerCase();
+        byte[] bytes = lowerCase.getBytes(StandardCharsets.UTF_8);
+        hasher.update(bytes, 0, bytes.length);
+        length += lowerCase.length();
+        segment.setLength(0);
+    }
+
+    /**
+     * Whether lower-casing the text on either side of a cut between a and b gives the same
+     * result as lower-casing it whole
+     */
+    private boolean canCut(char a, char b) {
+        if (Character.isSurrogate(a) || Character.isSurrogate(b)) {
+            return false;
+        }
+        if (isHan(a)) {
+            return true;
+        }
+        if (isCased(a) && isCased(b)) {
+            return a != CAPITAL_SIGMA && b != CAPITAL_SIGMA;
+        }
+        return !casedSinceBreak && isUncasedWordCharacter(a) && isUncasedWordCharacter(b);
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Cased in the sense of the final-sigma rule: upper, lower or title case, including the
+     * letters that are lower or upper case without being Ll or Lu
+     */
+    private static boolean isCased(int codePoint) {
+        return Character.isLowerCase(codePoint) || Character.isUpperCase(codePoint) || Character.isTitleCase(codePoint);
+    }
+
+    /**
+     * A Han ideograph, which the word break rules always separate from its neighbours; not the
+     * ideographic number zero or iteration mark, which join words
+     */
+    private static boolean isHan(char c) {
+        return c >= '\u2E80' && Character.getType(c) == Character.OTHER_LETTER
+                && Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+
+    private static boolean isUncasedWordCharacter(char c) {
+        if (Character.isDigit(c)) {
+            return true;
+        }
+        return Character.getType(c) == Character.OTHER_LETTER && !isCased(c);
+    }
+
+    @Override
+    public void flush() {
+        // Segments are hashed when they fill up or on finish()
+    }
+
+    @Override
+    public void close() {
+        // The hasher is owned by the caller
+    }
+}
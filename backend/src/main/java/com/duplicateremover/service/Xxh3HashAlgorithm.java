@@ -0,0 +1,116 @@
+package com.duplicateremover.service;
+
+import net.openhft.hashing.LongTupleHashFunction;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * XXH3 128-bit, an order of magnitude faster than SHA-256 but not collision-resistant.
+ *
+ * The library only hashes whole inputs, so streams are cut into fixed 1 MB chunks: an input of
+ * at most one chunk is hashed directly, a longer one hashes the list of chunk hashes plus the
+ * total length. The result depends only on the bytes, never on how updates were split, but only
+ * inputs of up to 1 MB match the canonical XXH3-128 of the file (e.g. xxhsum -H2); larger files
+ * get a hash that only this scanner produces.
+ */
+@Component
+public class Xxh3HashAlgorithm implements HashAlgorithm {
+
+    public static final String NAME = "xxh3-128";
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final LongTupleHashFunction XXH3 = LongTupleHashFunction.xx128();
+
+    @Override
+    public String getName() { return NAME; }
+
+    @Override
+    public boolean isCryptographic() { return false; }
+
+    @Override
+    public Hasher newHasher() {
+        return new ChunkedHasher();
+    }
+
+    private static class ChunkedHasher implements Hasher {
+        private final long[] result = new long[2];
+        private byte[] pending = new byte[0];
+        private int pendingLength;
+        private long[] chunkHashes = new long[0];
+        private int chunkCount;
+        private long totalLength;
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            update(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            totalLength += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                if (pendingLength == 0 && buffer.remaining() >= CHUNK_SIZE) {
+                    // Whole chunks are hashed in place, so mapped and direct buffers are never copied
+                    XXH3.hashBytes(buffer, buffer.position(), CHUNK_SIZE, result);
+                    addChunkHash();
+                    buffer.position(buffer.position() + CHUNK_SIZE);
+                    continue;
+                }
+                int length = Math.min(buffer.remaining(), CHUNK_SIZE - pendingLength);
+                if (pending.length < pendingLength + length) {
+                    pending = Arrays.copyOf(pending, Math.min(CHUNK_SIZE, Math.max(pendingLength + length, pending.length * 2)));
+                }
+                buffer.get(pending, pendingLength, length);
+                pendingLength += length;
+                if (pendingLength == CHUNK_SIZE) {
+                    XXH3.hashBytes(pending, 0, CHUNK_SIZE, result);
+                    addChunkHash();
+                    pendingLength = 0;
+                }
+            }
+        }
+
+        @Override
+        public byte[] digest() {
+            if (chunkCount == 0) {
+                XXH3.hashBytes(pending, 0, pendingLength, result);
+            } else {
+                if (pendingLength > 0) {
+                    XXH3.hashBytes(pending, 0, pendingLength, result);
+                    addChunkHash();
+                }
+                ByteBuffer summary = ByteBuffer.allocate(chunkCount * 16 + 8);
+                for (int i = 0; i < chunkCount * 2; i++) {
+                    summary.putLong(chunkHashes[i]);
+                }
+                summary.putLong(totalLength);
+                XXH3.hashBytes(summary.array(), result);
+            }
+            // High half first, as in the canonical XXH3-128 hex form; the value itself is only
+            // canonical when there was a single chunk
+            return ByteBuffer.allocate(16).putLong(result[1]).putLong(result[0]).array();
+        }
+
+        @Override
+        public Hasher copy() {
+            ChunkedHasher copy = new ChunkedHasher();
+            copy.pending = Arrays.copyOf(pending, pendingLength);
+            copy.pendingLength = pendingLength;
+            copy.chunkHashes = Arrays.copyOf(chunkHashes, chunkCount * 2);
+            copy.chunkCount = chunkCount;
+            copy.totalLength = totalLength;
+            return copy;
+        }
+
+        private void addChunkHash() {
+            if (chunkHashes.length < (chunkCount + 1) * 2) {
+                chunkHashes = Arrays.copyOf(chunkHashes, Math.max(16, chunkHashes.length * 2));
+            }
+            chunkHashes[chunkCount * 2] = result[0];
+            chunkHashes[chunkCount * 2 + 1] = result[1];
+            chunkCount++;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.duplicateremover.service;
+
+import com.duplicateremover.model.ContainerType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tells ZIP-based files apart from their central directory.
+ *
+ * The end-of-central-directory record is found in the file's tail, and the central directory it
+ * points to is read in one go and scanned for the entries that identify each format: the parts
+ * of an Office Open XML package, an Android or Java manifest, class files. OpenDocument files are
+ * recognized from the uncompressed mimetype entry that the format puts first, which is already in
+ * the header. No entry is inflated, so a container costs two reads however large it is.
+ *
+ * Anything that cannot be read as a ZIP, or whose central directory is not where the end record
+ * says, is reported as a plain archive.
+ */
+final class ZipContainers {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_RECORD = 0x06054b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_RECORD = 0x06064b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_RECORD_SIZE = 56;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    // Central directory bytes examined at most; identifying entries sit near the start in practice
+    private static final int MAX_CENTRAL_DIRECTORY_BYTES = 1024 * 1024;
+
+    private static final String ODF_MIMETYPE_PREFIX = "application/vnd.oasis.opendocument.";
+
+    private ZipContainers() {
+    }
+
+    /**
+     * True when the header starts with a ZIP local file header
+     */
+    static boolean isZip(byte[] header, int length) {
+        return length >= 4 && header[0] == 0x50 && header[1] == 0x4B && header[2] == 0x03 && header[3] == 0x04;
+    }
+
+    /**
+     * The container type of a file whose header starts with a ZIP local file header
+     */
+    static ContainerType detect(FileProcessingContext context) {
+        ContainerType openDocument = openDocumentType(context.getHeader(), context.getHeaderLength());
+        if (openDocument != null) {
+            return openDocument;
+        }
+        try {
+            ByteBuffer directory = readCentralDirectory(context);
+            return directory != null ? classify(directory) : ContainerType.ZIP;
+        } catch (IOException e) {
+            return ContainerType.ZIP;
+        }
+    }
+
+    /**
+     * The OpenDocument type named by an uncompressed first entry called mimetype, or null
+     */
+    private static ContainerType openDocumentType(byte[] header, int length) {
+        ByteBuffer local = ByteBuffer.wrap(header, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        if (length < LOCAL_HEADER_SIZE || local.getInt(0) != LOCAL_HEADER || local.getShort(8) != 0) {
+            return null;
+        }
+        int nameLength = Short.toUnsignedInt(local.getShort(26));
+        int dataStart = LOCAL_HEADER_SIZE + nameLength + Short.toUnsignedInt(local.getShort(28));
+        long dataLength = Integer.toUnsignedLong(local.getInt(18));
+        if (dataStart + dataLength > length
+                || !"mimetype".equals(new String(header, LOCAL_HEADER_SIZE, nameLength, StandardCharsets.ISO_8859_1))) {
+            return null;
+        }
+        String mimetype = new String(header, dataStart, (int) dataLength, StandardCharsets.ISO_8859_1);
+        if (!mimetype.startsWith(ODF_MIMETYPE_PREFIX)) {
+            return null;
+        }
+        switch (mimetype.substring(ODF_MIMETYPE_PREFIX.length())) {
+            case "text":
+                return ContainerType.ODT;
+            case "spreadsheet":
+                return ContainerType.ODS;
+            case "presentation":
+                return ContainerType.ODP;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the central directory, up to the size limit, or returns null when the file has no
+     * consistent end record
+     */
+    private static ByteBuffer readCentralDirectory(FileProcessingContext context) throws IOException {
+        long[] location = locateCentralDirectory(context);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer directory = ByteBuffer.allocate((int) Math.min(location[1], MAX_CENTRAL_DIRECTORY_BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        context.readFully(directory, location[0]);
+        return directory.flip();
+    }
+
+    /**
+     * The offset and size of the central directory from the end record, ZIP64 included, or null
+     * when the file has no consistent end record
+     */
+    static long[] locateCentralDirectory(FileProcessingContext context) throws IOException {
+        long size = context.getSize();
+        if (size < END_RECORD_SIZE) {
+            return null;
+        }
+        int tailLength = (int) Math.min(size, END_RECORD_SIZE + MAX_COMMENT_SIZE);
+        long tailStart = size - tailLength;
+        ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+        context.readFully(tail, tailStart);
+
+        // The end record is the last one; the comment after it may be up to 64 KB
+        int end = tailLength - END_RECORD_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_RECORD) {
+            end--;
+        }
+        if (end < 0) {
+            return null;
+        }
+        long endPosition = tailStart + end;
+        long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+
+        if ((directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) && endPosition >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = ByteBuffer.allocate(ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            context.readFully(locator, endPosition - ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_LOCATOR) {
+                return null;
+            }
+            long zip64End = locator.getLong(8);
+            if (zip64End < 0 || zip64End > endPosition - ZIP64_END_RECORD_SIZE) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.allocate(ZIP64_END_RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            context.readFully(record, zip64End);
+            if (record.getInt(0) != ZIP64_END_RECORD) {
+                return null;
+            }
+            directorySize = record.getLong(40);
+            directoryOffset = record.getLong(48);
+            endPosition = zip64End;
+        }
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > endPosition) {
+            return null;
+        }
+        return new long[] {directoryOffset, directorySize};
+    }
+
+    /**
+     * Classifies a container by the entry names of its central directory
+     */
+    private static ContainerType classify(ByteBuffer directory) {
+        boolean javaManifest = false;
+        boolean classFiles = false;
+        boolean androidManifest = false;
+        int position = 0;
+        while (position + CENTRAL_HEADER_SIZE <= directory.limit() && directory.getInt(position) == CENTRAL_HEADER) {
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int entryLength = CENTRAL_HEADER_SIZE + nameLength
+                    + Short.toUnsignedInt(directory.getShort(position + 30))
+                    + Short.toUnsignedInt(directory.getShort(position + 32));
+            if (position + CENTRAL_HEADER_SIZE + nameLength > directory.limit()) {
+                break;
+            }
+            // Identifying names are ASCII, so the name's charset does not matter for matching
+            String name = new String(directory.array(), position + CENTRAL_HEADER_SIZE, nameLength,
+                    StandardCharsets.ISO_8859_1);
+            switch (name) {
+                case "word/document.xml":
+                    return ContainerType.DOCX;
+                case "xl/workbook.xml":
+                    return ContainerType.XLSX;
+                case "ppt/presentation.xml":
+                    return ContainerType.PPTX;
+                case "AndroidManifest.xml":
+                    androidManifest = true;
+                    break;
+                case "META-INF/MANIFEST.MF":
+                    javaManifest = true;
+                    break;
+                default:
+                    classFiles |= name.endsWith(".class");
+            }
+            position += entryLength;
+        }
+        if (androidManifest) {
+            return ContainerType.APK;
+        }
+        return javaManifest || classFiles ? ContainerType.JAR : ContainerType.ZIP;
+    }
+}
@@ -0,0 +1,97 @@
+package com.duplicateremover.model;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the heap a scan keeps per file against the figure documented on {@link FileInfo}:
+ * about 144 bytes plus the name length for a hashed file in an interned directory.
+ *
+ * The figure assumes a 64-bit HotSpot heap with compressed oops, 12-byte headers and 8-byte
+ * alignment, and a collector that honours System.gc(); the test is skipped on any other VM.
+ */
+class FileInfoFootprintTest {
+
+    private static final int FILES = 200_000;
+    private static final int DIRECTORIES = 1_000;
+    private static final int DOCUMENTED_BYTES = 144;
+
+    @Test
+    void retainedHeapPerFileMatchesDocumentedFootprint() {
+        assumeDocumentedLayout();
+        PathTrie trie = new PathTrie();
+        PathTrie.Node[] directories = new PathTrie.Node[DIRECTORIES];
+        for (int i = 0; i < DIRECTORIES; i++) {
+            directories[i] = trie.directory(Paths.get("/data/scan", "dir-" + (i / 100), "sub-" + i));
+        }
+        // Allocated up front so only the files themselves fall between the two measurements
+        FileInfo[] files = new FileInfo[FILES];
+        String sampleName = fileName(0);
+
+        long before = usedHeap();
+        // With nothing allocated in between, two readings must agree or the collector is not settling
+        assumeTrue(Math.abs(usedHeap() - before) < FILES, "Heap readings do not settle after System.gc()");
+        for (int i = 0; i < FILES; i++) {
+            FileInfo file = new FileInfo(directories[i % DIRECTORIES], fileName(i), 4096L + i, 1_600_000_000_000L + i);
+            // A SHA-256 digest, the larger of the two
+            byte[] digest = new byte[32];
+            digest[0] = (byte) i;
+            digest[1] = (byte) (i >> 8);
+            file.setHashKey(HashKey.wrap(digest));
+            file.setCategory("Documents");
+            files[i] = file;
+        }
+        long after = usedHeap();
+
+        double perFile = (double) (after - before) / FILES;
+        double documented = DOCUMENTED_BYTES + sampleName.length();
+        // Heap measurements are coarse; the bound catches a new field or a per-file copy of the path
+        assertTrue(perFile > documented * 0.5 && perFile < documented * 1.25,
+                String.format("%.1f bytes per file, documented ~%.0f", perFile, documented));
+        assertTrue(files[FILES - 1].getFilePath().endsWith(fileName(FILES - 1)));
+    }
+
+    private static String fileName(int i) {
+        return String.format("file-%06d.dat", i);
+    }
+
+    private static void assumeDocumentedLayout() {
+        HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        assumeTrue(hotSpot != null, "Not a HotSpot VM");
+        assumeTrue("true".equals(vmOption(hotSpot, "UseCompressedOops")), "Compressed oops are off");
+        assumeTrue("8".equals(vmOption(hotSpot, "ObjectAlignmentInBytes")), "Object alignment is not 8 bytes");
+        // Compact object headers (JDK 24 and later) shrink every object by 4 bytes
+        assumeTrue(!"true".equals(vmOption(hotSpot, "UseCompactObjectHeaders")), "Compact object headers are on");
+        assumeTrue(!"true".equals(vmOption(hotSpot, "DisableExplicitGC"))
+                && !"true".equals(vmOption(hotSpot, "UseEpsilonGC")), "System.gc() does not collect");
+    }
+
+    /**
+     * The flag's value, or null when this VM does not have it
+     */
+    private static String vmOption(HotSpotDiagnosticMXBean hotSpot, String name) {
+        try {
+            return hotSpot.getVMOption(name).getValue();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Settle on the lowest reading, since one System.gc() may not collect everything
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
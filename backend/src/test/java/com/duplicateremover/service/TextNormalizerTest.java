@@ -0,0 +1,185 @@
+package com.duplicateremover.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the streamed normalization with the whole-string chain it replaced:
+ * {@code text.replaceAll("\\s+", " ").trim().toLowerCase()}.
+ */
+class TextNormalizerTest {
+
+    private static final int SEGMENT_CHARS = 8192;
+
+    @Test
+    void latinText() {
+        assertNormalizes("  The Quick\tBROWN fox\r\n jumps  over\u000Bthe lazy DOG.  ");
+        assertNormalizes(repeat("Lorem Ipsum DOLOR sit Amet, ", 2000));
+        assertNormalizes(repeat("NoWhitespaceAtAll", 3000));
+    }
+
+    @Test
+    void greekFinalSigma() {
+        // Capital sigma lower-cases to final sigma at the end of a word; long sigma words are slow
+        // to lower-case even in one piece, so these only just pass the segment size
+        assertNormalizes(repeat("ΟΔΟΣ ΟΣΟΣ. ", 3000));
+        assertNormalizes(repeat("ΑΣΣΑΣ", 1700));
+        assertNormalizes(repeat("Σ", SEGMENT_CHARS + 200));
+    }
+
+    @Test
+    void cyrillicAndCjk() {
+        assertNormalizes(repeat("Привет МИР ", 4000));
+        assertNormalizes(repeat("漢字かなカナ〇々한글", 4000));
+        assertNormalizes(repeat("ภาษาไทย", 5000));
+        assertNormalizes(repeat("עברית العربية ", 3000));
+    }
+
+    @Test
+    void digitsAndCsv() {
+        assertNormalizes(repeat("1,Alpha,3.25\n2,BETA,ΣΣ\n", 3000));
+        assertNormalizes("x" + repeat("0123456789", 3000));
+        // A sigma before a long digit run still looks across the digits for a cased letter
+        assertNormalizes("aΣ" + repeat("0123456789", 850) + "b");
+        assertNormalizes("Σ" + repeat("あ", 20000) + "a");
+    }
+
+    @Test
+    void casesStraddlingSegmentEnd() {
+        for (int shift = 0; shift < 4; shift++) {
+            String head = repeat("a", SEGMENT_CHARS - shift);
+            assertNormalizes(head + "Σ b");
+            assertNormalizes(head + "ΣΣa");
+            assertNormalizes(head + "bΣ");
+            assertNormalizes(head + "12Σ");
+            assertNormalizes(head + "𝐀𝐚Σ");
+            assertNormalizes(head + "    \u0001\u0002 tail");
+            assertNormalizes(repeat("漢", SEGMENT_CHARS - shift) + "ΣΣ x");
+        }
+    }
+
+    @Test
+    void longWhitespaceAndControlRuns() {
+        String controls = repeat("\u0001 \u0002\t", 40000);
+        assertNormalizes(controls + "Text" + controls);
+        assertNormalizes("Text" + controls + "More" + controls + "End");
+        assertNormalizes(controls);
+        assertNormalizes(repeat(" ", 100000));
+        assertNormalizes("");
+    }
+
+    @Test
+    void localeSpecificRules() {
+        Locale original = Locale.getDefault();
+        try {
+            for (String tag : new String[] {"tr", "lt", "az", "el"}) {
+                Locale.setDefault(Locale.forLanguageTag(tag));
+                assertNormalizes(repeat("İI JĮ̇́ Iiı Σ", 5000));
+                assertNormalizes(repeat("IJĮ", 10000) + "̇");
+            }
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    @Test
+    void randomMixedScripts() {
+        String[] alphabet = {"a", "Z", "Σ", "σ", "Д", "漢", "あ", "〇", "1", ",",
+                " ", "\t", "\r\n", "\u0001", "𝐀", "İ", "I", "̇", "ไ", "ß", "ǅ"};
+        Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            StringBuilder text = new StringBuilder();
+            int target = 1 + random.nextInt(20000);
+            while (text.length() < target) {
+                String piece = alphabet[random.nextInt(alphabet.length)];
+                int run = 1 + random.nextInt(random.nextInt(10) == 0 ? 3000 : 20);
+                for (int j = 0; j < run; j++) {
+                    text.append(piece);
+                }
+            }
+            assertNormalizes(text.toString());
+        }
+    }
+
+    @Test
+    void hashMatchesWholeStringHash() {
+        String text = "Mixed ΣΟΣ 漢字 " + repeat("Word ", 5000) + repeat("\u0001 ", 70000);
+        String expected = text.replaceAll("\\s+", " ").trim().toLowerCase();
+        for (HashAlgorithm algorithm : new HashAlgorithm[] {new Sha256HashAlgorithm(), new Xxh3HashAlgorithm()}) {
+            TextNormalizer normalizer = new TextNormalizer(algorithm.newHasher());
+            normalizer.write(text, 0, text.length());
+            assertEquals(algorithm.hashHex(expected.getBytes(StandardCharsets.UTF_8)),
+                    normalizer.finish().digestHex(), algorithm.getName());
+        }
+    }
+
+    private static void assertNormalizes(String text) {
+        String expected = text.replaceAll("\\s+", " ").trim().toLowerCase();
+        RecordingHasher hasher = new RecordingHasher();
+        TextNormalizer normalizer = new TextNormalizer(hasher);
+        // Uneven writes through both overloads, as extractors produce them
+        Random random = new Random(text.length());
+        for (int i = 0; i < text.length(); ) {
+            int count = Math.min(text.length() - i, 1 + random.nextInt(5000));
+            if (random.nextBoolean()) {
+                normalizer.write(text, i, count);
+            } else {
+                normalizer.write(text.substring(i, i + count).toCharArray(), 0, count);
+            }
+            i += count;
+        }
+        byte[] actual = normalizer.finish().digest();
+
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), actual);
+        assertEquals(expected.isEmpty(), normalizer.isEmpty());
+        assertEquals(expected.length(), normalizer.getLength());
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Keeps the hashed bytes themselves, so a mismatch shows as a byte difference
+     */
+    private static class RecordingHasher implements HashAlgorithm.Hasher {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void update(byte[] input, int offset, int length) {
+            bytes.write(input, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            byte[] input = new byte[buffer.remaining()];
+            buffer.get(input);
+            update(input, 0, input.length);
+        }
+
+        @Override
+        public byte[] digest() {
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public HashAlgorithm.Hasher copy() {
+            RecordingHasher copy = new RecordingHasher();
+            byte[] input = bytes.toByteArray();
+            copy.update(input, 0, input.length);
+            return copy;
+        }
+    }
+}
@@ -7,12 +7,12 @@ import SettingsPanel from './components/SettingsPanel';
 import LogsPanel from './components/LogsPanel';
 import RealTimeScan from './components/RealTimeScan';
 import { scanService } from './services/api';
-import { ScanResult } from './types';
+import { ScanResult, ScanSummary } from './types';
 
 function App() {
   const [activeTab, setActiveTab] = useState('scan');
   const [currentScan, setCurrentScan] = useState<ScanResult | null>(null);
-  const [allScans, setAllScans] = useState<ScanResult[]>([]);
+  const [allScans, setAllScans] = useState<ScanSummary[]>([]);
   const [isLoading, setIsLoading] = useState(false);
   const [error, setError] = useState<string>('');
   const [activeScanId, setActiveScanId] = useState<string | null>(null);
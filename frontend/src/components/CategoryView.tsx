@@ -14,6 +14,8 @@ const CategoryView: React.FC<CategoryViewProps> = ({ scanResult }) => {
     
     // Group all files by hash across all categories to determine true duplicate status
     const filesByHash = scanResult.files.reduce<Record<string, FileInfo[]>>((acc, file) => {
+      // Files without a hash were proven unique by the size/partial-hash funnel
+      if (!file.hash) return acc;
       if (!acc[file.hash]) acc[file.hash] = [];
       acc[file.hash].push(file);
       return acc;
@@ -24,7 +26,7 @@ const CategoryView: React.FC<CategoryViewProps> = ({ scanResult }) => {
     
     Object.entries(scanResult.categorizedFiles).forEach(([category, files]) => {
       updatedCategorized[category] = files.map(file => {
-        const filesWithSameHash = filesByHash[file.hash] || [];
+        const filesWithSameHash = file.hash ? filesByHash[file.hash] || [] : [];
         if (filesWithSameHash.length <= 1) {
           // Only one file with this hash remaining, so it's unique now
           return { ...file, duplicate: false };
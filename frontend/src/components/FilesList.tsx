@@ -1,6 +1,6 @@
 import React, { useState, useEffect, useMemo } from 'react';
 import { File, Trash2, AlertTriangle, Check, Clock, HardDrive, Folder, FolderOpen } from 'lucide-react';
-import { ScanResult, FileInfo } from '../types';
+import { ScanResult, FileInfo, DirectoryGroup } from '../types';
 
 interface FilesListProps {
   scanResult: ScanResult;
@@ -22,6 +22,8 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
     
     // Group files by hash
     const filesByHash = scanResult.files.reduce<Record<string, FileInfo[]>>((acc, file) => {
+      // Files without a hash were proven unique by the size/partial-hash funnel
+      if (!file.hash) return acc;
       if (!acc[file.hash]) acc[file.hash] = [];
       acc[file.hash].push(file);
       return acc;
@@ -29,7 +31,7 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
 
     // Update duplicate status: if only one file remains with a given hash, mark it as unique
     const result = scanResult.files.map(file => {
-      const filesWithSameHash = filesByHash[file.hash] || [];
+      const filesWithSameHash = file.hash ? filesByHash[file.hash] || [] : [];
       const originalStatus = file.duplicate;
       
       let newStatus;
@@ -79,6 +81,8 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
     
     // Group files by hash using the updated files
     const filesByHash = updatedFiles.reduce<Record<string, FileInfo[]>>((acc, file) => {
+      // Files without a hash were proven unique by the size/partial-hash funnel
+      if (!file.hash) return acc;
       if (!acc[file.hash]) acc[file.hash] = [];
       acc[file.hash].push(file);
       return acc;
@@ -101,7 +105,7 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
   const [selectedFiles, setSelectedFiles] = useState<Set<string>>(new Set());
   const [selectedDirectories, setSelectedDirectories] = useState<Set<string>>(new Set());
   const [showDuplicatesOnly, setShowDuplicatesOnly] = useState(false);
-  const [activeTab, setActiveTab] = useState<'files' | 'duplicates' | 'directories'>('files');
+  const [activeTab, setActiveTab] = useState<'files' | 'duplicates' | 'directories' | 'similar'>('files');
   const [recentlyUpdatedFiles, setRecentlyUpdatedFiles] = useState<Set<string>>(new Set());
 
   const handleFileSelect = (filePath: string) => {
@@ -164,6 +168,7 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
   const currentDuplicateCount = updatedFiles.filter(file => file.duplicate).length;
   
   const directoryDuplicates = Object.values(scanResult.directoryDuplicates || {});
+  const similarImageGroups = Object.values(scanResult.similarImageGroups || {});
 
   return (
     <div className="space-y-6">
@@ -243,6 +248,18 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
             </button>
 
           )}
+          {similarImageGroups.length > 0 && (
+            <button
+              onClick={() => setActiveTab('similar')}
+              className={`px-4 py-2 rounded-lg font-medium transition-colors ${
+                activeTab === 'similar'
+                  ? 'bg-purple-100 text-purple-700'
+                  : 'bg-gray-100 text-gray-700 hover:bg-gray-200'
+              }`}
+            >
+              Similar Images ({similarImageGroups.length})
+            </button>
+          )}
         </div>
 
         {/* Action Buttons */}
@@ -298,6 +315,18 @@ const FilesList: React.FC<FilesListProps> = ({ scanResult, onDeleteFiles, isLoad
          />
        )}
 
+      {activeTab === 'similar' && (
+        <DuplicatesView
+          duplicateGroups={similarImageGroups}
+          groupLabel="Similar Images"
+          selectedFiles={selectedFiles}
+          onFileSelect={handleFileSelect}
+          formatFileSize={formatFileSize}
+          formatDate={formatDate}
+          recentlyUpdatedFiles={recentlyUpdatedFiles}
+        />
+      )}
+
       {activeTab === 'directories' && (
         <DirectoriesView 
           directoryDuplicates={directoryDuplicates}
@@ -386,6 +415,8 @@ const FilesTable: React.FC<{
                     type="checkbox"
                     checked={selectedFiles.has(file.filePath)}
                     onChange={() => onFileSelect(file.filePath)}
+                    disabled={file.archiveMember}
+                    title={file.archiveMember ? 'Files inside an archive cannot be deleted on their own' : undefined}
                     className="rounded border-gray-300 text-blue-600 focus:ring-blue-500"
                   />
                 </td>
@@ -456,12 +487,13 @@ const FilesTable: React.FC<{
 // Duplicates View Component
 const DuplicatesView: React.FC<{
   duplicateGroups: FileInfo[][];
+  groupLabel?: string;
   selectedFiles: Set<string>;
   onFileSelect: (filePath: string) => void;
   formatFileSize: (bytes: number) => string;
   formatDate: (dateString: string) => string;
   recentlyUpdatedFiles: Set<string>;
-}> = ({ duplicateGroups, selectedFiles, onFileSelect, formatFileSize, formatDate, recentlyUpdatedFiles }) => (
+}> = ({ duplicateGroups, groupLabel = 'Duplicate Group', selectedFiles, onFileSelect, formatFileSize, formatDate, recentlyUpdatedFiles }) => (
   <div className="space-y-4">
     {duplicateGroups.map((group, index) => (
       <div key={index} className="bg-white rounded-xl shadow-lg p-6">
@@ -469,7 +501,7 @@ const DuplicatesView: React.FC<{
           <div className="flex items-center space-x-3">
             <AlertTriangle className="w-6 h-6 text-amber-500" />
             <h4 className="text-lg font-bold text-gray-900">
-              Duplicate Group {index + 1} - {group.length} files
+              {groupLabel} {index + 1} - {group.length} files
             </h4>
           </div>
           <div className="flex items-center space-x-2">
@@ -494,6 +526,8 @@ const DuplicatesView: React.FC<{
                   type="checkbox"
                   checked={selectedFiles.has(file.filePath)}
                   onChange={() => onFileSelect(file.filePath)}
+                  disabled={file.archiveMember}
+                  title={file.archiveMember ? 'Files inside an archive cannot be deleted on their own' : undefined}
                   className="rounded border-gray-300 text-red-600 focus:ring-red-500"
                 />
                 <File className="w-4 h-4 text-gray-500" />
@@ -535,22 +569,18 @@ const DuplicatesView: React.FC<{
 
 // Directories View Component
 const DirectoriesView: React.FC<{
-  directoryDuplicates: FileInfo[][];
+  directoryDuplicates: DirectoryGroup[];
   selectedDirectories: Set<string>;
   onDirectorySelect: (directoryPath: string) => void;
   formatFileSize: (bytes: number) => string;
   formatDate: (dateString: string) => string;
-}> = ({ directoryDuplicates, selectedDirectories, onDirectorySelect, formatFileSize, formatDate }) => (
+}> = ({ directoryDuplicates, selectedDirectories, onDirectorySelect, formatFileSize }) => (
   <div className="space-y-4">
     {directoryDuplicates.map((group, index) => {
-      const directories = group.reduce((acc, file) => {
-        const dir = file.filePath.split(/[\\/]/).slice(0, -1).join('/');
-        if (!acc.includes(dir)) acc.push(dir);
-        return acc;
-      }, [] as string[]);
+      const directories = group.directories;
 
       return (
-        <div key={index} className="bg-white rounded-xl shadow-lg p-6">
+        <div key={group.key} className="bg-white rounded-xl shadow-lg p-6">
           <div className="flex items-center justify-between mb-4">
             <div className="flex items-center space-x-3">
               <Folder className="w-6 h-6 text-orange-500" />
@@ -575,13 +605,12 @@ const DirectoriesView: React.FC<{
                     <div>
                       <span className="text-sm font-medium text-gray-900">{directory}</span>
                       <div className="text-xs text-gray-500">
-                        {group.filter(f => f.filePath.startsWith(directory)).length} files
+                        {group.fileCount} files
                       </div>
                     </div>
                   </div>
                   <div className="text-xs text-gray-500">
-                    {formatFileSize(group.filter(f => f.filePath.startsWith(directory))
-                      .reduce((sum, f) => sum + f.size, 0))}
+                    {formatFileSize(group.bytes)}
                   </div>
                 </div>
               </div>
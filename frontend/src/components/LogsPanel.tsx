@@ -1,9 +1,9 @@
 import React, { useState } from 'react';
 import { Activity, Clock, FileText, Trash2, Search, Filter } from 'lucide-react';
-import { ScanResult } from '../types';
+import { ScanSummary } from '../types';
 
 interface LogsPanelProps {
-  scans: ScanResult[];
+  scans: ScanSummary[];
 }
 
 const LogsPanel: React.FC<LogsPanelProps> = ({ scans }) => {
@@ -42,7 +42,7 @@ const LogsPanel: React.FC<LogsPanelProps> = ({ scans }) => {
   });
 
   // Generate mock activity logs
-  const generateActivityLogs = (scan: ScanResult) => [
+  const generateActivityLogs = (scan: ScanSummary) => [
     {
       time: scan.scanTime,
       action: 'Scan started',
@@ -190,7 +190,7 @@ const LogsPanel: React.FC<LogsPanelProps> = ({ scans }) => {
                   <div className="bg-green-50 rounded-lg p-3">
                     <p className="text-xs text-green-600 font-medium">Categories</p>
                     <p className="text-lg font-bold text-green-800">
-                      {Object.keys(scan.categorizedFiles || {}).length}
+                      {Object.keys(scan.categoryCounts || {}).length}
                     </p>
                   </div>
                   <div className="bg-purple-50 rounded-lg p-3">
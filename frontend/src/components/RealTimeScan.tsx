@@ -1,6 +1,6 @@
 import React, { useState, useEffect, useRef } from 'react';
 import { Search, FileText, AlertTriangle, CheckCircle, Clock, HardDrive, Play, Pause, RotateCcw } from 'lucide-react';
-import { scanService, ScanProgress, DuplicateStream } from '../services/api';
+import { scanService, ScanProgress, DuplicateEvent } from '../services/api';
 import { FileInfo } from '../types';
 
 interface RealTimeScanProps {
@@ -14,60 +14,77 @@ const RealTimeScan: React.FC<RealTimeScanProps> = ({ scanId, onScanComplete }) =
   const [isPolling, setIsPolling] = useState(true);
   const [error, setError] = useState<string>('');
   const [isCompleted, setIsCompleted] = useState(false);
-  const progressIntervalRef = useRef<NodeJS.Timeout | null>(null);
-  const duplicateIntervalRef = useRef<NodeJS.Timeout | null>(null);
+  const eventSourceRef = useRef<EventSource | null>(null);
+  const duplicatesRef = useRef<FileInfo[]>([]);
 
   useEffect(() => {
+    duplicatesRef.current = [];
+    setDuplicates([]);
     startPolling();
     return () => stopPolling();
   }, [scanId]);
 
   const startPolling = () => {
-    // Poll progress every 1 second
-    progressIntervalRef.current = setInterval(async () => {
-      try {
-        const progressData = await scanService.getScanProgress(scanId);
-        setProgress(progressData);
-        
-        if (progressData.status === 'COMPLETED' || progressData.status === 'FAILED') {
-          stopPolling();
-          if (progressData.status === 'COMPLETED') {
-            setIsCompleted(true);
-            // Don't immediately call onScanComplete, let user see the results
-            setTimeout(() => {
-              onScanComplete(scanId);
-            }, 3000); // Give user 3 seconds to see completion
-          }
-        }
-      } catch (err) {
-        console.error('Error fetching progress:', err);
-        setError('Failed to fetch scan progress');
+    // The server pushes only what changed; since skips the duplicates we already have
+    const source = scanService.openScanEvents(scanId, duplicatesRef.current.length);
+    eventSourceRef.current = source;
+    setIsPolling(true);
+
+    source.addEventListener('progress', (event) => {
+      setProgress(JSON.parse((event as MessageEvent).data));
+    });
+
+    source.addEventListener('stage', (event) => {
+      const data = JSON.parse((event as MessageEvent).data);
+      setProgress(prev => prev ? { ...prev, status: data.status, stage: data.stage } : prev);
+    });
+
+    source.addEventListener('duplicates', (event) => {
+      const data: DuplicateEvent = JSON.parse((event as MessageEvent).data);
+      const next = [...duplicatesRef.current.slice(0, data.from), ...data.duplicates];
+      duplicatesRef.current = next;
+      setDuplicates(next);
+    });
+
+    source.addEventListener('complete', (event) => {
+      const progressData: ScanProgress = JSON.parse((event as MessageEvent).data);
+      setProgress(progressData);
+      stopPolling();
+      if (progressData.status === 'COMPLETED') {
+        setIsCompleted(true);
+        // Don't immediately call onScanComplete, let user see the results
+        setTimeout(() => {
+          onScanComplete(scanId);
+        }, 3000); // Give user 3 seconds to see completion
       }
-    }, 1000);
+    });
 
-    // Poll duplicates every 2 seconds
-    duplicateIntervalRef.current = setInterval(async () => {
-      try {
-        const duplicateData = await scanService.getDuplicateStream(scanId);
-        setDuplicates(duplicateData.duplicates);
-      } catch (err) {
-        console.error('Error fetching duplicates:', err);
+    source.onerror = () => {
+      // EventSource reconnects by itself while the connection is merely interrupted
+      if (source.readyState === EventSource.CLOSED) {
+        console.error('Scan event stream closed');
+        setError('Failed to fetch scan progress');
+        stopPolling();
       }
-    }, 2000);
+    };
   };
 
   const stopPolling = () => {
-    if (progressIntervalRef.current) {
-      clearInterval(progressIntervalRef.current);
-      progressIntervalRef.current = null;
-    }
-    if (duplicateIntervalRef.current) {
-      clearInterval(duplicateIntervalRef.current);
-      duplicateIntervalRef.current = null;
+    if (eventSourceRef.current) {
+      eventSourceRef.current.close();
+      eventSourceRef.current = null;
     }
     setIsPolling(false);
   };
 
+  const cancelScan = async () => {
+    try {
+      await scanService.cancelScan(scanId);
+    } catch (err) {
+      setError('Failed to cancel scan');
+    }
+  };
+
   const togglePolling = () => {
     if (isPolling) {
       stopPolling();
@@ -93,6 +110,10 @@ const RealTimeScan: React.FC<RealTimeScanProps> = ({ scanId, onScanComplete }) =
         return 'bg-green-100 text-green-800';
       case 'failed':
         return 'bg-red-100 text-red-800';
+      case 'cancelled':
+        return 'bg-orange-100 text-orange-800';
+      case 'queued':
+        return 'bg-yellow-100 text-yellow-800';
       case 'scanning':
         return 'bg-blue-100 text-blue-800';
       default:
@@ -138,8 +159,18 @@ const RealTimeScan: React.FC<RealTimeScanProps> = ({ scanId, onScanComplete }) =
                 {isPolling ? <Pause className="w-4 h-4" /> : <Play className="w-4 h-4" />}
               </button>
             )}
+            {(progress.status === 'QUEUED' || progress.status === 'SCANNING') && (
+              <button
+                onClick={cancelScan}
+                disabled={progress.cancelRequested}
+                className="px-3 py-2 rounded-lg text-sm font-medium bg-red-100 text-red-700 hover:bg-red-200 transition-colors disabled:opacity-50"
+              >
+                {progress.cancelRequested ? 'Cancelling...' : 'Cancel'}
+              </button>
+            )}
             <span className={`inline-flex items-center px-2.5 py-0.5 rounded-full text-xs font-medium ${getStatusColor(progress.status)}`}>
-              {progress.status}
+              {progress.status}{progress.stage && progress.status === 'SCANNING' ? ` · ${progress.stage}` : ''}
+              {progress.status === 'QUEUED' && progress.queuePosition ? ` · #${progress.queuePosition}` : ''}
             </span>
           </div>
         </div>
@@ -175,6 +206,19 @@ const RealTimeScan: React.FC<RealTimeScanProps> = ({ scanId, onScanComplete }) =
               style={{ width: `${progress.progressPercentage}%` }}
             ></div>
           </div>
+          {progress.devices && progress.devices.length > 0 && (
+            <div className="mt-2 space-y-1 text-xs text-gray-500">
+              {progress.devices.map(device => (
+                <div key={device.device} className="flex justify-between">
+                  <span>{device.device} ({device.storageType}, {device.workers} workers)</span>
+                  <span>
+                    {formatFileSize(device.bytesPerSecond)}/s
+                    {device.maxBytesPerSecond > 0 ? ` of ${formatFileSize(device.maxBytesPerSecond)}/s` : ''}
+                  </span>
+                </div>
+              ))}
+            </div>
+          )}
         </div>
 
         {/* Statistics */}
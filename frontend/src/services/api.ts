@@ -1,5 +1,5 @@
 import axios from 'axios';
-import { ScanResult, ScanResponse } from '../types';
+import { DirectoryGroup, DuplicateGroupPage, FileInfo, ResultPage, ResultQuery, ScanResult, ScanResponse, ScanSummary } from '../types';
 
 const API_BASE_URL = 'http://localhost:8080/api';
 
@@ -47,26 +47,90 @@ api.interceptors.response.use(
   }
 );
 
+export type ScanStatus = 'QUEUED' | 'SCANNING' | 'COMPLETED' | 'FAILED' | 'CANCELLED';
+
 export interface ScanProgress {
   scanId: string;
-  status: string;
-  totalFiles: number;
+  status: ScanStatus;
+  cancelRequested?: boolean;
+  queuePosition?: number; // 1 = next to start; 0 once the scan has left the queue
+  totalFiles: number; // files discovered so far; final once walkCompleted is true
+  walkCompleted: boolean;
   processedFiles: number;
   duplicateCount: number;
   progressPercentage: number;
   startTime: string;
   lastUpdate: string;
   currentDirectory: string;
+  stage?: string; // pipeline stage of a running scan: walk, metadata, partial, hash, group, confirm, results
+  devices?: DeviceStats[];
   errors: string[];
 }
 
+export interface DeviceStats {
+  device: string;
+  storageType: string; // hdd, ssd, nvme, network or unknown
+  workers: number;
+  maxBytesPerSecond: number; // 0 = no cap
+  files: number;
+  bytesRead: number;
+  throttledMillis: number;
+  bytesPerSecond: number;
+}
+
+export interface DuplicateEvent {
+  from: number; // index in the scan's duplicate list where these entries start
+  duplicates: any[];
+}
+
 export interface DuplicateStream {
   scanId: string;
   duplicates: any[];
   count: number;
+  since: number;
+  next: number; // pass as since on the next call to receive only new duplicates
   timestamp: number;
 }
 
+export type DeletionStatus = 'QUEUED' | 'RUNNING' | 'COMPLETED' | 'CANCELLED';
+
+export type DeletionOutcome = 'DELETED' | 'NOT_FOUND' | 'WRONG_TYPE' | 'ACCESS_DENIED' | 'FAILED' | 'SKIPPED';
+
+export interface DeletionJob {
+  jobId: string;
+  scanId: string;
+  type: 'files' | 'directories';
+  status: DeletionStatus;
+  cancelRequested: boolean;
+  total: number;
+  processed: number;
+  deleted: number;
+  failed: number; // not found, wrong type, access denied or other errors
+  skipped: number; // not reached before a cancel
+  progressPercentage: number;
+  submitTime: string;
+  endTime: string | null;
+}
+
+export interface DeletionReport {
+  job: DeletionJob;
+  results: { path: string; outcome: DeletionOutcome; error: string | null }[];
+}
+
+const DELETION_POLL_INTERVAL_MS = 500;
+
+// Deletions run as background jobs; poll one until it has finished or been cancelled
+async function waitForDeletion(jobId: string, onProgress?: (job: DeletionJob) => void): Promise<DeletionJob> {
+  for (;;) {
+    const job: DeletionJob = (await api.get(`/deletions/${jobId}`)).data;
+    onProgress?.(job);
+    if (job.status === 'COMPLETED' || job.status === 'CANCELLED') {
+      return job;
+    }
+    await new Promise((resolve) => setTimeout(resolve, DELETION_POLL_INTERVAL_MS));
+  }
+}
+
 export const scanService = {
   async startScan(directory: string): Promise<ScanResponse> {
     try {
@@ -88,6 +152,42 @@ export const scanService = {
     }
   },
 
+  async getFilePage(scanId: string, query: ResultQuery = {}): Promise<ResultPage<Partial<FileInfo>>> {
+    try {
+      const response = await api.get(`/scan/${scanId}/files`, { params: query });
+      return response.data;
+    } catch (error) {
+      console.error('Get file page error:', error);
+      throw error;
+    }
+  },
+
+  // Download link for a full export; the browser streams it to disk
+  getExportUrl(scanId: string, format: 'ndjson' | 'csv' = 'ndjson', gzip = false): string {
+    return `${API_BASE_URL}/scan/${scanId}/export?format=${format}&gzip=${gzip}`;
+  },
+
+  async getGroupPage(scanId: string, query: ResultQuery = {}): Promise<ResultPage<DuplicateGroupPage>> {
+    try {
+      const response = await api.get(`/scan/${scanId}/groups`, { params: { ...query, type: 'content' } });
+      return response.data;
+    } catch (error) {
+      console.error('Get group page error:', error);
+      throw error;
+    }
+  },
+
+  // category and extension filters do not apply to directory groups
+  async getDirectoryGroupPage(scanId: string, query: Omit<ResultQuery, 'category' | 'extension' | 'fields'> = {}): Promise<ResultPage<DirectoryGroup>> {
+    try {
+      const response = await api.get(`/scan/${scanId}/groups`, { params: { ...query, type: 'directory' } });
+      return response.data;
+    } catch (error) {
+      console.error('Get directory group page error:', error);
+      throw error;
+    }
+  },
+
   async getScanProgress(scanId: string): Promise<ScanProgress> {
     try {
       const response = await api.get(`/scan/${scanId}/progress`);
@@ -98,9 +198,9 @@ export const scanService = {
     }
   },
 
-  async getDuplicateStream(scanId: string): Promise<DuplicateStream> {
+  async getDuplicateStream(scanId: string, since = 0): Promise<DuplicateStream> {
     try {
-      const response = await api.get(`/scan/${scanId}/duplicates/stream`);
+      const response = await api.get(`/scan/${scanId}/duplicates/stream`, { params: { since } });
       return response.data;
     } catch (error) {
       console.error('Get duplicate stream error:', error);
@@ -108,7 +208,23 @@ export const scanService = {
     }
   },
 
-  async getAllScans(): Promise<ScanResult[]> {
+  // Server-Sent Events: "stage", "progress", "duplicates" and a final "complete"
+  openScanEvents(scanId: string, since = 0): EventSource {
+    return new EventSource(`${API_BASE_URL}/scan/${scanId}/events?since=${since}`);
+  },
+
+  // Drops a queued scan or asks a running one to stop; returns the status after the request
+  async cancelScan(scanId: string): Promise<ScanStatus> {
+    try {
+      const response = await api.delete(`/scan/${scanId}`);
+      return response.data.status;
+    } catch (error) {
+      console.error('Cancel scan error:', error);
+      throw error;
+    }
+  },
+
+  async getAllScans(): Promise<ScanSummary[]> {
     try {
       const response = await api.get('/scans');
       return response.data;
@@ -118,21 +234,16 @@ export const scanService = {
     }
   },
 
-  async deleteDuplicates(scanId: string, filePaths: string[]): Promise<boolean> {
+  // Starts a deletion job and waits for it; true when at least one file was deleted
+  async deleteDuplicates(scanId: string, filePaths: string[], onProgress?: (job: DeletionJob) => void): Promise<boolean> {
     try {
-      console.log('Sending permanent deletion request for files:', filePaths);
+      console.log('Sending permanent deletion request for files:', filePaths.length);
       const response = await api.delete(`/duplicates/${scanId}`, {
         data: { filePaths }
       });
-      console.log('Permanent deletion response:', response.data);
-      
-      // Return true if the operation was successful (even partial success)
-      if (response.data.success !== undefined) {
-        return response.data.success;
-      }
-      
-      // Fallback: check if response status is OK
-      return response.status >= 200 && response.status < 300;
+      const job = await waitForDeletion(response.data.jobId, onProgress);
+      console.log('Permanent deletion finished:', job);
+      return job.deleted > 0;
     } catch (error: any) {
       console.error('Error permanently deleting files:', error);
       if (error.response?.data?.error) {
@@ -142,19 +253,37 @@ export const scanService = {
     }
   },
 
-  async deleteDirectories(scanId: string, directoryPaths: string[]): Promise<boolean> {
+  async deleteDirectories(scanId: string, directoryPaths: string[], onProgress?: (job: DeletionJob) => void): Promise<boolean> {
     try {
       const response = await api.delete(`/directories/${scanId}`, {
         data: { directoryPaths }
       });
-      console.log('Directories permanently deleted:', response.data);
-      return response.data.success;
+      const job = await waitForDeletion(response.data.jobId, onProgress);
+      console.log('Directories permanently deleted:', job);
+      return job.deleted > 0;
     } catch (error) {
       console.error('Error permanently deleting directories:', error);
       throw new Error('Failed to permanently delete directories');
     }
   },
 
+  async getDeletionJob(jobId: string): Promise<DeletionJob> {
+    const response = await api.get(`/deletions/${jobId}`);
+    return response.data;
+  },
+
+  // Per-path outcomes; failuresOnly leaves out the paths that were deleted
+  async getDeletionReport(jobId: string, failuresOnly = false): Promise<DeletionReport> {
+    const response = await api.get(`/deletions/${jobId}/report`, { params: { failuresOnly } });
+    return response.data;
+  },
+
+  // Stops a job at its next path; returns the job as it is after the request
+  async cancelDeletion(jobId: string): Promise<DeletionJob> {
+    const response = await api.delete(`/deletions/${jobId}`);
+    return response.data;
+  },
+
   async checkHealth(): Promise<string> {
     try {
       const response = await api.get('/health');
@@ -1,13 +1,17 @@
 export interface FileInfo {
   filePath: string;
   fileName: string;
-  hash: string;
+  hash: string | null;
   size: number;
   extension: string;
   category: string;
   lastModified: string;
   duplicate: boolean;
   markedForDeletion?: boolean;
+  // Inside a ZIP, JAR or TAR archive; the path continues past the archive after "!/"
+  archiveMember?: boolean;
+  // 64-bit perceptual hash in hex, for images of scans that look for similar images
+  perceptualHash?: string | null;
 }
 
 export interface ScanResult {
@@ -16,11 +20,94 @@ export interface ScanResult {
   scanTime: string;
   files: FileInfo[];
   duplicateGroups: Record<string, FileInfo[]>;
-  directoryDuplicates?: Record<string, FileInfo[]>;
+  directoryDuplicates?: Record<string, DirectoryGroup>;
+  // Images within maxImageDistance bits of each other, keyed by the group's lowest perceptual hash
+  similarImageGroups?: Record<string, FileInfo[]>;
+  maxImageDistance?: number | null;
   categorizedFiles: Record<string, FileInfo[]>;
   totalFiles: number;
   duplicateCount: number;
+  wastedBytes?: number;
   status: string;
+  funnelStats?: FunnelStats;
+  ioStats?: IoStats;
+}
+
+// A stored scan as listed by /api/scans, without its files
+export interface ScanSummary {
+  scanId: string;
+  directory: string;
+  scanTime: string;
+  totalFiles: number;
+  duplicateCount: number;
+  status: string;
+  hashAlgorithm?: string;
+  categoryCounts: Record<string, number>;
+}
+
+// Query of GET /api/scan/{scanId}/files and /groups; sort takes a "-" prefix for descending
+export interface ResultQuery {
+  cursor?: string;
+  limit?: number;
+  sort?: string;
+  fields?: string;
+  category?: string;
+  minSize?: number;
+  extension?: string;
+  pathPrefix?: string;
+}
+
+export interface ResultPage<T> {
+  items: T[];
+  // null on the last page
+  nextCursor: string | null;
+  total: number;
+  limit: number;
+}
+
+// Directories with identical subtrees; fileCount and bytes describe one copy
+export interface DirectoryGroup {
+  key: string;
+  directories: string[];
+  fileCount: number;
+  bytes: number;
+  totalBytes: number;
+  wastedBytes: number;
+}
+
+export interface DuplicateGroupPage {
+  key: string;
+  algorithm?: string;
+  fileCount: number;
+  totalBytes: number;
+  wastedBytes: number;
+  files: Partial<FileInfo>[];
+}
+
+export interface FunnelStats {
+  cacheHits: number;
+  contentHashed: number;
+  sizeCandidates: number;
+  uniqueBySize: number;
+  partialHashed: number;
+  uniqueByPartialHash: number;
+  fullHashed: number;
+  bytesRead: number;
+  archiveMembers?: number;
+  uniqueByCrc?: number;
+  perceptualHashed?: number;
+  perceptualHashFailed?: number;
+}
+
+export interface IoStats {
+  files: number;
+  opens: number;
+  stats: number;
+  reads: number;
+  seeks: number;
+  closes: number;
+  syscalls: number;
+  syscallsPerFile: number;
 }
 
 export interface ScanResponse {